@@ -0,0 +1,223 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import revolhope.splanes.com.bitwallet.db.contracts.AccountContract;
+import revolhope.splanes.com.bitwallet.model.Account;
+import revolhope.splanes.com.bitwallet.model.AccountSummary;
+
+import static org.junit.Assert.*;
+
+/**
+ * Heap and cursor window footprint of a FOLDER_SIZE accounts folder, loaded as full Account
+ * objects (selectAccountAt) and as AccountSummary projections (selectAccountSummariesAt). Results
+ * are logged under the AccountSummaryFootprint tag.
+ *
+ * CursorWindow doesn't tell how much of its buffer is used, so the window bytes are counted the
+ * way the native window stores the rows: a 12 bytes slot per field, plus the UTF-8 bytes and
+ * terminator of strings and the bytes of blobs. The number of windows the cursor filled is
+ * counted too, a new window means the query was run again from its start.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AccountSummaryFootprintTest {
+
+    private static final String TAG = "AccountSummaryFootprint";
+    private static final String DB_NAME = "account-summary-footprint.db";
+
+    private static final int FOLDER_SIZE = 10000;
+    private static final int RUNS = 5;
+    private static final int FIELD_SLOT_BYTES = 12;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private AppDatabase database;
+    private long rootId;
+
+    @Before
+    public void setUp()
+    {
+        database = TestDatabases.open(DB_NAME);
+        rootId = TestDatabases.rootId(database);
+        TestDatabases.insertAccounts(database,
+                TestDatabases.accounts(FOLDER_SIZE, rootId, "footprint"));
+    }
+
+    @After
+    public void tearDown()
+    {
+        TestDatabases.delete(database, DB_NAME);
+    }
+
+    @Test
+    public void summaries_useLessHeapAndCursorWindow()
+    {
+        long[] accountBytes = new long[RUNS];
+        long[] summaryBytes = new long[RUNS];
+        for (int i = 0; i < RUNS; i++)
+        {
+            accountBytes[i] = retainedHeap(new Load() {
+                @Override
+                public Object[] load() {
+                    return accounts();
+                }
+            });
+            summaryBytes[i] = retainedHeap(new Load() {
+                @Override
+                public Object[] load() {
+                    return summaries();
+                }
+            });
+        }
+        Arrays.sort(accountBytes);
+        Arrays.sort(summaryBytes);
+        long accountHeap = accountBytes[RUNS / 2];
+        long summaryHeap = summaryBytes[RUNS / 2];
+        Log.i(TAG, String.format("%d accounts, heap: Account %d KB (%d B/row), " +
+                                 "AccountSummary %d KB (%d B/row), %.0f%% saved", FOLDER_SIZE,
+                accountHeap / 1024, accountHeap / FOLDER_SIZE, summaryHeap / 1024,
+                summaryHeap / FOLDER_SIZE, 100.0 * (accountHeap - summaryHeap) / accountHeap));
+
+        SQLiteDatabase db = database.getReadableDatabase();
+        WindowUsage full = windowUsage(db.query(AccountContract.TABLE, AccountContract.COLUMNS,
+                AccountContract.COLUMN_PARENT + " = ?", new String[] {Long.toString(rootId)},
+                null, null, null));
+        WindowUsage summary = windowUsage(db.query(AccountContract.TABLE,
+                AccountContract.COLUMNS_SUMMARY, AccountContract.COLUMN_PARENT + " = ?",
+                new String[] {Long.toString(rootId)}, null, null,
+                AccountContract.COLUMN_ACCOUNT));
+        Log.i(TAG, String.format("%d accounts, cursor window: Account %d KB in %d windows " +
+                                 "(%d rows in the first), AccountSummary %d KB in %d windows " +
+                                 "(%d rows in the first), %.0f%% saved", FOLDER_SIZE,
+                full.bytes / 1024, full.windows, full.firstWindowRows, summary.bytes / 1024,
+                summary.windows, summary.firstWindowRows,
+                100.0 * (full.bytes - summary.bytes) / full.bytes));
+
+        assertEquals(FOLDER_SIZE, full.rows);
+        assertEquals(FOLDER_SIZE, summary.rows);
+        assertTrue(summary.bytes < full.bytes);
+        assertTrue(summary.windows <= full.windows);
+    }
+
+    private Account[] accounts()
+    {
+        final TestDatabases.Result<Account[]> result = new TestDatabases.Result<>();
+        database.selectAccountAt(rootId, new DaoCallbacks.Select<Account>() {
+            @Override
+            public void onSelected(Account[] selection) {
+                result.set(selection);
+            }
+        });
+        Account[] accounts = result.get();
+        assertEquals(FOLDER_SIZE, accounts.length);
+        return accounts;
+    }
+
+    private AccountSummary[] summaries()
+    {
+        final TestDatabases.Result<AccountSummary[]> result = new TestDatabases.Result<>();
+        database.selectAccountSummariesAt(rootId, new DaoCallbacks.Select<AccountSummary>() {
+            @Override
+            public void onSelected(AccountSummary[] selection) {
+                result.set(selection);
+            }
+        });
+        AccountSummary[] summaries = result.get();
+        assertEquals(FOLDER_SIZE, summaries.length);
+        return summaries;
+    }
+
+    /**
+     * Method to measure the heap a load keeps, once garbage collected
+     * @param load Load to measure, its result is held until the heap is measured
+     * @return Bytes retained
+     */
+    private static long retainedHeap(Load load)
+    {
+        long before = usedHeap();
+        Object[] loaded = load.load();
+        long after = usedHeap();
+        assertNotNull(loaded);
+        return after - before;
+    }
+
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Method to read a whole cursor and count what its windows held
+     * @param c Cursor, closed when done
+     */
+    private static WindowUsage windowUsage(Cursor c)
+    {
+        WindowUsage usage = new WindowUsage();
+        try
+        {
+            int lastStart = -1;
+            while (c.moveToNext())
+            {
+                CursorWindow window = ((AbstractWindowedCursor) c).getWindow();
+                if (window.getStartPosition() != lastStart)
+                {
+                    lastStart = window.getStartPosition();
+                    if (usage.windows == 0) usage.firstWindowRows = window.getNumRows();
+                    usage.windows++;
+                }
+                usage.rows++;
+                for (int i = 0; i < c.getColumnCount(); i++)
+                {
+                    usage.bytes += FIELD_SLOT_BYTES;
+                    switch (c.getType(i))
+                    {
+                        case Cursor.FIELD_TYPE_STRING:
+                            usage.bytes += c.getString(i).getBytes(UTF_8).length + 1;
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            usage.bytes += c.getBlob(i).length;
+                            break;
+                        default:
+                            // Integers and floats live in the slot, nulls take nothing more
+                            break;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            c.close();
+        }
+        return usage;
+    }
+
+    private interface Load
+    {
+        Object[] load();
+    }
+
+    private static final class WindowUsage
+    {
+        private int rows;
+        private int windows;
+        private int firstWindowRows;
+        private long bytes;
+    }
+}
@@ -0,0 +1,87 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import revolhope.splanes.com.bitwallet.db.contracts.AccountContract;
+import revolhope.splanes.com.bitwallet.helper.AppUtils;
+import revolhope.splanes.com.bitwallet.model.Account;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rows per second of an account import, before and after batching: one auto-committed insert
+ * per row (what InsertAccAsyncTask used to do) against AppDatabase.insertAccount, which writes
+ * every row in one transaction with one compiled statement. Results are logged under the
+ * BatchInsertBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatchInsertBenchmarkTest {
+
+    private static final String TAG = "BatchInsertBenchmark";
+    private static final String DB_NAME = "batch-insert-benchmark.db";
+
+    private static final int ROWS = 2000;
+
+    private AppDatabase database;
+    private long rootId;
+
+    @Before
+    public void setUp()
+    {
+        database = TestDatabases.open(DB_NAME);
+        rootId = TestDatabases.rootId(database);
+    }
+
+    @After
+    public void tearDown()
+    {
+        TestDatabases.delete(database, DB_NAME);
+    }
+
+    @Test
+    public void insertAccount_isFasterThanOneTransactionPerRow()
+    {
+        SQLiteDatabase db = database.getWritableDatabase();
+
+        Account[] before = TestDatabases.accounts(ROWS, rootId, "before");
+        long start = System.nanoTime();
+        ContentValues values = new ContentValues();
+        for (Account acc : before)
+        {
+            values.clear();
+            values.put(AccountContract.COLUMN_UUID, AppUtils.uuidToBytes(acc.get_id()));
+            values.put(AccountContract.COLUMN_ACCOUNT, acc.getAccount());
+            values.put(AccountContract.COLUMN_USER, acc.getUser());
+            values.put(AccountContract.COLUMN_URL, acc.getUrl());
+            values.put(AccountContract.COLUMN_BRIEF, acc.getBrief());
+            values.put(AccountContract.COLUMN_DATE_CREATE, acc.getDateCreate());
+            values.put(AccountContract.COLUMN_DATE_UPDATE, acc.getDateUpdate());
+            values.put(AccountContract.COLUMN_EXPIRE, acc.isExpire() ? 1 : 0);
+            values.put(AccountContract.COLUMN_DATE_EXPIRE, acc.getDateExpire());
+            values.put(AccountContract.COLUMN_PARENT, acc.getParent());
+            assertNotEquals(-1, db.insert(AccountContract.TABLE, null, values));
+        }
+        double beforeRate = ROWS / ((System.nanoTime() - start) / 1e9);
+
+        Account[] after = TestDatabases.accounts(ROWS, rootId, "after");
+        start = System.nanoTime();
+        assertEquals(ROWS, TestDatabases.insertAccounts(database, after).length);
+        double afterRate = ROWS / ((System.nanoTime() - start) / 1e9);
+
+        Log.i(TAG, String.format("%d accounts: %.0f rows/s one per transaction, " +
+                                 "%.0f rows/s batched (x%.1f)",
+                ROWS, beforeRate, afterRate, afterRate / beforeRate));
+
+        assertEquals(2 * ROWS, DatabaseUtils.queryNumEntries(db, AccountContract.TABLE));
+        assertTrue(afterRate > beforeRate);
+    }
+}
@@ -0,0 +1,192 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import revolhope.splanes.com.bitwallet.model.Account;
+import revolhope.splanes.com.bitwallet.model.Directory;
+import revolhope.splanes.com.bitwallet.model.SubtreeStats;
+
+import static org.junit.Assert.*;
+
+/**
+ * Subtree counts, membership checks and subtree listings through the DIR_TREE closure table,
+ * on a deep tree (a chain of DEPTH folders) and a wide one (WIDTH sibling folders). Times are
+ * read from DbMetrics and logged under the DirectoryTreeBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DirectoryTreeBenchmarkTest {
+
+    private static final String TAG = "DirectoryTreeBenchmark";
+    private static final String DB_NAME = "directory-tree-benchmark.db";
+
+    private static final int DEPTH = 50;
+    private static final int WIDTH = 10000;
+    private static final int RUNS = 50;
+    private static final double MEDIAN_BUDGET_MILLIS = 20;
+
+    private AppDatabase database;
+    private long rootId;
+
+    @Before
+    public void setUp()
+    {
+        database = TestDatabases.open(DB_NAME);
+        rootId = TestDatabases.rootId(database);
+    }
+
+    @After
+    public void tearDown()
+    {
+        TestDatabases.delete(database, DB_NAME);
+    }
+
+    @Test
+    public void deepTree()
+    {
+        // One account per level
+        List<Long> chain = new ArrayList<>(DEPTH);
+        long parent = rootId;
+        for (int i = 0; i < DEPTH; i++)
+        {
+            parent = TestDatabases.insertDirectories(database,
+                    new Directory("Level " + i, parent))[0].get_id();
+            chain.add(parent);
+            TestDatabases.insertAccounts(database, TestDatabases.accounts(1, parent, "deep" + i));
+        }
+        long top = chain.get(0);
+        long bottom = chain.get(DEPTH - 1);
+
+        SubtreeStats stats = stats(top);
+        assertEquals(DEPTH - 1, stats.getDirectories());
+        assertEquals(DEPTH, stats.getAccounts());
+        assertTrue(inSubtree(top, bottom));
+        assertTrue(inSubtree(rootId, bottom));
+        assertFalse(inSubtree(bottom, top));
+        assertEquals(DEPTH, subtree(top).length);
+
+        measure("depth " + DEPTH, top, bottom);
+
+        // Moving the bottom half under the root keeps the closure table right
+        long middle = chain.get(DEPTH / 2);
+        assertEquals(DaoCallbacks.MOVE_OK, move(rootId, middle));
+        assertFalse(inSubtree(top, bottom));
+        assertTrue(inSubtree(middle, bottom));
+        assertEquals(DEPTH / 2 - 1, stats(top).getDirectories());
+        assertEquals(DEPTH - DEPTH / 2 - 1, stats(middle).getDirectories());
+        // A folder can't go below itself
+        assertEquals(DaoCallbacks.MOVE_REJECTED, move(bottom, middle));
+    }
+
+    @Test
+    public void wideTree()
+    {
+        long wide = TestDatabases.insertDirectories(database,
+                new Directory("Wide", rootId))[0].get_id();
+        Directory[] siblings = new Directory[WIDTH];
+        for (int i = 0; i < WIDTH; i++)
+        {
+            siblings[i] = new Directory("Sibling " + i, wide);
+        }
+        siblings = TestDatabases.insertDirectories(database, siblings);
+        assertEquals(WIDTH, siblings.length);
+
+        // One account per sibling
+        Account[] accounts = new Account[WIDTH];
+        for (int i = 0; i < WIDTH; i++)
+        {
+            accounts[i] = TestDatabases.accounts(1, siblings[i].get_id(), "wide" + i)[0];
+        }
+        TestDatabases.insertAccounts(database, accounts);
+
+        long last = siblings[WIDTH - 1].get_id();
+        SubtreeStats stats = stats(wide);
+        assertEquals(WIDTH, stats.getDirectories());
+        assertEquals(WIDTH, stats.getAccounts());
+        assertTrue(inSubtree(wide, last));
+        assertFalse(inSubtree(siblings[0].get_id(), last));
+        assertEquals(WIDTH + 1, subtree(wide).length);
+
+        measure("width " + WIDTH, wide, last);
+    }
+
+    /**
+     * Method to time subtree counts and membership checks, and log their percentiles
+     */
+    private void measure(String shape, long ancestor, long descendant)
+    {
+        DbMetrics.getInstance().reset();
+        for (int i = 0; i < RUNS; i++)
+        {
+            stats(ancestor);
+            inSubtree(ancestor, descendant);
+        }
+        for (String operation : new String[] {"SelectSubtreeStatsTask", "CheckInSubtreeTask"})
+        {
+            DbMetrics.OperationStats stats = DbMetrics.getInstance().getOperation(operation);
+            assertNotNull(operation, stats);
+            Log.i(TAG, String.format("%s, %s: p50 %.2f ms, p95 %.2f ms, max %.2f ms", shape,
+                    operation, stats.getLatencyPercentileMillis(50),
+                    stats.getLatencyPercentileMillis(95), stats.getMaxLatencyMillis()));
+            assertTrue(operation, stats.getLatencyPercentileMillis(50) <= MEDIAN_BUDGET_MILLIS);
+        }
+    }
+
+    private SubtreeStats stats(long id)
+    {
+        final TestDatabases.Result<SubtreeStats[]> result = new TestDatabases.Result<>();
+        database.selectSubtreeStats(id, new DaoCallbacks.Select<SubtreeStats>() {
+            @Override
+            public void onSelected(SubtreeStats[] selection) {
+                result.set(selection);
+            }
+        });
+        SubtreeStats[] stats = result.get();
+        assertEquals(1, stats.length);
+        return stats[0];
+    }
+
+    private boolean inSubtree(long ancestor, long id)
+    {
+        final TestDatabases.Result<Boolean> result = new TestDatabases.Result<>();
+        database.checkInSubtree(ancestor, id, new DaoCallbacks.Check() {
+            @Override
+            public void onChecked(boolean checked) {
+                result.set(checked);
+            }
+        });
+        return result.get();
+    }
+
+    private Directory[] subtree(long id)
+    {
+        final TestDatabases.Result<Directory[]> result = new TestDatabases.Result<>();
+        database.selectSubtree(id, new DaoCallbacks.Select<Directory>() {
+            @Override
+            public void onSelected(Directory[] selection) {
+                result.set(selection);
+            }
+        });
+        return result.get();
+    }
+
+    private int move(long parentId, long id)
+    {
+        final TestDatabases.Result<Integer> result = new TestDatabases.Result<>();
+        database.moveDirectory(new DaoCallbacks.Move() {
+            @Override
+            public void onMoved(int moveCode) {
+                result.set(moveCode);
+            }
+        }, parentId, id);
+        return result.get();
+    }
+}
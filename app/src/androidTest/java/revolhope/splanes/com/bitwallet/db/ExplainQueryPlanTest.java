@@ -0,0 +1,161 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import revolhope.splanes.com.bitwallet.db.contracts.AccountContract;
+import revolhope.splanes.com.bitwallet.db.contracts.DirectoryContract;
+import revolhope.splanes.com.bitwallet.db.contracts.KContract;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the listing and lookup reads search an index instead of
+ * scanning ACC, DIR or K, on a database migrated to the current schema
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExplainQueryPlanTest {
+
+    private static final String DB_NAME = "explain-query-plan-test.db";
+
+    /**
+     * Full table scan, "SCAN TABLE ACC" before SQLite 3.36 and "SCAN ACC" since
+     */
+    private static final Pattern TABLE_SCAN = Pattern.compile("SCAN (TABLE )?(ACC|DIR|K)$");
+
+    private AppDatabase database;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp()
+    {
+        database = TestDatabases.open(DB_NAME);
+        db = database.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown()
+    {
+        TestDatabases.delete(database, DB_NAME);
+    }
+
+    @Test
+    public void readStatements_neverScanATable()
+    {
+        for (Map.Entry<String, String> statement : AppDatabase.getReadStatements().entrySet())
+        {
+            assertNoTableScan(statement.getKey(), plan(statement.getValue()));
+        }
+    }
+
+    @Test
+    public void folderListing_usesParentIndexes()
+    {
+        List<String> plan = plan(AppDatabase.getReadStatements().get("SelectFolderTask"));
+        assertUses("IDX_DIR_PARENT", plan);
+        assertUses("IDX_ACC_PARENT", plan);
+        assertNoTableScan("SelectFolderTask", plan);
+    }
+
+    @Test
+    public void accountPages_useParentIndex()
+    {
+        for (String key : new String[] {"SelectAccSummaryPageTask.first",
+                                        "SelectAccSummaryPageTask.after",
+                                        "SelectAccSummaryPageTask.before"})
+        {
+            List<String> plan = plan(AppDatabase.getReadStatements().get(key));
+            assertUses("IDX_ACC_PARENT", plan);
+            // Sorted by the index itself
+            for (String step : plan)
+            {
+                assertFalse(key + ": " + plan, step.contains("TEMP B-TREE"));
+            }
+        }
+    }
+
+    @Test
+    public void selectAt_usesParentIndexes()
+    {
+        // Same queries SelectDirAtTask and SelectAccSummaryAtTask build through db.query
+        List<String> directories = plan(SQLiteQueryBuilder.buildQueryString(false,
+                DirectoryContract.TABLE, DirectoryContract.COLUMNS,
+                DirectoryContract.COLUMN_PARENT + " = ?", null, null, null, null));
+        assertUses("IDX_DIR_PARENT", directories);
+
+        List<String> accounts = plan(SQLiteQueryBuilder.buildQueryString(false,
+                AccountContract.TABLE, AccountContract.COLUMNS_SUMMARY,
+                AccountContract.COLUMN_PARENT + " = ?", null, null,
+                AccountContract.COLUMN_ACCOUNT, null));
+        assertUses("IDX_ACC_PARENT", accounts);
+    }
+
+    @Test
+    public void expiredAccounts_useExpireIndex()
+    {
+        // The partial index is only usable when the query repeats its EXPIRE = 1 condition
+        List<String> plan = plan("SELECT " + AccountContract.COLUMN_UUID + " FROM " +
+                AccountContract.TABLE + " WHERE " + AccountContract.COLUMN_EXPIRE + " = 1 AND " +
+                AccountContract.COLUMN_DATE_EXPIRE + " < ?");
+        assertUses("IDX_ACC_EXPIRE", plan);
+        assertNoTableScan("expired accounts", plan);
+    }
+
+    @Test
+    public void expiredKs_useDeadlineIndex()
+    {
+        List<String> plan = plan("SELECT " + KContract.COLUMN_ID + " FROM " + KContract.TABLE +
+                " WHERE " + KContract.COLUMN_DEADLINE + " < ?");
+        assertUses("IDX_K_DEADLINE", plan);
+        assertNoTableScan("expired K's", plan);
+    }
+
+    /**
+     * @param sql Statement, its parameters are left unbound
+     * @return Detail column of each step of its plan
+     */
+    private List<String> plan(String sql)
+    {
+        assertNotNull(sql);
+        List<String> steps = new ArrayList<>();
+        try (Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null))
+        {
+            int detail = c.getColumnIndexOrThrow("detail");
+            while (c.moveToNext())
+            {
+                steps.add(c.getString(detail));
+            }
+        }
+        assertFalse(sql, steps.isEmpty());
+        return steps;
+    }
+
+    private static void assertUses(String index, List<String> plan)
+    {
+        for (String step : plan)
+        {
+            if (step.contains(index)) return;
+        }
+        fail(index + " not used: " + plan);
+    }
+
+    private static void assertNoTableScan(String name, List<String> plan)
+    {
+        for (String step : plan)
+        {
+            assertFalse(name + " scans a table: " + plan, TABLE_SCAN.matcher(step).find());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import revolhope.splanes.com.bitwallet.model.Account;
+import revolhope.splanes.com.bitwallet.model.AccountSummary;
+
+import static org.junit.Assert.*;
+
+/**
+ * Latency of the ACC_FTS search on a 50k accounts vault. The time each search holds the
+ * database is read from DbMetrics, so thread hops to and from the executor are left out.
+ * Results are logged under the SearchBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SearchBenchmarkTest {
+
+    private static final String TAG = "SearchBenchmark";
+    private static final String DB_NAME = "search-benchmark.db";
+
+    private static final int ACCOUNTS = 50000;
+    private static final int LIMIT = 50;
+    private static final int RUNS = 50;
+    private static final double MEDIAN_BUDGET_MILLIS = 10;
+
+    private static AppDatabase database;
+    private static long rootId;
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        database = TestDatabases.open(DB_NAME);
+        rootId = TestDatabases.rootId(database);
+        TestDatabases.insertAccounts(database, TestDatabases.accounts(ACCOUNTS, rootId, "vault"));
+    }
+
+    @AfterClass
+    public static void tearDownClass()
+    {
+        TestDatabases.delete(database, DB_NAME);
+    }
+
+    @Test
+    public void search_matchesEveryWordAsPrefix()
+    {
+        List<AccountSummary> results = search("vault4999", null);
+
+        // vault4999 and vault49990 to vault49999
+        assertEquals(11, results.size());
+        for (AccountSummary summary : results)
+        {
+            assertTrue(summary.getAccount(), summary.getAccount().startsWith("vault4999"));
+        }
+
+        assertEquals(1, search("vault12345 user12345", null).size());
+        assertTrue(search("vault12345 user54321", null).isEmpty());
+    }
+
+    @Test
+    public void search_ranksNameHitsFirst()
+    {
+        long now = System.currentTimeMillis();
+        TestDatabases.insertAccounts(database,
+                new Account(UUID.randomUUID().toString(), "Notes", "me", null,
+                            "Old zephyrmail password", false, now, null, null, rootId),
+                new Account(UUID.randomUUID().toString(), "Zephyrmail", "me", null,
+                            "Mail", false, now, null, null, rootId));
+
+        List<AccountSummary> results = search("zephyr", null);
+
+        assertEquals(2, results.size());
+        assertEquals("Zephyrmail", results.get(0).getAccount());
+        assertEquals("Notes", results.get(1).getAccount());
+    }
+
+    @Test
+    public void search_takesAFewMilliseconds()
+    {
+        for (String query : Arrays.asList("vault", "vault4", "vault4999", "host12", "user777",
+                                          "account number 31"))
+        {
+            // Warm up, the first search pays for loading the index pages
+            search(query, null);
+            DbMetrics.getInstance().reset();
+            for (int i = 0; i < RUNS; i++)
+            {
+                search(query, i % 2 == 0 ? null : rootId);
+            }
+
+            DbMetrics.OperationStats stats = DbMetrics.getInstance().getOperation("SearchAccTask");
+            assertNotNull(stats);
+            assertEquals(RUNS, stats.getCount());
+            Log.i(TAG, String.format("'%s' on %d accounts: p50 %.2f ms, p95 %.2f ms, " +
+                                     "max %.2f ms", query, ACCOUNTS,
+                    stats.getLatencyPercentileMillis(50), stats.getLatencyPercentileMillis(95),
+                    stats.getMaxLatencyMillis()));
+            assertTrue(query, stats.getLatencyPercentileMillis(50) <= MEDIAN_BUDGET_MILLIS);
+        }
+    }
+
+    private static List<AccountSummary> search(String query, Long scopeId)
+    {
+        final TestDatabases.Result<AccountSummary[]> result = new TestDatabases.Result<>();
+        database.searchAccountSummaries(query, LIMIT, scopeId,
+                new DaoCallbacks.Select<AccountSummary>() {
+                    @Override
+                    public void onSelected(AccountSummary[] results) {
+                        result.set(results);
+                    }
+                });
+        return Arrays.asList(result.get());
+    }
+}
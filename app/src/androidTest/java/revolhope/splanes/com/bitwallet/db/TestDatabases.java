@@ -0,0 +1,155 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import androidx.annotation.NonNull;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import revolhope.splanes.com.bitwallet.db.contracts.DirectoryContract;
+import revolhope.splanes.com.bitwallet.model.Account;
+import revolhope.splanes.com.bitwallet.model.Directory;
+import revolhope.splanes.com.bitwallet.model.FolderContents;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AppDatabase instances on throwaway files for instrumented tests, and blocking versions of the
+ * asynchronous calls they need
+ */
+final class TestDatabases {
+
+    private static final long TIMEOUT_SECONDS = 120;
+
+    private TestDatabases() {}
+
+    /**
+     * Method to create an empty database, migrated to the current schema
+     * @param name File name, deleted first if it exists
+     * @return Opened database
+     */
+    @NonNull
+    static AppDatabase open(@NonNull String name)
+    {
+        context().deleteDatabase(name);
+        AppDatabase database = new AppDatabase(context(), name);
+        // Runs onCreate and the migrations right now rather than in the first task
+        database.getWritableDatabase();
+        return database;
+    }
+
+    static void delete(@NonNull AppDatabase database, @NonNull String name)
+    {
+        database.close();
+        context().deleteDatabase(name);
+    }
+
+    static long rootId(@NonNull AppDatabase database)
+    {
+        return DatabaseUtils.longForQuery(database.getWritableDatabase(),
+                DirectoryContract.STATEMENT_SELECT_ROOT_ID, null);
+    }
+
+    /**
+     * @param count Number of accounts
+     * @param parent Folder of the accounts
+     * @param prefix Start of their names, followed by their index
+     * @return New accounts, one in ten expires
+     */
+    @NonNull
+    static Account[] accounts(int count, long parent, @NonNull String prefix)
+    {
+        long now = System.currentTimeMillis();
+        Account[] accounts = new Account[count];
+        for (int i = 0; i < count; i++)
+        {
+            boolean expire = i % 10 == 0;
+            accounts[i] = new Account(UUID.randomUUID().toString(), prefix + i, "user" + i,
+                    "https://host" + i + ".example.com/login", "Account number " + i, expire,
+                    now, null, expire ? now + i * 1000L : null, parent);
+        }
+        return accounts;
+    }
+
+    @NonNull
+    static Account[] insertAccounts(@NonNull AppDatabase database, @NonNull Account... accounts)
+    {
+        final Result<Account[]> result = new Result<>();
+        database.insertAccount(new DaoCallbacks.Update<Account>() {
+            @Override
+            public void onUpdated(Account[] results) {
+                result.set(results);
+            }
+        }, accounts);
+        return result.get();
+    }
+
+    @NonNull
+    static Directory[] insertDirectories(@NonNull AppDatabase database,
+                                         @NonNull Directory... directories)
+    {
+        final Result<Directory[]> result = new Result<>();
+        database.insertDirectory(new DaoCallbacks.Update<Directory>() {
+            @Override
+            public void onUpdated(Directory[] results) {
+                result.set(results);
+            }
+        }, directories);
+        return result.get();
+    }
+
+    static FolderContents folder(@NonNull AppDatabase database, long id, int pageSize)
+    {
+        final Result<FolderContents> result = new Result<>();
+        database.selectFolderContents(id, pageSize, new DaoCallbacks.Folder() {
+            @Override
+            public void onSelected(FolderContents contents) {
+                result.set(contents);
+            }
+        });
+        return result.get();
+    }
+
+    static void await(@NonNull CountDownLatch latch)
+    {
+        try
+        {
+            assertTrue("Timed out", latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        catch (InterruptedException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    @NonNull
+    private static Context context()
+    {
+        return InstrumentationRegistry.getInstrumentation().getTargetContext();
+    }
+
+    /**
+     * Value delivered by a callback on a database thread
+     * @param <T> Value type
+     */
+    static final class Result<T>
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile T value;
+
+        void set(T value)
+        {
+            this.value = value;
+            done.countDown();
+        }
+
+        T get()
+        {
+            await(done);
+            return value;
+        }
+    }
+}
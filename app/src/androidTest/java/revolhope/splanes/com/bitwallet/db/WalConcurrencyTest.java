@@ -0,0 +1,123 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.database.DatabaseUtils;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import revolhope.splanes.com.bitwallet.model.Account;
+import revolhope.splanes.com.bitwallet.model.FolderContents;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress test of the shared WAL database: folder listings keep being served while bulk inserts
+ * run on the write lane. Read latencies are logged under the WalConcurrencyTest tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WalConcurrencyTest {
+
+    private static final String TAG = "WalConcurrencyTest";
+    private static final String DB_NAME = "wal-concurrency-test.db";
+
+    private static final int BATCHES = 20;
+    private static final int BATCH_SIZE = 1000;
+    private static final int PAGE_SIZE = 50;
+
+    private AppDatabase database;
+    private long rootId;
+
+    @Before
+    public void setUp()
+    {
+        database = TestDatabases.open(DB_NAME);
+        rootId = TestDatabases.rootId(database);
+        TestDatabases.insertAccounts(database, TestDatabases.accounts(BATCH_SIZE, rootId, "seed"));
+    }
+
+    @After
+    public void tearDown()
+    {
+        TestDatabases.delete(database, DB_NAME);
+    }
+
+    @Test
+    public void getInstance_isSharedAndUsesWal()
+    {
+        assertSame(AppDatabase.getInstance(
+                        InstrumentationRegistry.getInstrumentation().getTargetContext()),
+                   AppDatabase.getInstance(
+                        InstrumentationRegistry.getInstrumentation().getTargetContext()));
+        assertEquals("wal", DatabaseUtils.stringForQuery(database.getWritableDatabase(),
+                                                         "PRAGMA journal_mode", null));
+    }
+
+    @Test
+    public void folderListing_isServedDuringBulkInserts()
+    {
+        final CountDownLatch written = new CountDownLatch(BATCHES);
+        final AtomicInteger insertedRows = new AtomicInteger();
+        long writeStart = System.nanoTime();
+        for (int i = 0; i < BATCHES; i++)
+        {
+            database.insertAccount(new DaoCallbacks.Update<Account>() {
+                @Override
+                public void onUpdated(Account[] results) {
+                    insertedRows.addAndGet(results.length);
+                    written.countDown();
+                }
+            }, TestDatabases.accounts(BATCH_SIZE, rootId, "bulk" + i + "-"));
+        }
+
+        // Reads issued while the write lane is busy
+        List<Long> latencies = new ArrayList<>();
+        while (written.getCount() != 0)
+        {
+            long start = System.nanoTime();
+            FolderContents contents = TestDatabases.folder(database, rootId, PAGE_SIZE);
+            long latency = System.nanoTime() - start;
+            if (written.getCount() == 0) break;
+
+            assertNotNull(contents);
+            assertEquals(PAGE_SIZE, contents.getAccounts().size());
+            latencies.add(latency);
+        }
+        TestDatabases.await(written);
+        long writeNanos = System.nanoTime() - writeStart;
+
+        assertEquals(BATCHES * BATCH_SIZE, insertedRows.get());
+        assertEquals(BATCH_SIZE * (BATCHES + 1),
+                     TestDatabases.folder(database, rootId, PAGE_SIZE).getAccountCount());
+
+        Collections.sort(latencies);
+        Log.i(TAG, String.format("%d rows written in %d ms, %d reads meanwhile: " +
+                                 "p50 %.1f ms, p95 %.1f ms, max %.1f ms",
+                BATCHES * BATCH_SIZE, writeNanos / 1000000, latencies.size(),
+                percentile(latencies, 50), percentile(latencies, 95),
+                percentile(latencies, 100)));
+
+        // Readers don't wait for the writer: many listings complete while it runs, each one
+        // far faster than the whole bulk insert
+        assertTrue("No read completed during the inserts", latencies.size() > BATCHES);
+        assertTrue(percentile(latencies, 50) * 1000000 < writeNanos / BATCHES);
+    }
+
+    private static double percentile(List<Long> sorted, int percentile)
+    {
+        if (sorted.isEmpty()) return 0;
+        int index = Math.min(sorted.size() - 1,
+                             (int) Math.ceil(sorted.size() * percentile / 100.0) - 1);
+        return sorted.get(Math.max(0, index)) / 1e6;
+    }
+}
@@ -2,6 +2,7 @@ package revolhope.splanes.com.bitwallet.adapter;
 
 import android.content.Context;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -13,7 +14,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 import revolhope.splanes.com.bitwallet.R;
-import revolhope.splanes.com.bitwallet.model.Account;
+import revolhope.splanes.com.bitwallet.db.DaoCallbacks;
+import revolhope.splanes.com.bitwallet.model.AccountSummary;
 import revolhope.splanes.com.bitwallet.model.Directory;
 
 public class RecyclerContentAdapter extends RecyclerView.Adapter<RecyclerContentAdapter.Holder> {
@@ -21,11 +23,29 @@ public class RecyclerContentAdapter extends RecyclerView.Adapter<RecyclerContent
     public static final int TYPE_DIR = 352;
     private static final int TYPE_ACC = 718;
 
-    private List<Account> accounts = new ArrayList<>();;
+    /**
+     * Accounts are paged: only a window of them is kept in memory, the rest of positions are
+     * bound as placeholders until their page arrives. The window holds about one page around the
+     * visible rows plus a prefetch margin at each side.
+     */
+    private static final int PAGE_SIZE = DaoCallbacks.PAGE_SIZE_DEFAULT;
+    private static final int PREFETCH_MARGIN = PAGE_SIZE / 2;
+    private static final int MAX_WINDOW = PAGE_SIZE * 3;
+
+    private List<AccountSummary> accounts = new ArrayList<>();;
     private List<Directory> directories = new ArrayList<>();;
 
+    // Window of accounts: 'accounts' holds positions [windowStart, windowStart + accounts.size())
+    // of the 'accountCount' accounts of the folder
+    private int windowStart;
+    private int accountCount;
+    private AccountSummary pendingAfter;
+    private AccountSummary pendingBefore;
+    private int lastBound = -1;
+
     private OnAccClick onClickAcc;
     private OnDirClick onClickDir;
+    private OnPageRequest onPageRequest;
 
     private Context context;
 
@@ -36,14 +56,13 @@ public class RecyclerContentAdapter extends RecyclerView.Adapter<RecyclerContent
     @Override
     public long getItemId(int position) {
 
-        if (accounts != null && !accounts.isEmpty() &&
-                directories != null && !directories.isEmpty())
+        if (accountCount > 0 && directories != null && !directories.isEmpty())
         {
             int dirSize = directories.size();
             if (position >= dirSize)
             {
 
-                if (accounts.size() > (position - dirSize))
+                if (accountCount > (position - dirSize))
                 {
                     return position-dirSize;
                 }
@@ -89,58 +108,38 @@ public class RecyclerContentAdapter extends RecyclerView.Adapter<RecyclerContent
     @Override
     public void onBindViewHolder(@NonNull Holder holder, int position)
     {
-        if (directories != null && !directories.isEmpty() &&
-            directories.size() > position && holder instanceof HolderDir) {
+        if (directories.size() > position && holder instanceof HolderDir) {
             bindDirectory((HolderDir) holder, position);
         }
-        else if (directories != null && !directories.isEmpty() &&
-                 accounts != null && !accounts.isEmpty() &&
-                 accounts.size() > position - directories.size() &&
+        else if (accountCount > position - directories.size() &&
                  holder instanceof HolderAccount) {
-                bindAccount((HolderAccount) holder, position - directories.size());
-        }
-        else if (accounts != null && !accounts.isEmpty() &&
-                 accounts.size() > position && holder instanceof HolderAccount) {
-            bindAccount((HolderAccount) holder, position);
+            bindAccount((HolderAccount) holder, position - directories.size());
         }
     }
 
     @Override
     public int getItemCount() {
-        int count = 0;
-        if (accounts != null) {
-            count += accounts.size();
-        }
-        if (directories != null) {
-            count += directories.size();
-        }
-        return count;
+        return directories.size() + accountCount;
     }
 
     @Override
     public int getItemViewType(int position) {
 
-        if (directories.isEmpty() && accounts.isEmpty()) {
-            return super.getItemViewType(position);
-        }
-        else if (!directories.isEmpty() && directories.size() > position) {
+        if (directories.size() > position) {
             return TYPE_DIR;
         }
-        else if (directories.isEmpty() && accounts.size() > position) {
-            return TYPE_ACC;
-        }
-        else if (!directories.isEmpty() && !accounts.isEmpty() &&
-                  accounts.size() > (position - directories.size())) {
+        else if (accountCount > (position - directories.size())) {
             return TYPE_ACC;
         }
         return super.getItemViewType(position);
     }
 
-    public void setAccounts(List<Account> accounts)
+    public void setAccounts(List<AccountSummary> accounts)
     {
         try {
             this.accounts.clear();
             this.accounts.addAll(accounts);
+            resetWindow(accounts.size());
             notifyDataSetChanged();
         }
         catch (Exception e) {
@@ -160,6 +159,200 @@ public class RecyclerContentAdapter extends RecyclerView.Adapter<RecyclerContent
         }
     }
 
+    /**
+     * Replaces the whole content (a folder snapshot) dispatching a single diff. Only the first
+     * page of accounts is given, the rest are requested through OnPageRequest while scrolling.
+     * @param directories New directories
+     * @param accounts First page of accounts
+     * @param accountCount Number of accounts in the folder
+     */
+    public void setContents(final List<Directory> directories, final List<AccountSummary> accounts,
+                            final int accountCount)
+    {
+        if (accountCount > MAX_WINDOW || this.accountCount > MAX_WINDOW) {
+            // Diffing thousands of placeholders costs more than rebinding the visible rows
+            this.directories.clear();
+            this.directories.addAll(directories);
+            this.accounts.clear();
+            this.accounts.addAll(accounts);
+            resetWindow(accountCount);
+            notifyDataSetChanged();
+            return;
+        }
+
+        final List<Directory> oldDirectories = new ArrayList<>(this.directories);
+        final List<AccountSummary> oldAccounts = new ArrayList<>(this.accounts);
+        final int oldWindowStart = this.windowStart;
+        final int oldAccountCount = this.accountCount;
+
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldDirectories.size() + oldAccountCount;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return directories.size() + accountCount;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                Object o = item(oldDirectories, oldAccounts, oldWindowStart, oldPosition);
+                Object n = item(directories, accounts, 0, newPosition);
+                if (o instanceof Directory && n instanceof Directory) {
+                    return ((Directory) o).get_id().equals(((Directory) n).get_id());
+                }
+                else if (o instanceof AccountSummary && n instanceof AccountSummary) {
+                    return ((AccountSummary) o).get_id().equals(((AccountSummary) n).get_id());
+                }
+                // Two placeholders (accounts out of both windows) at the same account index
+                return o == null && n == null && oldPosition >= oldDirectories.size() &&
+                       newPosition >= directories.size() &&
+                       oldPosition - oldDirectories.size() == newPosition - directories.size();
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                Object o = item(oldDirectories, oldAccounts, oldWindowStart, oldPosition);
+                Object n = item(directories, accounts, 0, newPosition);
+                if (o instanceof Directory) {
+                    return ((Directory) o).getName().equals(((Directory) n).getName());
+                }
+                else if (o instanceof AccountSummary) {
+                    return ((AccountSummary) o).getAccount().equals(((AccountSummary) n).getAccount());
+                }
+                return false;
+            }
+        });
+
+        this.directories.clear();
+        this.directories.addAll(directories);
+        this.accounts.clear();
+        this.accounts.addAll(accounts);
+        resetWindow(accountCount);
+        diff.dispatchUpdatesTo(this);
+    }
+
+    /**
+     * Method to add a page of accounts after the window. It's ignored if the window has changed
+     * since the page was requested.
+     * @param anchor Account the page was requested after, as given to OnPageRequest
+     * @param page Accounts following anchor
+     * @param hasMore False if there are no more accounts after the page
+     */
+    public void addPageAfter(AccountSummary anchor, List<AccountSummary> page, boolean hasMore)
+    {
+        if (anchor == null || anchor != pendingAfter) return;
+        pendingAfter = null;
+
+        int dirSize = directories.size();
+        int from = windowStart + accounts.size();
+        accounts.addAll(page);
+        notifyItemRangeChanged(dirSize + from, Math.min(page.size(), accountCount - from));
+
+        int end = windowStart + accounts.size();
+        if (end > accountCount || (!hasMore && end < accountCount)) {
+            // Accounts added or removed since the folder was loaded, fix the count
+            if (end < accountCount) notifyItemRangeRemoved(dirSize + end, accountCount - end);
+            else notifyItemRangeInserted(dirSize + accountCount, end - accountCount);
+            accountCount = end;
+        }
+
+        int trim = accounts.size() - MAX_WINDOW;
+        if (trim > 0) {
+            accounts.subList(0, trim).clear();
+            windowStart += trim;
+            pendingBefore = null;
+            notifyItemRangeChanged(dirSize + windowStart - trim, trim);
+        }
+        prefetch(lastBound);
+    }
+
+    /**
+     * Method to add a page of accounts before the window. It's ignored if the window has changed
+     * since the page was requested.
+     * @param anchor Account the page was requested before, as given to OnPageRequest
+     * @param page Accounts preceding anchor
+     * @param hasMore False if there are no more accounts before the page
+     */
+    public void addPageBefore(AccountSummary anchor, List<AccountSummary> page, boolean hasMore)
+    {
+        if (anchor == null || anchor != pendingBefore) return;
+        pendingBefore = null;
+
+        int dirSize = directories.size();
+        int added = Math.min(page.size(), windowStart);
+        accounts.addAll(0, page.subList(page.size() - added, page.size()));
+        windowStart -= added;
+        notifyItemRangeChanged(dirSize + windowStart, added);
+
+        if (!hasMore && windowStart > 0) {
+            // Accounts removed since the folder was loaded, the window is the head of the list
+            notifyItemRangeRemoved(dirSize, windowStart);
+            accountCount -= windowStart;
+            lastBound = Math.max(-1, lastBound - windowStart);
+            windowStart = 0;
+        }
+
+        int trim = accounts.size() - MAX_WINDOW;
+        if (trim > 0) {
+            accounts.subList(accounts.size() - trim, accounts.size()).clear();
+            pendingAfter = null;
+            notifyItemRangeChanged(dirSize + windowStart + accounts.size(), trim);
+        }
+        prefetch(lastBound);
+    }
+
+    private void resetWindow(int accountCount)
+    {
+        this.windowStart = 0;
+        this.accountCount = Math.max(accountCount, accounts.size());
+        this.pendingAfter = null;
+        this.pendingBefore = null;
+        this.lastBound = -1;
+    }
+
+    /**
+     * Method to request the page next to the window if the account at index is out of it or
+     * close to one of its edges. After a fling far from the window, pages keep being requested
+     * one after another (see addPageAfter / addPageBefore) until the window reaches the index.
+     * @param index Account index, in [0, accountCount)
+     */
+    private void prefetch(int index)
+    {
+        if (index < 0 || onPageRequest == null || accounts.isEmpty()) return;
+
+        int windowEnd = windowStart + accounts.size();
+        if (index >= windowEnd - PREFETCH_MARGIN && windowEnd < accountCount &&
+                pendingAfter == null) {
+            pendingAfter = accounts.get(accounts.size() - 1);
+            onPageRequest.requestAfter(pendingAfter, PAGE_SIZE);
+        }
+        if (index < windowStart + PREFETCH_MARGIN && windowStart > 0 && pendingBefore == null) {
+            pendingBefore = accounts.get(0);
+            onPageRequest.requestBefore(pendingBefore, PAGE_SIZE);
+        }
+    }
+
+    /**
+     * @param index Account index, in [0, accountCount)
+     * @return Account at index, or null if it's out of the window
+     */
+    private AccountSummary account(int index)
+    {
+        int i = index - windowStart;
+        return i >= 0 && i < accounts.size() ? accounts.get(i) : null;
+    }
+
+    private static Object item(List<Directory> directories, List<AccountSummary> accounts,
+                               int windowStart, int position)
+    {
+        if (position < directories.size()) return directories.get(position);
+        int i = position - directories.size() - windowStart;
+        return i >= 0 && i < accounts.size() ? accounts.get(i) : null;
+    }
+
     public void addDirectories(List<Directory> directories)
     {
         try {
@@ -173,10 +366,12 @@ public class RecyclerContentAdapter extends RecyclerView.Adapter<RecyclerContent
         }
     }
 
-    private void bindAccount(@NonNull HolderAccount holder, int position) {
+    private void bindAccount(@NonNull HolderAccount holder, int index) {
 
-        Account account = accounts.get(position);
-        holder.textView_Name.setText(account.getAccount());
+        AccountSummary account = account(index);
+        holder.textView_Name.setText(account != null ? account.getAccount() : "");
+        lastBound = index;
+        prefetch(index);
         /*holder.textView_Create.setText(String.format("Created on: %s",
                 AppUtils.format("dd/MM/yyyy",account.getDateCreate())));
         if (account.getDateUpdate() != null && account.getDateUpdate() != 0)
@@ -202,6 +397,9 @@ public class RecyclerContentAdapter extends RecyclerView.Adapter<RecyclerContent
     public void setOnClickDir(OnDirClick onClickDir) {
         this.onClickDir = onClickDir;
     }
+    public void setOnPageRequest(OnPageRequest onPageRequest) {
+        this.onPageRequest = onPageRequest;
+    }
 
 // ============================================================================================== //
 //                                          INNER CLASSES                                         //
@@ -225,10 +423,10 @@ public class RecyclerContentAdapter extends RecyclerView.Adapter<RecyclerContent
                 @Override
                 public void onClick(View view) {
 
-                    int pos = directories == null || directories.isEmpty() ?
-                              getAdapterPosition() : getAdapterPosition() - directories.size();
-                    if (pos >= 0 && accounts != null && accounts.size() > pos) {
-                        onClickAcc.onClick(accounts.get(pos));
+                    AccountSummary account =
+                            account(getAdapterPosition() - directories.size());
+                    if (account != null) {
+                        onClickAcc.onClick(account);
                     }
                     else {
                         Toast.makeText(context, "Error to get the account clicked...",
@@ -240,10 +438,10 @@ public class RecyclerContentAdapter extends RecyclerView.Adapter<RecyclerContent
             view.setOnLongClickListener(new View.OnLongClickListener() {
                 @Override
                 public boolean onLongClick(View view) {
-                    int pos = directories == null || directories.isEmpty() ?
-                            getAdapterPosition() : getAdapterPosition() - directories.size();
-                    if (pos >= 0 && accounts != null && accounts.size() > pos) {
-                        onClickAcc.onLongClick(accounts.get(pos));
+                    AccountSummary account =
+                            account(getAdapterPosition() - directories.size());
+                    if (account != null) {
+                        onClickAcc.onLongClick(account);
                     }
                     else {
                         Toast.makeText(context, "Error to get the account clicked...",
@@ -300,12 +498,21 @@ public class RecyclerContentAdapter extends RecyclerView.Adapter<RecyclerContent
 // ============================================================================================== //
 
     public interface OnAccClick {
-        void onClick(Account account);
-        void onLongClick(Account account);
+        void onClick(AccountSummary account);
+        void onLongClick(AccountSummary account);
     }
 
     public interface OnDirClick {
         void onClick(Directory directory);
         void onLongClick(Directory directory);
     }
+
+    /**
+     * Asked for the accounts next to the window. Answers must be given back on the UI thread
+     * through addPageAfter / addPageBefore with the same anchor.
+     */
+    public interface OnPageRequest {
+        void requestAfter(AccountSummary last, int pageSize);
+        void requestBefore(AccountSummary first, int pageSize);
+    }
 }
@@ -19,6 +19,13 @@ import revolhope.splanes.com.bitwallet.model.K;
 
 public final class Cryptography {
 
+    /**
+     * Suffix of the second alias of an account. Keystore keys can't be renamed, so an expired K
+     * is encrypted with a new key under the other alias and the old key is deleted only once the
+     * new K is committed (see rotationAlias and aliasOf)
+     */
+    private static final String ROTATION_SUFFIX = ".rotated";
+
     private KeyStore ks;
     private Cipher c;
 
@@ -60,10 +67,9 @@ public final class Cryptography {
             byte[] bytes = c.doFinal(data);
             GCMParameterSpec spec = c.getParameters().getParameterSpec(GCMParameterSpec.class);
 
-            String pwd64 = AppUtils.toStringBase64(bytes);
             K _k = new K();
             _k.setAccId(alias);
-            _k.setPwdBase64(pwd64);
+            _k.setPwd(bytes);
             _k.setSpec(spec);
 
             return _k;
@@ -108,6 +114,34 @@ public final class Cryptography {
         return ks.containsAlias(alias);
     }
 
+    /**
+     * Method to get the alias the next key of an account goes under
+     * @param alias Alias of the current key
+     * @return The other alias of the account
+     */
+    @NonNull
+    public static String rotationAlias(@NonNull String alias) {
+        return alias.endsWith(ROTATION_SUFFIX) ?
+                alias.substring(0, alias.length() - ROTATION_SUFFIX.length()) :
+                alias + ROTATION_SUFFIX;
+    }
+
+    /**
+     * Method to find the alias of the key a K was encrypted with. Both aliases of the account
+     * exist while a rotation is not finished, or if the app died in between: the key GCM
+     * authenticates the K with is the one in use.
+     * @param _k K of the account
+     * @param accId Account identifier
+     * @return Alias of the key of the K
+     */
+    @NonNull
+    public String aliasOf(@NonNull K _k, @NonNull String accId) throws Exception {
+        String rotated = rotationAlias(accId);
+        if (!existsAlias(rotated)) return accId;
+        if (!existsAlias(accId)) return rotated;
+        return decrypt(_k.getPwd(), _k, accId) != null ? accId : rotated;
+    }
+
     private void init() throws Exception {
         ks = KeyStore.getInstance("AndroidKeyStore");
         ks.load(null);
@@ -1,46 +1,345 @@
 package revolhope.splanes.com.bitwallet.db;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.os.AsyncTask;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
-import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-
-import javax.crypto.spec.GCMParameterSpec;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import revolhope.splanes.com.bitwallet.db.contracts.AccountContract;
+import revolhope.splanes.com.bitwallet.db.contracts.AccountSearchContract;
 import revolhope.splanes.com.bitwallet.db.contracts.DirectoryContract;
+import revolhope.splanes.com.bitwallet.db.contracts.DirectoryTreeContract;
 import revolhope.splanes.com.bitwallet.db.contracts.KContract;
 import revolhope.splanes.com.bitwallet.helper.AppUtils;
 import revolhope.splanes.com.bitwallet.model.Account;
+import revolhope.splanes.com.bitwallet.model.AccountSummary;
+import revolhope.splanes.com.bitwallet.model.AccountWithK;
 import revolhope.splanes.com.bitwallet.model.Directory;
+import revolhope.splanes.com.bitwallet.model.FolderContents;
 import revolhope.splanes.com.bitwallet.model.K;
+import revolhope.splanes.com.bitwallet.model.MaintenanceReport;
+import revolhope.splanes.com.bitwallet.model.SubtreeStats;
 
 public class AppDatabase extends SQLiteOpenHelper {
 
 
     private static final String DB_NAME = "BitWallet-db";
-    private static int DB_VERSION = 1;
+    private static final int DB_VERSION = 1;
+
+    /**
+     * Max number of keys bound to one statement on batch operations, SQLite caps the number of
+     * arguments of a statement
+     */
+    static final int BATCH_CHUNK_SIZE = 500;
+
+    /**
+     * Max number of rows returned by a single page of a paged select
+     */
+    static final int PAGE_SIZE_MAX = 1000;
+
+    private static final int ACCOUNT_CACHE_SIZE = 256;
+    private static final int K_CACHE_SIZE = 32;
+    /**
+     * K's hold ciphertext and GCM parameters, they're only kept for a short while
+     */
+    private static final long K_CACHE_TTL_MILLIS = 30 * 1000;
+
+    private static AppDatabase instance;
+    private SQLiteDatabase database;
+    private final DbExecutor executor;
+    private final EntityCache<String, Account> accountCache;
+    private final EntityCache<String, K> kCache;
+    private final InvalidationTracker invalidationTracker;
+    private final InFlightReads inFlightReads;
+    private final DbMetrics metrics;
+    private final List<DaoCallbacks.Writes<String, Account>> accountWriteListeners =
+            new CopyOnWriteArrayList<>();
+    // Identifier of the Root directory, resolved by onOpen. It never changes afterwards
+    private volatile long rootId;
 
     private AppDatabase(@NonNull Context context)
     {
-        super(context, DB_NAME, null, DB_VERSION);
+        this(context, DB_NAME);
+    }
+
+    /**
+     * Instance on another file, so tests never touch the vault. Only getInstance must be used
+     * by the app
+     * @param context Application context
+     * @param name Database file name
+     */
+    @VisibleForTesting
+    AppDatabase(@NonNull Context context, @NonNull String name)
+    {
+        super(context, name, null, DB_VERSION);
+        // WAL lets the framework keep a small pool of read-only connections next to the
+        // single writer, so folder listings are not blocked by inserts or updates
+        setWriteAheadLoggingEnabled(true);
+        executor = DbExecutor.getInstance();
+        accountCache = new EntityCache<>(ACCOUNT_CACHE_SIZE, 0);
+        kCache = new EntityCache<>(K_CACHE_SIZE, K_CACHE_TTL_MILLIS);
+        kCache.setSweeper(new EntityCache.Sweeper() {
+            // Created by the first sweep, like the handler of InvalidationTracker
+            private Handler handler;
+
+            @Override
+            public void schedule(@NonNull Runnable sweep, long delayMillis) {
+                if (handler == null) handler = new Handler(Looper.getMainLooper());
+                handler.postDelayed(sweep, delayMillis);
+            }
+        });
+        invalidationTracker = new InvalidationTracker();
+        inFlightReads = new InFlightReads(invalidationTracker);
+        metrics = DbMetrics.getInstance();
     }
 
+    /**
+     * Method to retrieve the process-wide database instance. All DAOs share the same helper and
+     * therefore the same connection pool.
+     * @param context Any context, only its application context is retained
+     * @return Shared AppDatabase instance
+     */
     @NotNull
-    @Contract("_ -> new")
-    static AppDatabase getInstance(Context context) {
-        return new AppDatabase(context);
+    static synchronized AppDatabase getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new AppDatabase(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Method to retrieve the opened database handle. It's opened once and kept open for the
+     * whole process lifetime.
+     * @return Writable (WAL) database handle
+     */
+    private synchronized SQLiteDatabase getDatabase() {
+        if (database == null || !database.isOpen()) {
+            database = getWritableDatabase();
+        }
+        return database;
+    }
+
+    /**
+     * @return Accounts by id, shared by every DAO since deletes cascade between tables
+     */
+    @NonNull
+    EntityCache<String, Account> getAccountCache()
+    {
+        return accountCache;
+    }
+
+    /**
+     * @return K's by account id, shared by every DAO since deletes cascade between tables
+     */
+    @NonNull
+    EntityCache<String, K> getKCache()
+    {
+        return kCache;
+    }
+
+    /**
+     * @return Tracker every write task publishes its committed changes to
+     */
+    @NonNull
+    InvalidationTracker getInvalidationTracker()
+    {
+        return invalidationTracker;
+    }
+
+    /**
+     * @return Merger of identical reads running at the same time, shared by every DAO
+     */
+    @NonNull
+    InFlightReads getInFlightReads()
+    {
+        return inFlightReads;
+    }
+
+    /**
+     * @return Listeners of account writes, see DaoAccount.addWriteListener
+     */
+    @NonNull
+    List<DaoCallbacks.Writes<String, Account>> getAccountWriteListeners()
+    {
+        return accountWriteListeners;
+    }
+
+    /**
+     * @return SQL of the listing and lookup reads by task name, so tests can check their query
+     *         plans
+     */
+    @VisibleForTesting
+    @NonNull
+    static Map<String, String> getReadStatements()
+    {
+        Map<String, String> statements = new LinkedHashMap<>();
+        statements.put("SelectFolderTask", SelectFolderTask.SQL);
+        statements.put("SelectAccSummaryPageTask.first", SelectAccSummaryPageTask.SQL_FIRST);
+        statements.put("SelectAccSummaryPageTask.after", SelectAccSummaryPageTask.SQL_AFTER);
+        statements.put("SelectAccSummaryPageTask.before", SelectAccSummaryPageTask.SQL_BEFORE);
+        statements.put("SelectAccTask", SelectAccTask.SQL_BY_ID);
+        statements.put("SelectAccWithKTask", SelectAccWithKTask.SQL);
+        statements.put("SelectKTask", SelectKTask.SQL_BY_ACC);
+        return statements;
+    }
+
+    /**
+     * Method to run a task on one of the executor lanes. The database handle is resolved on the
+     * worker thread, so opening (and upgrading) the database never happens on the caller thread.
+     * Its queue wait, latency, rows and failure are recorded in DbMetrics.
+     * @param lane One of DbExecutor lanes
+     * @param task Task to be executed
+     */
+    private void execute(final int lane, @NonNull final DbTask task)
+    {
+        task.tracker = invalidationTracker;
+        final long queued = System.nanoTime();
+        executor.execute(lane, new Runnable() {
+            @Override
+            public void run() {
+                Execution execution = new Execution(System.nanoTime());
+                task.execution = execution;
+                try
+                {
+                    SQLiteDatabase db = getDatabase();
+                    task.rootId = rootId;
+                    task.run(db);
+                }
+                catch (RuntimeException e)
+                {
+                    if (execution.error == null) execution.error = e;
+                    throw e;
+                }
+                finally
+                {
+                    metrics.record(task.getClass().getSimpleName(), lane,
+                                   execution.started - queued, execution.latency(),
+                                   execution.rows, execution.error);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param hint Page size asked by the caller
+     * @return Page size actually used, in [1, PAGE_SIZE_MAX]
+     */
+    private static int pageSize(int hint)
+    {
+        return Math.max(1, Math.min(hint, PAGE_SIZE_MAX));
+    }
+
+    /**
+     * Base class of every database operation, executed on a DbExecutor lane
+     */
+    private abstract static class DbTask
+    {
+        private InvalidationTracker tracker;
+        /**
+         * Identifier of the Root directory, so root listings are plain PARENT = ? lookups
+         */
+        long rootId;
+        /**
+         * Measure of the running execution, a StreamTask runs once per chunk
+         */
+        private Execution execution;
+
+        abstract void run(@NonNull SQLiteDatabase db);
+
+        /**
+         * Method to tell the rows read or written, called right before the callback so the time
+         * spent in it is not counted as database time (see DbMetrics)
+         * @param count Rows read or written
+         */
+        void rows(int count)
+        {
+            if (execution != null && execution.finished == 0)
+            {
+                execution.finished = System.nanoTime();
+                execution.rows = count;
+            }
+        }
+
+        /**
+         * Method to report a failure the task recovers from, it's recorded as a failed execution
+         * @param e Exception caught
+         */
+        void failed(@NonNull Exception e)
+        {
+            if (execution != null) execution.error = e;
+        }
+
+        /**
+         * Method to publish a committed write, see InvalidationTracker
+         * @param table Table written
+         * @param parentIds Parent folders of the rows written, null if unknown
+         */
+        void notifyChanged(@NonNull String table, @Nullable Collection<Long> parentIds)
+        {
+            if (tracker != null) tracker.notifyChanged(table, parentIds);
+        }
+    }
+
+    /**
+     * Timing of one execution of a DbTask
+     */
+    private static final class Execution
+    {
+        private final long started;
+        private long finished;
+        private int rows = -1;
+        private Exception error;
+
+        private Execution(long started)
+        {
+            this.started = started;
+        }
+
+        /**
+         * @return Time from start to the result, or to now if the task didn't tell (see rows)
+         */
+        private long latency()
+        {
+            return (finished != 0 ? finished : System.nanoTime()) - started;
+        }
     }
 
 // ===============================================================================================//
@@ -50,6 +349,7 @@ public class AppDatabase extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase)
     {
+        // Base schema (MigrationContract.BASE_VERSION), later steps are applied by onOpen
         sqLiteDatabase.execSQL(DirectoryContract.STATEMENT_CREATE);
         sqLiteDatabase.execSQL(DirectoryContract.STATEMENT_INSERT_ROOT);
         sqLiteDatabase.execSQL(AccountContract.STATEMENT_CREATE);
@@ -59,12 +359,15 @@ public class AppDatabase extends SQLiteOpenHelper {
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int currentVersion, int newVersion)
     {
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DirectoryContract.TABLE);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + AccountContract.TABLE);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + KContract.TABLE);
+        // Helper version is frozen, the schema evolves through the Migration steps declared on
+        // the contracts, applied by Migrator on open (see onOpen)
+    }
 
-        DB_VERSION = newVersion;
-        onCreate(sqLiteDatabase);
+    @Override
+    public void onOpen(SQLiteDatabase db)
+    {
+        new Migrator(db).migrate();
+        rootId = DatabaseUtils.longForQuery(db, DirectoryContract.STATEMENT_SELECT_ROOT_ID, null);
     }
 
     @Override
@@ -87,7 +390,7 @@ public class AppDatabase extends SQLiteOpenHelper {
      */
     void selectDirectory(@Nullable Long id, @NonNull DaoCallbacks.Select<Directory> selectCallback)
     {
-        new SelectDirAsyncTask(getWritableDatabase(), id, selectCallback).execute();
+        execute(DbExecutor.LANE_READ, new SelectDirTask(id, selectCallback));
     }
 
     /**
@@ -96,7 +399,7 @@ public class AppDatabase extends SQLiteOpenHelper {
      */
     void selectDirectoryInRoot(@NonNull DaoCallbacks.Select<Directory> selectCallback)
     {
-        new SelectDirInRootAsyncTask(getWritableDatabase(), selectCallback).execute();
+        execute(DbExecutor.LANE_READ, new SelectDirInRootTask(selectCallback));
     }
 
     /**
@@ -105,7 +408,7 @@ public class AppDatabase extends SQLiteOpenHelper {
      */
     void selectDirectoryRoot(@NonNull DaoCallbacks.Select<Directory> selectCallback)
     {
-        new SelectDirRootAsyncTask(getWritableDatabase(), selectCallback).execute();
+        execute(DbExecutor.LANE_READ, new SelectDirRootTask(selectCallback));
     }
 
     /**
@@ -114,9 +417,55 @@ public class AppDatabase extends SQLiteOpenHelper {
      */
     void selectDirectoryAt(@NonNull Long id, @NonNull DaoCallbacks.Select<Directory> selectCallback)
     {
-        new SelectDirAtAsyncTask(getWritableDatabase(), id, selectCallback).execute();
+        execute(DbExecutor.LANE_READ, new SelectDirAtTask(id, selectCallback));
+    }
+
+    /**
+     * Method to retrieve a folder, its sub-directories, its account count and the first page of
+     * its accounts with a single statement, so all of them are a consistent snapshot
+     * @param id Long identifier of the folder, if it is null, then the root folder is selected
+     * @param pageSizeHint Number of accounts wanted in the first page
+     * @param folderCallback Callback of the method, it receives null if the folder doesn't exist
+     */
+    void selectFolderContents(@Nullable Long id, int pageSizeHint,
+                              @NonNull DaoCallbacks.Folder folderCallback)
+    {
+        execute(DbExecutor.LANE_READ,
+                new SelectFolderTask(id, pageSize(pageSizeHint), folderCallback));
+    }
+
+    /**
+     * Method to retrieve every directory of a subtree, sorted by depth (the folder first)
+     * @param id Long identifier of the subtree root
+     * @param selectCallback Callback of the method
+     */
+    void selectSubtree(@NonNull Long id, @NonNull DaoCallbacks.Select<Directory> selectCallback)
+    {
+        execute(DbExecutor.LANE_READ, new SelectSubtreeTask(id, selectCallback));
+    }
+
+    /**
+     * Method to count the directories, accounts and K's below a folder, at any depth
+     * @param id Long identifier of the folder
+     * @param selectCallback Callback of the method
+     */
+    void selectSubtreeStats(@NonNull Long id,
+                            @NonNull DaoCallbacks.Select<SubtreeStats> selectCallback)
+    {
+        execute(DbExecutor.LANE_READ, new SelectSubtreeStatsTask(id, selectCallback));
     }
 
+    /**
+     * Method to check if a directory is in the subtree of another one
+     * @param ancestorId Long identifier of the subtree root
+     * @param id Long identifier of the directory to check
+     * @param checkCallback Callback of the method, true if id is ancestorId or below it
+     */
+    void checkInSubtree(@NonNull Long ancestorId, @NonNull Long id,
+                        @NonNull DaoCallbacks.Check checkCallback)
+    {
+        execute(DbExecutor.LANE_READ, new CheckInSubtreeTask(ancestorId, id, checkCallback));
+    }
 
     /**
      * Method to insert new Directories to database
@@ -126,7 +475,7 @@ public class AppDatabase extends SQLiteOpenHelper {
     void insertDirectory(@NonNull DaoCallbacks.Update<Directory> insertCallback,
                          Directory... directories)
     {
-        new InsertDirAsyncTask(getWritableDatabase(), insertCallback, directories).execute();
+        execute(DbExecutor.LANE_WRITE, new InsertDirTask(insertCallback, directories));
     }
 
     /**
@@ -136,40 +485,50 @@ public class AppDatabase extends SQLiteOpenHelper {
      */
     void updateDirectory(DaoCallbacks.Update<Directory> updateCallback, Directory... directories)
     {
-        new UpdateDirAsyncTask(getWritableDatabase(), updateCallback, directories).execute();
+        execute(DbExecutor.LANE_WRITE, new UpdateDirTask(updateCallback, directories));
     }
 
     /**
-     * Method to delete directories from database
-     * @param deleteCallback Callback of the method
+     * Method to move directories (with their subtrees) to another folder in one transaction.
+     * Nothing is moved if the folder is one of them or lies below one of them.
+     * @param moveCallback Callback of the method
+     * @param parentId Identifier of the new parent
+     * @param ids Identifiers of the directories to move
+     */
+    void moveDirectory(@NonNull DaoCallbacks.Move moveCallback, @NonNull Long parentId,
+                       @NonNull Long... ids)
+    {
+        execute(DbExecutor.LANE_WRITE, new MoveDirTask(moveCallback, parentId, ids));
+    }
+
+    /**
+     * Method to delete directories from database, with their subtrees, in one transaction
+     * @param deleteCallback Callback of the method, told every row removed by cascade too
      * @param ids Long array containing all the id's from the directories to be removed
      */
     void deleteDirectory(DaoCallbacks.Delete deleteCallback, Long... ids)
     {
-        new DeleteDirAsyncTask(getWritableDatabase(), deleteCallback, ids).execute();
+        execute(DbExecutor.LANE_WRITE, new DeleteDirTask(deleteCallback, ids));
     }
 
     // ======================================================================== //
-    //                             Dir : ASYNC TASKS
+    //                             Dir : TASKS
     // ======================================================================== //
 
-    private static class SelectDirAsyncTask extends AsyncTask<Void,Void ,Void>
+    private static class SelectDirTask extends DbTask
     {
-        private SQLiteDatabase db;
         private Long id;
         private DaoCallbacks.Select<Directory> callback;
 
-        private SelectDirAsyncTask(@NonNull SQLiteDatabase db,
-                                        @Nullable Long id,
-                                        @NonNull DaoCallbacks.Select<Directory> callback) {
+        private SelectDirTask(@Nullable Long id,
+                              @NonNull DaoCallbacks.Select<Directory> callback) {
 
-            this.db = db;
             this.id = id;
             this.callback = callback;
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
@@ -186,44 +545,33 @@ public class AppDatabase extends SQLiteOpenHelper {
                         null,
                         null))
                 {
-                    if (c != null && c.moveToFirst())
+                    if (c != null)
                     {
-                        List<Directory> list = new ArrayList<>();
-                        do {
-
-                            Long _id = c.getLong(c.getColumnIndex(DirectoryContract.COLUMN_ID));
-                            String name = c.getString(c.getColumnIndex(DirectoryContract.COLUMN_NAME));
-                            Long parent = c.getLong(c.getColumnIndex(DirectoryContract.COLUMN_PARENT));
-                            list.add(new Directory(_id, name, parent));
-
-                        } while(c.moveToNext());
-
+                        List<Directory> list = new RowMapper.ForDirectory(c).mapAll(c);
+                        rows(list.size());
                         callback.onSelected(list.toArray(new Directory[0]));
                     }
                     else
                     {
+                        rows(0);
                         callback.onSelected(new Directory[0]);
                     }
                 }
             }
-            return null;
         }
     }
 
-    private static class SelectDirInRootAsyncTask extends AsyncTask<Void,Void ,Void>
+    private static class SelectDirInRootTask extends DbTask
     {
-        private SQLiteDatabase db;
         private DaoCallbacks.Select<Directory> callback;
 
-        private SelectDirInRootAsyncTask(@NonNull SQLiteDatabase db,
-                                       @NonNull DaoCallbacks.Select<Directory> callback) {
+        private SelectDirInRootTask(@NonNull DaoCallbacks.Select<Directory> callback) {
 
-            this.db = db;
             this.callback = callback;
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
@@ -234,53 +582,39 @@ public class AppDatabase extends SQLiteOpenHelper {
                 try(Cursor c = db.query(
                         DirectoryContract.TABLE,
                         DirectoryContract.COLUMNS,
-                        DirectoryContract.COLUMN_PARENT +
-                                " = (SELECT " + DirectoryContract.COLUMN_ID + " FROM " +
-                                DirectoryContract.TABLE +
-                                " WHERE NAME = ?)",
-                        new String[] {"Root"},
+                        DirectoryContract.COLUMN_PARENT + " = ?",
+                        new String[] {String.valueOf(rootId)},
                         null,
                         null,
                         null))
                 {
-                    if (c != null && c.moveToFirst())
+                    if (c != null)
                     {
-                        List<Directory> list = new ArrayList<>();
-                        do {
-
-                            Long _id = c.getLong(c.getColumnIndex(DirectoryContract.COLUMN_ID));
-                            String name = c.getString(c.getColumnIndex(DirectoryContract.COLUMN_NAME));
-                            Long parent = c.getLong(c.getColumnIndex(DirectoryContract.COLUMN_PARENT));
-                            list.add(new Directory(_id, name, parent));
-
-                        } while(c.moveToNext());
-
+                        List<Directory> list = new RowMapper.ForDirectory(c).mapAll(c);
+                        rows(list.size());
                         callback.onSelected(list.toArray(new Directory[0]));
                     }
                     else
                     {
+                        rows(0);
                         callback.onSelected(new Directory[0]);
                     }
                 }
             }
-            return null;
         }
     }
 
-    private static class SelectDirRootAsyncTask extends AsyncTask<Void,Void ,Void>
+    private static class SelectDirRootTask extends DbTask
     {
-        private SQLiteDatabase db;
         private DaoCallbacks.Select<Directory> callback;
 
-        private SelectDirRootAsyncTask(@NonNull SQLiteDatabase db,
-                                         @NonNull DaoCallbacks.Select<Directory> callback) {
+        private SelectDirRootTask(@NonNull DaoCallbacks.Select<Directory> callback) {
 
-            this.db = db;
             this.callback = callback;
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
@@ -291,54 +625,42 @@ public class AppDatabase extends SQLiteOpenHelper {
                 try(Cursor c = db.query(
                         DirectoryContract.TABLE,
                         DirectoryContract.COLUMNS,
-                        DirectoryContract.COLUMN_PARENT + " IS NULL AND " +
-                        DirectoryContract.COLUMN_NAME + " = ?",
-                        new String[]{"Root"},
+                        DirectoryContract.COLUMN_ID + " = ?",
+                        new String[]{String.valueOf(rootId)},
                         null,
                         null,
                         null))
                 {
-                    if (c != null && c.moveToFirst())
+                    if (c != null)
                     {
-                        List<Directory> list = new ArrayList<>();
-                        do {
-
-                            Long _id = c.getLong(c.getColumnIndex(DirectoryContract.COLUMN_ID));
-                            String name = c.getString(c.getColumnIndex(DirectoryContract.COLUMN_NAME));
-                            Long parent = c.getLong(c.getColumnIndex(DirectoryContract.COLUMN_PARENT));
-                            list.add(new Directory(_id, name, parent));
-
-                        } while(c.moveToNext());
-
+                        List<Directory> list = new RowMapper.ForDirectory(c).mapAll(c);
+                        rows(list.size());
                         callback.onSelected(list.toArray(new Directory[0]));
                     }
                     else
                     {
+                        rows(0);
                         callback.onSelected(new Directory[0]);
                     }
                 }
             }
-            return null;
         }
     }
 
-    private static class SelectDirAtAsyncTask extends AsyncTask<Void,Void ,Void>
+    private static class SelectDirAtTask extends DbTask
     {
-        private SQLiteDatabase db;
         private Long id;
         private DaoCallbacks.Select<Directory> callback;
 
-        private SelectDirAtAsyncTask(@NonNull SQLiteDatabase db,
-                                       @NonNull Long id,
-                                       @NonNull DaoCallbacks.Select<Directory> callback) {
+        private SelectDirAtTask(@NonNull Long id,
+                                @NonNull DaoCallbacks.Select<Directory> callback) {
 
-            this.db = db;
             this.id = id;
             this.callback = callback;
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
@@ -355,46 +677,67 @@ public class AppDatabase extends SQLiteOpenHelper {
                         null,
                         null))
                 {
-                    if (c != null && c.moveToFirst())
+                    if (c != null)
                     {
-                        List<Directory> list = new ArrayList<>();
-                        do {
-
-                            Long _id = c.getLong(c.getColumnIndex(DirectoryContract.COLUMN_ID));
-                            String name = c.getString(c.getColumnIndex(DirectoryContract.COLUMN_NAME));
-                            Long parent = c.getLong(c.getColumnIndex(DirectoryContract.COLUMN_PARENT));
-                            list.add(new Directory(_id, name, parent));
-
-                        } while(c.moveToNext());
-
+                        List<Directory> list = new RowMapper.ForDirectory(c).mapAll(c);
+                        rows(list.size());
                         callback.onSelected(list.toArray(new Directory[0]));
                     }
                     else
                     {
+                        rows(0);
                         callback.onSelected(new Directory[0]);
                     }
                 }
             }
-            return null;
         }
     }
 
-    private static class InsertDirAsyncTask extends AsyncTask<Void, Void, Void>
+    private static class SelectFolderTask extends DbTask
     {
-        private SQLiteDatabase db;
-        private Directory[] directories;
-        private DaoCallbacks.Update<Directory> callback;
+        private static final int KIND_FOLDER = 0;
+        private static final int KIND_DIRECTORY = 1;
+        private static final int KIND_ACCOUNT = 2;
+        private static final int KIND_ACCOUNT_COUNT = 3;
+
+        private static final String DIR_COLUMNS =
+                DirectoryContract.COLUMN_ID + "," + DirectoryContract.COLUMN_NAME + "," +
+                DirectoryContract.COLUMN_PARENT + ",NULL";
+
+        private static final String SQL =
+                "SELECT " + KIND_FOLDER + "," + DIR_COLUMNS + " FROM " + DirectoryContract.TABLE +
+                " WHERE " + DirectoryContract.COLUMN_ID + " = ?1" +
+                " UNION ALL " +
+                "SELECT " + KIND_DIRECTORY + "," + DIR_COLUMNS + " FROM " +
+                DirectoryContract.TABLE +
+                " WHERE " + DirectoryContract.COLUMN_PARENT + " = ?1" +
+                " UNION ALL " +
+                "SELECT * FROM (SELECT " + KIND_ACCOUNT + "," +
+                AccountContract.COLUMN_UUID + "," + AccountContract.COLUMN_ACCOUNT + "," +
+                AccountContract.COLUMN_PARENT + "," + AccountContract.COLUMN_EXPIRE +
+                " FROM " + AccountContract.TABLE +
+                " WHERE " + AccountContract.COLUMN_PARENT + " = ?1" +
+                " ORDER BY " + AccountContract.COLUMN_ACCOUNT + "," + AccountContract.COLUMN_UUID +
+                " LIMIT ?2)" +
+                " UNION ALL " +
+                "SELECT " + KIND_ACCOUNT_COUNT + ",COUNT(*),NULL,NULL,NULL FROM " +
+                AccountContract.TABLE +
+                " WHERE " + AccountContract.COLUMN_PARENT + " = ?1";
 
-        private InsertDirAsyncTask(SQLiteDatabase db, DaoCallbacks.Update<Directory> callback,
-                                   Directory... directories)
-        {
-            this.db = db;
-            this.directories = directories;
+        private Long id;
+        private int pageSize;
+        private DaoCallbacks.Folder callback;
+
+        private SelectFolderTask(@Nullable Long id, int pageSize,
+                                 @NonNull DaoCallbacks.Folder callback) {
+
+            this.id = id;
+            this.pageSize = pageSize;
             this.callback = callback;
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
@@ -402,47 +745,78 @@ public class AppDatabase extends SQLiteOpenHelper {
             }
             else
             {
-                ContentValues values = new ContentValues();
-                List<Directory> result = new ArrayList<>();
+                long folderId = id != null ? id : rootId;
 
-                for (Directory dir : directories)
-                {
-                    if (dir.getName() != null && dir.getName().equals("Root"))
-                    {
-                        throw new SQLException("The directory name can't be 'Root', this name is" +
-                                "required by the system");
-                    }
-                    values.clear();
-                    values.put(DirectoryContract.COLUMN_NAME, dir.getName());
-                    values.put(DirectoryContract.COLUMN_PARENT, dir.getParentId());
+                Directory folder = null;
+                List<Directory> directories = new ArrayList<>();
+                List<AccountSummary> accounts = new ArrayList<>(pageSize);
+                int accountCount = 0;
 
-                    long id = db.insert(DirectoryContract.TABLE, null, values);
-                    if (id != -1)
+                try(Cursor c = db.rawQuery(SQL, new String[]{String.valueOf(folderId),
+                                                             String.valueOf(pageSize)}))
+                {
+                    if (c != null && c.moveToFirst())
                     {
-                        result.add(new Directory(id, dir.getName(), dir.getParentId()));
+                        do {
+                            switch (c.getInt(0))
+                            {
+                                case KIND_FOLDER:
+                                    folder = new Directory(c.getLong(1), c.getString(2),
+                                            c.isNull(3) ? null : c.getLong(3));
+                                    break;
+                                case KIND_DIRECTORY:
+                                    directories.add(new Directory(c.getLong(1), c.getString(2),
+                                            c.getLong(3)));
+                                    break;
+                                case KIND_ACCOUNT:
+                                    accounts.add(new AccountSummary(
+                                            AppUtils.uuidFromBytes(c.getBlob(1)),
+                                            c.getString(2),
+                                            c.getLong(3),
+                                            c.getInt(4) == 1));
+                                    break;
+                                case KIND_ACCOUNT_COUNT:
+                                    accountCount = c.getInt(1);
+                                    break;
+                            }
+                        } while(c.moveToNext());
                     }
                 }
-                callback.onUpdated(result.toArray(new Directory[0]));
+
+                rows(directories.size() + accounts.size());
+                callback.onSelected(folder == null ? null :
+                        new FolderContents(folder,
+                                           directories.toArray(new Directory[0]),
+                                           accounts.toArray(new AccountSummary[0]),
+                                           accountCount));
             }
-            return null;
         }
     }
 
-    private static class UpdateDirAsyncTask extends AsyncTask<Void, Void, Void>
+    private static class SelectSubtreeTask extends DbTask
     {
-        private SQLiteDatabase db;
-        private DaoCallbacks.Update<Directory> callback;
-        private Directory[] directories;
+        private static final String SQL =
+                "SELECT " + column(DirectoryContract.TABLE, DirectoryContract.COLUMN_ID) + "," +
+                column(DirectoryContract.TABLE, DirectoryContract.COLUMN_NAME) + "," +
+                column(DirectoryContract.TABLE, DirectoryContract.COLUMN_PARENT) +
+                " FROM " + DirectoryTreeContract.TABLE + " JOIN " + DirectoryContract.TABLE +
+                " ON " + DirectoryContract.TABLE + "." + DirectoryContract.COLUMN_ID + " = " +
+                DirectoryTreeContract.COLUMN_DESCENDANT +
+                " WHERE " + DirectoryTreeContract.COLUMN_ANCESTOR + " = ?" +
+                " ORDER BY " + DirectoryTreeContract.COLUMN_DEPTH;
 
-        private UpdateDirAsyncTask(SQLiteDatabase db, DaoCallbacks.Update<Directory> updateCallback,
-                                   Directory... directories) {
-            this.db = db;
-            this.callback = updateCallback;
-            this.directories = directories;
+        private Long id;
+        private DaoCallbacks.Select<Directory> callback;
+
+        private SelectSubtreeTask(@NonNull Long id,
+                                  @NonNull DaoCallbacks.Select<Directory> callback) {
+
+            this.id = id;
+            this.callback = callback;
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
@@ -450,164 +824,115 @@ public class AppDatabase extends SQLiteOpenHelper {
             }
             else
             {
-                ContentValues values = new ContentValues();
-                List<Directory> result = new ArrayList<>();
-
-                for (Directory dir : directories)
+                try(Cursor c = db.rawQuery(SQL, new String[]{id.toString()}))
                 {
-                    values.clear();
-                    values.put(DirectoryContract.COLUMN_ID, dir.get_id());
-                    values.put(DirectoryContract.COLUMN_NAME, dir.getName());
-                    values.put(DirectoryContract.COLUMN_PARENT, dir.getParentId());
-
-                    db.update(DirectoryContract.TABLE,
-                                             values,
-                                 DirectoryContract.COLUMN_ID + " = ?",
-                                             new String[]{String.valueOf(dir.get_id())});
-                    result.add(dir);
+                    List<Directory> list = new RowMapper.ForDirectory(c).mapAll(c);
+                    rows(list.size());
+                    callback.onSelected(list.toArray(new Directory[0]));
                 }
-                callback.onUpdated(result.toArray(new Directory[0]));
             }
-            return null;
         }
     }
 
-    private static class DeleteDirAsyncTask extends AsyncTask<Void, Void, Void>
+    private static class SelectSubtreeStatsTask extends DbTask
     {
-        private SQLiteDatabase db;
-        private DaoCallbacks.Delete callback;
-        private Long[] ids;
+        private static final String SUBTREE_ACCOUNTS =
+                "SELECT " + AccountContract.COLUMN_ID + " FROM " + AccountContract.TABLE +
+                " WHERE " + AccountContract.COLUMN_PARENT + " " +
+                DirectoryTreeContract.SELECTION_IN_SUBTREE;
+
+        private static final String SQL =
+                "SELECT " +
+                "(SELECT COUNT(*) - 1 FROM " + DirectoryTreeContract.TABLE + " WHERE " +
+                DirectoryTreeContract.COLUMN_ANCESTOR + " = ?1)," +
+                "(SELECT COUNT(*) FROM (" + SUBTREE_ACCOUNTS + "))," +
+                "(SELECT COUNT(*) FROM " + KContract.TABLE + " WHERE " +
+                KContract.COLUMN_ACC_ID + " IN (" + SUBTREE_ACCOUNTS + "))";
 
-        private DeleteDirAsyncTask(SQLiteDatabase db, DaoCallbacks.Delete callback, Long... ids) {
+        private Long id;
+        private DaoCallbacks.Select<SubtreeStats> callback;
+
+        private SelectSubtreeStatsTask(@NonNull Long id,
+                                       @NonNull DaoCallbacks.Select<SubtreeStats> callback) {
 
-            this.db = db;
+            this.id = id;
             this.callback = callback;
-            this.ids = ids;
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
-                throw new SQLException("");
+                throw new SQLException("Database instance is closed or is locked by other thread");
             }
             else
             {
-                int count = 0;
-                for (Long id : ids)
+                try(Cursor c = db.rawQuery(SQL, new String[]{id.toString()}))
                 {
-                    int affected = db.delete(DirectoryContract.TABLE,
-                                  DirectoryContract.COLUMN_ID + " = ?",
-                                   new String[]{ id.toString()} );
-                    if (affected == 1)
+                    // The folder itself is counted by the first column, -1 means it's not there
+                    if (c != null && c.moveToFirst() && c.getInt(0) >= 0)
                     {
-                        count++;
+                        rows(1);
+                        callback.onSelected(new SubtreeStats[] {
+                                new SubtreeStats(c.getInt(0), c.getInt(1), c.getInt(2))});
+                    }
+                    else
+                    {
+                        rows(0);
+                        callback.onSelected(new SubtreeStats[0]);
                     }
-                }
-                if (count == ids.length)
-                {
-                    callback.onDelete(DaoCallbacks.DELETE_OK);
-                }
-                else if (count != 0)
-                {
-                    callback.onDelete(DaoCallbacks.DELETE_PARTIAL);
-                }
-                else
-                {
-                    callback.onDelete(DaoCallbacks.DELETE_FAIL);
                 }
             }
-            return null;
         }
     }
 
-// ===============================================================================================//
-//                                         ACCOUNT
-// ===============================================================================================//
-
-    /**
-     * Method to retrieve accounts from database
-     * @param id String identifier of the accounts to select, if it is null, then all accounts
-     *          will be selected
-     * @param selectCallback Callback of the method
-     */
-    void selectAccount(@Nullable String id, @NonNull DaoCallbacks.Select<Account> selectCallback)
+    private static class CheckInSubtreeTask extends DbTask
     {
-        new SelectAccAsyncTask(getWritableDatabase(), id, selectCallback).execute();
-    }
+        private Long ancestorId;
+        private Long id;
+        private DaoCallbacks.Check callback;
 
-    /**
-     * Method to retrieve accounts from database located at id directory
-     * @param id Long parent identifier of the accounts to select
-     * @param selectCallback Callback of the method
-     */
-    void selectAccountAt(@Nullable Long id, @NonNull DaoCallbacks.Select<Account> selectCallback)
-    {
-        new SelectAccAtAsyncTask(getWritableDatabase(), id, selectCallback).execute();
-    }
+        private CheckInSubtreeTask(@NonNull Long ancestorId, @NonNull Long id,
+                                   @NonNull DaoCallbacks.Check callback) {
 
-    /**
-     * Method to retrieve accounts from database located at Root directory
-     * @param selectCallback Callback of the method
-     */
-    void selectAccountRoot(@NonNull DaoCallbacks.Select<Account> selectCallback)
-    {
-        new SelectAccRootAsyncTask(getWritableDatabase(), selectCallback).execute();
+            this.ancestorId = ancestorId;
+            this.id = id;
+            this.callback = callback;
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("Database instance is closed or is locked by other thread");
+            }
+            else
+            {
+                boolean inSubtree = DatabaseUtils.longForQuery(db,
+                        DirectoryTreeContract.STATEMENT_IS_DESCENDANT,
+                        new String[]{ancestorId.toString(), id.toString()}) != 0;
+                rows(1);
+                callback.onChecked(inSubtree);
+            }
+        }
     }
 
-    /**
-     * Method to insert new Accounts to database
-     * @param insertCallback Callback of the method
-     * @param accounts Account array containing all accounts to insert
-     */
-    void insertAccount(@NonNull DaoCallbacks.Update<Account> insertCallback,
-                         Account... accounts)
+    private static class InsertDirTask extends DbTask
     {
-        new InsertAccAsyncTask(getWritableDatabase(), insertCallback, accounts).execute();
-    }
+        private Directory[] directories;
+        private DaoCallbacks.Update<Directory> callback;
 
-    /**
-     * Method to update accounts from the database
-     * @param updateCallback Callback of the method
-     * @param accounts Accounts array containing all accounts to be updated
-     */
-    void updateAccount(DaoCallbacks.Update<Account> updateCallback, Account... accounts)
-    {
-        new UpdateAccAsyncTask(getWritableDatabase(), updateCallback, accounts).execute();
-    }
-
-    /**
-     * Method to delete accounts from database
-     * @param deleteCallback Callback of the method
-     * @param ids Long array containing all the id's from the accounts to be removed
-     */
-    void deleteAccount(DaoCallbacks.Delete deleteCallback, String... ids)
-    {
-        new DeleteAccAsyncTask(getWritableDatabase(), deleteCallback, ids).execute();
-    }
-
-    // ======================================================================== //
-    //                             Acc : ASYNC TASKS
-    // ======================================================================== //
-
-    private static class SelectAccAsyncTask extends AsyncTask<Void,Void ,Void>
-    {
-        private SQLiteDatabase db;
-        private String id;
-        private DaoCallbacks.Select<Account> callback;
-
-        private SelectAccAsyncTask(@NonNull SQLiteDatabase db,
-                                   @Nullable String id,
-                                   @NonNull DaoCallbacks.Select<Account> callback) {
-
-            this.db = db;
-            this.id = id;
+        private InsertDirTask(DaoCallbacks.Update<Directory> callback,
+                              Directory... directories)
+        {
+            this.directories = directories;
             this.callback = callback;
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
@@ -615,83 +940,51 @@ public class AppDatabase extends SQLiteOpenHelper {
             }
             else
             {
-                try(Cursor c = db.query(
-                        AccountContract.TABLE,
-                        AccountContract.COLUMNS,
-                        id == null ? null : "_ID = ?",
-                        id == null ? null : new String[]{id},
-                        null,
-                        null,
-                        null))
+                for (Directory dir : directories)
                 {
-                    if (c != null && c.moveToFirst())
-                    {
-                        List<Account> list = new ArrayList<>();
-                        String _id;
-                        String account;
-                        String user;
-                        String url;
-                        String brief;
-                        Long create;
-                        Long update;
-                        boolean expire;
-                        Long date_expire;
-                        Long parent;
-                        do {
-
-                            _id = c.getString(c.getColumnIndex(AccountContract.COLUMN_ID));
-                            account = c.getString(c.getColumnIndex(AccountContract.COLUMN_ACCOUNT));
-                            user = c.getString(c.getColumnIndex(AccountContract.COLUMN_USER));
-                            url = c.getString(c.getColumnIndex(AccountContract.COLUMN_URL));
-                            brief = c.getString(c.getColumnIndex(AccountContract.COLUMN_BRIEF));
-                            create = c.getLong(c.getColumnIndex(AccountContract.COLUMN_DATE_CREATE));
-                            update = c.getLong(c.getColumnIndex(AccountContract.COLUMN_DATE_UPDATE));
-                            expire = c.getInt(c.getColumnIndex(AccountContract.COLUMN_EXPIRE)) == 1;
-                            date_expire = c.getLong(c.getColumnIndex(AccountContract.COLUMN_DATE_EXPIRE));
-                            parent = c.getLong(c.getColumnIndex(AccountContract.COLUMN_PARENT));
-
-                            list.add(new Account(_id,
-                                                 account,
-                                                 user,
-                                                 url,
-                                                 brief,
-                                                 expire,
-                                                 create,
-                                                 update,
-                                                 date_expire,
-                                                 parent));
-
-                        } while(c.moveToNext());
-
-                        callback.onSelected(list.toArray(new Account[0]));
-                    }
-                    else
+                    if (dir.getName() != null && dir.getName().equals("Root"))
                     {
-                        callback.onSelected(new Account[0]);
+                        throw new SQLException("The directory name can't be 'Root', this name is" +
+                                "required by the system");
                     }
                 }
+
+                List<Directory> result = runBatch(this, db, DirectoryContract.STATEMENT_INSERT,
+                        directories, new BatchOperation<Directory>() {
+                            @Override
+                            public Directory apply(SQLiteStatement statement, Directory dir) {
+                                bindString(statement, 1, dir.getName());
+                                bindLong(statement, 2, dir.getParentId());
+                                long id = statement.executeInsert();
+                                return id != -1 ?
+                                        new Directory(id, dir.getName(), dir.getParentId()) : null;
+                            }
+                        });
+                Set<Long> parents = new HashSet<>();
+                for (Directory dir : result)
+                {
+                    parents.add(dir.getParentId());
+                }
+                notifyChanged(DirectoryContract.TABLE, parents);
+                rows(result.size());
+                callback.onUpdated(result.toArray(new Directory[0]));
             }
-            return null;
         }
     }
 
-    private static class SelectAccAtAsyncTask extends AsyncTask<Void,Void ,Void>
+    private static class UpdateDirTask extends DbTask
     {
-        private SQLiteDatabase db;
-        private Long id;
-        private DaoCallbacks.Select<Account> callback;
-
-        private SelectAccAtAsyncTask(@NonNull SQLiteDatabase db,
-                                   @Nullable Long id,
-                                   @NonNull DaoCallbacks.Select<Account> callback) {
+        private DaoCallbacks.Update<Directory> callback;
+        private Directory[] directories;
 
-            this.db = db;
-            this.id = id;
-            this.callback = callback;
+        private UpdateDirTask(DaoCallbacks.Update<Directory> updateCallback,
+                              Directory... directories) {
+            this.callback = updateCallback;
+            this.directories = directories;
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
@@ -699,80 +992,67 @@ public class AppDatabase extends SQLiteOpenHelper {
             }
             else
             {
-                try(Cursor c = db.query(
-                        AccountContract.TABLE,
-                        AccountContract.COLUMNS,
-                        AccountContract.COLUMN_PARENT + " = ?",
-                         new String[]{id.toString()},
-                        null,
-                        null,
-                        null))
+                Long[] ids = new Long[directories.length];
+                for (int i = 0; i < ids.length; i++)
                 {
-                    if (c != null && c.moveToFirst())
-                    {
-                        List<Account> list = new ArrayList<>();
-                        String _id;
-                        String account;
-                        String user;
-                        String url;
-                        String brief;
-                        Long create;
-                        Long update;
-                        boolean expire;
-                        Long date_expire;
-                        Long parent;
-                        do {
-
-                            _id = c.getString(c.getColumnIndex(AccountContract.COLUMN_ID));
-                            account = c.getString(c.getColumnIndex(AccountContract.COLUMN_ACCOUNT));
-                            user = c.getString(c.getColumnIndex(AccountContract.COLUMN_USER));
-                            url = c.getString(c.getColumnIndex(AccountContract.COLUMN_URL));
-                            brief = c.getString(c.getColumnIndex(AccountContract.COLUMN_BRIEF));
-                            create = c.getLong(c.getColumnIndex(AccountContract.COLUMN_DATE_CREATE));
-                            update = c.getLong(c.getColumnIndex(AccountContract.COLUMN_DATE_UPDATE));
-                            expire = c.getInt(c.getColumnIndex(AccountContract.COLUMN_EXPIRE)) == 1;
-                            date_expire = c.getLong(c.getColumnIndex(AccountContract.COLUMN_DATE_EXPIRE));
-                            parent = c.getLong(c.getColumnIndex(AccountContract.COLUMN_PARENT));
-
-                            list.add(new Account(_id,
-                                    account,
-                                    user,
-                                    url,
-                                    brief,
-                                    expire,
-                                    create,
-                                    update,
-                                    date_expire,
-                                    parent));
-
-                        } while(c.moveToNext());
-
-                        callback.onSelected(list.toArray(new Account[0]));
-                    }
-                    else
-                    {
-                        callback.onSelected(new Account[0]);
-                    }
+                    ids[i] = directories[i].get_id();
+                }
+                Set<Long> parents;
+                List<Directory> result;
+                // The old parents are read in the same transaction as the update, so no other
+                // write can move the directories in between (runBatch joins it)
+                db.beginTransactionNonExclusive();
+                try
+                {
+                    // A moved directory changes the listing of its old parent too
+                    parents = parentsOf(db, DirectoryContract.TABLE, DirectoryContract.COLUMN_ID,
+                                        ids);
+                    result = runBatch(this, db, DirectoryContract.STATEMENT_UPDATE, directories,
+                            new BatchOperation<Directory>() {
+                                @Override
+                                public Directory apply(SQLiteStatement statement,
+                                                       Directory dir) {
+                                    bindString(statement, 1, dir.getName());
+                                    bindLong(statement, 2, dir.getParentId());
+                                    bindLong(statement, 3, dir.get_id());
+                                    statement.executeUpdateDelete();
+                                    return dir;
+                                }
+                            });
+                    db.setTransactionSuccessful();
+                }
+                finally
+                {
+                    db.endTransaction();
+                }
+                for (Directory dir : result)
+                {
+                    // The directory itself too, its own folder snapshot holds its name
+                    parents.add(dir.get_id());
+                    parents.add(dir.getParentId());
                 }
+                notifyChanged(DirectoryContract.TABLE, parents);
+                rows(result.size());
+                callback.onUpdated(result.toArray(new Directory[0]));
             }
-            return null;
         }
     }
 
-    private static class SelectAccRootAsyncTask extends AsyncTask<Void,Void ,Void>
+    private static class MoveDirTask extends DbTask
     {
-        private SQLiteDatabase db;
-        private DaoCallbacks.Select<Account> callback;
+        private DaoCallbacks.Move callback;
+        private Long parentId;
+        private Long[] ids;
 
-        private SelectAccRootAsyncTask(@NonNull SQLiteDatabase db,
-                                   @NonNull DaoCallbacks.Select<Account> callback) {
+        private MoveDirTask(DaoCallbacks.Move callback, Long parentId, Long... ids) {
 
-            this.db = db;
             this.callback = callback;
+            this.parentId = parentId;
+            this.ids = new LinkedHashSet<>(Arrays.asList(ids)).toArray(new Long[0]);
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
@@ -780,187 +1060,84 @@ public class AppDatabase extends SQLiteOpenHelper {
             }
             else
             {
-                try(Cursor c = db.query(
-                        AccountContract.TABLE,
-                        AccountContract.COLUMNS,
-                        AccountContract.COLUMN_PARENT + " = (" +
-                                "SELECT " + DirectoryContract.COLUMN_ID + " FROM " +
-                                DirectoryContract.TABLE + " WHERE " + DirectoryContract.COLUMN_NAME +
-                                " = ?)",
-                        new String[]{"Root"},
-                        null,
-                        null,
-                        null))
+                Set<Long> parents = null;
+                int moved = 0;
+                int moveCode;
+                db.beginTransactionNonExclusive();
+                try
                 {
-                    if (c != null && c.moveToFirst())
+                    // The new parent is one of the directories or descends from one of them
+                    if (queryLongIn(db, DirectoryTreeContract.STATEMENT_COUNT_ANCESTORS_IN,
+                                    new Object[] {parentId}, ids) != 0)
                     {
-                        List<Account> list = new ArrayList<>();
-                        String _id;
-                        String account;
-                        String user;
-                        String url;
-                        String brief;
-                        Long create;
-                        Long update;
-                        boolean expire;
-                        Long date_expire;
-                        Long parent;
-                        do {
-
-                            _id = c.getString(c.getColumnIndex(AccountContract.COLUMN_ID));
-                            account = c.getString(c.getColumnIndex(AccountContract.COLUMN_ACCOUNT));
-                            user = c.getString(c.getColumnIndex(AccountContract.COLUMN_USER));
-                            url = c.getString(c.getColumnIndex(AccountContract.COLUMN_URL));
-                            brief = c.getString(c.getColumnIndex(AccountContract.COLUMN_BRIEF));
-                            create = c.getLong(c.getColumnIndex(AccountContract.COLUMN_DATE_CREATE));
-                            update = c.getLong(c.getColumnIndex(AccountContract.COLUMN_DATE_UPDATE));
-                            expire = c.getInt(c.getColumnIndex(AccountContract.COLUMN_EXPIRE)) == 1;
-                            date_expire = c.getLong(c.getColumnIndex(AccountContract.COLUMN_DATE_EXPIRE));
-                            parent = c.getLong(c.getColumnIndex(AccountContract.COLUMN_PARENT));
-
-                            list.add(new Account(_id,
-                                    account,
-                                    user,
-                                    url,
-                                    brief,
-                                    expire,
-                                    create,
-                                    update,
-                                    date_expire,
-                                    parent));
-
-                        } while(c.moveToNext());
-
-                        callback.onSelected(list.toArray(new Account[0]));
+                        moveCode = DaoCallbacks.MOVE_REJECTED;
                     }
                     else
                     {
-                        callback.onSelected(new Account[0]);
+                        // A moved directory changes the listing of its old parent too
+                        parents = parentsOf(db, DirectoryContract.TABLE,
+                                            DirectoryContract.COLUMN_ID, ids);
+                        moved = updateIn(db, DirectoryContract.STATEMENT_MOVE_IN,
+                                         new Object[] {parentId}, ids);
+                        moveCode = moveCode(moved, ids.length);
+                        db.setTransactionSuccessful();
                     }
                 }
-            }
-            return null;
-        }
-    }
-
-    private static class InsertAccAsyncTask extends AsyncTask<Void, Void, Void>
-    {
-        private SQLiteDatabase db;
-        private Account[] accounts;
-        private DaoCallbacks.Update<Account> callback;
-
-        private InsertAccAsyncTask(SQLiteDatabase db, DaoCallbacks.Update<Account> callback,
-                                   Account... accounts)
-        {
-            this.db = db;
-            this.accounts = accounts;
-            this.callback = callback;
-        }
-
-        @Override
-        protected Void doInBackground(Void... voids) {
-
-            if (!db.isOpen())
-            {
-                throw new SQLException("Database instance is closed or is locked by other thread");
-            }
-            else
-            {
-                ContentValues values = new ContentValues();
-                List<Account> result = new ArrayList<>();
-
-                for (Account acc : accounts)
+                catch (SQLiteConstraintException e)
                 {
-                    values.clear();
-                    values.put(AccountContract.COLUMN_ID, acc.get_id());
-                    values.put(AccountContract.COLUMN_ACCOUNT, acc.getAccount());
-                    values.put(AccountContract.COLUMN_USER, acc.getUser());
-                    values.put(AccountContract.COLUMN_URL, acc.getUrl());
-                    values.put(AccountContract.COLUMN_BRIEF, acc.getBrief());
-                    values.put(AccountContract.COLUMN_DATE_CREATE, acc.getDateCreate());
-                    values.put(AccountContract.COLUMN_DATE_UPDATE, acc.getDateUpdate());
-                    values.put(AccountContract.COLUMN_EXPIRE, acc.isExpire() ? 1 : 0);
-                    values.put(AccountContract.COLUMN_DATE_EXPIRE, acc.getDateExpire());
-                    values.put(AccountContract.COLUMN_PARENT, acc.getParent());
-
-                    long id = db.insert(AccountContract.TABLE, null, values);
-                    if (id != -1)
-                    {
-                        result.add(acc);
-                    }
+                    // The new parent doesn't exist
+                    e.printStackTrace();
+                    failed(e);
+                    moved = 0;
+                    moveCode = DaoCallbacks.MOVE_FAIL;
+                }
+                finally
+                {
+                    db.endTransaction();
                 }
-                callback.onUpdated(result.toArray(new Account[0]));
-            }
-            return null;
-        }
-    }
-
-    private static class UpdateAccAsyncTask extends AsyncTask<Void, Void, Void>
-    {
-        private SQLiteDatabase db;
-        private DaoCallbacks.Update<Account> callback;
-        private Account[] accounts;
-
-        private UpdateAccAsyncTask(SQLiteDatabase db, DaoCallbacks.Update<Account> updateCallback,
-                                   Account... accounts) {
-            this.db = db;
-            this.callback = updateCallback;
-            this.accounts = accounts;
-        }
-
-        @Override
-        protected Void doInBackground(Void... voids) {
-
-            if (!db.isOpen())
-            {
-                throw new SQLException("Database instance is closed or is locked by other thread");
-            }
-            else
-            {
-                ContentValues values = new ContentValues();
-                List<Account> result = new ArrayList<>();
 
-                for (Account acc : accounts)
+                if (parents != null && moveCode != DaoCallbacks.MOVE_FAIL)
                 {
-                    values.clear();
-                    values.put(AccountContract.COLUMN_ID, acc.get_id());
-                    values.put(AccountContract.COLUMN_ACCOUNT, acc.getAccount());
-                    values.put(AccountContract.COLUMN_USER, acc.getUser());
-                    values.put(AccountContract.COLUMN_URL, acc.getUrl());
-                    values.put(AccountContract.COLUMN_BRIEF, acc.getBrief());
-                    values.put(AccountContract.COLUMN_DATE_CREATE, acc.getDateCreate());
-                    values.put(AccountContract.COLUMN_DATE_UPDATE, acc.getDateUpdate());
-                    values.put(AccountContract.COLUMN_EXPIRE, acc.isExpire() ? 1 : 0);
-                    values.put(AccountContract.COLUMN_DATE_EXPIRE, acc.getDateExpire());
-                    values.put(AccountContract.COLUMN_PARENT, acc.getParent());
-
-                    db.update(AccountContract.TABLE,
-                            values,
-                            AccountContract.COLUMN_ID + " = ?",
-                            new String[]{acc.get_id()});
-                    result.add(acc);
+                    parents.add(parentId);
+                    notifyChanged(DirectoryContract.TABLE, parents);
                 }
-                callback.onUpdated(result.toArray(new Account[0]));
+                rows(moved);
+                callback.onMoved(moveCode);
             }
-            return null;
         }
     }
 
-    private static class DeleteAccAsyncTask extends AsyncTask<Void, Void, Void>
+    private static class DeleteDirTask extends DbTask
     {
-        private SQLiteDatabase db;
+        /**
+         * Rows of the subtrees whose roots replace %1$s, roots included. Each chunk is counted
+         * right before it's deleted: a subtree already deleted with a previous chunk is not
+         * there anymore, so nothing is counted twice
+         */
+        private static final String STATS =
+                "SELECT " +
+                "(SELECT COUNT(*) FROM " + DirectoryContract.TABLE + " WHERE " +
+                DirectoryContract.COLUMN_ID + " " + DirectoryTreeContract.SELECTION_IN_SUBTREES +
+                ")," +
+                "(SELECT COUNT(*) FROM " + AccountContract.TABLE + " WHERE " +
+                AccountContract.COLUMN_PARENT + " " + DirectoryTreeContract.SELECTION_IN_SUBTREES +
+                ")," +
+                "(SELECT COUNT(*) FROM " + KContract.TABLE + " WHERE " + KContract.COLUMN_ACC_ID +
+                " IN (SELECT " + AccountContract.COLUMN_ID + " FROM " + AccountContract.TABLE +
+                " WHERE " + AccountContract.COLUMN_PARENT + " " +
+                DirectoryTreeContract.SELECTION_IN_SUBTREES + "))";
+
         private DaoCallbacks.Delete callback;
-        private String[] ids;
+        private Long[] ids;
 
-        private DeleteAccAsyncTask(SQLiteDatabase db, DaoCallbacks.Delete callback, String... ids) {
+        private DeleteDirTask(DaoCallbacks.Delete callback, Long... ids) {
 
-            this.db = db;
             this.callback = callback;
-            this.ids = ids;
+            this.ids = new LinkedHashSet<>(Arrays.asList(ids)).toArray(new Long[0]);
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
@@ -968,113 +1145,201 @@ public class AppDatabase extends SQLiteOpenHelper {
             }
             else
             {
-                int count = 0;
-                for (String id : ids)
+                int found;
+                int directories = 0;
+                int accounts = 0;
+                int ks = 0;
+                db.beginTransactionNonExclusive();
+                try
                 {
-                    int affected = db.delete(AccountContract.TABLE,
-                            AccountContract.COLUMN_ID + " = ?",
-                            new String[]{ id} );
-                    if (affected == 1)
+                    found = (int) queryLongIn(db, DirectoryContract.STATEMENT_COUNT_IN, NO_ARGS,
+                                              ids);
+                    for (int from = 0; from < ids.length; from += BATCH_CHUNK_SIZE)
                     {
-                        count++;
+                        int to = Math.min(ids.length, from + BATCH_CHUNK_SIZE);
+                        try (Cursor c = rawQuery(db, inList(STATS, 1, to - from),
+                                                 inArgs(NO_ARGS, ids, from, to)))
+                        {
+                            if (c.moveToFirst())
+                            {
+                                directories += c.getInt(0);
+                                accounts += c.getInt(1);
+                                ks += c.getInt(2);
+                            }
+                        }
+                        try (SQLiteStatement statement = compileIn(db,
+                                DirectoryContract.STATEMENT_DELETE_IN, NO_ARGS, ids, from, to))
+                        {
+                            statement.executeUpdateDelete();
+                        }
                     }
+                    db.setTransactionSuccessful();
                 }
-                if (count == ids.length)
-                {
-                    callback.onDelete(DaoCallbacks.DELETE_OK);
-                }
-                else if (count != 0)
-                {
-                    callback.onDelete(DaoCallbacks.DELETE_PARTIAL);
-                }
-                else
+                finally
                 {
-                    callback.onDelete(DaoCallbacks.DELETE_FAIL);
+                    db.endTransaction();
                 }
+
+                // Whole sub-trees go away by cascade, the affected folders are unknown
+                if (directories != 0) notifyChanged(DirectoryContract.TABLE, null);
+                if (accounts != 0) notifyChanged(AccountContract.TABLE, null);
+                if (ks != 0) notifyChanged(KContract.TABLE, null);
+                rows(directories + accounts + ks);
+                callback.onDelete(deleteCode(found, ids.length),
+                                  new SubtreeStats(directories, accounts, ks));
             }
-            return null;
         }
     }
 
 // ===============================================================================================//
-//                                            K
+//                                         ACCOUNT
 // ===============================================================================================//
 
     /**
-     * Method to retrieve K's from database
-     * @param id String identifier of the k to select, if it is null, then all k's
+     * Method to retrieve accounts from database
+     * @param id String identifier of the accounts to select, if it is null, then all accounts
      *          will be selected
      * @param selectCallback Callback of the method
      */
-    void selectK(@Nullable String id, @NonNull DaoCallbacks.Select<K> selectCallback)
+    void selectAccount(@Nullable String id, @NonNull DaoCallbacks.Select<Account> selectCallback)
     {
-        new SelectKAsyncTask(getWritableDatabase(), id, selectCallback).execute();
+        execute(DbExecutor.LANE_READ, new SelectAccTask(id, selectCallback));
     }
 
     /**
-     * Method to retrieve K's from database
-     * @param id Long identifier of the k to select, if it is null, then all k's
-     *          will be selected
+     * Method to retrieve accounts from database located at id directory
+     * @param id Long parent identifier of the accounts to select
      * @param selectCallback Callback of the method
      */
-    void selectKById(@Nullable Long id, @NonNull DaoCallbacks.Select<K> selectCallback)
+    void selectAccountAt(@Nullable Long id, @NonNull DaoCallbacks.Select<Account> selectCallback)
     {
-        new SelectKByIdAsyncTask(getWritableDatabase(), id, selectCallback).execute();
+        execute(DbExecutor.LANE_READ, new SelectAccAtTask(id, selectCallback));
     }
 
     /**
-     * Method to insert new k to database
+     * Method to retrieve the summary (AccountSummary projection) of the accounts located at id
+     * directory
+     * @param id Long parent identifier of the accounts to select
+     * @param selectCallback Callback of the method
+     */
+    void selectAccountSummariesAt(@NonNull Long id,
+                                  @NonNull DaoCallbacks.Select<AccountSummary> selectCallback)
+    {
+        execute(DbExecutor.LANE_READ, new SelectAccSummaryAtTask(id, selectCallback));
+    }
+
+    /**
+     * Method to retrieve one page of the summaries of the accounts located at id directory,
+     * sorted by name. Pages are delimited by the last row already loaded (keyset pagination over
+     * IDX_ACC_PARENT), so any page costs the same no matter how deep in the folder it is.
+     * @param id Long parent identifier of the accounts to select
+     * @param anchor Row the page starts after (or ends before, if backwards). Null for the first
+     *               page
+     * @param forward True to read the rows after anchor, false to read the ones before it
+     * @param pageSizeHint Number of rows wanted, clamped to [1, PAGE_SIZE_MAX]
+     * @param pageCallback Callback of the method, rows are always given in list order
+     */
+    void selectAccountSummaryPage(@NonNull Long id, @Nullable AccountSummary anchor,
+                                  boolean forward, int pageSizeHint,
+                                  @NonNull DaoCallbacks.Page<AccountSummary> pageCallback)
+    {
+        execute(DbExecutor.LANE_READ, new SelectAccSummaryPageTask(id, anchor, forward,
+                pageSize(pageSizeHint), pageCallback));
+    }
+
+    /**
+     * Method to search accounts by name, user, url and description through the ACC_FTS index.
+     * Every word of the query is matched as a prefix and all of them must match.
+     * @param query Text typed by the user
+     * @param limitHint Max number of results, clamped to [1, PAGE_SIZE_MAX]
+     * @param scopeId Long identifier of the folder to search in (at any depth), if it is null,
+     *                then every account is searched
+     * @param selectCallback Callback of the method, best ranked results first
+     */
+    void searchAccountSummaries(@NonNull String query, int limitHint, @Nullable Long scopeId,
+                                @NonNull DaoCallbacks.Select<AccountSummary> selectCallback)
+    {
+        execute(DbExecutor.LANE_READ, new SearchAccTask(query, pageSize(limitHint), scopeId,
+                selectCallback));
+    }
+
+    /**
+     * Method to retrieve accounts from database located at Root directory
+     * @param selectCallback Callback of the method
+     */
+    void selectAccountRoot(@NonNull DaoCallbacks.Select<Account> selectCallback)
+    {
+        execute(DbExecutor.LANE_READ, new SelectAccRootTask(selectCallback));
+    }
+
+    /**
+     * Method to insert new Accounts to database
      * @param insertCallback Callback of the method
-     * @param ks K array containing all k to insert
+     * @param accounts Account array containing all accounts to insert
      */
-    void insertK(@NonNull DaoCallbacks.Update<K> insertCallback,
-                       K... ks)
+    void insertAccount(@NonNull DaoCallbacks.Update<Account> insertCallback,
+                         Account... accounts)
     {
-        new InsertKAsyncTask(getWritableDatabase(), insertCallback, ks).execute();
+        execute(DbExecutor.LANE_WRITE, new InsertAccTask(insertCallback, accounts));
     }
 
     /**
-     * Method to update k from the database
+     * Method to update accounts from the database
      * @param updateCallback Callback of the method
-     * @param ks K array containing all k to be updated
+     * @param accounts Accounts array containing all accounts to be updated
      */
-    void updateK(DaoCallbacks.Update<K> updateCallback, K... ks)
+    void updateAccount(DaoCallbacks.Update<Account> updateCallback, Account... accounts)
     {
-        new UpdateKAsyncTask(getWritableDatabase(), updateCallback, ks).execute();
+        execute(DbExecutor.LANE_WRITE, new UpdateAccTask(updateCallback, accounts));
     }
 
     /**
-     * Method to delete k from database
-     * @param deleteCallback Callback of the method
-     * @param ids Long array containing all the id's from the k to be removed
+     * Method to move accounts to another folder in one transaction, without rewriting the rest
+     * of their rows
+     * @param moveCallback Callback of the method
+     * @param parentId Identifier of the new parent
+     * @param ids Identifiers of the accounts to move
      */
-    void deleteK(DaoCallbacks.Delete deleteCallback, Long... ids)
+    void moveAccount(@NonNull DaoCallbacks.Move moveCallback, @NonNull Long parentId,
+                     @NonNull String... ids)
     {
-        new DeleteKAsyncTask(getWritableDatabase(), deleteCallback, ids).execute();
+        execute(DbExecutor.LANE_WRITE, new MoveAccTask(moveCallback, parentId, ids));
     }
 
+    /**
+     * Method to delete accounts from database, with their K's, in one transaction
+     * @param deleteCallback Callback of the method, told the K's removed by cascade too
+     * @param ids Long array containing all the id's from the accounts to be removed
+     */
+    void deleteAccount(DaoCallbacks.Delete deleteCallback, String... ids)
+    {
+        execute(DbExecutor.LANE_WRITE, new DeleteAccTask(deleteCallback, ids));
+    }
 
     // ======================================================================== //
-    //                             K : ASYNC TASKS
+    //                             Acc : TASKS
     // ======================================================================== //
 
-    private static class SelectKAsyncTask extends AsyncTask<Void,Void ,Void>
+    private static class SelectAccTask extends DbTask
     {
-        private SQLiteDatabase db;
+        private static final String SQL_ALL =
+                selectFrom(AccountContract.TABLE, AccountContract.COLUMNS);
+
+        private static final String SQL_BY_ID =
+                SQL_ALL + " WHERE " + AccountContract.COLUMN_UUID + " = ?";
+
         private String id;
-        private DaoCallbacks.Select<K> callback;
+        private DaoCallbacks.Select<Account> callback;
 
-        private SelectKAsyncTask(@NonNull SQLiteDatabase db,
-                                   @Nullable String id,
-                                   @NonNull DaoCallbacks.Select<K> callback) {
+        private SelectAccTask(@Nullable String id,
+                              @NonNull DaoCallbacks.Select<Account> callback) {
 
-            this.db = db;
             this.id = id;
             this.callback = callback;
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
@@ -1082,68 +1347,40 @@ public class AppDatabase extends SQLiteOpenHelper {
             }
             else
             {
-                try(Cursor c = db.query(
-                        KContract.TABLE,
-                        KContract.COLUMNS,
-                        id == null ? null : KContract.COLUMN_ACC_ID + " = ?",
-                        id == null ? null : new String[]{id},
-                        null,
-                        null,
-                        null))
+                try(Cursor c = id == null ?
+                        rawQuery(db, SQL_ALL, new Object[0]) :
+                        rawQuery(db, SQL_BY_ID, new Object[]{AppUtils.uuidToBytes(id)}))
                 {
-                    if (c != null && c.moveToFirst())
+                    if (c != null)
                     {
-                        List<K> list = new ArrayList<>();
-                        Long _id;
-                        String accId;
-                        byte[] cryptoPwd;
-                        byte[] iv;
-                        int tLength;
-                        Long deadline;
-                        do {
-
-                            _id = c.getLong(c.getColumnIndex(KContract.COLUMN_ID));
-                            accId = c.getString(c.getColumnIndex(KContract.COLUMN_ACC_ID));
-                            cryptoPwd = c.getBlob(c.getColumnIndex(KContract.COLUMN_CRYPTO_PWD));
-                            iv = c.getBlob(c.getColumnIndex(KContract.COLUMN_PARAM_IV));
-                            tLength = c.getInt(c.getColumnIndex(KContract.COLUMN_PARAM_TLENGTH));
-                            deadline = c.getLong(c.getColumnIndex(KContract.COLUMN_DEADLINE));
-
-
-                            list.add(new K(_id, accId, AppUtils.toStringBase64(cryptoPwd),
-                                     new GCMParameterSpec(tLength, iv), deadline));
-
-                        } while(c.moveToNext());
-
-                        callback.onSelected(list.toArray(new K[0]));
+                        List<Account> list = new RowMapper.ForAccount(c).mapAll(c);
+                        rows(list.size());
+                        callback.onSelected(list.toArray(new Account[0]));
                     }
                     else
                     {
-                        callback.onSelected(new K[0]);
+                        rows(0);
+                        callback.onSelected(new Account[0]);
                     }
                 }
             }
-            return null;
         }
     }
 
-    private static class SelectKByIdAsyncTask extends AsyncTask<Void,Void ,Void>
+    private static class SelectAccAtTask extends DbTask
     {
-        private SQLiteDatabase db;
         private Long id;
-        private DaoCallbacks.Select<K> callback;
+        private DaoCallbacks.Select<Account> callback;
 
-        private SelectKByIdAsyncTask(@NonNull SQLiteDatabase db,
-                                 @Nullable Long id,
-                                 @NonNull DaoCallbacks.Select<K> callback) {
+        private SelectAccAtTask(@Nullable Long id,
+                                @NonNull DaoCallbacks.Select<Account> callback) {
 
-            this.db = db;
             this.id = id;
             this.callback = callback;
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
@@ -1152,62 +1389,44 @@ public class AppDatabase extends SQLiteOpenHelper {
             else
             {
                 try(Cursor c = db.query(
-                        KContract.TABLE,
-                        KContract.COLUMNS,
-                        id == null ? null : KContract.COLUMN_ID + " = ?",
-                        id == null ? null : new String[]{id.toString()},
+                        AccountContract.TABLE,
+                        AccountContract.COLUMNS,
+                        AccountContract.COLUMN_PARENT + " = ?",
+                         new String[]{id.toString()},
                         null,
                         null,
                         null))
                 {
-                    if (c != null && c.moveToFirst())
+                    if (c != null)
                     {
-                        List<K> list = new ArrayList<>();
-                        Long _id;
-                        String accId;
-                        byte[] cryptoPwd;
-                        byte[] iv;
-                        int tLength;
-                        Long deadline;
-                        do {
-                            _id = c.getLong(c.getColumnIndex(KContract.COLUMN_ID));
-                            accId = c.getString(c.getColumnIndex(KContract.COLUMN_ACC_ID));
-                            cryptoPwd = c.getBlob(c.getColumnIndex(KContract.COLUMN_CRYPTO_PWD));
-                            iv = c.getBlob(c.getColumnIndex(KContract.COLUMN_PARAM_IV));
-                            tLength = c.getInt(c.getColumnIndex(KContract.COLUMN_PARAM_TLENGTH));
-                            deadline = c.getLong(c.getColumnIndex(KContract.COLUMN_DEADLINE));
-                            list.add(new K(_id, accId, AppUtils.toStringBase64(cryptoPwd),
-                                    new GCMParameterSpec(tLength, iv), deadline));
-                        } while(c.moveToNext());
-
-                        callback.onSelected(list.toArray(new K[0]));
+                        List<Account> list = new RowMapper.ForAccount(c).mapAll(c);
+                        rows(list.size());
+                        callback.onSelected(list.toArray(new Account[0]));
                     }
                     else
                     {
-                        callback.onSelected(new K[0]);
+                        rows(0);
+                        callback.onSelected(new Account[0]);
                     }
                 }
             }
-            return null;
         }
     }
 
-    private static class InsertKAsyncTask extends AsyncTask<Void, Void, Void>
+    private static class SelectAccSummaryAtTask extends DbTask
     {
-        private SQLiteDatabase db;
-        private K[] ks;
-        private DaoCallbacks.Update<K> callback;
+        private Long id;
+        private DaoCallbacks.Select<AccountSummary> callback;
 
-        private InsertKAsyncTask(SQLiteDatabase db, DaoCallbacks.Update<K> callback,
-                                   K... ks)
-        {
-            this.db = db;
-            this.ks = ks;
+        private SelectAccSummaryAtTask(@NonNull Long id,
+                                       @NonNull DaoCallbacks.Select<AccountSummary> callback) {
+
+            this.id = id;
             this.callback = callback;
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
@@ -1215,44 +1434,162 @@ public class AppDatabase extends SQLiteOpenHelper {
             }
             else
             {
-                ContentValues values = new ContentValues();
-                List<K> result = new ArrayList<>();
-                for (K k : ks)
+                try(Cursor c = db.query(
+                        AccountContract.TABLE,
+                        AccountContract.COLUMNS_SUMMARY,
+                        AccountContract.COLUMN_PARENT + " = ?",
+                        new String[]{id.toString()},
+                        null,
+                        null,
+                        AccountContract.COLUMN_ACCOUNT))
                 {
-                    values.clear();
-                    values.put(KContract.COLUMN_ACC_ID, k.getAccId());
-                    values.put(KContract.COLUMN_CRYPTO_PWD, AppUtils.fromStringBase64(k.getPwdBase64()));
-                    values.put(KContract.COLUMN_PARAM_IV, k.getSpec().getIV());
-                    values.put(KContract.COLUMN_PARAM_TLENGTH, k.getSpec().getTLen());
-                    values.put(KContract.COLUMN_DEADLINE, k.getDeadline());
-                    long id = db.insert(KContract.TABLE, null, values);
-                    if (id != -1)
+                    List<AccountSummary> list = new ArrayList<>();
+                    if (c != null && c.moveToFirst())
                     {
-                        k.set_id(id);
-                        result.add(k);
+                        do {
+                            list.add(new AccountSummary(AppUtils.uuidFromBytes(c.getBlob(0)),
+                                                        c.getString(1),
+                                                        c.getLong(2),
+                                                        c.getInt(3) == 1));
+                        } while(c.moveToNext());
                     }
+                    rows(list.size());
+                    callback.onSelected(list.toArray(new AccountSummary[0]));
                 }
-                callback.onUpdated(result.toArray(new K[0]));
             }
-            return null;
         }
     }
 
-    private static class UpdateKAsyncTask extends AsyncTask<Void, Void, Void>
+    private static class SelectAccSummaryPageTask extends DbTask
     {
-        private SQLiteDatabase db;
-        private DaoCallbacks.Update<K> callback;
-        private K[] ks;
+        private static final String SQL_SELECT =
+                "SELECT " + AccountContract.COLUMN_UUID + "," + AccountContract.COLUMN_ACCOUNT +
+                "," + AccountContract.COLUMN_PARENT + "," + AccountContract.COLUMN_EXPIRE +
+                " FROM " + AccountContract.TABLE +
+                " WHERE " + AccountContract.COLUMN_PARENT + " = ?1";
+
+        private static final String SQL_FIRST =
+                SQL_SELECT +
+                " ORDER BY " + AccountContract.COLUMN_ACCOUNT + "," + AccountContract.COLUMN_UUID +
+                " LIMIT ?4";
+
+        private static final String SQL_AFTER =
+                SQL_SELECT +
+                " AND " + AccountContract.COLUMN_ACCOUNT + " >= ?2 AND (" +
+                AccountContract.COLUMN_ACCOUNT + " > ?2 OR " +
+                AccountContract.COLUMN_UUID + " > ?3)" +
+                " ORDER BY " + AccountContract.COLUMN_ACCOUNT + "," + AccountContract.COLUMN_UUID +
+                " LIMIT ?4";
+
+        private static final String SQL_BEFORE =
+                SQL_SELECT +
+                " AND " + AccountContract.COLUMN_ACCOUNT + " <= ?2 AND (" +
+                AccountContract.COLUMN_ACCOUNT + " < ?2 OR " +
+                AccountContract.COLUMN_UUID + " < ?3)" +
+                " ORDER BY " + AccountContract.COLUMN_ACCOUNT + " DESC," +
+                AccountContract.COLUMN_UUID + " DESC" +
+                " LIMIT ?4";
 
-        private UpdateKAsyncTask(SQLiteDatabase db, DaoCallbacks.Update<K> updateCallback,
-                                   K... ks) {
-            this.db = db;
-            this.callback = updateCallback;
-            this.ks = ks;
+        private Long id;
+        private AccountSummary anchor;
+        private boolean forward;
+        private int pageSize;
+        private DaoCallbacks.Page<AccountSummary> callback;
+
+        private SelectAccSummaryPageTask(@NonNull Long id, @Nullable AccountSummary anchor,
+                                         boolean forward, int pageSize,
+                                         @NonNull DaoCallbacks.Page<AccountSummary> callback) {
+
+            this.id = id;
+            this.anchor = anchor;
+            this.forward = forward;
+            this.pageSize = pageSize;
+            this.callback = callback;
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("Database instance is closed or is locked by other thread");
+            }
+            else if (anchor == null && !forward)
+            {
+                rows(0);
+                callback.onPage(new AccountSummary[0], false);
+            }
+            else
+            {
+                String sql = anchor == null ? SQL_FIRST : forward ? SQL_AFTER : SQL_BEFORE;
+                // ?2 and ?3 are not used by SQL_FIRST
+                Object[] args = new Object[] {
+                        id,
+                        anchor == null ? null : anchor.getAccount(),
+                        anchor == null ? null : AppUtils.uuidToBytes(anchor.get_id()),
+                        pageSize + 1 };
+
+                try(Cursor c = rawQuery(db, sql, args))
+                {
+                    List<AccountSummary> list = new ArrayList<>(pageSize);
+                    boolean hasMore = false;
+                    if (c != null && c.moveToFirst())
+                    {
+                        do {
+                            if (list.size() == pageSize)
+                            {
+                                hasMore = true;
+                                break;
+                            }
+                            list.add(new AccountSummary(AppUtils.uuidFromBytes(c.getBlob(0)),
+                                                        c.getString(1),
+                                                        c.getLong(2),
+                                                        c.getInt(3) == 1));
+                        } while(c.moveToNext());
+                    }
+                    if (!forward)
+                    {
+                        Collections.reverse(list);
+                    }
+                    rows(list.size());
+                    callback.onPage(list.toArray(new AccountSummary[0]), hasMore);
+                }
+            }
+        }
+    }
+
+    /**
+     * Matches are ranked in Java from their matchinfo (Android doesn't allow registering a rank
+     * function): every hit of a term on a column scores the column weight over the hits of the
+     * term in the whole table, so rare terms and name hits rank first. Only the best 'limit'
+     * rows are then read from ACC.
+     */
+    private static class SearchAccTask extends DbTask
+    {
+        private static final int MAX_TERMS = 8;
+
+        private static final String SQL_ROWS =
+                "SELECT rowid," + AccountContract.COLUMN_UUID + "," +
+                AccountContract.COLUMN_ACCOUNT + "," + AccountContract.COLUMN_PARENT + "," +
+                AccountContract.COLUMN_EXPIRE + " FROM " + AccountContract.TABLE +
+                " WHERE rowid IN (";
+
+        private String query;
+        private int limit;
+        private Long scopeId;
+        private DaoCallbacks.Select<AccountSummary> callback;
+
+        private SearchAccTask(@NonNull String query, int limit, @Nullable Long scopeId,
+                              @NonNull DaoCallbacks.Select<AccountSummary> callback) {
+
+            this.query = query;
+            this.limit = limit;
+            this.scopeId = scopeId;
+            this.callback = callback;
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
@@ -1260,82 +1597,1654 @@ public class AppDatabase extends SQLiteOpenHelper {
             }
             else
             {
-                ContentValues values = new ContentValues();
-                List<K> result = new ArrayList<>();
+                String match = toMatchExpression(query);
+                if (match == null)
+                {
+                    rows(0);
+                    callback.onSelected(new AccountSummary[0]);
+                    return;
+                }
 
-                for (K k : ks)
+                // Min-heap of the best 'limit' hits
+                PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1, new Comparator<Hit>() {
+                    @Override
+                    public int compare(Hit h1, Hit h2) {
+                        return Double.compare(h1.score, h2.score);
+                    }
+                });
+                try(Cursor c = scopeId == null ?
+                        db.rawQuery(AccountSearchContract.STATEMENT_MATCH,
+                                    new String[] { match }) :
+                        db.rawQuery(AccountSearchContract.STATEMENT_MATCH_IN_SUBTREE,
+                                    new String[] { match, scopeId.toString() }))
                 {
-                    values.clear();
-                    values.put(KContract.COLUMN_ID, k.get_id());
-                    values.put(KContract.COLUMN_ACC_ID, k.getAccId());
-                    values.put(KContract.COLUMN_CRYPTO_PWD, AppUtils.fromStringBase64(k.getPwdBase64()));
-                    values.put(KContract.COLUMN_PARAM_IV, k.getSpec().getIV());
-                    values.put(KContract.COLUMN_PARAM_TLENGTH, k.getSpec().getTLen());
-                    values.put(KContract.COLUMN_DEADLINE, k.getDeadline());
-
-
-                    long id = db.update(KContract.TABLE, values,
-                                        KContract.COLUMN_ID + " = ?",
-                                         new String[]{ k.get_id().toString() });
-                    if (id != -1)
+                    while (c != null && c.moveToNext())
                     {
-                        result.add(k);
+                        best.add(new Hit(c.getLong(0), score(c.getBlob(1))));
+                        if (best.size() > limit) best.poll();
                     }
                 }
-                callback.onUpdated(result.toArray(new K[0]));
+
+                final Map<Long, Double> scores = new HashMap<>();
+                StringBuilder sql = new StringBuilder(SQL_ROWS);
+                String[] args = new String[best.size()];
+                int i = 0;
+                for (Hit hit : best)
+                {
+                    scores.put(hit.rowid, hit.score);
+                    sql.append(i == 0 ? "?" : ",?");
+                    args[i++] = String.valueOf(hit.rowid);
+                }
+                sql.append(')');
+
+                final Map<String, Long> rowids = new HashMap<>();
+                List<AccountSummary> list = new ArrayList<>(args.length);
+                if (args.length > 0)
+                {
+                    try(Cursor c = db.rawQuery(sql.toString(), args))
+                    {
+                        while (c != null && c.moveToNext())
+                        {
+                            String uuid = AppUtils.uuidFromBytes(c.getBlob(1));
+                            rowids.put(uuid, c.getLong(0));
+                            list.add(new AccountSummary(uuid,
+                                                        c.getString(2),
+                                                        c.getLong(3),
+                                                        c.getInt(4) == 1));
+                        }
+                    }
+                }
+
+                Collections.sort(list, new Comparator<AccountSummary>() {
+                    @Override
+                    public int compare(AccountSummary a1, AccountSummary a2) {
+                        int byScore = Double.compare(scores.get(rowids.get(a2.get_id())),
+                                                     scores.get(rowids.get(a1.get_id())));
+                        return byScore != 0 ? byScore :
+                                a1.getAccount().compareToIgnoreCase(a2.getAccount());
+                    }
+                });
+                rows(list.size());
+                callback.onSelected(list.toArray(new AccountSummary[0]));
+            }
+        }
+
+        /**
+         * Method to build the MATCH expression of a query: every word as a quoted prefix term,
+         * so FTS operators typed by the user are taken as plain text
+         * @param query Text typed by the user
+         * @return MATCH expression, null if the query has no words
+         */
+        @Nullable
+        private static String toMatchExpression(@NonNull String query)
+        {
+            StringBuilder match = new StringBuilder();
+            int terms = 0;
+            for (String word : query.split("[^\\p{L}\\p{N}]+"))
+            {
+                if (word.isEmpty()) continue;
+                if (terms > 0) match.append(' ');
+                match.append('"').append(word).append("\"*");
+                if (++terms == MAX_TERMS) break;
+            }
+            return terms == 0 ? null : match.toString();
+        }
+
+        /**
+         * @param matchinfo matchinfo 'pcx' blob: phrase count, column count, then 3 ints per
+         *                  phrase and column (hits in this row, hits in all rows, rows with hits)
+         * @return Rank of the row, the higher the better
+         */
+        private static double score(@NonNull byte[] matchinfo)
+        {
+            IntBuffer info = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder())
+                    .asIntBuffer();
+            int phrases = info.get(0);
+            int columns = info.get(1);
+            double score = 0;
+            for (int p = 0; p < phrases; p++)
+            {
+                for (int col = 0; col < columns; col++)
+                {
+                    int x = 2 + 3 * (p * columns + col);
+                    int rowHits = info.get(x);
+                    int allHits = info.get(x + 1);
+                    if (rowHits > 0)
+                    {
+                        double weight = col < AccountSearchContract.RANK_WEIGHTS.length ?
+                                AccountSearchContract.RANK_WEIGHTS[col] : 1.0;
+                        score += weight * rowHits / allHits;
+                    }
+                }
+            }
+            return score;
+        }
+
+        private static final class Hit
+        {
+            private final long rowid;
+            private final double score;
+
+            private Hit(long rowid, double score)
+            {
+                this.rowid = rowid;
+                this.score = score;
             }
-            return null;
         }
     }
 
-    private static class DeleteKAsyncTask extends AsyncTask<Void, Void, Void>
+    private static class SelectAccRootTask extends DbTask
     {
-        private SQLiteDatabase db;
-        private DaoCallbacks.Delete callback;
-        private Long[] ids;
+        private DaoCallbacks.Select<Account> callback;
 
-        private DeleteKAsyncTask(SQLiteDatabase db, DaoCallbacks.Delete callback, Long... ids) {
+        private SelectAccRootTask(@NonNull DaoCallbacks.Select<Account> callback) {
 
-            this.db = db;
             this.callback = callback;
-            this.ids = ids;
         }
 
         @Override
-        protected Void doInBackground(Void... voids) {
+        void run(@NonNull SQLiteDatabase db) {
 
             if (!db.isOpen())
             {
-                throw new SQLException("");
+                throw new SQLException("Database instance is closed or is locked by other thread");
             }
             else
             {
-                int count = 0;
-                for (long id : ids)
+                try(Cursor c = db.query(
+                        AccountContract.TABLE,
+                        AccountContract.COLUMNS,
+                        AccountContract.COLUMN_PARENT + " = ?",
+                        new String[]{String.valueOf(rootId)},
+                        null,
+                        null,
+                        null))
                 {
-                    int affected = db.delete(KContract.TABLE,
-                            KContract.COLUMN_ID + " = ?",
-                            new String[]{ String.valueOf(id)} );
-                    if (affected == 1)
+                    if (c != null)
+                    {
+                        List<Account> list = new RowMapper.ForAccount(c).mapAll(c);
+                        rows(list.size());
+                        callback.onSelected(list.toArray(new Account[0]));
+                    }
+                    else
                     {
-                        count++;
+                        rows(0);
+                        callback.onSelected(new Account[0]);
                     }
                 }
-                if (count == ids.length)
+            }
+        }
+    }
+
+    private static class InsertAccTask extends DbTask
+    {
+        private Account[] accounts;
+        private DaoCallbacks.Update<Account> callback;
+
+        private InsertAccTask(DaoCallbacks.Update<Account> callback,
+                              Account... accounts)
+        {
+            this.accounts = accounts;
+            this.callback = callback;
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("Database instance is closed or is locked by other thread");
+            }
+            else
+            {
+                List<Account> result = runBatch(this, db, AccountContract.STATEMENT_INSERT,
+                        accounts, new BatchOperation<Account>() {
+                            @Override
+                            public Account apply(SQLiteStatement statement, Account acc) {
+                                bindAccount(statement, acc);
+                                return statement.executeInsert() != -1 ? acc : null;
+                            }
+                        });
+                Set<Long> parents = new HashSet<>();
+                for (Account acc : result)
+                {
+                    parents.add(acc.getParent());
+                }
+                notifyChanged(AccountContract.TABLE, parents);
+                rows(result.size());
+                callback.onUpdated(result.toArray(new Account[0]));
+            }
+        }
+    }
+
+    private static class UpdateAccTask extends DbTask
+    {
+        private DaoCallbacks.Update<Account> callback;
+        private Account[] accounts;
+
+        private UpdateAccTask(DaoCallbacks.Update<Account> updateCallback,
+                              Account... accounts) {
+            this.callback = updateCallback;
+            this.accounts = accounts;
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("Database instance is closed or is locked by other thread");
+            }
+            else
+            {
+                String[] ids = new String[accounts.length];
+                for (int i = 0; i < ids.length; i++)
+                {
+                    ids[i] = accounts[i].get_id();
+                }
+                Set<Long> parents;
+                List<Account> result;
+                // Same transaction as the update, see UpdateDirTask
+                db.beginTransactionNonExclusive();
+                try
+                {
+                    // A moved account changes the listing of its old parent too
+                    parents = parentsOf(db, AccountContract.TABLE, AccountContract.COLUMN_UUID,
+                                        uuidKeys(ids));
+                    result = runBatch(this, db, AccountContract.STATEMENT_UPDATE, accounts,
+                            new BatchOperation<Account>() {
+                                @Override
+                                public Account apply(SQLiteStatement statement, Account acc) {
+                                    bindAccount(statement, acc);
+                                    statement.executeUpdateDelete();
+                                    return acc;
+                                }
+                            });
+                    db.setTransactionSuccessful();
+                }
+                finally
+                {
+                    db.endTransaction();
+                }
+                for (Account acc : result)
+                {
+                    parents.add(acc.getParent());
+                }
+                notifyChanged(AccountContract.TABLE, parents);
+                rows(result.size());
+                callback.onUpdated(result.toArray(new Account[0]));
+            }
+        }
+    }
+
+    private static class MoveAccTask extends DbTask
+    {
+        private DaoCallbacks.Move callback;
+        private Long parentId;
+        private String[] ids;
+
+        private MoveAccTask(DaoCallbacks.Move callback, Long parentId, String... ids) {
+
+            this.callback = callback;
+            this.parentId = parentId;
+            this.ids = new LinkedHashSet<>(Arrays.asList(ids)).toArray(new String[0]);
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("Database instance is closed or is locked by other thread");
+            }
+            else
+            {
+                byte[][] keys = uuidKeys(ids);
+                Set<Long> parents = null;
+                int moved = 0;
+                int moveCode;
+                db.beginTransactionNonExclusive();
+                try
+                {
+                    // A moved account changes the listing of its old parent too
+                    parents = parentsOf(db, AccountContract.TABLE, AccountContract.COLUMN_UUID,
+                                        keys);
+                    moved = updateIn(db, AccountContract.STATEMENT_MOVE_IN,
+                                     new Object[] {parentId}, keys);
+                    moveCode = moveCode(moved, ids.length);
+                    db.setTransactionSuccessful();
+                }
+                catch (SQLiteConstraintException e)
                 {
-                    callback.onDelete(DaoCallbacks.DELETE_OK);
+                    // The new parent doesn't exist
+                    e.printStackTrace();
+                    failed(e);
+                    moved = 0;
+                    moveCode = DaoCallbacks.MOVE_FAIL;
                 }
-                else if (count != 0)
+                finally
                 {
-                    callback.onDelete(DaoCallbacks.DELETE_PARTIAL);
+                    db.endTransaction();
                 }
-                else
+
+                if (moveCode != DaoCallbacks.MOVE_FAIL)
+                {
+                    parents.add(parentId);
+                    notifyChanged(AccountContract.TABLE, parents);
+                }
+                rows(moved);
+                callback.onMoved(moveCode);
+            }
+        }
+    }
+
+    private static class DeleteAccTask extends DbTask
+    {
+        private static final String STATS =
+                "SELECT COUNT(*) FROM " + KContract.TABLE + " WHERE " + KContract.COLUMN_ACC_ID +
+                " IN (SELECT " + AccountContract.COLUMN_ID + " FROM " + AccountContract.TABLE +
+                " WHERE " + AccountContract.COLUMN_UUID + " IN %1$s)";
+
+        private DaoCallbacks.Delete callback;
+        private String[] ids;
+
+        private DeleteAccTask(DaoCallbacks.Delete callback, String... ids) {
+
+            this.callback = callback;
+            this.ids = new LinkedHashSet<>(Arrays.asList(ids)).toArray(new String[0]);
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("");
+            }
+            else
+            {
+                byte[][] keys = uuidKeys(ids);
+                Set<Long> parents;
+                int accounts;
+                int ks;
+                db.beginTransactionNonExclusive();
+                try
                 {
-                    callback.onDelete(DaoCallbacks.DELETE_FAIL);
+                    parents = parentsOf(db, AccountContract.TABLE, AccountContract.COLUMN_UUID,
+                                        keys);
+                    // K rows of the accounts go by cascade, they're counted first
+                    ks = (int) queryLongIn(db, STATS, NO_ARGS, keys);
+                    accounts = updateIn(db, AccountContract.STATEMENT_DELETE_IN, NO_ARGS, keys);
+                    db.setTransactionSuccessful();
                 }
+                finally
+                {
+                    db.endTransaction();
+                }
+
+                if (accounts != 0) notifyChanged(AccountContract.TABLE, parents);
+                if (ks != 0) notifyChanged(KContract.TABLE, null);
+                rows(accounts + ks);
+                callback.onDelete(deleteCode(accounts, ids.length),
+                                  new SubtreeStats(0, accounts, ks));
             }
-            return null;
         }
     }
 
+// ===============================================================================================//
+//                                            K
+// ===============================================================================================//
+
+    /**
+     * Method to retrieve K's from database
+     * @param id String identifier of the k to select, if it is null, then all k's
+     *          will be selected
+     * @param selectCallback Callback of the method
+     */
+    void selectK(@Nullable String id, @NonNull DaoCallbacks.Select<K> selectCallback)
+    {
+        execute(DbExecutor.LANE_READ, new SelectKTask(id, selectCallback));
+    }
+
+    /**
+     * Method to retrieve K's from database
+     * @param id Long identifier of the k to select, if it is null, then all k's
+     *          will be selected
+     * @param selectCallback Callback of the method
+     */
+    void selectKById(@Nullable Long id, @NonNull DaoCallbacks.Select<K> selectCallback)
+    {
+        execute(DbExecutor.LANE_READ, new SelectKByIdTask(id, selectCallback));
+    }
+
+    /**
+     * Method to insert new k to database
+     * @param insertCallback Callback of the method
+     * @param ks K array containing all k to insert
+     */
+    void insertK(@NonNull DaoCallbacks.Update<K> insertCallback,
+                       K... ks)
+    {
+        execute(DbExecutor.LANE_WRITE, new InsertKTask(insertCallback, ks));
+    }
+
+    /**
+     * Method to update k from the database
+     * @param updateCallback Callback of the method
+     * @param ks K array containing all k to be updated
+     */
+    void updateK(DaoCallbacks.Update<K> updateCallback, K... ks)
+    {
+        execute(DbExecutor.LANE_WRITE, new UpdateKTask(updateCallback, ks));
+    }
+
+    /**
+     * Method to delete k from database in one transaction
+     * @param deleteCallback Callback of the method
+     * @param ids Long array containing all the id's from the k to be removed
+     */
+    void deleteK(DaoCallbacks.Delete deleteCallback, Long... ids)
+    {
+        execute(DbExecutor.LANE_WRITE, new DeleteKTask(deleteCallback, ids));
+    }
+
+
+    // ======================================================================== //
+    //                             K : TASKS
+    // ======================================================================== //
+
+    private static class SelectKTask extends DbTask
+    {
+        private static final String SQL_ALL = selectFrom(KContract.TABLE, KContract.COLUMNS);
+
+        private static final String SQL_BY_ACC =
+                SQL_ALL + " WHERE " + KContract.SELECTION_ACC_UUID;
+
+        private String id;
+        private DaoCallbacks.Select<K> callback;
+
+        private SelectKTask(@Nullable String id,
+                            @NonNull DaoCallbacks.Select<K> callback) {
+
+            this.id = id;
+            this.callback = callback;
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("Database instance is closed or is locked by other thread");
+            }
+            else
+            {
+                try(Cursor c = id == null ?
+                        rawQuery(db, SQL_ALL, new Object[0]) :
+                        rawQuery(db, SQL_BY_ACC, new Object[]{AppUtils.uuidToBytes(id)}))
+                {
+                    if (c != null)
+                    {
+                        List<K> list = new RowMapper.ForK(c).mapAll(c);
+                        rows(list.size());
+                        callback.onSelected(list.toArray(new K[0]));
+                    }
+                    else
+                    {
+                        rows(0);
+                        callback.onSelected(new K[0]);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class SelectKByIdTask extends DbTask
+    {
+        private Long id;
+        private DaoCallbacks.Select<K> callback;
+
+        private SelectKByIdTask(@Nullable Long id,
+                                @NonNull DaoCallbacks.Select<K> callback) {
+
+            this.id = id;
+            this.callback = callback;
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("Database instance is closed or is locked by other thread");
+            }
+            else
+            {
+                try(Cursor c = db.query(
+                        KContract.TABLE,
+                        KContract.COLUMNS,
+                        id == null ? null : KContract.COLUMN_ID + " = ?",
+                        id == null ? null : new String[]{id.toString()},
+                        null,
+                        null,
+                        null))
+                {
+                    if (c != null)
+                    {
+                        List<K> list = new RowMapper.ForK(c).mapAll(c);
+                        rows(list.size());
+                        callback.onSelected(list.toArray(new K[0]));
+                    }
+                    else
+                    {
+                        rows(0);
+                        callback.onSelected(new K[0]);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class InsertKTask extends DbTask
+    {
+        private K[] ks;
+        private DaoCallbacks.Update<K> callback;
+
+        private InsertKTask(DaoCallbacks.Update<K> callback,
+                            K... ks)
+        {
+            this.ks = ks;
+            this.callback = callback;
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("Database instance is closed or is locked by other thread");
+            }
+            else
+            {
+                List<K> result = runBatch(this, db, KContract.STATEMENT_INSERT, ks,
+                        new BatchOperation<K>() {
+                            @Override
+                            public K apply(SQLiteStatement statement, K k) {
+                                bindK(statement, k);
+                                long id = statement.executeInsert();
+                                if (id != -1)
+                                {
+                                    k.set_id(id);
+                                    return k;
+                                }
+                                return null;
+                            }
+                        });
+                notifyChanged(KContract.TABLE, null);
+                rows(result.size());
+                callback.onUpdated(result.toArray(new K[0]));
+            }
+        }
+    }
+
+    private static class UpdateKTask extends DbTask
+    {
+        private DaoCallbacks.Update<K> callback;
+        private K[] ks;
+
+        private UpdateKTask(DaoCallbacks.Update<K> updateCallback,
+                            K... ks) {
+            this.callback = updateCallback;
+            this.ks = ks;
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("Database instance is closed or is locked by other thread");
+            }
+            else
+            {
+                List<K> result = runBatch(this, db, KContract.STATEMENT_UPDATE, ks,
+                        new BatchOperation<K>() {
+                            @Override
+                            public K apply(SQLiteStatement statement, K k) {
+                                bindK(statement, k);
+                                statement.bindLong(6, k.get_id());
+                                statement.executeUpdateDelete();
+                                return k;
+                            }
+                        });
+                notifyChanged(KContract.TABLE, null);
+                rows(result.size());
+                callback.onUpdated(result.toArray(new K[0]));
+            }
+        }
+    }
+
+    private static class DeleteKTask extends DbTask
+    {
+        private DaoCallbacks.Delete callback;
+        private Long[] ids;
+
+        private DeleteKTask(DaoCallbacks.Delete callback, Long... ids) {
+
+            this.callback = callback;
+            this.ids = new LinkedHashSet<>(Arrays.asList(ids)).toArray(new Long[0]);
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("");
+            }
+            else
+            {
+                int ks;
+                db.beginTransactionNonExclusive();
+                try
+                {
+                    ks = updateIn(db, KContract.STATEMENT_DELETE_IN, NO_ARGS, ids);
+                    db.setTransactionSuccessful();
+                }
+                finally
+                {
+                    db.endTransaction();
+                }
+
+                if (ks != 0) notifyChanged(KContract.TABLE, null);
+                rows(ks);
+                callback.onDelete(deleteCode(ks, ids.length), new SubtreeStats(0, 0, ks));
+            }
+        }
+    }
+
+// ===============================================================================================//
+//                                         ACCOUNT + K
+// ===============================================================================================//
+
+    /**
+     * Method to retrieve an account and its K with a single statement
+     * @param id Account identifier
+     * @param selectCallback Callback of the method, empty selection if the account doesn't exist
+     */
+    void selectAccountWithK(@NonNull String id,
+                            @NonNull DaoCallbacks.Select<AccountWithK> selectCallback)
+    {
+        execute(DbExecutor.LANE_READ, new SelectAccWithKTask(id, selectCallback));
+    }
+
+    private static class SelectAccWithKTask extends DbTask
+    {
+        private static final String SQL =
+                "SELECT " +
+                column(AccountContract.TABLE, AccountContract.COLUMN_UUID) + "," +
+                column(AccountContract.TABLE, AccountContract.COLUMN_ACCOUNT) + "," +
+                column(AccountContract.TABLE, AccountContract.COLUMN_USER) + "," +
+                column(AccountContract.TABLE, AccountContract.COLUMN_URL) + "," +
+                column(AccountContract.TABLE, AccountContract.COLUMN_BRIEF) + "," +
+                column(AccountContract.TABLE, AccountContract.COLUMN_DATE_CREATE) + "," +
+                column(AccountContract.TABLE, AccountContract.COLUMN_DATE_UPDATE) + "," +
+                column(AccountContract.TABLE, AccountContract.COLUMN_EXPIRE) + "," +
+                column(AccountContract.TABLE, AccountContract.COLUMN_DATE_EXPIRE) + "," +
+                column(AccountContract.TABLE, AccountContract.COLUMN_PARENT) + "," +
+                column(KContract.TABLE, KContract.COLUMN_ID) + "," +
+                AccountContract.TABLE + "." + AccountContract.COLUMN_UUID + " AS " +
+                KContract.COLUMN_ACC_UUID + "," +
+                column(KContract.TABLE, KContract.COLUMN_CRYPTO_PWD) + "," +
+                column(KContract.TABLE, KContract.COLUMN_PARAM_IV) + "," +
+                column(KContract.TABLE, KContract.COLUMN_PARAM_TLENGTH) + "," +
+                column(KContract.TABLE, KContract.COLUMN_DEADLINE) +
+                " FROM " + AccountContract.TABLE + " LEFT JOIN " + KContract.TABLE +
+                " ON " + KContract.TABLE + "." + KContract.COLUMN_ACC_ID + " = " +
+                AccountContract.TABLE + "." + AccountContract.COLUMN_ID +
+                " WHERE " + AccountContract.TABLE + "." + AccountContract.COLUMN_UUID + " = ?";
+
+        private String id;
+        private DaoCallbacks.Select<AccountWithK> callback;
+
+        private SelectAccWithKTask(@NonNull String id,
+                                   @NonNull DaoCallbacks.Select<AccountWithK> callback) {
+
+            this.id = id;
+            this.callback = callback;
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("Database instance is closed or is locked by other thread");
+            }
+            else
+            {
+                try(Cursor c = rawQuery(db, SQL, new Object[]{AppUtils.uuidToBytes(id)}))
+                {
+                    if (c != null && c.moveToFirst())
+                    {
+                        RowMapper.ForK kMapper = new RowMapper.ForK(c);
+                        Account account = new RowMapper.ForAccount(c).map(c);
+                        // LEFT JOIN: K columns are null if the account has no K
+                        K k = c.isNull(c.getColumnIndexOrThrow(KContract.COLUMN_ID)) ?
+                                null : kMapper.map(c);
+                        rows(1);
+                        callback.onSelected(new AccountWithK[] {new AccountWithK(account, k)});
+                    }
+                    else
+                    {
+                        rows(0);
+                        callback.onSelected(new AccountWithK[0]);
+                    }
+                }
+            }
+        }
+    }
+
+// ===============================================================================================//
+//                                         UNIT OF WORK
+// ===============================================================================================//
+
+    /**
+     * Method to apply the operations of a UnitOfWork in one transaction
+     * @param operations Operations, in order
+     * @param commitCallback Callback of the method
+     */
+    void commitUnitOfWork(@NonNull List<UnitOfWork.Operation> operations,
+                          @NonNull DaoCallbacks.Commit commitCallback)
+    {
+        execute(DbExecutor.LANE_WRITE, new CommitUnitTask(operations, commitCallback));
+    }
+
+
+    /**
+     * Statements are compiled once per unit and reused by every operation of the same kind
+     */
+    private static class CommitUnitTask extends DbTask
+    {
+        private List<UnitOfWork.Operation> operations;
+        private DaoCallbacks.Commit callback;
+
+        private final Map<String, SQLiteStatement> statements = new HashMap<>();
+
+        private CommitUnitTask(@NonNull List<UnitOfWork.Operation> operations,
+                               @NonNull DaoCallbacks.Commit callback) {
+
+            this.operations = operations;
+            this.callback = callback;
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("Database instance is closed or is locked by other thread");
+            }
+            else
+            {
+                List<String> accountIds = new ArrayList<>();
+                for (UnitOfWork.Operation operation : operations)
+                {
+                    if (operation.entity instanceof Account)
+                    {
+                        accountIds.add(((Account) operation.entity).get_id());
+                    }
+                    else if (operation.entity instanceof String)
+                    {
+                        accountIds.add((String) operation.entity);
+                    }
+                }
+
+                Set<Long> parents = new HashSet<>();
+                boolean committed = true;
+                Map<K, Long> kIds = new IdentityHashMap<>();
+                try
+                {
+                    db.beginTransactionNonExclusive();
+                    try
+                    {
+                        // Folders the accounts are leaving, read before they are written and
+                        // in the same transaction, so no other write can move them in between
+                        parents.addAll(parentsOf(db, AccountContract.TABLE,
+                                AccountContract.COLUMN_UUID,
+                                uuidKeys(accountIds.toArray(new String[0]))));
+                        for (UnitOfWork.Operation operation : operations)
+                        {
+                            if (operation.entity instanceof Account)
+                            {
+                                Account acc = (Account) operation.entity;
+                                committed = apply(db, operation.type, acc);
+                                parents.add(acc.getParent());
+                            }
+                            else if (operation.entity instanceof K)
+                            {
+                                committed = apply(db, operation.type, (K) operation.entity, kIds);
+                            }
+                            else
+                            {
+                                committed = delete(db, operation.entity);
+                            }
+                            if (!committed) break;
+                        }
+                        if (committed) db.setTransactionSuccessful();
+                    }
+                    finally
+                    {
+                        // Rolls back unless successful, committing can fail too (i.e. disk full)
+                        db.endTransaction();
+                    }
+                }
+                catch (SQLiteException e)
+                {
+                    // Constraint failure, full disk, locked database...: nothing was applied
+                    committed = false;
+                    e.printStackTrace();
+                    failed(e);
+                }
+                finally
+                {
+                    for (SQLiteStatement statement : statements.values())
+                    {
+                        statement.close();
+                    }
+                }
+
+                if (committed)
+                {
+                    for (Map.Entry<K, Long> entry : kIds.entrySet())
+                    {
+                        entry.getKey().set_id(entry.getValue());
+                    }
+                    if (!accountIds.isEmpty()) notifyChanged(AccountContract.TABLE, parents);
+                    notifyChanged(KContract.TABLE, null);
+                }
+                rows(committed ? operations.size() : 0);
+                callback.onCommitted(committed);
+            }
+        }
+
+        private boolean apply(@NonNull SQLiteDatabase db, int type, @NonNull Account acc)
+        {
+            if (type != UnitOfWork.INSERT)
+            {
+                SQLiteStatement update = statement(db, AccountContract.STATEMENT_UPDATE);
+                bindAccount(update, acc);
+                if (update.executeUpdateDelete() == 1) return true;
+                if (type == UnitOfWork.UPDATE) return false;
+            }
+            SQLiteStatement insert = statement(db, AccountContract.STATEMENT_INSERT);
+            bindAccount(insert, acc);
+            return insert.executeInsert() != -1;
+        }
+
+        private boolean apply(@NonNull SQLiteDatabase db, int type, @NonNull K k,
+                              @NonNull Map<K, Long> kIds)
+        {
+            if (type == UnitOfWork.UPDATE)
+            {
+                SQLiteStatement update = statement(db, KContract.STATEMENT_UPDATE);
+                bindK(update, k);
+                update.bindLong(6, k.get_id());
+                return update.executeUpdateDelete() == 1;
+            }
+            if (type == UnitOfWork.UPSERT)
+            {
+                SQLiteStatement update = statement(db, KContract.STATEMENT_UPDATE_BY_ACC);
+                bindK(update, k);
+                if (update.executeUpdateDelete() == 1)
+                {
+                    SQLiteStatement id = statement(db, KContract.STATEMENT_SELECT_ID_BY_ACC);
+                    id.bindBlob(1, AppUtils.uuidToBytes(k.getAccId()));
+                    kIds.put(k, id.simpleQueryForLong());
+                    return true;
+                }
+            }
+            SQLiteStatement insert = statement(db, KContract.STATEMENT_INSERT);
+            bindK(insert, k);
+            long id = insert.executeInsert();
+            if (id == -1) return false;
+            kIds.put(k, id);
+            return true;
+        }
+
+        private boolean delete(@NonNull SQLiteDatabase db, @NonNull Object id)
+        {
+            SQLiteStatement delete;
+            if (id instanceof String)
+            {
+                delete = statement(db, AccountContract.STATEMENT_DELETE);
+                delete.bindBlob(1, AppUtils.uuidToBytes((String) id));
+            }
+            else
+            {
+                delete = statement(db, KContract.STATEMENT_DELETE);
+                delete.bindLong(1, (Long) id);
+            }
+            return delete.executeUpdateDelete() == 1;
+        }
+
+        @NonNull
+        private SQLiteStatement statement(@NonNull SQLiteDatabase db, @NonNull String sql)
+        {
+            SQLiteStatement statement = statements.get(sql);
+            if (statement == null)
+            {
+                statement = db.compileStatement(sql);
+                statements.put(sql, statement);
+            }
+            statement.clearBindings();
+            return statement;
+        }
+    }
+
+// ===============================================================================================//
+//                                         STREAMS
+// ===============================================================================================//
+
+    /**
+     * Method to walk every account in chunks, see DaoCallbacks.Stream. It runs on the
+     * maintenance lane so vault-wide jobs never delay interactive reads.
+     * @param chunkSizeHint Number of rows per chunk, clamped to [1, PAGE_SIZE_MAX]
+     * @param streamCallback Consumer of the chunks
+     */
+    void streamAccounts(int chunkSizeHint, @NonNull DaoCallbacks.Stream<Account> streamCallback)
+    {
+        new StreamTask<>(this, AccountContract.TABLE, AccountContract.COLUMNS,
+                RowMapper.ACCOUNT_FACTORY, new Account[0], pageSize(chunkSizeHint),
+                streamCallback).start();
+    }
+
+    /**
+     * Method to walk every K in chunks, see DaoCallbacks.Stream. It runs on the maintenance
+     * lane so vault-wide jobs never delay interactive reads.
+     * @param chunkSizeHint Number of rows per chunk, clamped to [1, PAGE_SIZE_MAX]
+     * @param streamCallback Consumer of the chunks
+     */
+    void streamKs(int chunkSizeHint, @NonNull DaoCallbacks.Stream<K> streamCallback)
+    {
+        new StreamTask<>(this, KContract.TABLE, KContract.COLUMNS, RowMapper.K_FACTORY,
+                new K[0], pageSize(chunkSizeHint), streamCallback).start();
+    }
+
+    /**
+     * Reads a table chunk by chunk in rowid order. Every chunk is a short query of its own
+     * (keyset on rowid), so no cursor or read transaction is kept open while the consumer works
+     * on a chunk, and the next chunk is not read until the consumer requests it.
+     * @param <T> Model class
+     */
+    private static class StreamTask<T> extends DbTask implements DaoCallbacks.StreamControl
+    {
+        private static final String COLUMN_ROWID = "_ROWID";
+
+        private final AppDatabase database;
+        private final String sql;
+        private final RowMapper.Factory<T> factory;
+        private final T[] type;
+        private final int chunkSize;
+        private final DaoCallbacks.Stream<T> callback;
+
+        // Set while a chunk is in the consumer hands, cleared by request() or cancel()
+        private final AtomicBoolean delivered = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private long lastRowId;
+        private RowMapper<T> mapper;
+
+        private StreamTask(@NonNull AppDatabase database, @NonNull String table,
+                           @NonNull String[] columns, @NonNull RowMapper.Factory<T> factory,
+                           @NonNull T[] type, int chunkSize,
+                           @NonNull DaoCallbacks.Stream<T> callback) {
+
+            StringBuilder sb = new StringBuilder("SELECT rowid AS ").append(COLUMN_ROWID);
+            for (String column : columns)
+            {
+                sb.append(',').append(column);
+            }
+            sb.append(" FROM ").append(table)
+              .append(" WHERE rowid > ? ORDER BY rowid LIMIT ").append(chunkSize);
+
+            this.database = database;
+            this.sql = sb.toString();
+            this.factory = factory;
+            this.type = type;
+            this.chunkSize = chunkSize;
+            this.callback = callback;
+        }
+
+        private void start()
+        {
+            database.execute(DbExecutor.LANE_MAINTENANCE, this);
+        }
+
+        @Override
+        public void request()
+        {
+            if (!cancelled && delivered.compareAndSet(true, false))
+            {
+                start();
+            }
+        }
+
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+            if (delivered.compareAndSet(true, false))
+            {
+                start();
+            }
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("Database instance is closed or is locked by other thread");
+            }
+            if (cancelled)
+            {
+                rows(0);
+                callback.onComplete(true);
+                return;
+            }
+
+            List<T> chunk = new ArrayList<>(chunkSize);
+            try(Cursor c = db.rawQuery(sql, new String[]{String.valueOf(lastRowId)}))
+            {
+                if (c != null && c.moveToFirst())
+                {
+                    if (mapper == null)
+                    {
+                        // Same statement for every chunk, so column positions are resolved once
+                        mapper = factory.create(c);
+                    }
+                    do {
+                        chunk.add(mapper.map(c));
+                        lastRowId = c.getLong(0);
+                    } while (c.moveToNext());
+                }
+            }
+
+            rows(chunk.size());
+            if (chunk.isEmpty())
+            {
+                callback.onComplete(false);
+            }
+            else if (cancelled)
+            {
+                callback.onComplete(true);
+            }
+            else
+            {
+                delivered.set(true);
+                callback.onChunk(chunk.toArray(type), this);
+            }
+        }
+    }
+
+// ===============================================================================================//
+//                                         MAINTENANCE
+// ===============================================================================================//
+
+    /**
+     * Method to give free pages back to the file system, refresh the query planner statistics
+     * and truncate the WAL, see MaintenanceTask. It runs on the maintenance lane.
+     * @param budgetMillis Time after which no other step is started
+     * @param stop Set to stop the run between two steps, i.e. when the job is stopped
+     * @param maintenanceCallback Callback of the method
+     */
+    void maintain(long budgetMillis, @NonNull AtomicBoolean stop,
+                  @NonNull DaoCallbacks.Maintenance maintenanceCallback)
+    {
+        execute(DbExecutor.LANE_MAINTENANCE,
+                new MaintenanceTask(budgetMillis, stop, maintenanceCallback));
+    }
+
+    /**
+     * Steps, in order, each one started only if there is time left:
+     * <ul>
+     *     <li>Vacuum: free pages are released VACUUM_STEP_PAGES at a time (incremental vacuum).
+     *     Files created without auto_vacuum = INCREMENTAL, which can't be set once WAL is on,
+     *     are rebuilt by a full VACUUM the first time they have free pages. It can't be
+     *     interrupted, so it's only started if the whole file can be rewritten in the time left
+     *     (at FULL_VACUUM_BYTES_PER_SECOND), otherwise the file keeps its free pages</li>
+     *     <li>ANALYZE</li>
+     *     <li>Checkpoint: the WAL is copied to the database file and truncated, it's done last
+     *     since the other steps write to the WAL. It's skipped if a reader holds the WAL</li>
+     * </ul>
+     * A step that fails (busy or locked database, full disk...) is reported as not done and the
+     * next ones still run, the callback is always called.
+     *
+     * Rows keep their rowid, all rowid tables have an INTEGER PRIMARY KEY, so running streams
+     * and the full-text index are not affected.
+     */
+    private static class MaintenanceTask extends DbTask
+    {
+        private static final int AUTO_VACUUM_INCREMENTAL = 2;
+        private static final int VACUUM_STEP_PAGES = 256;
+        /**
+         * Conservative rewrite speed of a full VACUUM on a slow device, the file is written
+         * twice (WAL and checkpoint)
+         */
+        private static final long FULL_VACUUM_BYTES_PER_SECOND = 4 * 1024 * 1024;
+
+        private long budgetMillis;
+        private AtomicBoolean stop;
+        private DaoCallbacks.Maintenance callback;
+
+        private MaintenanceTask(long budgetMillis, @NonNull AtomicBoolean stop,
+                                @NonNull DaoCallbacks.Maintenance callback) {
+
+            this.budgetMillis = budgetMillis;
+            this.stop = stop;
+            this.callback = callback;
+        }
+
+        @Override
+        void run(@NonNull SQLiteDatabase db) {
+
+            if (!db.isOpen())
+            {
+                throw new SQLException("Database instance is closed or is locked by other thread");
+            }
+            else
+            {
+                long started = System.nanoTime();
+                long deadline = started + budgetMillis * 1000000L;
+                MaintenanceReport.FileStats before = fileStats(db);
+
+                int vacuumed = 0;
+                boolean fullVacuum = false;
+                boolean vacuumDone = false;
+                try
+                {
+                    long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count",
+                                                                null);
+                    if (freePages != 0 &&
+                        DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) !=
+                        AUTO_VACUUM_INCREMENTAL)
+                    {
+                        if (!isOver(deadline) && fitsInTimeLeft(db, deadline))
+                        {
+                            // Once per file, later runs are incremental
+                            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                            db.execSQL("VACUUM");
+                            fullVacuum = true;
+                            vacuumed = (int) freePages;
+                            freePages = 0;
+                        }
+                    }
+                    else
+                    {
+                        while (freePages != 0 && !isOver(deadline))
+                        {
+                            pragma(db, "PRAGMA incremental_vacuum(" + VACUUM_STEP_PAGES + ")");
+                            long left = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count",
+                                                                   null);
+                            if (left >= freePages) break;
+                            vacuumed += (int) (freePages - left);
+                            freePages = left;
+                        }
+                    }
+                    vacuumDone = freePages == 0;
+                }
+                catch (SQLiteException e)
+                {
+                    e.printStackTrace();
+                    failed(e);
+                }
+
+                boolean analyzed = false;
+                if (!isOver(deadline))
+                {
+                    try
+                    {
+                        db.execSQL("ANALYZE");
+                        analyzed = true;
+                    }
+                    catch (SQLiteException e)
+                    {
+                        e.printStackTrace();
+                        failed(e);
+                    }
+                }
+
+                boolean checkpointed = false;
+                if (!stop.get())
+                {
+                    try
+                    {
+                        // Busy flag, WAL frames and frames copied
+                        long[] checkpoint = pragma(db, "PRAGMA wal_checkpoint(TRUNCATE)");
+                        checkpointed = checkpoint.length != 0 && checkpoint[0] == 0;
+                    }
+                    catch (SQLiteException e)
+                    {
+                        e.printStackTrace();
+                        failed(e);
+                    }
+                }
+
+                MaintenanceReport report = new MaintenanceReport(before, fileStats(db), vacuumed,
+                        fullVacuum, analyzed, checkpointed,
+                        vacuumDone && analyzed && checkpointed,
+                        (System.nanoTime() - started) / 1000000L);
+                rows(vacuumed);
+                callback.onMaintained(report);
+            }
+        }
+
+        private boolean isOver(long deadline)
+        {
+            return stop.get() || System.nanoTime() >= deadline;
+        }
+
+        /**
+         * @return True if a full VACUUM of the database would end before the deadline
+         */
+        private static boolean fitsInTimeLeft(@NonNull SQLiteDatabase db, long deadline)
+        {
+            long bytes = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null) *
+                         DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+            long leftMillis = (deadline - System.nanoTime()) / 1000000L;
+            return bytes * 1000 / FULL_VACUUM_BYTES_PER_SECOND < leftMillis;
+        }
+
+        /**
+         * @return Size of the database, null if it couldn't be read
+         */
+        @Nullable
+        private static MaintenanceReport.FileStats fileStats(@NonNull SQLiteDatabase db)
+        {
+            try
+            {
+                File file = new File(db.getPath());
+                File wal = new File(db.getPath() + "-wal");
+                return new MaintenanceReport.FileStats(
+                        DatabaseUtils.longForQuery(db, "PRAGMA page_size", null),
+                        DatabaseUtils.longForQuery(db, "PRAGMA page_count", null),
+                        DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null),
+                        file.length(),
+                        wal.length());
+            }
+            catch (SQLiteException e)
+            {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        /**
+         * Method to run a pragma that does its work while stepped (incremental_vacuum,
+         * wal_checkpoint), execSQL doesn't step them
+         * @param db Database
+         * @param sql Pragma
+         * @return First row of the result, empty if none
+         */
+        @NonNull
+        private static long[] pragma(@NonNull SQLiteDatabase db, @NonNull String sql)
+        {
+            try (Cursor c = db.rawQuery(sql, null))
+            {
+                // Steps the statement to the end
+                if (c.getCount() == 0 || !c.moveToFirst()) return new long[0];
+                long[] row = new long[c.getColumnCount()];
+                for (int i = 0; i < row.length; i++)
+                {
+                    row[i] = c.getLong(i);
+                }
+                return row;
+            }
+        }
+    }
+
+// ===============================================================================================//
+//                                         BATCHES
+// ===============================================================================================//
+
+    /**
+     * Operation applied to every entity of a batch
+     * @param <T> Entity type
+     */
+    private interface BatchOperation<T>
+    {
+        /**
+         * @param statement Compiled statement, bindings are cleared before every call
+         * @param entity Entity to process
+         * @return Entity to be reported as processed, or null if it wasn't
+         */
+        T apply(SQLiteStatement statement, T entity);
+    }
+
+    /**
+     * Method to run one statement for every entity of a batch. The statement is compiled once
+     * and all the rows are written inside a single transaction, so a batch is applied entirely
+     * or not at all and the task never has rows in the database it didn't publish. When the
+     * caller already holds a transaction the batch joins it.
+     * @param task Task running the batch, rows skipped on a constraint failure are reported to
+     *             it as a failure
+     * @param db Database
+     * @param sql Statement to be compiled
+     * @param entities Entities to process
+     * @param operation Binds and executes the statement for one entity
+     * @return List of entities successfully processed
+     */
+    @NonNull
+    private static <T> List<T> runBatch(@NonNull DbTask task, @NonNull SQLiteDatabase db,
+                                        @NonNull String sql, @NonNull T[] entities,
+                                        @NonNull BatchOperation<T> operation)
+    {
+        List<T> result = new ArrayList<>(entities.length);
+        try (SQLiteStatement statement = db.compileStatement(sql))
+        {
+            db.beginTransactionNonExclusive();
+            try
+            {
+                for (T entity : entities)
+                {
+                    statement.clearBindings();
+                    try
+                    {
+                        T processed = operation.apply(statement, entity);
+                        if (processed != null)
+                        {
+                            result.add(processed);
+                        }
+                    }
+                    catch (SQLiteConstraintException e)
+                    {
+                        // Same as SQLiteDatabase.insert: the row is skipped, the batch goes on
+                        e.printStackTrace();
+                        task.failed(e);
+                    }
+                }
+                db.setTransactionSuccessful();
+            }
+            finally
+            {
+                db.endTransaction();
+            }
+        }
+        return result;
+    }
+
+    private static int deleteCode(int deleted, int requested)
+    {
+        if (deleted == requested)
+        {
+            return DaoCallbacks.DELETE_OK;
+        }
+        else if (deleted != 0)
+        {
+            return DaoCallbacks.DELETE_PARTIAL;
+        }
+        else
+        {
+            return DaoCallbacks.DELETE_FAIL;
+        }
+    }
+
+    private static int moveCode(int moved, int requested)
+    {
+        if (moved == requested)
+        {
+            return DaoCallbacks.MOVE_OK;
+        }
+        else if (moved != 0)
+        {
+            return DaoCallbacks.MOVE_PARTIAL;
+        }
+        else
+        {
+            return DaoCallbacks.MOVE_FAIL;
+        }
+    }
+
+    /**
+     * Arguments of a statement whose only arguments are the ones of its IN list, see updateIn
+     */
+    private static final Object[] NO_ARGS = new Object[0];
+
+    /**
+     * Method to run a statement over a list of keys of any length, one chunk of BATCH_CHUNK_SIZE
+     * keys at a time (SQLite caps the number of arguments of a statement). It doesn't open a
+     * transaction, callers do so the chunks are applied together.
+     * @param db Database
+     * @param sql Statement, the list goes where it has %1$s (see inList)
+     * @param args Other arguments, bound as ?1, ?2...
+     * @param keys Values of the list, bound after args
+     * @return Rows changed by all the chunks
+     */
+    private static int updateIn(@NonNull SQLiteDatabase db, @NonNull String sql,
+                                @NonNull Object[] args, @NonNull Object[] keys)
+    {
+        int changed = 0;
+        for (int from = 0; from < keys.length; from += BATCH_CHUNK_SIZE)
+        {
+            int to = Math.min(keys.length, from + BATCH_CHUNK_SIZE);
+            try (SQLiteStatement statement = compileIn(db, sql, args, keys, from, to))
+            {
+                changed += statement.executeUpdateDelete();
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Same as updateIn for a query returning one number per chunk (i.e. a COUNT)
+     * @return Sum of the numbers returned by all the chunks
+     */
+    private static long queryLongIn(@NonNull SQLiteDatabase db, @NonNull String sql,
+                                    @NonNull Object[] args, @NonNull Object[] keys)
+    {
+        long total = 0;
+        for (int from = 0; from < keys.length; from += BATCH_CHUNK_SIZE)
+        {
+            int to = Math.min(keys.length, from + BATCH_CHUNK_SIZE);
+            try (SQLiteStatement statement = compileIn(db, sql, args, keys, from, to))
+            {
+                total += statement.simpleQueryForLong();
+            }
+        }
+        return total;
+    }
+
+    @NonNull
+    private static SQLiteStatement compileIn(@NonNull SQLiteDatabase db, @NonNull String sql,
+                                             @NonNull Object[] args, @NonNull Object[] keys,
+                                             int from, int to)
+    {
+        SQLiteStatement statement =
+                db.compileStatement(inList(sql, args.length + 1, to - from));
+        Object[] all = inArgs(args, keys, from, to);
+        for (int i = 0; i < all.length; i++)
+        {
+            bind(statement, i + 1, all[i]);
+        }
+        return statement;
+    }
+
+    /**
+     * @param sql Statement with %1$s where the list goes, it may appear more than once
+     * @param first Number of the first argument of the list
+     * @param count Length of the list
+     * @return Statement with "(?first,?first+1,...)" in place of %1$s, numbered so every
+     *         occurrence binds the same values
+     */
+    @NonNull
+    private static String inList(@NonNull String sql, int first, int count)
+    {
+        StringBuilder list = new StringBuilder("(");
+        for (int i = 0; i < count; i++)
+        {
+            list.append(i == 0 ? "?" : ",?").append(first + i);
+        }
+        return String.format(Locale.ROOT, sql, list.append(')'));
+    }
+
+    /**
+     * @return args followed by keys[from, to), in binding order for inList
+     */
+    @NonNull
+    private static Object[] inArgs(@NonNull Object[] args, @NonNull Object[] keys, int from,
+                                   int to)
+    {
+        Object[] all = Arrays.copyOf(args, args.length + to - from);
+        System.arraycopy(keys, from, all, args.length, to - from);
+        return all;
+    }
+
+    private static void bindString(@NonNull SQLiteStatement statement, int index,
+                                   @Nullable String value)
+    {
+        if (value == null) statement.bindNull(index);
+        else statement.bindString(index, value);
+    }
+
+    private static void bindLong(@NonNull SQLiteStatement statement, int index,
+                                 @Nullable Long value)
+    {
+        if (value == null) statement.bindNull(index);
+        else statement.bindLong(index, value);
+    }
+
+    /**
+     * Binds an account following AccountContract.STATEMENT_INSERT / STATEMENT_UPDATE order
+     */
+    private static void bindAccount(@NonNull SQLiteStatement statement, @NonNull Account acc)
+    {
+        bindString(statement, 1, acc.getAccount());
+        bindString(statement, 2, acc.getUser());
+        bindString(statement, 3, acc.getUrl());
+        bindString(statement, 4, acc.getBrief());
+        bindLong(statement, 5, acc.getDateCreate());
+        bindLong(statement, 6, acc.getDateUpdate());
+        statement.bindLong(7, acc.isExpire() ? 1 : 0);
+        bindLong(statement, 8, acc.getDateExpire());
+        bindLong(statement, 9, acc.getParent());
+        statement.bindBlob(10, AppUtils.uuidToBytes(acc.get_id()));
+    }
+
+    /**
+     * Method to query with typed arguments. rawQuery binds everything as text, which never
+     * matches a BLOB or INTEGER column compared with '='
+     * @param db Database
+     * @param sql Query
+     * @param args Arguments: byte[] are bound as BLOB, numbers as INTEGER, null as NULL and
+     *             anything else as TEXT
+     * @return Cursor
+     */
+    @NonNull
+    private static Cursor rawQuery(@NonNull SQLiteDatabase db, @NonNull String sql,
+                                   @NonNull final Object[] args)
+    {
+        return db.rawQueryWithFactory(new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver,
+                                    String editTable, SQLiteQuery query) {
+                for (int i = 0; i < args.length; i++)
+                {
+                    bind(query, i + 1, args[i]);
+                }
+                return new SQLiteCursor(driver, editTable, query);
+            }
+        }, sql, null, null);
+    }
+
+    /**
+     * @return table.column, aliased as column so RowMapper finds it in joins
+     */
+    @NonNull
+    private static String column(@NonNull String table, @NonNull String column)
+    {
+        return table + "." + column + " AS " + column;
+    }
+
+    @NonNull
+    private static String selectFrom(@NonNull String table, @NonNull String[] columns)
+    {
+        StringBuilder sb = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.length; i++)
+        {
+            sb.append(i == 0 ? "" : ",").append(columns[i]);
+        }
+        return sb.append(" FROM ").append(table).toString();
+    }
+
+    private static void bind(@NonNull SQLiteProgram program, int index, @Nullable Object value)
+    {
+        if (value == null) program.bindNull(index);
+        else if (value instanceof byte[]) program.bindBlob(index, (byte[]) value);
+        else if (value instanceof Number) program.bindLong(index, ((Number) value).longValue());
+        else program.bindString(index, value.toString());
+    }
+
+    /**
+     * @param ids Account identifiers
+     * @return Their ACC.UUID keys
+     */
+    @NonNull
+    private static byte[][] uuidKeys(@NonNull String[] ids)
+    {
+        byte[][] keys = new byte[ids.length][];
+        for (int i = 0; i < ids.length; i++)
+        {
+            keys[i] = AppUtils.uuidToBytes(ids[i]);
+        }
+        return keys;
+    }
+
+    /**
+     * Method to read the current parents of some rows, before they are moved or deleted
+     * @param db Database
+     * @param table DIR or ACC, both have a PARENT column
+     * @param keyColumn Column the rows are looked up by (DIR._ID, ACC.UUID)
+     * @param keys Row keys
+     * @return Distinct parents of the rows found
+     */
+    @NonNull
+    private static Set<Long> parentsOf(@NonNull SQLiteDatabase db, @NonNull String table,
+                                       @NonNull String keyColumn, @NonNull Object[] keys)
+    {
+        Set<Long> parents = new HashSet<>();
+        for (int from = 0; from < keys.length; from += BATCH_CHUNK_SIZE)
+        {
+            int to = Math.min(keys.length, from + BATCH_CHUNK_SIZE);
+            StringBuilder sql = new StringBuilder("SELECT DISTINCT PARENT FROM ")
+                    .append(table).append(" WHERE ").append(keyColumn).append(" IN (");
+            Object[] args = new Object[to - from];
+            for (int i = from; i < to; i++)
+            {
+                sql.append(i == from ? "?" : ",?");
+                args[i - from] = keys[i];
+            }
+            sql.append(')');
+
+            try (Cursor c = rawQuery(db, sql.toString(), args))
+            {
+                while (c.moveToNext())
+                {
+                    if (!c.isNull(0)) parents.add(c.getLong(0));
+                }
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Binds a k following KContract.STATEMENT_INSERT / STATEMENT_UPDATE order
+     */
+    private static void bindK(@NonNull SQLiteStatement statement, @NonNull K k)
+    {
+        statement.bindBlob(1, AppUtils.uuidToBytes(k.getAccId()));
+        statement.bindBlob(2, k.getPwd());
+        statement.bindBlob(3, k.getSpec().getIV());
+        statement.bindLong(4, k.getSpec().getTLen());
+        bindLong(statement, 5, k.getDeadline());
+    }
 }
@@ -6,6 +6,10 @@ import androidx.annotation.NonNull;
 import java.sql.SQLException;
 
 import revolhope.splanes.com.bitwallet.model.Account;
+import revolhope.splanes.com.bitwallet.model.AccountSummary;
+import revolhope.splanes.com.bitwallet.model.AccountWithK;
+import revolhope.splanes.com.bitwallet.model.K;
+import revolhope.splanes.com.bitwallet.model.SubtreeStats;
 
 public class DaoAccount implements AbstractDao<String, Account> {
 
@@ -26,43 +30,363 @@ public class DaoAccount implements AbstractDao<String, Account> {
         appDatabase = AppDatabase.getInstance(context);
     }
 
+    /**
+     * Method to retrieve an account by id. Accounts are cached (LRU, see getCache), so re-opening
+     * an entry doesn't query the database again. Misses are merged with an identical read
+     * already running (see InFlightReads).
+     * @param s Account identifier
+     * @param selectCallback Callback of the method, called right away (on the caller thread) if
+     *                       the account is cached
+     */
     @Override
-    public void findById(@NonNull String s, @NonNull DaoCallbacks.Select<Account> selectCallback)
+    public void findById(@NonNull final String s,
+                         @NonNull final DaoCallbacks.Select<Account> selectCallback)
             throws SQLException {
-        appDatabase.selectAccount(s, selectCallback);
+        final EntityCache<String, Account> cache = appDatabase.getAccountCache();
+        Account cached = cache.get(s);
+        if (cached != null)
+        {
+            selectCallback.onSelected(new Account[] {copy(cached)});
+            return;
+        }
+
+        final long generation = cache.generation();
+        select("ACC.id:" + s, new InFlightReads.Query<DaoCallbacks.Select<Account>>() {
+            @Override
+            public void run(@NonNull DaoCallbacks.Select<Account> callback) {
+                appDatabase.selectAccount(s, callback);
+            }
+        }, new DaoCallbacks.Select<Account>() {
+            @Override
+            public void onSelected(Account[] selection) {
+                if (selection != null && selection.length == 1)
+                {
+                    cache.put(s, copy(selection[0]), generation);
+                }
+                selectCallback.onSelected(selection);
+            }
+        });
+    }
+
+    /**
+     * Method to retrieve an account and its K (what opening an entry needs) with a single
+     * statement, instead of findById followed by DaoK.find
+     * @param s Account identifier
+     * @param selectCallback Callback of the method, called right away (on the caller thread) if
+     *                       both are cached
+     */
+    public void findWithK(@NonNull final String s,
+                          @NonNull final DaoCallbacks.Select<AccountWithK> selectCallback)
+            throws SQLException {
+        final EntityCache<String, Account> accountCache = appDatabase.getAccountCache();
+        final EntityCache<String, K> kCache = appDatabase.getKCache();
+        Account cachedAccount = accountCache.get(s);
+        K cachedK = cachedAccount != null ? kCache.get(s) : null;
+        if (cachedK != null)
+        {
+            selectCallback.onSelected(new AccountWithK[] {
+                    new AccountWithK(copy(cachedAccount), DaoK.copy(cachedK))});
+            return;
+        }
+
+        final long accountGeneration = accountCache.generation();
+        final long kGeneration = kCache.generation();
+        appDatabase.selectAccountWithK(s, new DaoCallbacks.Select<AccountWithK>() {
+            @Override
+            public void onSelected(AccountWithK[] selection) {
+                if (selection != null && selection.length == 1)
+                {
+                    accountCache.put(s, copy(selection[0].getAccount()), accountGeneration);
+                    K k = selection[0].getK();
+                    if (k != null) kCache.put(s, DaoK.copy(k), kGeneration);
+                }
+                selectCallback.onSelected(selection);
+            }
+        });
+    }
+
+    /**
+     * Method to write an account and its K in one transaction, instead of separate insert (or
+     * update) calls on this DAO and DaoK. Same as a UnitOfWork with both operations.
+     * @param updateCallback Callback of the method, empty results if nothing was written
+     * @param entry Account and K to write
+     * @param isNew True to insert both, false to update the account and upsert its K
+     */
+    public void saveWithK(@NonNull final DaoCallbacks.Update<AccountWithK> updateCallback,
+                          @NonNull final AccountWithK entry, boolean isNew)
+            throws SQLException {
+        UnitOfWork unit = new UnitOfWork(appDatabase);
+        if (isNew) unit.insert(entry.getAccount());
+        else unit.update(entry.getAccount());
+        if (entry.getK() != null)
+        {
+            if (isNew) unit.insert(entry.getK());
+            else unit.upsert(entry.getK());
+        }
+        unit.commit(new DaoCallbacks.Commit() {
+            @Override
+            public void onCommitted(boolean committed) {
+                updateCallback.onUpdated(committed ? new AccountWithK[] {entry} :
+                                                     new AccountWithK[0]);
+            }
+        });
+    }
+
+    /**
+     * @return Account cache, to tune its size or read its hit rate
+     */
+    public EntityCache<String, Account> getCache()
+    {
+        return appDatabase.getAccountCache();
+    }
+
+    /**
+     * @return Merger of identical reads, shared by every DAO, to read how many executions it
+     *         saved
+     */
+    public InFlightReads getInFlightReads()
+    {
+        return appDatabase.getInFlightReads();
     }
 
     @Override
     public void findAll(@NonNull DaoCallbacks.Select<Account> selectCallback) throws SQLException {
-        appDatabase.selectAccount(null, selectCallback);
+        select("ACC.all", new InFlightReads.Query<DaoCallbacks.Select<Account>>() {
+            @Override
+            public void run(@NonNull DaoCallbacks.Select<Account> callback) {
+                appDatabase.selectAccount(null, callback);
+            }
+        }, selectCallback);
     }
 
-    public void findAllAt(@NonNull Long parentId,
+    public void findAllAt(@NonNull final Long parentId,
                           @NonNull DaoCallbacks.Select<Account> selectCallback)
             throws SQLException {
-        appDatabase.selectAccountAt(parentId, selectCallback);
+        select("ACC.at:" + parentId, new InFlightReads.Query<DaoCallbacks.Select<Account>>() {
+            @Override
+            public void run(@NonNull DaoCallbacks.Select<Account> callback) {
+                appDatabase.selectAccountAt(parentId, callback);
+            }
+        }, selectCallback);
+    }
+
+    /**
+     * Method to retrieve the summaries of the accounts located at a folder, to be used by list
+     * screens instead of findAllAt
+     * @param parentId Folder identifier
+     * @param selectCallback Callback of the method
+     */
+    public void findSummariesAt(@NonNull final Long parentId,
+                                @NonNull DaoCallbacks.Select<AccountSummary> selectCallback)
+            throws SQLException {
+        appDatabase.getInFlightReads().select("ACC.summariesAt:" + parentId,
+                new InFlightReads.Query<DaoCallbacks.Select<AccountSummary>>() {
+                    @Override
+                    public void run(@NonNull DaoCallbacks.Select<AccountSummary> callback) {
+                        appDatabase.selectAccountSummariesAt(parentId, callback);
+                    }
+                }, new InFlightReads.Copier<AccountSummary>() {
+                    @Override
+                    public AccountSummary copy(@NonNull AccountSummary summary) {
+                        // Summaries are immutable
+                        return summary;
+                    }
+                }, selectCallback);
+    }
+
+    /**
+     * Method to retrieve one page of the summaries of the accounts located at a folder, sorted by
+     * name. The first page comes with the folder (DaoDirectory.findFolderContents), next ones are
+     * requested with the last (or first, if going backwards) summary already loaded.
+     * @param parentId Folder identifier
+     * @param anchor Summary the page is adjacent to, null for the first page
+     * @param forward True for the rows after anchor, false for the ones before it
+     * @param pageSizeHint Number of rows wanted
+     * @param pageCallback Callback of the method
+     */
+    public void findSummaryPage(@NonNull Long parentId, AccountSummary anchor, boolean forward,
+                                int pageSizeHint,
+                                @NonNull DaoCallbacks.Page<AccountSummary> pageCallback)
+            throws SQLException {
+        appDatabase.selectAccountSummaryPage(parentId, anchor, forward, pageSizeHint,
+                                             pageCallback);
+    }
+
+    /**
+     * Method to search accounts by name, user, url and description. Every word typed is matched
+     * as the start of a word, results are ranked (name hits and rare words first).
+     * @param query Text typed by the user
+     * @param limitHint Max number of results
+     * @param selectCallback Callback of the method, best results first
+     */
+    public void search(@NonNull String query, int limitHint,
+                       @NonNull DaoCallbacks.Select<AccountSummary> selectCallback)
+            throws SQLException {
+        appDatabase.searchAccountSummaries(query, limitHint, null, selectCallback);
+    }
+
+    /**
+     * Same as search, only for the accounts below a folder (at any depth)
+     * @param query Text typed by the user
+     * @param limitHint Max number of results
+     * @param folderId Folder identifier
+     * @param selectCallback Callback of the method, best results first
+     */
+    public void searchIn(@NonNull String query, int limitHint, @NonNull Long folderId,
+                         @NonNull DaoCallbacks.Select<AccountSummary> selectCallback)
+            throws SQLException {
+        appDatabase.searchAccountSummaries(query, limitHint, folderId, selectCallback);
     }
 
     public void findInRoot(@NonNull DaoCallbacks.Select<Account> selectCallback)
             throws SQLException {
-        appDatabase.selectAccountRoot(selectCallback);
+        select("ACC.inRoot", new InFlightReads.Query<DaoCallbacks.Select<Account>>() {
+            @Override
+            public void run(@NonNull DaoCallbacks.Select<Account> callback) {
+                appDatabase.selectAccountRoot(callback);
+            }
+        }, selectCallback);
+    }
+
+    /**
+     * Method to walk every Account in bounded chunks instead of building one array with all of
+     * them (findAll). Meant for vault-wide jobs: audits, exports, re-encryption...
+     * @param chunkSizeHint Number of rows per chunk
+     * @param streamCallback Consumer of the chunks
+     */
+    public void streamAll(int chunkSizeHint, @NonNull DaoCallbacks.Stream<Account> streamCallback)
+            throws SQLException {
+        appDatabase.streamAccounts(chunkSizeHint, streamCallback);
+    }
+
+    /**
+     * Method to be told about every committed insert, update and delete of accounts, including
+     * the ones cascaded from directory deletes (see DaoCallbacks.Writes.onReset)
+     * @param listener Listener, called on the database thread
+     */
+    public void addWriteListener(@NonNull DaoCallbacks.Writes<String, Account> listener)
+    {
+        appDatabase.getAccountWriteListeners().add(listener);
+    }
+
+    public void removeWriteListener(@NonNull DaoCallbacks.Writes<String, Account> listener)
+    {
+        appDatabase.getAccountWriteListeners().remove(listener);
     }
 
     @Override
-    public void insert(@NonNull DaoCallbacks.Update<Account> updateCallback,
+    public void insert(@NonNull final DaoCallbacks.Update<Account> updateCallback,
                        @NonNull Account[] entity) throws SQLException {
-        appDatabase.insertAccount(updateCallback, entity);
+        appDatabase.insertAccount(new DaoCallbacks.Update<Account>() {
+            @Override
+            public void onUpdated(Account[] results) {
+                updateCallback.onUpdated(results);
+                for (DaoCallbacks.Writes<String, Account> listener :
+                        appDatabase.getAccountWriteListeners())
+                {
+                    listener.onWritten(results);
+                }
+            }
+        }, entity);
     }
 
     @Override
-    public void update(@NonNull DaoCallbacks.Update<Account> updateCallback,
-                       @NonNull Account[] entities) throws SQLException {
-        appDatabase.updateAccount(updateCallback, entities);
+    public void update(@NonNull final DaoCallbacks.Update<Account> updateCallback,
+                       @NonNull final Account[] entities) throws SQLException {
+        appDatabase.updateAccount(new DaoCallbacks.Update<Account>() {
+            @Override
+            public void onUpdated(Account[] results) {
+                for (Account account : entities)
+                {
+                    appDatabase.getAccountCache().invalidate(account.get_id());
+                }
+                updateCallback.onUpdated(results);
+                for (DaoCallbacks.Writes<String, Account> listener :
+                        appDatabase.getAccountWriteListeners())
+                {
+                    listener.onWritten(results);
+                }
+            }
+        }, entities);
+    }
+
+    /**
+     * Method to move accounts to another folder with one statement per chunk of ids, all in one
+     * transaction, instead of an update of every whole row
+     * @param moveCallback Callback of the method
+     * @param parentId Identifier of the new parent
+     * @param ids Identifiers of the accounts to move
+     */
+    public void move(@NonNull final DaoCallbacks.Move moveCallback, @NonNull final Long parentId,
+                     @NonNull final String... ids)
+            throws SQLException {
+        appDatabase.moveAccount(new DaoCallbacks.Move() {
+            @Override
+            public void onMoved(int moveCode) {
+                for (String accId : ids)
+                {
+                    appDatabase.getAccountCache().invalidate(accId);
+                }
+                moveCallback.onMoved(moveCode);
+                if (moveCode == DaoCallbacks.MOVE_OK || moveCode == DaoCallbacks.MOVE_PARTIAL)
+                {
+                    for (DaoCallbacks.Writes<String, Account> listener :
+                            appDatabase.getAccountWriteListeners())
+                    {
+                        listener.onMoved(ids, parentId);
+                    }
+                }
+            }
+        }, parentId, ids);
     }
 
     @Override
-    public void delete(@NonNull DaoCallbacks.Delete deleteCallback, @NonNull String[] id)
+    public void delete(@NonNull final DaoCallbacks.Delete deleteCallback,
+                       @NonNull final String[] id)
             throws SQLException {
-        appDatabase.deleteAccount(deleteCallback, id);
+        appDatabase.deleteAccount(new DaoCallbacks.Delete() {
+            @Override
+            public void onDelete(int deleteCode, SubtreeStats removed) {
+                for (String accId : id)
+                {
+                    // K rows of the account are deleted by cascade
+                    appDatabase.getAccountCache().invalidate(accId);
+                    appDatabase.getKCache().invalidate(accId);
+                }
+                deleteCallback.onDelete(deleteCode, removed);
+                if (deleteCode != DaoCallbacks.DELETE_FAIL)
+                {
+                    // Ids that weren't found (partial deletes) aren't in listeners either
+                    for (DaoCallbacks.Writes<String, Account> listener :
+                            appDatabase.getAccountWriteListeners())
+                    {
+                        listener.onDeleted(id);
+                    }
+                }
+            }
+        }, id);
+    }
+
+    private void select(@NonNull String key,
+                        @NonNull InFlightReads.Query<DaoCallbacks.Select<Account>> query,
+                        @NonNull DaoCallbacks.Select<Account> selectCallback)
+            throws SQLException {
+        appDatabase.getInFlightReads().select(key, query, new InFlightReads.Copier<Account>() {
+            @Override
+            public Account copy(@NonNull Account account) {
+                return DaoAccount.copy(account);
+            }
+        }, selectCallback);
+    }
+
+    /**
+     * Cached instances never leave the cache, callers may modify what they get
+     */
+    @NonNull
+    private static Account copy(@NonNull Account a)
+    {
+        return new Account(a.get_id(), a.getAccount(), a.getUser(), a.getUrl(), a.getBrief(),
+                a.isExpire(), a.getDateCreate(), a.getDateUpdate(), a.getDateExpire(),
+                a.getParent());
     }
 }
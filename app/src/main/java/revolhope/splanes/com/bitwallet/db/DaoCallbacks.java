@@ -2,12 +2,26 @@ package revolhope.splanes.com.bitwallet.db;
 
 import java.util.List;
 
+import revolhope.splanes.com.bitwallet.model.FolderContents;
+import revolhope.splanes.com.bitwallet.model.MaintenanceReport;
+import revolhope.splanes.com.bitwallet.model.SubtreeStats;
+
 public abstract class DaoCallbacks {
 
     public static final int DELETE_FAIL = 0;
     public static final int DELETE_OK = 1;
     public static final int DELETE_PARTIAL = 2;
 
+    public static final int MOVE_FAIL = 0;
+    public static final int MOVE_OK = 1;
+    public static final int MOVE_PARTIAL = 2;
+    public static final int MOVE_REJECTED = 3;
+
+    /**
+     * Rows per page when the caller has no better hint (i.e. a few screens of list items)
+     */
+    public static final int PAGE_SIZE_DEFAULT = 100;
+
     public interface Update<T>{
         void onUpdated(T[] results);
     }
@@ -16,7 +30,108 @@ public abstract class DaoCallbacks {
         void onSelected(T[] selection);
     }
 
+    public interface Page<T>{
+        /**
+         * @param page Rows of the page, in list order
+         * @param hasMore True if there are more rows after (or before, if paging backwards) it
+         */
+        void onPage(T[] page, boolean hasMore);
+    }
+
+    /**
+     * Consumer of a streamed select. Chunks are delivered one at a time on a background thread,
+     * the next one is only read once the previous one is acknowledged through
+     * StreamControl.request, so at most one chunk is held in memory.
+     */
+    public interface Stream<T>{
+        /**
+         * @param chunk Rows of the chunk
+         * @param control Call request() for the next chunk or cancel() to stop, from any thread
+         */
+        void onChunk(T[] chunk, StreamControl control);
+
+        /**
+         * Called once, after the last chunk or after a cancellation
+         * @param cancelled True if the stream was stopped by cancel()
+         */
+        void onComplete(boolean cancelled);
+    }
+
+    public interface StreamControl{
+        void request();
+        void cancel();
+    }
+
+    /**
+     * Listener of the committed writes of one table, called on the database thread right after
+     * the write callback. Meant for in-memory copies of a table (i.e. search indexes).
+     * @param <I> Identifier type
+     * @param <T> Entity type
+     */
+    public interface Writes<I, T>{
+        /**
+         * @param entities Rows inserted or updated, as written
+         */
+        void onWritten(T[] entities);
+
+        /**
+         * @param ids Identifiers of the rows deleted
+         */
+        void onDeleted(I[] ids);
+
+        /**
+         * @param ids Identifiers of the rows moved, only their parent has changed
+         * @param parentId Identifier of their new parent
+         */
+        void onMoved(I[] ids, Long parentId);
+
+        /**
+         * Rows were changed without knowing which ones (i.e. deleted by cascade), the whole
+         * table must be read again
+         */
+        void onReset();
+    }
+
+    public interface Tree{
+        void onLoaded(DirectoryTree tree);
+    }
+
+    public interface Folder{
+        void onSelected(FolderContents contents);
+    }
+
     public interface Delete{
-        void onDelete(int deleteCode);
+        /**
+         * @param deleteCode DELETE_OK, DELETE_PARTIAL if some rows weren't found or DELETE_FAIL
+         *                   if none was
+         * @param removed Rows removed in total, the ones deleted by cascade included
+         */
+        void onDelete(int deleteCode, SubtreeStats removed);
+    }
+
+    public interface Move{
+        /**
+         * @param moveCode MOVE_OK, MOVE_PARTIAL if some rows weren't found, MOVE_FAIL if nothing
+         *                 was moved or MOVE_REJECTED if a folder would be moved into itself
+         */
+        void onMoved(int moveCode);
+    }
+
+    public interface Check{
+        void onChecked(boolean result);
+    }
+
+    public interface Commit{
+        /**
+         * @param committed True if every operation was applied, false if none was
+         */
+        void onCommitted(boolean committed);
+    }
+
+    public interface Maintenance{
+        /**
+         * @param report Size of the database before and after, and the steps done
+         */
+        void onMaintained(MaintenanceReport report);
     }
 }
@@ -4,13 +4,21 @@ import android.content.Context;
 import androidx.annotation.NonNull;
 
 import java.sql.SQLException;
+import java.util.Arrays;
+
+import revolhope.splanes.com.bitwallet.model.Account;
 import revolhope.splanes.com.bitwallet.model.Directory;
+import revolhope.splanes.com.bitwallet.model.SubtreeStats;
 
 public class DaoDirectory implements AbstractDao<Long, Directory> {
 
     private AppDatabase appDatabase;
     private static DaoDirectory instance;
 
+    private DirectoryTree tree;
+    // Incremented on every write, a tree loaded across a write is discarded and loaded again
+    private int treeGeneration;
+
 
     public static synchronized DaoDirectory getInstance(Context context)
     {
@@ -26,52 +34,342 @@ public class DaoDirectory implements AbstractDao<Long, Directory> {
         appDatabase = AppDatabase.getInstance(context);
     }
 
+    /**
+     * Reads of this DAO are merged with identical ones already running (see InFlightReads)
+     */
     @Override
-    public void findById(@NonNull Long aLong,
+    public void findById(@NonNull final Long aLong,
                          @NonNull DaoCallbacks.Select<Directory> selectCallback)
             throws SQLException {
-        appDatabase.selectDirectory(aLong, selectCallback);
+        select("DIR.id:" + aLong, new InFlightReads.Query<DaoCallbacks.Select<Directory>>() {
+            @Override
+            public void run(@NonNull DaoCallbacks.Select<Directory> callback) {
+                appDatabase.selectDirectory(aLong, callback);
+            }
+        }, selectCallback);
     }
 
     @Override
     public void findAll(@NonNull DaoCallbacks.Select<Directory> selectCallback)
             throws SQLException {
-        appDatabase.selectDirectory(null, selectCallback);
+        select("DIR.all", new InFlightReads.Query<DaoCallbacks.Select<Directory>>() {
+            @Override
+            public void run(@NonNull DaoCallbacks.Select<Directory> callback) {
+                appDatabase.selectDirectory(null, callback);
+            }
+        }, selectCallback);
     }
 
     public void findRoot(@NonNull DaoCallbacks.Select<Directory> selectCallback)
             throws SQLException{
-        appDatabase.selectDirectoryRoot(selectCallback);
+        select("DIR.root", new InFlightReads.Query<DaoCallbacks.Select<Directory>>() {
+            @Override
+            public void run(@NonNull DaoCallbacks.Select<Directory> callback) {
+                appDatabase.selectDirectoryRoot(callback);
+            }
+        }, selectCallback);
     }
 
     public void findInRoot(@NonNull DaoCallbacks.Select<Directory> selectCallback)
         throws SQLException{
-        appDatabase.selectDirectoryInRoot(selectCallback);
+        select("DIR.inRoot", new InFlightReads.Query<DaoCallbacks.Select<Directory>>() {
+            @Override
+            public void run(@NonNull DaoCallbacks.Select<Directory> callback) {
+                appDatabase.selectDirectoryInRoot(callback);
+            }
+        }, selectCallback);
     }
 
-    public void findChildrenAt(@NonNull Long idParent,
+    public void findChildrenAt(@NonNull final Long idParent,
                                @NonNull DaoCallbacks.Select<Directory> selectCallback)
             throws SQLException{
-        appDatabase.selectDirectoryAt(idParent, selectCallback);
+        select("DIR.at:" + idParent, new InFlightReads.Query<DaoCallbacks.Select<Directory>>() {
+            @Override
+            public void run(@NonNull DaoCallbacks.Select<Directory> callback) {
+                appDatabase.selectDirectoryAt(idParent, callback);
+            }
+        }, selectCallback);
+    }
+
+    /**
+     * Method to retrieve a folder with its sub-directories and the first page of its accounts in
+     * one round trip
+     * @param idParent Folder identifier
+     * @param folderCallback Callback of the method
+     */
+    public void findFolderContents(@NonNull final Long idParent,
+                                   @NonNull DaoCallbacks.Folder folderCallback)
+            throws SQLException{
+        appDatabase.getInFlightReads().folder("DIR.contents:" + idParent,
+                new InFlightReads.Query<DaoCallbacks.Folder>() {
+                    @Override
+                    public void run(@NonNull DaoCallbacks.Folder callback) {
+                        appDatabase.selectFolderContents(idParent,
+                                                         DaoCallbacks.PAGE_SIZE_DEFAULT, callback);
+                    }
+                }, folderCallback);
+    }
+
+    public void findRootContents(@NonNull DaoCallbacks.Folder folderCallback)
+            throws SQLException{
+        appDatabase.getInFlightReads().folder("DIR.rootContents",
+                new InFlightReads.Query<DaoCallbacks.Folder>() {
+                    @Override
+                    public void run(@NonNull DaoCallbacks.Folder callback) {
+                        appDatabase.selectFolderContents(null, DaoCallbacks.PAGE_SIZE_DEFAULT,
+                                                         callback);
+                    }
+                }, folderCallback);
+    }
+
+    /**
+     * Method to retrieve every directory below a folder (at any depth) with a single query
+     * @param idFolder Folder identifier
+     * @param selectCallback Callback of the method, the folder first and then by depth
+     */
+    public void findSubtree(@NonNull Long idFolder,
+                            @NonNull DaoCallbacks.Select<Directory> selectCallback)
+            throws SQLException {
+        appDatabase.selectSubtree(idFolder, selectCallback);
+    }
+
+    /**
+     * Method to count the directories, accounts and K's below a folder (at any depth) with a
+     * single query
+     * @param idFolder Folder identifier
+     * @param selectCallback Callback of the method, empty selection if the folder doesn't exist
+     */
+    public void countSubtree(@NonNull Long idFolder,
+                             @NonNull DaoCallbacks.Select<SubtreeStats> selectCallback)
+            throws SQLException {
+        appDatabase.selectSubtreeStats(idFolder, selectCallback);
+    }
+
+    /**
+     * Method to check if a directory is a folder or lies below it (at any depth)
+     * @param idFolder Folder identifier
+     * @param idDirectory Directory identifier
+     * @param checkCallback Callback of the method
+     */
+    public void isInSubtree(@NonNull Long idFolder, @NonNull Long idDirectory,
+                            @NonNull DaoCallbacks.Check checkCallback)
+            throws SQLException {
+        appDatabase.checkInSubtree(idFolder, idDirectory, checkCallback);
+    }
+
+    /**
+     * Method to be told when the content of a folder may have changed, so its snapshot can be
+     * queried again. Writes to other folders don't notify, and bursts of writes notify once.
+     * @param idFolder Folder identifier
+     * @param observer Called on the main thread after the writes are committed
+     * @return Subscription, cancel it once the folder is not shown anymore
+     */
+    @NonNull
+    public InvalidationTracker.Subscription observeFolder(
+            long idFolder, @NonNull InvalidationTracker.Observer observer)
+    {
+        return appDatabase.getInvalidationTracker().observeFolder(idFolder, observer);
+    }
+
+    /**
+     * Method to retrieve the in-memory directory tree. It's loaded with a single query the first
+     * time and then kept current by insert, update and delete, so navigation doesn't need to
+     * query the database again.
+     * @param treeCallback Callback of the method, called right away (on the caller thread) if the
+     *                     tree is already loaded
+     */
+    public void findTree(@NonNull final DaoCallbacks.Tree treeCallback)
+            throws SQLException {
+        final int generation;
+        synchronized (this)
+        {
+            if (tree != null)
+            {
+                treeCallback.onLoaded(tree);
+                return;
+            }
+            generation = treeGeneration;
+        }
+
+        findAll(new DaoCallbacks.Select<Directory>() {
+            @Override
+            public void onSelected(Directory[] selection) {
+                DirectoryTree loaded = null;
+                synchronized (DaoDirectory.this)
+                {
+                    if (tree == null && generation == treeGeneration)
+                    {
+                        tree = new DirectoryTree(Arrays.asList(selection));
+                    }
+                    loaded = tree;
+                }
+
+                if (loaded != null)
+                {
+                    treeCallback.onLoaded(loaded);
+                }
+                else
+                {
+                    try {
+                        findTree(treeCallback);
+                    }
+                    catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Merger of identical reads, shared by every DAO, to read how many executions it
+     *         saved
+     */
+    public InFlightReads getInFlightReads()
+    {
+        return appDatabase.getInFlightReads();
+    }
+
+    /**
+     * @return Directory tree, or null if it's not loaded yet (see findTree)
+     */
+    public synchronized DirectoryTree getTree()
+    {
+        return tree;
     }
 
     @Override
-    public void insert(@NonNull DaoCallbacks.Update<Directory> updateCallback,
+    public void insert(@NonNull final DaoCallbacks.Update<Directory> updateCallback,
                        @NonNull Directory... entities)
             throws SQLException {
-        appDatabase.insertDirectory(updateCallback, entities);
+        appDatabase.insertDirectory(new DaoCallbacks.Update<Directory>() {
+            @Override
+            public void onUpdated(Directory[] results) {
+                putInTree(results);
+                updateCallback.onUpdated(results);
+            }
+        }, entities);
     }
 
     @Override
-    public void update(@NonNull DaoCallbacks.Update<Directory> updateCallback,
+    public void update(@NonNull final DaoCallbacks.Update<Directory> updateCallback,
                        @NonNull Directory... entities)
             throws SQLException {
-        appDatabase.updateDirectory(updateCallback, entities);
+        appDatabase.updateDirectory(new DaoCallbacks.Update<Directory>() {
+            @Override
+            public void onUpdated(Directory[] results) {
+                putInTree(results);
+                updateCallback.onUpdated(results);
+            }
+        }, entities);
+    }
+
+    /**
+     * Method to move directories (with their subtrees) to another folder with one statement per
+     * chunk of ids, all in one transaction. Moving a folder into itself or below itself is
+     * rejected, checked against the closure table instead of walking the tree.
+     * @param moveCallback Callback of the method, MOVE_REJECTED if nothing was moved because of
+     *                     a cycle
+     * @param parentId Identifier of the new parent
+     * @param ids Identifiers of the directories to move
+     */
+    public void move(@NonNull final DaoCallbacks.Move moveCallback, @NonNull final Long parentId,
+                     @NonNull final Long... ids)
+            throws SQLException {
+        appDatabase.moveDirectory(new DaoCallbacks.Move() {
+            @Override
+            public void onMoved(int moveCode) {
+                if (moveCode == DaoCallbacks.MOVE_OK || moveCode == DaoCallbacks.MOVE_PARTIAL)
+                {
+                    moveInTree(parentId, ids);
+                }
+                moveCallback.onMoved(moveCode);
+            }
+        }, parentId, ids);
     }
 
     @Override
-    public void delete(@NonNull DaoCallbacks.Delete deleteCallback, @NonNull Long... ids)
+    public void delete(@NonNull final DaoCallbacks.Delete deleteCallback,
+                       @NonNull final Long... ids)
+            throws SQLException {
+        appDatabase.deleteDirectory(new DaoCallbacks.Delete() {
+            @Override
+            public void onDelete(int deleteCode, SubtreeStats removed) {
+                synchronized (DaoDirectory.this)
+                {
+                    treeGeneration++;
+                    if (tree != null)
+                    {
+                        // Ids that weren't found (partial deletes) aren't in the tree either
+                        for (Long id : ids)
+                        {
+                            tree.remove(id);
+                        }
+                    }
+                }
+                // Accounts and K's below the directories are deleted by cascade
+                if (removed.getAccounts() != 0) appDatabase.getAccountCache().invalidateAll();
+                if (removed.getKs() != 0) appDatabase.getKCache().invalidateAll();
+                deleteCallback.onDelete(deleteCode, removed);
+                if (removed.getAccounts() != 0)
+                {
+                    for (DaoCallbacks.Writes<String, Account> listener :
+                            appDatabase.getAccountWriteListeners())
+                    {
+                        listener.onReset();
+                    }
+                }
+            }
+        }, ids);
+    }
+
+    private void select(@NonNull String key,
+                        @NonNull InFlightReads.Query<DaoCallbacks.Select<Directory>> query,
+                        @NonNull DaoCallbacks.Select<Directory> selectCallback)
             throws SQLException {
-        appDatabase.deleteDirectory(deleteCallback, ids);
+        appDatabase.getInFlightReads().select(key, query, new InFlightReads.Copier<Directory>() {
+            @Override
+            public Directory copy(@NonNull Directory directory) {
+                return DaoDirectory.copy(directory);
+            }
+        }, selectCallback);
+    }
+
+    /**
+     * Directories handed to several callers are copied, callers may modify what they get
+     */
+    @NonNull
+    static Directory copy(@NonNull Directory d)
+    {
+        return new Directory(d.get_id(), d.getName(), d.getParentId());
+    }
+
+    private synchronized void moveInTree(@NonNull Long parentId, @NonNull Long[] ids)
+    {
+        treeGeneration++;
+        if (tree != null)
+        {
+            for (Long id : ids)
+            {
+                // Ids that weren't found (partial moves) aren't in the tree either
+                Directory directory = tree.get(id);
+                if (directory != null)
+                {
+                    tree.put(new Directory(id, directory.getName(), parentId));
+                }
+            }
+        }
+    }
+
+    private synchronized void putInTree(Directory[] directories)
+    {
+        treeGeneration++;
+        if (tree != null && directories != null)
+        {
+            for (Directory directory : directories)
+            {
+                tree.put(directory);
+            }
+        }
     }
 }
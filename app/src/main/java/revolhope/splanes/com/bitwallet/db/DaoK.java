@@ -4,8 +4,11 @@ import android.content.Context;
 import androidx.annotation.NonNull;
 
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
 
 import revolhope.splanes.com.bitwallet.model.K;
+import revolhope.splanes.com.bitwallet.model.SubtreeStats;
 
 public class DaoK implements AbstractDao<Long, K> {
 
@@ -31,8 +34,41 @@ public class DaoK implements AbstractDao<Long, K> {
         appDatabase.selectKById(aLong, selectCallback);
     }
 
-    public void find(@NonNull String accId, @NonNull DaoCallbacks.Select<K> selectCallback) throws SQLException {
-        appDatabase.selectK(accId, selectCallback);
+    /**
+     * Method to retrieve the K of an account. K's are cached for a short time (see getCache).
+     * @param accId Account identifier
+     * @param selectCallback Callback of the method, called right away (on the caller thread) if
+     *                       the K is cached
+     */
+    public void find(@NonNull final String accId,
+                     @NonNull final DaoCallbacks.Select<K> selectCallback) throws SQLException {
+        final EntityCache<String, K> cache = appDatabase.getKCache();
+        K cached = cache.get(accId);
+        if (cached != null)
+        {
+            selectCallback.onSelected(new K[] {copy(cached)});
+            return;
+        }
+
+        final long generation = cache.generation();
+        appDatabase.selectK(accId, new DaoCallbacks.Select<K>() {
+            @Override
+            public void onSelected(K[] selection) {
+                if (selection != null && selection.length == 1)
+                {
+                    cache.put(accId, copy(selection[0]), generation);
+                }
+                selectCallback.onSelected(selection);
+            }
+        });
+    }
+
+    /**
+     * @return K cache, to tune its size or read its hit rate
+     */
+    public EntityCache<String, K> getCache()
+    {
+        return appDatabase.getKCache();
     }
 
     @Override
@@ -40,19 +76,75 @@ public class DaoK implements AbstractDao<Long, K> {
         appDatabase.selectKById(null, selectCallback);
     }
 
+    /**
+     * Method to walk every K in bounded chunks instead of building one array with all of
+     * them (findAll). Meant for vault-wide jobs: audits, exports, re-encryption...
+     * @param chunkSizeHint Number of rows per chunk
+     * @param streamCallback Consumer of the chunks
+     */
+    public void streamAll(int chunkSizeHint, @NonNull DaoCallbacks.Stream<K> streamCallback)
+            throws SQLException {
+        appDatabase.streamKs(chunkSizeHint, streamCallback);
+    }
+
     @Override
-    public void insert(@NonNull DaoCallbacks.Update<K> updateCallback, @NonNull K[] entities) throws SQLException {
-        appDatabase.insertK(updateCallback, entities);
+    public void insert(@NonNull final DaoCallbacks.Update<K> updateCallback,
+                       @NonNull final K[] entities) throws SQLException {
+        appDatabase.insertK(new DaoCallbacks.Update<K>() {
+            @Override
+            public void onUpdated(K[] results) {
+                invalidate(entities);
+                updateCallback.onUpdated(results);
+            }
+        }, entities);
     }
 
     @Override
-    public void update(@NonNull DaoCallbacks.Update<K> updateCallback, @NonNull K[] entities) throws SQLException {
-        appDatabase.updateK(updateCallback, entities);
+    public void update(@NonNull final DaoCallbacks.Update<K> updateCallback,
+                       @NonNull final K[] entities) throws SQLException {
+        appDatabase.updateK(new DaoCallbacks.Update<K>() {
+            @Override
+            public void onUpdated(K[] results) {
+                invalidate(entities);
+                updateCallback.onUpdated(results);
+            }
+        }, entities);
     }
 
     @Override
-    public void delete(@NonNull DaoCallbacks.Delete deleteCallback, @NonNull Long[] id) throws SQLException {
-        appDatabase.deleteK(deleteCallback, id);
+    public void delete(@NonNull final DaoCallbacks.Delete deleteCallback,
+                       @NonNull final Long[] id) throws SQLException {
+        appDatabase.deleteK(new DaoCallbacks.Delete() {
+            @Override
+            public void onDelete(int deleteCode, SubtreeStats removed) {
+                final List<Long> ids = Arrays.asList(id);
+                appDatabase.getKCache().invalidateIf(new EntityCache.Matcher<K>() {
+                    @Override
+                    public boolean matches(@NonNull K k) {
+                        return ids.contains(k.get_id());
+                    }
+                });
+                deleteCallback.onDelete(deleteCode, removed);
+            }
+        }, id);
+    }
+
+    private void invalidate(@NonNull K[] entities)
+    {
+        for (K k : entities)
+        {
+            if (k.getAccId() != null) appDatabase.getKCache().invalidate(k.getAccId());
+        }
+    }
+
+    /**
+     * Cached instances never leave the cache, callers may modify what they get (and wipe the
+     * ciphertext), so the array is copied too. GCMParameterSpec is immutable
+     */
+    @NonNull
+    static K copy(@NonNull K k)
+    {
+        return new K(k.get_id(), k.getAccId(), k.getPwd().clone(), k.getSpec(), k.getDeadline());
     }
 
 }
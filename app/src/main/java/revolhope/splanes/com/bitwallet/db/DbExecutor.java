@@ -0,0 +1,199 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.os.Process;
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dedicated scheduler for every database operation. Work is split in three lanes so a slow bulk
+ * write never delays the next folder listing:
+ * <ul>
+ *     <li>{@link #LANE_READ}: interactive reads, runs on a small pool of threads</li>
+ *     <li>{@link #LANE_WRITE}: writes, serialized since SQLite only allows one writer</li>
+ *     <li>{@link #LANE_MAINTENANCE}: long running jobs, at the lowest thread priority</li>
+ * </ul>
+ */
+public final class DbExecutor {
+
+    public static final int LANE_READ = 0;
+    public static final int LANE_WRITE = 1;
+    public static final int LANE_MAINTENANCE = 2;
+
+    private static final String[] LANE_NAMES = new String[] {"db-read", "db-write", "db-maint"};
+    private static final int[] LANE_PRIORITIES = new int[] {
+            Process.THREAD_PRIORITY_DEFAULT,
+            Process.THREAD_PRIORITY_BACKGROUND,
+            Process.THREAD_PRIORITY_LOWEST };
+
+    private static final int DEFAULT_READ_PARALLELISM = 2;
+    private static final int DEFAULT_MAINTENANCE_PARALLELISM = 1;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static DbExecutor instance;
+
+    private final ThreadPoolExecutor[] lanes = new ThreadPoolExecutor[3];
+    private final AtomicLong[] submitted = new AtomicLong[3];
+    private final AtomicLong[] completed = new AtomicLong[3];
+    private final AtomicInteger[] maxQueueDepth = new AtomicInteger[3];
+
+    public static synchronized DbExecutor getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new DbExecutor();
+        }
+        return instance;
+    }
+
+    private DbExecutor()
+    {
+        lanes[LANE_READ] = newLane(LANE_READ, DEFAULT_READ_PARALLELISM);
+        lanes[LANE_WRITE] = newLane(LANE_WRITE, 1);
+        lanes[LANE_MAINTENANCE] = newLane(LANE_MAINTENANCE, DEFAULT_MAINTENANCE_PARALLELISM);
+        for (int i = 0; i < lanes.length; i++)
+        {
+            submitted[i] = new AtomicLong();
+            completed[i] = new AtomicLong();
+            maxQueueDepth[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Method to configure how many threads serve the read and maintenance lanes. The write lane
+     * is always single threaded.
+     * @param readThreads Number of threads for interactive reads, at least 1
+     * @param maintenanceThreads Number of threads for maintenance jobs, at least 1
+     */
+    public void setParallelism(int readThreads, int maintenanceThreads)
+    {
+        resize(lanes[LANE_READ], Math.max(1, readThreads));
+        resize(lanes[LANE_MAINTENANCE], Math.max(1, maintenanceThreads));
+    }
+
+    /**
+     * Method to queue a task in one of the lanes
+     * @param lane LANE_READ, LANE_WRITE or LANE_MAINTENANCE
+     * @param task Task to run
+     */
+    void execute(int lane, @NonNull final Runnable task)
+    {
+        final ThreadPoolExecutor executor = lanes[lane];
+        final AtomicLong done = completed[lane];
+        submitted[lane].incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                }
+                finally {
+                    done.incrementAndGet();
+                }
+            }
+        });
+
+        int depth = executor.getQueue().size();
+        AtomicInteger max = maxQueueDepth[lane];
+        int current;
+        while (depth > (current = max.get()) && !max.compareAndSet(current, depth));
+    }
+
+// ===============================================================================================//
+//                                         METRICS
+// ===============================================================================================//
+
+    /**
+     * @param lane Lane to inspect
+     * @return Number of tasks waiting to be executed in the lane
+     */
+    public int getQueueDepth(int lane)
+    {
+        return lanes[lane].getQueue().size();
+    }
+
+    /**
+     * @param lane Lane to inspect
+     * @return Highest queue depth observed in the lane since the process started
+     */
+    public int getMaxQueueDepth(int lane)
+    {
+        return maxQueueDepth[lane].get();
+    }
+
+    /**
+     * @param lane Lane to inspect
+     * @return Number of tasks being executed right now in the lane
+     */
+    public int getActiveCount(int lane)
+    {
+        return lanes[lane].getActiveCount();
+    }
+
+    public long getSubmittedCount(int lane)
+    {
+        return submitted[lane].get();
+    }
+
+    public long getCompletedCount(int lane)
+    {
+        return completed[lane].get();
+    }
+
+    public int getParallelism(int lane)
+    {
+        return lanes[lane].getMaximumPoolSize();
+    }
+
+// ===============================================================================================//
+//                                         PRIVATE
+// ===============================================================================================//
+
+    @NonNull
+    private static ThreadPoolExecutor newLane(final int lane, int threads)
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(LANE_PRIORITIES[lane]);
+                                runnable.run();
+                            }
+                        }, LANE_NAMES[lane] + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static void resize(@NonNull ThreadPoolExecutor executor, int threads)
+    {
+        if (threads > executor.getMaximumPoolSize())
+        {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        }
+        else
+        {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import revolhope.splanes.com.bitwallet.model.MaintenanceReport;
+
+/**
+ * Timings of every AppDatabase operation, meant for debug screens and tests. For each operation
+ * type (the task class, i.e. "SelectDirTask") it keeps a latency histogram, the time spent
+ * waiting in the DbExecutor queue, the rows read or written and the failures. Operations slower
+ * than a threshold are also kept in a ring buffer, with the error if they failed.
+ *
+ * Latency is the time the operation held a connection until its result was ready, the callback
+ * excluded (see AppDatabase.DbTask.rows). The first operation after the process starts pays for
+ * opening (and migrating) the database.
+ *
+ * The report of the last maintenance run (see MaintenanceJobService) is kept here too.
+ */
+public final class DbMetrics {
+
+    /**
+     * Upper bounds of the histogram buckets, in microseconds. The last bucket has no bound
+     */
+    public static final long[] BUCKET_BOUNDS_MICROS = new long[] {
+            250, 500, 1000, 2000, 4000, 8000, 16000, 32000, 64000, 128000, 256000, 512000,
+            1024000 };
+
+    private static final long DEFAULT_SLOW_THRESHOLD_MILLIS = 100;
+    private static final int DEFAULT_SLOW_LOG_SIZE = 50;
+
+    private static DbMetrics instance;
+
+    private final Map<String, Operation> operations = new LinkedHashMap<>();
+    private SlowQuery[] slowLog = new SlowQuery[DEFAULT_SLOW_LOG_SIZE];
+    private int slowLogNext;
+    private int slowLogCount;
+    private long slowThresholdNanos = DEFAULT_SLOW_THRESHOLD_MILLIS * 1000000L;
+    private MaintenanceReport lastMaintenance;
+
+    public static synchronized DbMetrics getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new DbMetrics();
+        }
+        return instance;
+    }
+
+    private DbMetrics()
+    {
+    }
+
+    /**
+     * Method to record one finished operation
+     * @param name Operation type
+     * @param lane DbExecutor lane it ran on
+     * @param waitNanos Time spent in the queue
+     * @param latencyNanos Time spent running
+     * @param rows Rows read or written, -1 if the operation doesn't tell
+     * @param error Exception thrown by the operation, null if it succeeded
+     */
+    synchronized void record(@NonNull String name, int lane, long waitNanos, long latencyNanos,
+                             int rows, @Nullable Throwable error)
+    {
+        Operation operation = operations.get(name);
+        if (operation == null)
+        {
+            operation = new Operation(name);
+            operations.put(name, operation);
+        }
+        operation.add(waitNanos, latencyNanos, rows, error != null);
+
+        if (latencyNanos >= slowThresholdNanos || error != null)
+        {
+            slowLog[slowLogNext] = new SlowQuery(name, lane, System.currentTimeMillis(),
+                    waitNanos / 1000, latencyNanos / 1000, rows,
+                    error == null ? null : error.toString());
+            slowLogNext = (slowLogNext + 1) % slowLog.length;
+            slowLogCount = Math.min(slowLogCount + 1, slowLog.length);
+        }
+    }
+
+    /**
+     * Method to set what counts as a slow operation. Failed operations are always logged
+     * @param millis Latency from which an operation is logged
+     */
+    public synchronized void setSlowThresholdMillis(long millis)
+    {
+        slowThresholdNanos = Math.max(0, millis) * 1000000L;
+    }
+
+    public synchronized long getSlowThresholdMillis()
+    {
+        return slowThresholdNanos / 1000000L;
+    }
+
+    /**
+     * Method to change how many slow operations are kept, the oldest ones are dropped if needed
+     * @param size Max number of entries, at least 1
+     */
+    public synchronized void setSlowLogSize(int size)
+    {
+        List<SlowQuery> kept = getSlowQueries();
+        slowLog = new SlowQuery[Math.max(1, size)];
+        slowLogNext = 0;
+        slowLogCount = 0;
+        for (SlowQuery query : kept.subList(Math.max(0, kept.size() - slowLog.length),
+                                            kept.size()))
+        {
+            slowLog[slowLogNext++ % slowLog.length] = query;
+            slowLogCount++;
+        }
+        slowLogNext %= slowLog.length;
+    }
+
+    /**
+     * @return Stats of every operation type run so far, in order of first use
+     */
+    @NonNull
+    public synchronized List<OperationStats> getOperations()
+    {
+        List<OperationStats> result = new ArrayList<>(operations.size());
+        for (Operation operation : operations.values())
+        {
+            result.add(operation.snapshot());
+        }
+        return result;
+    }
+
+    /**
+     * @param name Operation type, i.e. "SelectDirTask"
+     * @return Its stats, null if it hasn't run yet
+     */
+    @Nullable
+    public synchronized OperationStats getOperation(@NonNull String name)
+    {
+        Operation operation = operations.get(name);
+        return operation == null ? null : operation.snapshot();
+    }
+
+    /**
+     * @return Slow and failed operations still in the ring buffer, oldest first
+     */
+    @NonNull
+    public synchronized List<SlowQuery> getSlowQueries()
+    {
+        List<SlowQuery> result = new ArrayList<>(slowLogCount);
+        int first = (slowLogNext - slowLogCount + slowLog.length) % slowLog.length;
+        for (int i = 0; i < slowLogCount; i++)
+        {
+            result.add(slowLog[(first + i) % slowLog.length]);
+        }
+        return result;
+    }
+
+    synchronized void recordMaintenance(@NonNull MaintenanceReport report)
+    {
+        lastMaintenance = report;
+    }
+
+    /**
+     * @return Report of the last maintenance run of this process, null if none ran yet
+     */
+    @Nullable
+    public synchronized MaintenanceReport getLastMaintenance()
+    {
+        return lastMaintenance;
+    }
+
+    /**
+     * Method to forget everything recorded so far, i.e. between two runs of a test
+     */
+    public synchronized void reset()
+    {
+        operations.clear();
+        Arrays.fill(slowLog, null);
+        slowLogNext = 0;
+        slowLogCount = 0;
+        lastMaintenance = null;
+    }
+
+// ===============================================================================================//
+//                                         SNAPSHOTS
+// ===============================================================================================//
+
+    /**
+     * Stats of one operation type, as they were when read
+     */
+    public static final class OperationStats {
+
+        private final String name;
+        private final long count;
+        private final long failures;
+        private final long rows;
+        private final long totalLatencyNanos;
+        private final long maxLatencyNanos;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+        private final long[] buckets;
+
+        private OperationStats(@NonNull Operation operation)
+        {
+            this.name = operation.name;
+            this.count = operation.count;
+            this.failures = operation.failures;
+            this.rows = operation.rows;
+            this.totalLatencyNanos = operation.totalLatencyNanos;
+            this.maxLatencyNanos = operation.maxLatencyNanos;
+            this.totalWaitNanos = operation.totalWaitNanos;
+            this.maxWaitNanos = operation.maxWaitNanos;
+            this.buckets = operation.buckets.clone();
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getFailureCount()
+        {
+            return failures;
+        }
+
+        /**
+         * @return Rows read or written by the operations that tell them
+         */
+        public long getRowCount()
+        {
+            return rows;
+        }
+
+        public double getMeanLatencyMillis()
+        {
+            return count == 0 ? 0 : totalLatencyNanos / 1e6 / count;
+        }
+
+        public double getMaxLatencyMillis()
+        {
+            return maxLatencyNanos / 1e6;
+        }
+
+        /**
+         * @param percentile In [0, 100], i.e. 50 for the median or 95
+         * @return Upper bound of the histogram bucket the percentile falls in, the max latency
+         *         if it falls in the last bucket
+         */
+        public double getLatencyPercentileMillis(double percentile)
+        {
+            long rank = (long) Math.ceil(count * Math.max(0, Math.min(100, percentile)) / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++)
+            {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0)
+                {
+                    return Math.min(BUCKET_BOUNDS_MICROS[i] / 1e3, getMaxLatencyMillis());
+                }
+            }
+            return getMaxLatencyMillis();
+        }
+
+        /**
+         * @return Operations per bucket, bucket i holds latencies up to BUCKET_BOUNDS_MICROS[i]
+         *         and the last one the rest
+         */
+        public long[] getHistogram()
+        {
+            return buckets.clone();
+        }
+
+        /**
+         * @return Mean time spent in the DbExecutor queue before running
+         */
+        public double getMeanQueueWaitMillis()
+        {
+            return count == 0 ? 0 : totalWaitNanos / 1e6 / count;
+        }
+
+        public double getMaxQueueWaitMillis()
+        {
+            return maxWaitNanos / 1e6;
+        }
+    }
+
+    /**
+     * One operation slower than the threshold, or failed
+     */
+    public static final class SlowQuery {
+
+        private final String name;
+        private final int lane;
+        private final long timestamp;
+        private final long waitMicros;
+        private final long latencyMicros;
+        private final int rows;
+        private final String error;
+
+        private SlowQuery(@NonNull String name, int lane, long timestamp, long waitMicros,
+                          long latencyMicros, int rows, @Nullable String error)
+        {
+            this.name = name;
+            this.lane = lane;
+            this.timestamp = timestamp;
+            this.waitMicros = waitMicros;
+            this.latencyMicros = latencyMicros;
+            this.rows = rows;
+            this.error = error;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return DbExecutor lane it ran on
+         */
+        public int getLane()
+        {
+            return lane;
+        }
+
+        /**
+         * @return When it finished, in milliseconds since the epoch
+         */
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public double getQueueWaitMillis()
+        {
+            return waitMicros / 1e3;
+        }
+
+        public double getLatencyMillis()
+        {
+            return latencyMicros / 1e3;
+        }
+
+        /**
+         * @return Rows read or written, -1 if the operation doesn't tell
+         */
+        public int getRowCount()
+        {
+            return rows;
+        }
+
+        /**
+         * @return Exception thrown by the operation, null if it succeeded
+         */
+        @Nullable
+        public String getError()
+        {
+            return error;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + " " + getLatencyMillis() + " ms (queued " + getQueueWaitMillis() +
+                   " ms, " + rows + " rows)" + (error == null ? "" : " " + error);
+        }
+    }
+
+// ===============================================================================================//
+//                                         PRIVATE
+// ===============================================================================================//
+
+    private static final class Operation
+    {
+        private final String name;
+        private final long[] buckets = new long[BUCKET_BOUNDS_MICROS.length + 1];
+        private long count;
+        private long failures;
+        private long rows;
+        private long totalLatencyNanos;
+        private long maxLatencyNanos;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+
+        private Operation(@NonNull String name)
+        {
+            this.name = name;
+        }
+
+        private void add(long waitNanos, long latencyNanos, int rowCount, boolean failed)
+        {
+            count++;
+            if (failed) failures++;
+            if (rowCount > 0) rows += rowCount;
+            totalLatencyNanos += latencyNanos;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+            totalWaitNanos += waitNanos;
+            maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+
+            long micros = latencyNanos / 1000;
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[bucket])
+            {
+                bucket++;
+            }
+            buckets[bucket]++;
+        }
+
+        @NonNull
+        private OperationStats snapshot()
+        {
+            return new OperationStats(this);
+        }
+    }
+}
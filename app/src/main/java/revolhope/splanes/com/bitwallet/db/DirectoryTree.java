@@ -0,0 +1,183 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import revolhope.splanes.com.bitwallet.model.Directory;
+
+/**
+ * In-memory copy of the whole DIR table, loaded once with a single query and kept current by
+ * DaoDirectory after every insert, update and delete. Lookups never touch the database:
+ * directory and children lookups are O(1), path lookups are O(depth).
+ *
+ * The tree keeps its own Directory instances, so callers get copies and may modify them freely.
+ * It's safe to use from any thread.
+ */
+public final class DirectoryTree {
+
+    private final Map<Long, Directory> byId = new HashMap<>();
+    private final Map<Long, List<Long>> children = new HashMap<>();
+    private Long rootId;
+
+    DirectoryTree(@NonNull List<Directory> directories)
+    {
+        for (Directory directory : directories)
+        {
+            put(directory);
+        }
+    }
+
+    /**
+     * @return Root directory, null if the table is empty
+     */
+    @Nullable
+    public synchronized Directory getRoot()
+    {
+        return rootId == null ? null : copy(byId.get(rootId));
+    }
+
+    /**
+     * @param id Directory identifier
+     * @return Directory, null if it doesn't exist
+     */
+    @Nullable
+    public synchronized Directory get(@Nullable Long id)
+    {
+        Directory directory = id == null ? null : byId.get(id);
+        return directory == null ? null : copy(directory);
+    }
+
+    /**
+     * @param id Directory identifier
+     * @return Parent directory, null for the root or an unknown id
+     */
+    @Nullable
+    public synchronized Directory getParent(@Nullable Long id)
+    {
+        Directory directory = id == null ? null : byId.get(id);
+        return directory == null ? null : get(directory.getParentId());
+    }
+
+    /**
+     * @param id Directory identifier
+     * @return Sub-directories of id, empty if it has none or doesn't exist
+     */
+    @NonNull
+    public synchronized List<Directory> getChildren(@Nullable Long id)
+    {
+        List<Long> ids = id == null ? null : children.get(id);
+        if (ids == null) return new ArrayList<>();
+
+        List<Directory> list = new ArrayList<>(ids.size());
+        for (Long child : ids)
+        {
+            list.add(copy(byId.get(child)));
+        }
+        return list;
+    }
+
+    /**
+     * @param id Directory identifier
+     * @return Directories from the root (included) down to id (included), empty if id doesn't
+     *         exist
+     */
+    @NonNull
+    public synchronized List<Directory> getPath(@Nullable Long id)
+    {
+        List<Directory> path = new ArrayList<>();
+        Directory directory = id == null ? null : byId.get(id);
+        while (directory != null && path.size() <= byId.size())
+        {
+            path.add(copy(directory));
+            directory = directory.getParentId() == null ? null : byId.get(directory.getParentId());
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+// ===============================================================================================//
+//                                         WRITE-THROUGH
+// ===============================================================================================//
+
+    /**
+     * Method to add a directory or replace the cached one with the same id, moving it if its
+     * parent has changed
+     * @param directory Directory as written to the database
+     */
+    synchronized void put(@NonNull Directory directory)
+    {
+        Long id = directory.get_id();
+        if (id == null) return;
+
+        Directory previous = byId.get(id);
+        if (previous != null)
+        {
+            unlink(previous);
+        }
+
+        Directory stored = copy(directory);
+        byId.put(id, stored);
+        if (stored.getParentId() == null || stored.getParentId() == 0)
+        {
+            rootId = id;
+        }
+        else
+        {
+            List<Long> siblings = children.get(stored.getParentId());
+            if (siblings == null)
+            {
+                siblings = new ArrayList<>();
+                children.put(stored.getParentId(), siblings);
+            }
+            siblings.add(id);
+        }
+    }
+
+    /**
+     * Method to remove a directory and, as the DIR foreign key cascades, all its descendants
+     * @param id Directory identifier
+     */
+    synchronized void remove(@NonNull Long id)
+    {
+        Directory directory = byId.remove(id);
+        if (directory == null) return;
+
+        unlink(directory);
+        if (id.equals(rootId)) rootId = null;
+
+        List<Long> descendants = children.remove(id);
+        if (descendants != null)
+        {
+            for (Long child : new ArrayList<>(descendants))
+            {
+                remove(child);
+            }
+        }
+    }
+
+// ===============================================================================================//
+//                                         PRIVATE
+// ===============================================================================================//
+
+    private void unlink(@NonNull Directory directory)
+    {
+        List<Long> siblings = directory.getParentId() == null ? null :
+                children.get(directory.getParentId());
+        if (siblings != null)
+        {
+            siblings.remove(directory.get_id());
+        }
+    }
+
+    @NonNull
+    private static Directory copy(@NonNull Directory directory)
+    {
+        return new Directory(directory.get_id(), directory.getName(), directory.getParentId());
+    }
+}
@@ -0,0 +1,281 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of entities read by a DAO. Entries optionally expire after a time to live,
+ * and every write to the cached table must invalidate the entries it touches. Expired entries
+ * are dropped by every get, put and trim, and by a sweep scheduled through the Sweeper (see
+ * {@link #setSweeper}) so an entity nobody reads again isn't kept until it's evicted.
+ *
+ * A value read from the database is only stored if nothing was invalidated since the read was
+ * requested (see {@link #generation()}), so a read racing with a write never caches stale data.
+ * @param <K> Key type
+ * @param <V> Entity type
+ */
+public final class EntityCache<K, V> {
+
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long ttlMillis;
+    private int maxSize;
+    private long generation;
+    private Sweeper sweeper;
+    private boolean sweepScheduled;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    private final Runnable sweep = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (EntityCache.this)
+            {
+                sweepScheduled = false;
+                purgeExpired();
+                scheduleSweep();
+            }
+        }
+    };
+
+    /**
+     * @param maxSize Max number of entries, at least 1
+     * @param ttlMillis Time to live of every entry, 0 for no expiration
+     */
+    EntityCache(int maxSize, long ttlMillis)
+    {
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @param key Entity key
+     * @return Cached entity, null if it's not cached or has expired
+     */
+    @Nullable
+    synchronized V get(@NonNull K key)
+    {
+        purgeExpired();
+        Entry<V> entry = entries.get(key);
+        if (entry == null)
+        {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * @return Token to pass to put, taken before reading the entity from the database
+     */
+    synchronized long generation()
+    {
+        return generation;
+    }
+
+    /**
+     * Method to store an entity read from the database
+     * @param key Entity key
+     * @param value Entity
+     * @param generation Value of generation() before the entity was read. If some entry was
+     *                   invalidated since then, the entity is not stored
+     */
+    synchronized void put(@NonNull K key, @NonNull V value, long generation)
+    {
+        if (generation != this.generation) return;
+        entries.put(key, new Entry<>(value, System.nanoTime()));
+        trim();
+        scheduleSweep();
+    }
+
+    synchronized void invalidate(@NonNull K key)
+    {
+        generation++;
+        entries.remove(key);
+    }
+
+    /**
+     * Method to drop the entries whose value matches
+     * @param matcher Entries to drop
+     */
+    synchronized void invalidateIf(@NonNull Matcher<V> matcher)
+    {
+        generation++;
+        Iterator<Entry<V>> it = entries.values().iterator();
+        while (it.hasNext())
+        {
+            if (matcher.matches(it.next().value)) it.remove();
+        }
+    }
+
+    synchronized void invalidateAll()
+    {
+        generation++;
+        entries.clear();
+    }
+
+    /**
+     * Method to change the max number of entries, least recently used ones are dropped if needed
+     * @param maxSize Max number of entries, at least 1
+     */
+    public synchronized void setMaxSize(int maxSize)
+    {
+        this.maxSize = Math.max(1, maxSize);
+        trim();
+    }
+
+    /**
+     * Method to set how the sweep of expired entries is scheduled, only used with a time to live
+     * @param sweeper Scheduler of the sweep, null to rely on get, put and trim only
+     */
+    synchronized void setSweeper(@Nullable Sweeper sweeper)
+    {
+        this.sweeper = sweeper;
+        scheduleSweep();
+    }
+
+    /**
+     * Method to drop every expired entry
+     * @return Number of entries dropped
+     */
+    synchronized int purgeExpired()
+    {
+        if (ttlMillis <= 0) return 0;
+        int purged = 0;
+        // Entries are in access order, not creation order, so all of them are checked
+        Iterator<Entry<V>> it = entries.values().iterator();
+        while (it.hasNext())
+        {
+            if (isExpired(it.next()))
+            {
+                it.remove();
+                purged++;
+            }
+        }
+        expirations += purged;
+        return purged;
+    }
+
+// ===============================================================================================//
+//                                         METRICS
+// ===============================================================================================//
+
+    public synchronized int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public synchronized int getSize()
+    {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+    /**
+     * @return Entries dropped to stay within max size
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictions;
+    }
+
+    /**
+     * @return Entries dropped because their time to live was over
+     */
+    public synchronized long getExpirationCount()
+    {
+        return expirations;
+    }
+
+    /**
+     * @return Hits over lookups, 0 if there were no lookups yet
+     */
+    public synchronized double getHitRate()
+    {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+// ===============================================================================================//
+//                                         PRIVATE
+// ===============================================================================================//
+
+    private boolean isExpired(@NonNull Entry<V> entry)
+    {
+        return ttlMillis > 0 && (System.nanoTime() - entry.created) / 1000000L >= ttlMillis;
+    }
+
+    private void trim()
+    {
+        purgeExpired();
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (entries.size() > maxSize && it.hasNext())
+        {
+            it.next();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Method to schedule a sweep when the oldest entry expires, unless one is pending
+     */
+    private void scheduleSweep()
+    {
+        if (sweeper == null || sweepScheduled || ttlMillis <= 0 || entries.isEmpty()) return;
+
+        long oldest = Long.MAX_VALUE;
+        for (Entry<V> entry : entries.values())
+        {
+            oldest = Math.min(oldest, entry.created);
+        }
+        long age = (System.nanoTime() - oldest) / 1000000L;
+        sweepScheduled = true;
+        sweeper.schedule(sweep, Math.max(1, ttlMillis - age));
+    }
+
+    /**
+     * Runs the sweep of expired entries later, on any thread
+     */
+    interface Sweeper
+    {
+        /**
+         * @param sweep Sweep to run
+         * @param delayMillis Delay before running it
+         */
+        void schedule(@NonNull Runnable sweep, long delayMillis);
+    }
+
+    interface Matcher<V>
+    {
+        boolean matches(@NonNull V value);
+    }
+
+    private static final class Entry<V>
+    {
+        private final V value;
+        private final long created;
+
+        private Entry(@NonNull V value, long created)
+        {
+            this.value = value;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import revolhope.splanes.com.bitwallet.model.AccountSummary;
+import revolhope.splanes.com.bitwallet.model.Directory;
+import revolhope.splanes.com.bitwallet.model.FolderContents;
+
+/**
+ * Merges identical reads that overlap: while a read is running, callers asking for the same
+ * query with the same arguments wait for its result instead of running it again.
+ *
+ * A read is only shared by callers that asked for it before the next write was published (see
+ * InvalidationTracker.getPublishedCount), so nobody gets data older than what a read of its own
+ * would have returned. Every caller but the first one gets a copy of the result, callers are
+ * free to modify what they get.
+ */
+public final class InFlightReads {
+
+    private final InvalidationTracker invalidationTracker;
+    private final Map<String, Shared<?>> running = new HashMap<>();
+
+    private long executions;
+    private long merged;
+
+    InFlightReads(@NonNull InvalidationTracker invalidationTracker)
+    {
+        this.invalidationTracker = invalidationTracker;
+    }
+
+    /**
+     * Method to run a select, or to wait for the identical one already running
+     * @param key Query and arguments, i.e. "DIR.at:12"
+     * @param query Runs the select, only called if no identical one is running
+     * @param copier Copies one row for the callers that share the result
+     * @param selectCallback Callback of the method
+     */
+    <T> void select(@NonNull String key, @NonNull final Query<DaoCallbacks.Select<T>> query,
+                    @NonNull final Copier<T> copier,
+                    @NonNull final DaoCallbacks.Select<T> selectCallback)
+            throws SQLException {
+        share(key, new Query<Result<T[]>>() {
+            @Override
+            public void run(@NonNull final Result<T[]> result) throws SQLException {
+                query.run(new DaoCallbacks.Select<T>() {
+                    @Override
+                    public void onSelected(T[] selection) {
+                        result.onResult(selection);
+                    }
+                });
+            }
+        }, new Copier<T[]>() {
+            @Override
+            public T[] copy(@NonNull T[] selection) {
+                T[] copy = Arrays.copyOf(selection, selection.length);
+                for (int i = 0; i < copy.length; i++)
+                {
+                    if (copy[i] != null) copy[i] = copier.copy(copy[i]);
+                }
+                return copy;
+            }
+        }, new Result<T[]>() {
+            @Override
+            public void onResult(T[] selection) {
+                selectCallback.onSelected(selection);
+            }
+        });
+    }
+
+    /**
+     * Same as select, for folder snapshots
+     * @param key Query and arguments, i.e. "DIR.contents:12"
+     * @param query Runs the select, only called if no identical one is running
+     * @param folderCallback Callback of the method
+     */
+    void folder(@NonNull String key, @NonNull final Query<DaoCallbacks.Folder> query,
+                @NonNull final DaoCallbacks.Folder folderCallback)
+            throws SQLException {
+        share(key, new Query<Result<FolderContents>>() {
+            @Override
+            public void run(@NonNull final Result<FolderContents> result) throws SQLException {
+                query.run(new DaoCallbacks.Folder() {
+                    @Override
+                    public void onSelected(FolderContents contents) {
+                        result.onResult(contents);
+                    }
+                });
+            }
+        }, new Copier<FolderContents>() {
+            @Override
+            public FolderContents copy(@NonNull FolderContents contents) {
+                // Summaries are immutable, only directories need a copy
+                Directory[] directories = contents.getDirectories().toArray(new Directory[0]);
+                for (int i = 0; i < directories.length; i++)
+                {
+                    directories[i] = DaoDirectory.copy(directories[i]);
+                }
+                return new FolderContents(DaoDirectory.copy(contents.getFolder()), directories,
+                        contents.getAccounts().toArray(new AccountSummary[0]),
+                        contents.getAccountCount());
+            }
+        }, new Result<FolderContents>() {
+            @Override
+            public void onResult(FolderContents contents) {
+                folderCallback.onSelected(contents);
+            }
+        });
+    }
+
+// ===============================================================================================//
+//                                         METRICS
+// ===============================================================================================//
+
+    /**
+     * @return Reads actually run
+     */
+    public synchronized long getExecutionCount()
+    {
+        return executions;
+    }
+
+    /**
+     * @return Reads served by another identical read already running, i.e. executions saved
+     */
+    public synchronized long getMergedCount()
+    {
+        return merged;
+    }
+
+// ===============================================================================================//
+//                                         PRIVATE
+// ===============================================================================================//
+
+    private <R> void share(@NonNull String key, @NonNull Query<Result<R>> query,
+                           @NonNull final Copier<R> copier, @NonNull Result<R> callback)
+            throws SQLException {
+        // Reads started before the last published write are not joined anymore
+        final String runningKey = invalidationTracker.getPublishedCount() + "/" + key;
+        final Shared<R> shared;
+        synchronized (this)
+        {
+            @SuppressWarnings("unchecked")
+            Shared<R> joined = (Shared<R>) running.get(runningKey);
+            if (joined != null)
+            {
+                joined.callbacks.add(callback);
+                merged++;
+                return;
+            }
+            shared = new Shared<>();
+            shared.callbacks.add(callback);
+            running.put(runningKey, shared);
+            executions++;
+        }
+
+        try
+        {
+            query.run(new Result<R>() {
+                @Override
+                public void onResult(R result) {
+                    List<Result<R>> callbacks;
+                    synchronized (InFlightReads.this)
+                    {
+                        // Nobody joins once it's removed, the list doesn't change anymore
+                        running.remove(runningKey);
+                        callbacks = shared.callbacks;
+                    }
+                    for (int i = 0; i < callbacks.size(); i++)
+                    {
+                        callbacks.get(i).onResult(i == 0 || result == null ? result :
+                                                  copier.copy(result));
+                    }
+                }
+            });
+        }
+        catch (SQLException | RuntimeException e)
+        {
+            // SQLiteException is unchecked, a failed read must not be joined either
+            synchronized (this)
+            {
+                running.remove(runningKey);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Read to be shared, given the callback its result goes to
+     * @param <C> Callback type
+     */
+    interface Query<C>
+    {
+        void run(@NonNull C callback) throws SQLException;
+    }
+
+    interface Copier<T>
+    {
+        T copy(@NonNull T entity);
+    }
+
+    private interface Result<R>
+    {
+        void onResult(@Nullable R result);
+    }
+
+    private static final class Shared<R>
+    {
+        private final List<Result<R>> callbacks = new ArrayList<>();
+    }
+}
@@ -0,0 +1,164 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import revolhope.splanes.com.bitwallet.db.contracts.AccountContract;
+import revolhope.splanes.com.bitwallet.db.contracts.DirectoryContract;
+
+/**
+ * Tells observers when the data behind their queries has changed. Every write task publishes the
+ * table it wrote and the parent folders of the rows it touched, once its transaction is
+ * committed. Observers are called on the main thread, at most once per burst of writes: changes
+ * published within COALESCE_MILLIS are dispatched together.
+ */
+public final class InvalidationTracker {
+
+    private static final long COALESCE_MILLIS = 50;
+
+    // Created by the first dispatch, so trackers nobody observes never touch the main looper
+    private Handler handler;
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+    private final Set<Registration> pending = new LinkedHashSet<>();
+    private boolean scheduled;
+
+    private long published;
+    private long dispatched;
+
+    private final Runnable dispatch = new Runnable() {
+        @Override
+        public void run() {
+            List<Registration> toNotify;
+            synchronized (InvalidationTracker.this)
+            {
+                toNotify = new ArrayList<>(pending);
+                pending.clear();
+                scheduled = false;
+                dispatched += toNotify.size();
+            }
+            for (Registration registration : toNotify)
+            {
+                if (!registration.cancelled) registration.observer.onInvalidated();
+            }
+        }
+    };
+
+    InvalidationTracker() {}
+
+    /**
+     * Method to observe the content of a folder: its sub-directories and its accounts
+     * @param folderId Folder identifier
+     * @param observer Called on the main thread when the folder content may have changed
+     * @return Subscription, cancel it when the folder is not shown anymore
+     */
+    @NonNull
+    public Subscription observeFolder(long folderId, @NonNull Observer observer)
+    {
+        Registration registration = new Registration(observer, folderId,
+                DirectoryContract.TABLE, AccountContract.TABLE);
+        registrations.add(registration);
+        return registration;
+    }
+
+    /**
+     * Method to observe whole tables
+     * @param observer Called on the main thread when any of the tables has changed
+     * @param tables Tables to observe
+     * @return Subscription, cancel it when the data is not shown anymore
+     */
+    @NonNull
+    public Subscription observeTables(@NonNull Observer observer, @NonNull String... tables)
+    {
+        Registration registration = new Registration(observer, null, tables);
+        registrations.add(registration);
+        return registration;
+    }
+
+    /**
+     * Method to publish a committed write
+     * @param table Table written
+     * @param parentIds Parent folders of the rows written, null if unknown (every observer of
+     *                  the table is notified)
+     */
+    void notifyChanged(@NonNull String table, @Nullable Collection<Long> parentIds)
+    {
+        synchronized (this)
+        {
+            published++;
+            for (Registration registration : registrations)
+            {
+                if (registration.matches(table, parentIds)) pending.add(registration);
+            }
+            if (!pending.isEmpty() && !scheduled)
+            {
+                scheduled = true;
+                if (handler == null) handler = new Handler(Looper.getMainLooper());
+                handler.postDelayed(dispatch, COALESCE_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * @return Number of writes published since the process started
+     */
+    public synchronized long getPublishedCount()
+    {
+        return published;
+    }
+
+    /**
+     * @return Number of observer calls since the process started, the gap with
+     *         getPublishedCount is what coalescing saved
+     */
+    public synchronized long getDispatchedCount()
+    {
+        return dispatched;
+    }
+
+    public interface Observer {
+        void onInvalidated();
+    }
+
+    public interface Subscription {
+        void cancel();
+    }
+
+    private final class Registration implements Subscription {
+
+        private final Observer observer;
+        private final Long folderId;
+        private final List<String> tables;
+        private volatile boolean cancelled;
+
+        private Registration(@NonNull Observer observer, @Nullable Long folderId,
+                             @NonNull String... tables)
+        {
+            this.observer = observer;
+            this.folderId = folderId;
+            this.tables = Arrays.asList(tables);
+        }
+
+        private boolean matches(@NonNull String table, @Nullable Collection<Long> parentIds)
+        {
+            return tables.contains(table) &&
+                   (folderId == null || parentIds == null || parentIds.contains(folderId));
+        }
+
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+            registrations.remove(this);
+        }
+    }
+}
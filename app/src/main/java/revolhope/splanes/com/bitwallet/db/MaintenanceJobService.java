@@ -0,0 +1,76 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import revolhope.splanes.com.bitwallet.model.MaintenanceReport;
+
+/**
+ * Daily database maintenance (see AppDatabase.maintain), run while the device is idle and
+ * charging so it never competes with the user. Each run is bounded by RUN_BUDGET_MILLIS and
+ * stops early if the system stops the job; what's left is done by the next run. The report of
+ * the last run is kept in DbMetrics.
+ */
+public class MaintenanceJobService extends JobService {
+
+    private static final int JOB_ID = 1;
+    private static final long PERIOD_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Well below the time the system gives a job, the final WAL checkpoint runs after it
+     */
+    private static final long RUN_BUDGET_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private AtomicBoolean stop;
+
+    /**
+     * Method to schedule the maintenance job, does nothing if it's already scheduled. It's not
+     * persisted across reboots: the database only changes while the app runs, and the app
+     * schedules it again when it starts.
+     * @param context Any context
+     */
+    public static void schedule(@NonNull Context context)
+    {
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler == null || scheduler.getPendingJob(JOB_ID) != null) return;
+
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, MaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(PERIOD_MILLIS)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params)
+    {
+        final AtomicBoolean runStop = new AtomicBoolean();
+        stop = runStop;
+        AppDatabase.getInstance(this).maintain(RUN_BUDGET_MILLIS, runStop,
+                new DaoCallbacks.Maintenance() {
+                    @Override
+                    public void onMaintained(MaintenanceReport report) {
+                        DbMetrics.getInstance().recordMaintenance(report);
+                        // Periodic job, the next run is already scheduled
+                        if (!runStop.get()) jobFinished(params, false);
+                    }
+                });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params)
+    {
+        if (stop != null) stop.set(true);
+        return false;
+    }
+}
@@ -0,0 +1,311 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import revolhope.splanes.com.bitwallet.db.contracts.AccountContract;
+import revolhope.splanes.com.bitwallet.db.contracts.AccountSearchContract;
+import revolhope.splanes.com.bitwallet.db.contracts.DirectoryContract;
+import revolhope.splanes.com.bitwallet.db.contracts.DirectoryTreeContract;
+import revolhope.splanes.com.bitwallet.db.contracts.KContract;
+import revolhope.splanes.com.bitwallet.db.contracts.Migration;
+import revolhope.splanes.com.bitwallet.db.contracts.MigrationContract;
+
+/**
+ * Applies the pending Migration steps declared on the contracts. It runs on every open, outside
+ * of the SQLiteOpenHelper upgrade transaction, so long steps can commit their work in batches
+ * and resume if the process dies before they finish.
+ */
+final class Migrator implements Migration.Schema {
+
+    private final SQLiteDatabase db;
+    private Migration current;
+    private boolean committed;
+
+    Migrator(@NonNull SQLiteDatabase db)
+    {
+        this.db = db;
+    }
+
+    /**
+     * @return Every declared step sorted by version
+     */
+    @NonNull
+    static List<Migration> steps()
+    {
+        List<Migration> steps = new ArrayList<>();
+        steps.addAll(Arrays.asList(DirectoryContract.MIGRATIONS));
+        steps.addAll(Arrays.asList(DirectoryTreeContract.MIGRATIONS));
+        steps.addAll(Arrays.asList(AccountContract.MIGRATIONS));
+        steps.addAll(Arrays.asList(AccountSearchContract.MIGRATIONS));
+        steps.addAll(Arrays.asList(KContract.MIGRATIONS));
+        Collections.sort(steps, new Comparator<Migration>() {
+            @Override
+            public int compare(Migration m1, Migration m2) {
+                return Integer.compare(m1.getVersion(), m2.getVersion());
+            }
+        });
+
+        int previous = MigrationContract.BASE_VERSION;
+        for (Migration step : steps)
+        {
+            if (step.getVersion() <= previous)
+            {
+                throw new IllegalStateException("Migration versions must be unique and above " +
+                        MigrationContract.BASE_VERSION + ": " + step.getVersion());
+            }
+            previous = step.getVersion();
+        }
+        return steps;
+    }
+
+    /**
+     * @return Latest schema version known by the app
+     */
+    static int latestVersion()
+    {
+        List<Migration> steps = steps();
+        return steps.isEmpty() ?
+                MigrationContract.BASE_VERSION : steps.get(steps.size() - 1).getVersion();
+    }
+
+    /**
+     * Method to apply every step not yet applied. Foreign keys are disabled while steps run so
+     * tables can be rewritten without firing cascades, and checked once all of them are done.
+     */
+    void migrate()
+    {
+        execSQL(MigrationContract.STATEMENT_CREATE, MigrationContract.STATEMENT_CREATE_CHECKPOINT);
+
+        int version = currentVersion();
+        List<Migration> pending = new ArrayList<>();
+        for (Migration step : steps())
+        {
+            if (step.getVersion() > version) pending.add(step);
+        }
+        if (pending.isEmpty()) return;
+
+        db.setForeignKeyConstraintsEnabled(false);
+        try
+        {
+            for (Migration step : pending)
+            {
+                current = step;
+                committed = false;
+                step.migrate(this);
+                if (!committed)
+                {
+                    commit();
+                }
+            }
+            try (Cursor c = db.rawQuery("PRAGMA foreign_key_check", null))
+            {
+                if (c != null && c.moveToFirst())
+                {
+                    throw new SQLException("Foreign key violations after migrating to version " +
+                            current.getVersion() + " (table " + c.getString(0) + ")");
+                }
+            }
+        }
+        finally
+        {
+            current = null;
+            db.setForeignKeyConstraintsEnabled(true);
+        }
+    }
+
+    int currentVersion()
+    {
+        return (int) DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MAX(" + MigrationContract.COLUMN_VERSION + "), " +
+                        MigrationContract.BASE_VERSION + ") FROM " + MigrationContract.TABLE,
+                null);
+    }
+
+// ===============================================================================================//
+//                                         SCHEMA
+// ===============================================================================================//
+
+    @NonNull
+    @Override
+    public SQLiteDatabase getDatabase()
+    {
+        return db;
+    }
+
+    @Override
+    public boolean tableExists(@NonNull String table)
+    {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{table}) > 0;
+    }
+
+    @Override
+    public void execSQL(@NonNull String... statements)
+    {
+        db.beginTransaction();
+        try
+        {
+            for (String statement : statements)
+            {
+                db.execSQL(statement);
+            }
+            db.setTransactionSuccessful();
+        }
+        finally
+        {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void copyInBatches(@NonNull String source, @NonNull String target,
+                              @NonNull String[] targetColumns,
+                              @NonNull String[] sourceExpressions)
+    {
+        String insert = "INSERT INTO " + target + "(" + join(targetColumns) + ") " +
+                        "SELECT " + join(sourceExpressions) + " FROM " + source +
+                        " WHERE rowid > ? AND rowid <= ?";
+        String nextBound = "SELECT MAX(rowid) FROM (SELECT rowid FROM " + source +
+                           " WHERE rowid > ? ORDER BY rowid LIMIT " +
+                           Migration.COPY_BATCH_SIZE + ")";
+
+        long last = checkpoint(source);
+        while (true)
+        {
+            long bound;
+            try (SQLiteStatement next = db.compileStatement(nextBound))
+            {
+                next.bindLong(1, last);
+                String value = next.simpleQueryForString();
+                if (value == null) break;
+                bound = Long.parseLong(value);
+            }
+
+            db.beginTransaction();
+            try
+            {
+                db.execSQL(insert, new Object[]{last, bound});
+                saveCheckpoint(source, bound);
+                db.setTransactionSuccessful();
+            }
+            finally
+            {
+                db.endTransaction();
+            }
+            last = bound;
+        }
+    }
+
+    @Override
+    public void copyInBatches(@NonNull String source, @NonNull String[] sourceColumns,
+                              @NonNull String insertStatement,
+                              @NonNull Migration.RowBinder binder)
+    {
+        String select = "SELECT rowid, " + join(sourceColumns) + " FROM " + source +
+                        " WHERE rowid > ? ORDER BY rowid LIMIT " + Migration.COPY_BATCH_SIZE;
+
+        long last = checkpoint(source);
+        try (SQLiteStatement insert = db.compileStatement(insertStatement))
+        {
+            boolean more = true;
+            while (more)
+            {
+                db.beginTransaction();
+                try (Cursor c = db.rawQuery(select, new String[]{String.valueOf(last)}))
+                {
+                    more = c != null && c.getCount() == Migration.COPY_BATCH_SIZE;
+                    if (c != null && c.moveToFirst())
+                    {
+                        do {
+                            insert.clearBindings();
+                            binder.bind(c, insert);
+                            insert.executeInsert();
+                            last = c.getLong(0);
+                        } while (c.moveToNext());
+                        saveCheckpoint(source, last);
+                    }
+                    db.setTransactionSuccessful();
+                }
+                finally
+                {
+                    db.endTransaction();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void commit(@NonNull String... statements)
+    {
+        db.beginTransaction();
+        try
+        {
+            for (String statement : statements)
+            {
+                db.execSQL(statement);
+            }
+            db.execSQL("INSERT OR REPLACE INTO " + MigrationContract.TABLE + "(" +
+                            MigrationContract.COLUMN_VERSION + "," +
+                            MigrationContract.COLUMN_DESCRIPTION + "," +
+                            MigrationContract.COLUMN_APPLIED + ") VALUES(?,?,?)",
+                    new Object[]{current.getVersion(), current.getDescription(),
+                                 System.currentTimeMillis()});
+            db.execSQL("DELETE FROM " + MigrationContract.TABLE_CHECKPOINT + " WHERE " +
+                            MigrationContract.COLUMN_VERSION + " = ?",
+                    new Object[]{current.getVersion()});
+            db.setTransactionSuccessful();
+            committed = true;
+        }
+        finally
+        {
+            db.endTransaction();
+        }
+    }
+
+// ===============================================================================================//
+//                                         PRIVATE
+// ===============================================================================================//
+
+    private long checkpoint(@NonNull String source)
+    {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MAX(" + MigrationContract.COLUMN_LAST_ROWID + "), 0) FROM " +
+                        MigrationContract.TABLE_CHECKPOINT + " WHERE " +
+                        MigrationContract.COLUMN_VERSION + " = ? AND " +
+                        MigrationContract.COLUMN_SOURCE + " = ?",
+                new String[]{String.valueOf(current.getVersion()), source});
+    }
+
+    private void saveCheckpoint(@NonNull String source, long lastRowId)
+    {
+        db.execSQL("INSERT OR REPLACE INTO " + MigrationContract.TABLE_CHECKPOINT + "(" +
+                        MigrationContract.COLUMN_VERSION + "," +
+                        MigrationContract.COLUMN_SOURCE + "," +
+                        MigrationContract.COLUMN_LAST_ROWID + ") VALUES(?,?,?)",
+                new Object[]{current.getVersion(), source, lastRowId});
+    }
+
+    @NonNull
+    private static String join(@NonNull String[] values)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++)
+        {
+            if (i != 0) sb.append(',');
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,186 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.spec.GCMParameterSpec;
+
+import revolhope.splanes.com.bitwallet.db.contracts.AccountContract;
+import revolhope.splanes.com.bitwallet.db.contracts.DirectoryContract;
+import revolhope.splanes.com.bitwallet.db.contracts.KContract;
+import revolhope.splanes.com.bitwallet.helper.AppUtils;
+import revolhope.splanes.com.bitwallet.model.Account;
+import revolhope.splanes.com.bitwallet.model.Directory;
+import revolhope.splanes.com.bitwallet.model.K;
+
+/**
+ * Builds one model object out of the current row of a cursor. Column positions are resolved
+ * once, when the mapper is created for a cursor, so mapping a row is only a sequence of typed
+ * reads by index.
+ * @param <T> Model class
+ */
+abstract class RowMapper<T> {
+
+    /**
+     * Creates the mapper of a cursor
+     * @param <T> Model class
+     */
+    interface Factory<T> {
+        @NonNull
+        RowMapper<T> create(@NonNull Cursor c);
+    }
+
+    static final Factory<Directory> DIRECTORY_FACTORY = new Factory<Directory>() {
+        @NonNull
+        @Override
+        public RowMapper<Directory> create(@NonNull Cursor c) {
+            return new ForDirectory(c);
+        }
+    };
+
+    static final Factory<Account> ACCOUNT_FACTORY = new Factory<Account>() {
+        @NonNull
+        @Override
+        public RowMapper<Account> create(@NonNull Cursor c) {
+            return new ForAccount(c);
+        }
+    };
+
+    static final Factory<K> K_FACTORY = new Factory<K>() {
+        @NonNull
+        @Override
+        public RowMapper<K> create(@NonNull Cursor c) {
+            return new ForK(c);
+        }
+    };
+
+    /**
+     * Method to map the row the cursor is positioned at
+     * @param c Cursor the mapper was created for
+     * @return Model object
+     */
+    @NonNull
+    abstract T map(@NonNull Cursor c);
+
+    /**
+     * Method to map every row of the cursor, from the first one
+     * @param c Cursor the mapper was created for
+     * @return Model objects, in cursor order
+     */
+    @NonNull
+    List<T> mapAll(@NonNull Cursor c)
+    {
+        List<T> list = new ArrayList<>(c.getCount());
+        if (c.moveToFirst())
+        {
+            do {
+                list.add(map(c));
+            } while (c.moveToNext());
+        }
+        return list;
+    }
+
+    static final class ForDirectory extends RowMapper<Directory> {
+
+        private final int id;
+        private final int name;
+        private final int parent;
+
+        ForDirectory(@NonNull Cursor c)
+        {
+            id = c.getColumnIndexOrThrow(DirectoryContract.COLUMN_ID);
+            name = c.getColumnIndexOrThrow(DirectoryContract.COLUMN_NAME);
+            parent = c.getColumnIndexOrThrow(DirectoryContract.COLUMN_PARENT);
+        }
+
+        @NonNull
+        @Override
+        Directory map(@NonNull Cursor c)
+        {
+            return new Directory(c.getLong(id), c.getString(name),
+                                 c.isNull(parent) ? null : c.getLong(parent));
+        }
+    }
+
+    static final class ForAccount extends RowMapper<Account> {
+
+        private final int id;
+        private final int account;
+        private final int user;
+        private final int url;
+        private final int brief;
+        private final int dateCreate;
+        private final int dateUpdate;
+        private final int expire;
+        private final int dateExpire;
+        private final int parent;
+
+        ForAccount(@NonNull Cursor c)
+        {
+            id = c.getColumnIndexOrThrow(AccountContract.COLUMN_UUID);
+            account = c.getColumnIndexOrThrow(AccountContract.COLUMN_ACCOUNT);
+            user = c.getColumnIndexOrThrow(AccountContract.COLUMN_USER);
+            url = c.getColumnIndexOrThrow(AccountContract.COLUMN_URL);
+            brief = c.getColumnIndexOrThrow(AccountContract.COLUMN_BRIEF);
+            dateCreate = c.getColumnIndexOrThrow(AccountContract.COLUMN_DATE_CREATE);
+            dateUpdate = c.getColumnIndexOrThrow(AccountContract.COLUMN_DATE_UPDATE);
+            expire = c.getColumnIndexOrThrow(AccountContract.COLUMN_EXPIRE);
+            dateExpire = c.getColumnIndexOrThrow(AccountContract.COLUMN_DATE_EXPIRE);
+            parent = c.getColumnIndexOrThrow(AccountContract.COLUMN_PARENT);
+        }
+
+        @NonNull
+        @Override
+        Account map(@NonNull Cursor c)
+        {
+            return new Account(AppUtils.uuidFromBytes(c.getBlob(id)),
+                               c.getString(account),
+                               c.getString(user),
+                               c.getString(url),
+                               c.getString(brief),
+                               c.getInt(expire) == 1,
+                               c.getLong(dateCreate),
+                               c.getLong(dateUpdate),
+                               c.getLong(dateExpire),
+                               c.getLong(parent));
+        }
+    }
+
+    /**
+     * The password blob is handed to K as raw bytes, Base64 is only computed if somebody asks
+     * for it.
+     */
+    static final class ForK extends RowMapper<K> {
+
+        private final int id;
+        private final int accId;
+        private final int cryptoPwd;
+        private final int iv;
+        private final int tLength;
+        private final int deadline;
+
+        ForK(@NonNull Cursor c)
+        {
+            id = c.getColumnIndexOrThrow(KContract.COLUMN_ID);
+            accId = c.getColumnIndexOrThrow(KContract.COLUMN_ACC_UUID);
+            cryptoPwd = c.getColumnIndexOrThrow(KContract.COLUMN_CRYPTO_PWD);
+            iv = c.getColumnIndexOrThrow(KContract.COLUMN_PARAM_IV);
+            tLength = c.getColumnIndexOrThrow(KContract.COLUMN_PARAM_TLENGTH);
+            deadline = c.getColumnIndexOrThrow(KContract.COLUMN_DEADLINE);
+        }
+
+        @NonNull
+        @Override
+        K map(@NonNull Cursor c)
+        {
+            return new K(c.getLong(id),
+                         AppUtils.uuidFromBytes(c.getBlob(accId)),
+                         c.getBlob(cryptoPwd),
+                         new GCMParameterSpec(c.getInt(tLength), c.getBlob(iv)),
+                         c.getLong(deadline));
+        }
+    }
+}
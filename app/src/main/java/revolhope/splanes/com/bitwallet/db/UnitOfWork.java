@@ -0,0 +1,206 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import revolhope.splanes.com.bitwallet.model.Account;
+import revolhope.splanes.com.bitwallet.model.K;
+
+/**
+ * Queue of account and K writes committed in a single transaction: either all of them are
+ * applied or none is, and the caller gets one result. Operations are applied in the order they
+ * are queued. Update and delete fail the whole unit if their row doesn't exist, upsert updates
+ * the row if it exists and inserts it otherwise (a K is matched by its account).
+ *
+ * A unit is meant to be committed once, it can't be reused afterwards.
+ */
+public final class UnitOfWork {
+
+    static final int INSERT = 0;
+    static final int UPDATE = 1;
+    static final int UPSERT = 2;
+    static final int DELETE = 3;
+
+    private final AppDatabase appDatabase;
+    private final List<Operation> operations = new ArrayList<>();
+    private boolean committed;
+
+    /**
+     * @param context Any context, only its application context is retained
+     */
+    public UnitOfWork(@NonNull Context context)
+    {
+        this(AppDatabase.getInstance(context));
+    }
+
+    UnitOfWork(@NonNull AppDatabase appDatabase)
+    {
+        this.appDatabase = appDatabase;
+    }
+
+    public UnitOfWork insert(@NonNull Account account)
+    {
+        return add(INSERT, account);
+    }
+
+    public UnitOfWork update(@NonNull Account account)
+    {
+        return add(UPDATE, account);
+    }
+
+    public UnitOfWork upsert(@NonNull Account account)
+    {
+        return add(UPSERT, account);
+    }
+
+    /**
+     * @param accountId Identifier of the account to delete, its K is deleted by cascade
+     */
+    public UnitOfWork deleteAccount(@NonNull String accountId)
+    {
+        return add(DELETE, accountId);
+    }
+
+    /**
+     * @param k K to insert, it gets its identifier once committed
+     */
+    public UnitOfWork insert(@NonNull K k)
+    {
+        return add(INSERT, k);
+    }
+
+    public UnitOfWork update(@NonNull K k)
+    {
+        return add(UPDATE, k);
+    }
+
+    /**
+     * @param k K to write as the K of its account, it gets its identifier once committed
+     */
+    public UnitOfWork upsert(@NonNull K k)
+    {
+        return add(UPSERT, k);
+    }
+
+    public UnitOfWork deleteK(@NonNull Long kId)
+    {
+        return add(DELETE, kId);
+    }
+
+    /**
+     * @return Number of operations queued
+     */
+    public synchronized int size()
+    {
+        return operations.size();
+    }
+
+    /**
+     * Method to apply every queued operation in one transaction
+     * @param commitCallback Callback of the method, told whether the unit was committed or
+     *                       rolled back
+     */
+    public void commit(@NonNull final DaoCallbacks.Commit commitCallback) {
+        final List<Operation> queued;
+        synchronized (this)
+        {
+            if (committed) throw new IllegalStateException("Unit of work already committed");
+            committed = true;
+            queued = Collections.unmodifiableList(new ArrayList<>(operations));
+        }
+
+        appDatabase.commitUnitOfWork(queued, new DaoCallbacks.Commit() {
+            @Override
+            public void onCommitted(boolean success) {
+                afterCommit(queued, success);
+                commitCallback.onCommitted(success);
+                if (success) notifyWriteListeners(queued);
+            }
+        });
+    }
+
+// ===============================================================================================//
+//                                         PRIVATE
+// ===============================================================================================//
+
+    private synchronized UnitOfWork add(int type, @NonNull Object entity)
+    {
+        if (committed) throw new IllegalStateException("Unit of work already committed");
+        operations.add(new Operation(type, entity));
+        return this;
+    }
+
+    /**
+     * Cached rows touched by the unit are dropped, committed or not: a rolled back unit may have
+     * been racing with other writes
+     */
+    private void afterCommit(@NonNull List<Operation> queued, boolean success)
+    {
+        for (Operation operation : queued)
+        {
+            if (operation.entity instanceof Account)
+            {
+                String id = ((Account) operation.entity).get_id();
+                appDatabase.getAccountCache().invalidate(id);
+                appDatabase.getKCache().invalidate(id);
+            }
+            else if (operation.entity instanceof K)
+            {
+                String accId = ((K) operation.entity).getAccId();
+                if (accId != null) appDatabase.getKCache().invalidate(accId);
+            }
+            else if (operation.entity instanceof String)
+            {
+                appDatabase.getAccountCache().invalidate((String) operation.entity);
+                appDatabase.getKCache().invalidate((String) operation.entity);
+            }
+            else if (operation.entity instanceof Long && success)
+            {
+                final Long kId = (Long) operation.entity;
+                appDatabase.getKCache().invalidateIf(new EntityCache.Matcher<K>() {
+                    @Override
+                    public boolean matches(@NonNull K k) {
+                        return kId.equals(k.get_id());
+                    }
+                });
+            }
+        }
+    }
+
+    private void notifyWriteListeners(@NonNull List<Operation> queued)
+    {
+        List<Account> written = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (Operation operation : queued)
+        {
+            if (operation.entity instanceof Account) written.add((Account) operation.entity);
+            else if (operation.entity instanceof String) deleted.add((String) operation.entity);
+        }
+        for (DaoCallbacks.Writes<String, Account> listener :
+                appDatabase.getAccountWriteListeners())
+        {
+            if (!written.isEmpty()) listener.onWritten(written.toArray(new Account[0]));
+            if (!deleted.isEmpty()) listener.onDeleted(deleted.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * One queued write: an Account or a K to insert, update or upsert, or the identifier of the
+     * row to delete (String for an account, Long for a K)
+     */
+    static final class Operation {
+
+        final int type;
+        final Object entity;
+
+        private Operation(int type, @NonNull Object entity)
+        {
+            this.type = type;
+            this.entity = entity;
+        }
+    }
+}
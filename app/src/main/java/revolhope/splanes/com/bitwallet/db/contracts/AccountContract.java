@@ -1,10 +1,24 @@
 package revolhope.splanes.com.bitwallet.db.contracts;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
+import androidx.annotation.NonNull;
+
+import revolhope.splanes.com.bitwallet.helper.AppUtils;
+
 public interface AccountContract {
 
     String TABLE = "ACC";
 
+    /**
+     * Integer row key since version 6, only used inside the database (K.ACC_ID, ACC_FTS docid).
+     * The account id known by the app is COLUMN_UUID
+     */
     String COLUMN_ID = "_ID";
+    /**
+     * Account id (UUID) packed in 16 bytes, see AppUtils.uuidToBytes
+     */
+    String COLUMN_UUID = "UUID";
     String COLUMN_ACCOUNT = "ACCOUNT";
     String COLUMN_USER = "USER";
     String COLUMN_URL = "URL";
@@ -16,10 +30,19 @@ public interface AccountContract {
     String COLUMN_PARENT = "PARENT";
 
     String[] COLUMNS = new String[] {
-            COLUMN_ID,COLUMN_ACCOUNT, COLUMN_USER, COLUMN_URL,
+            COLUMN_UUID,COLUMN_ACCOUNT, COLUMN_USER, COLUMN_URL,
             COLUMN_BRIEF, COLUMN_DATE_CREATE, COLUMN_DATE_UPDATE,
             COLUMN_EXPIRE, COLUMN_DATE_EXPIRE, COLUMN_PARENT };
 
+    /**
+     * Columns of AccountSummary projection, all of them covered by IDX_ACC_PARENT
+     */
+    String[] COLUMNS_SUMMARY = new String[] {
+            COLUMN_UUID, COLUMN_ACCOUNT, COLUMN_PARENT, COLUMN_EXPIRE };
+
+    /**
+     * Base schema (MigrationContract.BASE_VERSION), _ID was the UUID string until version 6
+     */
     String STATEMENT_CREATE =
             "CREATE TABLE ACC(" +
             COLUMN_ID + " VARCHAR(100) PRIMARY KEY," +
@@ -36,4 +59,146 @@ public interface AccountContract {
             "CONSTRAINT FK_ACC FOREIGN KEY (" + COLUMN_PARENT + ") REFERENCES " +
             DirectoryContract.TABLE + "(" + DirectoryContract.COLUMN_ID + ")" +
                 " ON UPDATE CASCADE ON DELETE CASCADE)";
+
+    /**
+     * Schema since version 6: integer row key, the UUID is kept in 16 bytes with its own unique
+     * index for lookups by id
+     */
+    String STATEMENT_CREATE_V6 =
+            "CREATE TABLE IF NOT EXISTS ACC_V6(" +
+            COLUMN_ID + " INTEGER PRIMARY KEY," +
+            COLUMN_UUID + " BLOB NOT NULL UNIQUE CHECK(length(" + COLUMN_UUID + ") = 16)," +
+            COLUMN_ACCOUNT + " VARCHAR(50) NOT NULL," +
+            COLUMN_USER + " VARCHAR(50) DEFAULT NULL," +
+            COLUMN_URL + " VARCHAR(100) DEFAULT NULL," +
+            COLUMN_BRIEF + " VARCHAR(200) DEFAULT NULL," +
+            COLUMN_DATE_CREATE + " INTEGER NOT NULL," +
+            COLUMN_DATE_UPDATE + " INTEGER DEFAULT NULL," +
+            COLUMN_EXPIRE + " INTEGER NOT NULL DEFAULT 0 " +
+                "CHECK(" + COLUMN_EXPIRE + " = 0 OR " + COLUMN_EXPIRE + " = 1)," +
+            COLUMN_DATE_EXPIRE + " INTEGER DEFAULT NULL," +
+            COLUMN_PARENT + " INTEGER NOT NULL," +
+            "CONSTRAINT FK_ACC FOREIGN KEY (" + COLUMN_PARENT + ") REFERENCES " +
+            DirectoryContract.TABLE + "(" + DirectoryContract.COLUMN_ID + ")" +
+                " ON UPDATE CASCADE ON DELETE CASCADE)";
+
+    /**
+     * Copies one version 1 row into ACC_V6, keeping its rowid as _ID so ACC_FTS docids stay
+     * valid
+     */
+    String STATEMENT_COPY_V6 =
+            "INSERT INTO ACC_V6(" +
+            COLUMN_ID + "," + COLUMN_UUID + "," +
+            COLUMN_ACCOUNT + "," + COLUMN_USER + "," + COLUMN_URL + "," + COLUMN_BRIEF + "," +
+            COLUMN_DATE_CREATE + "," + COLUMN_DATE_UPDATE + "," + COLUMN_EXPIRE + "," +
+            COLUMN_DATE_EXPIRE + "," + COLUMN_PARENT + ") " +
+            "VALUES(?,?,?,?,?,?,?,?,?,?,?)";
+
+    String STATEMENT_INSERT =
+            "INSERT INTO ACC(" +
+            COLUMN_ACCOUNT + "," + COLUMN_USER + "," + COLUMN_URL + "," + COLUMN_BRIEF + "," +
+            COLUMN_DATE_CREATE + "," + COLUMN_DATE_UPDATE + "," + COLUMN_EXPIRE + "," +
+            COLUMN_DATE_EXPIRE + "," + COLUMN_PARENT + "," + COLUMN_UUID + ") " +
+            "VALUES(?,?,?,?,?,?,?,?,?,?)";
+
+    String STATEMENT_UPDATE =
+            "UPDATE ACC SET " +
+            COLUMN_ACCOUNT + " = ?," + COLUMN_USER + " = ?," + COLUMN_URL + " = ?," +
+            COLUMN_BRIEF + " = ?," + COLUMN_DATE_CREATE + " = ?," + COLUMN_DATE_UPDATE + " = ?," +
+            COLUMN_EXPIRE + " = ?," + COLUMN_DATE_EXPIRE + " = ?," + COLUMN_PARENT + " = ? " +
+            "WHERE " + COLUMN_UUID + " = ?";
+
+    String STATEMENT_DELETE = "DELETE FROM ACC WHERE " + COLUMN_UUID + " = ?";
+
+    /**
+     * Moves many accounts at once: the new parent is bound as ?1, the list of UUIDs to move
+     * replaces %1$s and is bound from ?2
+     */
+    String STATEMENT_MOVE_IN =
+            "UPDATE ACC SET " + COLUMN_PARENT + " = ?1 WHERE " + COLUMN_UUID + " IN %1$s";
+
+    /**
+     * Deletes many accounts at once, the list of UUIDs replaces %1$s. K rows go by cascade
+     */
+    String STATEMENT_DELETE_IN = "DELETE FROM ACC WHERE " + COLUMN_UUID + " IN %1$s";
+
+    /**
+     * Covers account listings by parent, sorted by name (version 3 schema)
+     */
+    String STATEMENT_CREATE_INDEX_PARENT =
+            "CREATE INDEX IF NOT EXISTS IDX_ACC_PARENT ON ACC(" +
+            COLUMN_PARENT + "," + COLUMN_ACCOUNT + "," + COLUMN_ID + "," +
+            COLUMN_EXPIRE + "," + COLUMN_DATE_EXPIRE + ")";
+
+    /**
+     * Covers account listings by parent, sorted by name and then id. _ID is the rowid, so the
+     * index covers it too
+     */
+    String STATEMENT_CREATE_INDEX_PARENT_V6 =
+            "CREATE INDEX IF NOT EXISTS IDX_ACC_PARENT ON ACC(" +
+            COLUMN_PARENT + "," + COLUMN_ACCOUNT + "," + COLUMN_UUID + "," +
+            COLUMN_EXPIRE + "," + COLUMN_DATE_EXPIRE + ")";
+
+    /**
+     * Partial index, only accounts with an expiration date are indexed
+     */
+    String STATEMENT_CREATE_INDEX_EXPIRE =
+            "CREATE INDEX IF NOT EXISTS IDX_ACC_EXPIRE ON ACC(" + COLUMN_DATE_EXPIRE + ") " +
+            "WHERE " + COLUMN_EXPIRE + " = 1";
+
+    /**
+     * Schema steps for this table, see Migration
+     */
+    Migration[] MIGRATIONS = new Migration[] {
+            new Migration(3, "ACC parent and expiration indexes") {
+                @Override
+                public void migrate(@NonNull Schema schema) {
+                    schema.commit(STATEMENT_CREATE_INDEX_PARENT, STATEMENT_CREATE_INDEX_EXPIRE);
+                }
+            },
+            new Migration(6, "ACC and K integer row keys") {
+                @Override
+                public void migrate(@NonNull Schema schema) {
+                    schema.execSQL(STATEMENT_CREATE_V6,
+                                   KContract.STATEMENT_CREATE_V6,
+                                   KContract.STATEMENT_DELETE_ORPHANS_V1);
+
+                    // UUID strings can't be packed in SQL, ACC rows go through Java
+                    schema.copyInBatches(TABLE,
+                            new String[] {
+                                    COLUMN_ID, COLUMN_ACCOUNT, COLUMN_USER, COLUMN_URL,
+                                    COLUMN_BRIEF, COLUMN_DATE_CREATE, COLUMN_DATE_UPDATE,
+                                    COLUMN_EXPIRE, COLUMN_DATE_EXPIRE, COLUMN_PARENT },
+                            STATEMENT_COPY_V6,
+                            new RowBinder() {
+                                @Override
+                                public void bind(@NonNull Cursor row,
+                                                 @NonNull SQLiteStatement insert) {
+                                    insert.bindLong(1, row.getLong(0));
+                                    insert.bindBlob(2, AppUtils.uuidToBytes(row.getString(1)));
+                                    for (int i = 2; i < row.getColumnCount(); i++)
+                                    {
+                                        bindColumn(row, i, insert, i + 1);
+                                    }
+                                }
+                            });
+                    // ACC_V6._ID is the old ACC rowid, K rows are re-keyed in SQL
+                    schema.copyInBatches(KContract.TABLE, "K_V6",
+                            KContract.COLUMNS_COPY_V6, KContract.EXPRESSIONS_COPY_V6);
+
+                    schema.commit("DROP TABLE " + KContract.TABLE,
+                                  "DROP TABLE " + TABLE,
+                                  "ALTER TABLE ACC_V6 RENAME TO " + TABLE,
+                                  "ALTER TABLE K_V6 RENAME TO " + KContract.TABLE,
+                                  STATEMENT_CREATE_INDEX_PARENT_V6,
+                                  STATEMENT_CREATE_INDEX_EXPIRE,
+                                  KContract.STATEMENT_CREATE_INDEX_DEADLINE,
+                                  AccountSearchContract.STATEMENT_CREATE_TRIGGER_INSERT,
+                                  AccountSearchContract.STATEMENT_CREATE_TRIGGER_BEFORE_UPDATE,
+                                  AccountSearchContract.STATEMENT_CREATE_TRIGGER_AFTER_UPDATE,
+                                  AccountSearchContract.STATEMENT_CREATE_TRIGGER_DELETE,
+                                  AccountSearchContract.STATEMENT_REBUILD);
+                }
+            }
+    };
 }
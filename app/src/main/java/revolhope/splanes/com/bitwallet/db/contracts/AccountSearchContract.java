@@ -0,0 +1,121 @@
+package revolhope.splanes.com.bitwallet.db.contracts;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Full-text index over the searchable columns of ACC. It's an external content FTS4 table: it
+ * only stores the index, the text is read from ACC through its rowid. Triggers on ACC keep the
+ * index in sync, so DAOs don't have to care about it.
+ *
+ * Docids are ACC._ID, which is the rowid since version 6 and therefore never renumbered.
+ */
+public interface AccountSearchContract {
+
+    String TABLE = "ACC_FTS";
+
+    String COLUMN_DOCID = "docid";
+
+    /**
+     * Indexed columns, same names as in ACC. Their order is the one of RANK_WEIGHTS
+     */
+    String[] COLUMNS = new String[] {
+            AccountContract.COLUMN_ACCOUNT, AccountContract.COLUMN_USER,
+            AccountContract.COLUMN_URL, AccountContract.COLUMN_BRIEF };
+
+    /**
+     * Weight of a hit on each of COLUMNS when results are ranked, a hit on the account name is
+     * worth more than one on its description
+     */
+    double[] RANK_WEIGHTS = new double[] { 4.0, 2.0, 1.0, 1.0 };
+
+    /**
+     * Prefix indexes for 2 and 3 characters terms, the usual length of what gets typed in the
+     * search box before results are shown
+     */
+    String STATEMENT_CREATE =
+            "CREATE VIRTUAL TABLE IF NOT EXISTS ACC_FTS USING fts4(" +
+            AccountContract.COLUMN_ACCOUNT + "," + AccountContract.COLUMN_USER + "," +
+            AccountContract.COLUMN_URL + "," + AccountContract.COLUMN_BRIEF + "," +
+            "content=\"" + AccountContract.TABLE + "\"," +
+            "prefix=\"2,3\"," +
+            "tokenize=unicode61)";
+
+    String STATEMENT_REBUILD = "INSERT INTO ACC_FTS(ACC_FTS) VALUES('rebuild')";
+
+    String STATEMENT_OPTIMIZE = "INSERT INTO ACC_FTS(ACC_FTS) VALUES('optimize')";
+
+    /**
+     * Only changes of indexed columns touch the index, moving an account doesn't
+     */
+    String WHEN_INDEXED_CHANGED =
+            " WHEN old." + AccountContract.COLUMN_ACCOUNT + " IS NOT new." +
+                AccountContract.COLUMN_ACCOUNT +
+            " OR old." + AccountContract.COLUMN_USER + " IS NOT new." +
+                AccountContract.COLUMN_USER +
+            " OR old." + AccountContract.COLUMN_URL + " IS NOT new." +
+                AccountContract.COLUMN_URL +
+            " OR old." + AccountContract.COLUMN_BRIEF + " IS NOT new." +
+                AccountContract.COLUMN_BRIEF;
+
+    String DELETE_OLD = "DELETE FROM ACC_FTS WHERE docid = old.rowid;";
+
+    String INSERT_NEW =
+            "INSERT INTO ACC_FTS(docid," +
+            AccountContract.COLUMN_ACCOUNT + "," + AccountContract.COLUMN_USER + "," +
+            AccountContract.COLUMN_URL + "," + AccountContract.COLUMN_BRIEF + ") " +
+            "VALUES(new.rowid, new." + AccountContract.COLUMN_ACCOUNT + "," +
+            "new." + AccountContract.COLUMN_USER + ",new." + AccountContract.COLUMN_URL + "," +
+            "new." + AccountContract.COLUMN_BRIEF + ");";
+
+    String STATEMENT_CREATE_TRIGGER_INSERT =
+            "CREATE TRIGGER IF NOT EXISTS ACC_FTS_AI AFTER INSERT ON ACC BEGIN " +
+            INSERT_NEW + " END";
+
+    String STATEMENT_CREATE_TRIGGER_BEFORE_UPDATE =
+            "CREATE TRIGGER IF NOT EXISTS ACC_FTS_BU BEFORE UPDATE ON ACC" +
+            WHEN_INDEXED_CHANGED + " BEGIN " + DELETE_OLD + " END";
+
+    String STATEMENT_CREATE_TRIGGER_AFTER_UPDATE =
+            "CREATE TRIGGER IF NOT EXISTS ACC_FTS_AU AFTER UPDATE ON ACC" +
+            WHEN_INDEXED_CHANGED + " BEGIN " + INSERT_NEW + " END";
+
+    String STATEMENT_CREATE_TRIGGER_DELETE =
+            "CREATE TRIGGER IF NOT EXISTS ACC_FTS_BD BEFORE DELETE ON ACC BEGIN " +
+            DELETE_OLD + " END";
+
+    /**
+     * Ranked search: matchinfo gives, for each phrase and column, the hits in the row and in the
+     * whole table ('pcx' format)
+     */
+    String STATEMENT_MATCH =
+            "SELECT " + COLUMN_DOCID + ", matchinfo(ACC_FTS, 'pcx') FROM ACC_FTS " +
+            "WHERE ACC_FTS MATCH ?";
+
+    /**
+     * Same as STATEMENT_MATCH, only for the accounts below the folder bound as ?2 (see
+     * DirectoryTreeContract)
+     */
+    String STATEMENT_MATCH_IN_SUBTREE =
+            STATEMENT_MATCH + " AND " + COLUMN_DOCID + " IN (SELECT " +
+            AccountContract.COLUMN_ID + " FROM " + AccountContract.TABLE + " WHERE " +
+            AccountContract.COLUMN_PARENT + " IN (SELECT " +
+            DirectoryTreeContract.COLUMN_DESCENDANT + " FROM " + DirectoryTreeContract.TABLE +
+            " WHERE " + DirectoryTreeContract.COLUMN_ANCESTOR + " = ?2))";
+
+    /**
+     * Schema steps for this table, see Migration
+     */
+    Migration[] MIGRATIONS = new Migration[] {
+            new Migration(5, "ACC full-text index") {
+                @Override
+                public void migrate(@NonNull Schema schema) {
+                    schema.commit(STATEMENT_CREATE,
+                                  STATEMENT_CREATE_TRIGGER_INSERT,
+                                  STATEMENT_CREATE_TRIGGER_BEFORE_UPDATE,
+                                  STATEMENT_CREATE_TRIGGER_AFTER_UPDATE,
+                                  STATEMENT_CREATE_TRIGGER_DELETE,
+                                  STATEMENT_REBUILD);
+                }
+            }
+    };
+}
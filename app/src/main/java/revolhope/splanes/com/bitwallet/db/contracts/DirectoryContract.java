@@ -1,5 +1,7 @@
 package revolhope.splanes.com.bitwallet.db.contracts;
 
+import androidx.annotation.NonNull;
+
 public interface DirectoryContract {
 
     String TABLE = "DIR";
@@ -20,4 +22,54 @@ public interface DirectoryContract {
 
     String STATEMENT_INSERT_ROOT = "INSERT INTO DIR(NAME,PARENT) " +
                                     "VALUES('Root',NULL)";
+
+    /**
+     * Looked up once when the database is opened, root listings then go by its id
+     */
+    String STATEMENT_SELECT_ROOT_ID = "SELECT " + COLUMN_ID + " FROM DIR " +
+                                      "WHERE " + COLUMN_PARENT + " IS NULL AND " +
+                                      COLUMN_NAME + " = 'Root'";
+
+    String STATEMENT_INSERT = "INSERT INTO DIR(" + COLUMN_NAME + "," + COLUMN_PARENT + ") " +
+                              "VALUES(?,?)";
+
+    String STATEMENT_UPDATE = "UPDATE DIR SET " + COLUMN_NAME + " = ?," + COLUMN_PARENT + " = ? " +
+                              "WHERE " + COLUMN_ID + " = ?";
+
+    String STATEMENT_DELETE = "DELETE FROM DIR WHERE " + COLUMN_ID + " = ?";
+
+    /**
+     * Moves many directories at once: the new parent is bound as ?1, the list of ids to move
+     * replaces %1$s and is bound from ?2
+     */
+    String STATEMENT_MOVE_IN =
+            "UPDATE DIR SET " + COLUMN_PARENT + " = ?1 WHERE " + COLUMN_ID + " IN %1$s";
+
+    /**
+     * Deletes many directories at once, the list of ids replaces %1$s. Their subtrees, accounts
+     * and K's go by cascade
+     */
+    String STATEMENT_DELETE_IN = "DELETE FROM DIR WHERE " + COLUMN_ID + " IN %1$s";
+
+    String STATEMENT_COUNT_IN = "SELECT COUNT(*) FROM DIR WHERE " + COLUMN_ID + " IN %1$s";
+
+    /**
+     * Covers children listings (PARENT = ?) and the root lookup (PARENT IS NULL AND NAME = ?),
+     * _ID is the rowid, so the index covers it too
+     */
+    String STATEMENT_CREATE_INDEX_PARENT =
+            "CREATE INDEX IF NOT EXISTS IDX_DIR_PARENT ON DIR(" +
+            COLUMN_PARENT + "," + COLUMN_NAME + ")";
+
+    /**
+     * Schema steps for this table, see Migration
+     */
+    Migration[] MIGRATIONS = new Migration[] {
+            new Migration(2, "DIR parent index") {
+                @Override
+                public void migrate(@NonNull Schema schema) {
+                    schema.commit(STATEMENT_CREATE_INDEX_PARENT);
+                }
+            }
+    };
 }
@@ -0,0 +1,136 @@
+package revolhope.splanes.com.bitwallet.db.contracts;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Closure table of the directory hierarchy: one row per (ancestor, descendant) pair, the
+ * directory itself included at depth 0. Subtree membership, subtree listings and subtree counts
+ * are a single indexed lookup instead of one query per level. Triggers on DIR keep it in sync,
+ * so DAOs don't have to care about it.
+ */
+public interface DirectoryTreeContract {
+
+    String TABLE = "DIR_TREE";
+
+    String COLUMN_ANCESTOR = "ANCESTOR";
+    String COLUMN_DESCENDANT = "DESCENDANT";
+    String COLUMN_DEPTH = "DEPTH";
+
+    /**
+     * Rows are looked up by ancestor (subtrees) far more often than by descendant (paths), the
+     * primary key serves the first and IDX_DIR_TREE_DESCENDANT the second
+     */
+    String STATEMENT_CREATE =
+            "CREATE TABLE IF NOT EXISTS DIR_TREE(" +
+            COLUMN_ANCESTOR + " INTEGER NOT NULL," +
+            COLUMN_DESCENDANT + " INTEGER NOT NULL," +
+            COLUMN_DEPTH + " INTEGER NOT NULL," +
+            "PRIMARY KEY (" + COLUMN_ANCESTOR + "," + COLUMN_DESCENDANT + ")) WITHOUT ROWID";
+
+    String STATEMENT_CREATE_INDEX_DESCENDANT =
+            "CREATE INDEX IF NOT EXISTS IDX_DIR_TREE_DESCENDANT ON DIR_TREE(" +
+            COLUMN_DESCENDANT + "," + COLUMN_ANCESTOR + "," + COLUMN_DEPTH + ")";
+
+    /**
+     * Fills the table from DIR with a recursive walk from every directory
+     */
+    String STATEMENT_POPULATE =
+            "INSERT OR IGNORE INTO DIR_TREE(" +
+            COLUMN_ANCESTOR + "," + COLUMN_DESCENDANT + "," + COLUMN_DEPTH + ") " +
+            "WITH RECURSIVE T(A, D, N) AS (" +
+            "SELECT " + DirectoryContract.COLUMN_ID + "," + DirectoryContract.COLUMN_ID + ",0 " +
+            "FROM " + DirectoryContract.TABLE +
+            " UNION ALL " +
+            "SELECT T.A, DIR." + DirectoryContract.COLUMN_ID + ", T.N + 1 FROM T JOIN " +
+            DirectoryContract.TABLE + " ON DIR." + DirectoryContract.COLUMN_PARENT + " = T.D) " +
+            "SELECT A, D, N FROM T";
+
+    /**
+     * A new directory descends from itself and from every ancestor of its parent
+     */
+    String STATEMENT_CREATE_TRIGGER_INSERT =
+            "CREATE TRIGGER IF NOT EXISTS DIR_TREE_AI AFTER INSERT ON DIR BEGIN " +
+            "INSERT INTO DIR_TREE VALUES(new." + DirectoryContract.COLUMN_ID + ", new." +
+                DirectoryContract.COLUMN_ID + ", 0); " +
+            "INSERT INTO DIR_TREE SELECT " + COLUMN_ANCESTOR + ", new." +
+                DirectoryContract.COLUMN_ID + ", " + COLUMN_DEPTH + " + 1 FROM DIR_TREE " +
+                "WHERE " + COLUMN_DESCENDANT + " = new." + DirectoryContract.COLUMN_PARENT + "; " +
+            "END";
+
+    /**
+     * A moved directory takes its subtree along: the links between the subtree and its old
+     * ancestors are dropped, then the subtree is linked to every ancestor of the new parent
+     */
+    String STATEMENT_CREATE_TRIGGER_MOVE =
+            "CREATE TRIGGER IF NOT EXISTS DIR_TREE_AU AFTER UPDATE OF " +
+            DirectoryContract.COLUMN_PARENT + " ON DIR " +
+            "WHEN old." + DirectoryContract.COLUMN_PARENT + " IS NOT new." +
+                DirectoryContract.COLUMN_PARENT + " BEGIN " +
+            "DELETE FROM DIR_TREE WHERE " +
+                COLUMN_DESCENDANT + " IN (SELECT " + COLUMN_DESCENDANT + " FROM DIR_TREE " +
+                    "WHERE " + COLUMN_ANCESTOR + " = new." + DirectoryContract.COLUMN_ID + ")" +
+                " AND " + COLUMN_ANCESTOR + " NOT IN (SELECT " + COLUMN_DESCENDANT +
+                    " FROM DIR_TREE WHERE " + COLUMN_ANCESTOR + " = new." +
+                    DirectoryContract.COLUMN_ID + "); " +
+            "INSERT INTO DIR_TREE SELECT UP." + COLUMN_ANCESTOR + ", DOWN." + COLUMN_DESCENDANT +
+                ", UP." + COLUMN_DEPTH + " + DOWN." + COLUMN_DEPTH + " + 1 " +
+                "FROM DIR_TREE UP, DIR_TREE DOWN " +
+                "WHERE UP." + COLUMN_DESCENDANT + " = new." + DirectoryContract.COLUMN_PARENT +
+                " AND DOWN." + COLUMN_ANCESTOR + " = new." + DirectoryContract.COLUMN_ID + "; " +
+            "END";
+
+    /**
+     * Directories deleted by cascade fire it too, one row at a time
+     */
+    String STATEMENT_CREATE_TRIGGER_DELETE =
+            "CREATE TRIGGER IF NOT EXISTS DIR_TREE_AD AFTER DELETE ON DIR BEGIN " +
+            "DELETE FROM DIR_TREE WHERE " + COLUMN_DESCENDANT + " = old." +
+                DirectoryContract.COLUMN_ID + " OR " + COLUMN_ANCESTOR + " = old." +
+                DirectoryContract.COLUMN_ID + "; " +
+            "END";
+
+    /**
+     * Selects the directories of the subtree whose root is bound as ?1, root included
+     */
+    String SELECTION_IN_SUBTREE =
+            "IN (SELECT " + COLUMN_DESCENDANT + " FROM DIR_TREE WHERE " + COLUMN_ANCESTOR +
+            " = ?1)";
+
+    String STATEMENT_IS_DESCENDANT =
+            "SELECT COUNT(*) FROM DIR_TREE WHERE " + COLUMN_ANCESTOR + " = ? AND " +
+            COLUMN_DESCENDANT + " = ?";
+
+    /**
+     * Counts the directories of a list that the directory bound as ?1 descends from (itself
+     * included), the list replaces %1$s and is bound from ?2. Non-zero means moving them below
+     * ?1 would make a cycle
+     */
+    String STATEMENT_COUNT_ANCESTORS_IN =
+            "SELECT COUNT(*) FROM DIR_TREE WHERE " + COLUMN_DESCENDANT + " = ?1 AND " +
+            COLUMN_ANCESTOR + " IN %1$s";
+
+    /**
+     * Selects the directories of the subtrees whose roots replace %1$s, roots included. A
+     * directory below two of them is selected once
+     */
+    String SELECTION_IN_SUBTREES =
+            "IN (SELECT " + COLUMN_DESCENDANT + " FROM DIR_TREE WHERE " + COLUMN_ANCESTOR +
+            " IN %1$s)";
+
+    /**
+     * Schema steps for this table, see Migration
+     */
+    Migration[] MIGRATIONS = new Migration[] {
+            new Migration(7, "DIR closure table") {
+                @Override
+                public void migrate(@NonNull Schema schema) {
+                    schema.commit(STATEMENT_CREATE,
+                                  STATEMENT_CREATE_INDEX_DESCENDANT,
+                                  STATEMENT_CREATE_TRIGGER_INSERT,
+                                  STATEMENT_CREATE_TRIGGER_MOVE,
+                                  STATEMENT_CREATE_TRIGGER_DELETE,
+                                  STATEMENT_POPULATE);
+                }
+            }
+    };
+}
@@ -1,19 +1,51 @@
 package revolhope.splanes.com.bitwallet.db.contracts;
 
+import androidx.annotation.NonNull;
+
 public interface KContract {
 
     String TABLE = "K";
 
     String COLUMN_ID = "_ID";
+    /**
+     * ACC._ID (integer row key) since version 6, it was the account UUID string before
+     */
     String COLUMN_ACC_ID = "ACC_ID";
+    /**
+     * Account id (ACC.UUID) of the K, read through COLUMN_ACC_ID
+     */
+    String COLUMN_ACC_UUID = "ACC_UUID";
     String COLUMN_CRYPTO_PWD = "CRYPTO";
     String COLUMN_PARAM_IV = "PARAM_IV";
     String COLUMN_PARAM_TLENGTH = "PARAM_TLENGTH";
     String COLUMN_DEADLINE = "DEADLINE";
 
-    String[] COLUMNS = new String[] {COLUMN_ID, COLUMN_ACC_ID, COLUMN_CRYPTO_PWD,
+    /**
+     * Looks the account UUID up by its integer key, selects must come FROM K
+     */
+    String EXPRESSION_ACC_UUID =
+            "(SELECT " + AccountContract.COLUMN_UUID + " FROM " + AccountContract.TABLE +
+            " WHERE " + AccountContract.TABLE + "." + AccountContract.COLUMN_ID + " = " +
+            "K." + COLUMN_ACC_ID + ") AS " + COLUMN_ACC_UUID;
+
+    /**
+     * Resolves the integer key of the account whose UUID is bound
+     */
+    String EXPRESSION_ACC_ID_OF_UUID =
+            "(SELECT " + AccountContract.COLUMN_ID + " FROM " + AccountContract.TABLE +
+            " WHERE " + AccountContract.COLUMN_UUID + " = ?)";
+
+    String[] COLUMNS = new String[] {COLUMN_ID, EXPRESSION_ACC_UUID, COLUMN_CRYPTO_PWD,
                                      COLUMN_PARAM_IV, COLUMN_PARAM_TLENGTH, COLUMN_DEADLINE};
 
+    /**
+     * Selects the K of the account whose UUID is bound
+     */
+    String SELECTION_ACC_UUID = COLUMN_ACC_ID + " = " + EXPRESSION_ACC_ID_OF_UUID;
+
+    /**
+     * Base schema (MigrationContract.BASE_VERSION)
+     */
     String STATEMENT_CREATE =
             "CREATE TABLE K(" +
             COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
@@ -26,4 +58,89 @@ public interface KContract {
             AccountContract.TABLE + "(" + AccountContract.COLUMN_ID + ") " + 
             "ON DELETE CASCADE ON UPDATE CASCADE, " + 
             "CONSTRAINT U_K UNIQUE(" + COLUMN_ACC_ID + "))";
+
+    /**
+     * Schema since version 6: integer key of the account instead of its UUID string
+     */
+    String STATEMENT_CREATE_V6 =
+            "CREATE TABLE IF NOT EXISTS K_V6(" +
+            COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+            COLUMN_ACC_ID + " INTEGER NOT NULL," +
+            COLUMN_CRYPTO_PWD + " BLOB NOT NULL," +
+            COLUMN_PARAM_IV + " BLOB NOT NULL," +
+            COLUMN_PARAM_TLENGTH + " INTEGER NOT NULL," +
+            COLUMN_DEADLINE + " INTEGER NOT NULL, " +
+            "CONSTRAINT FK_K FOREIGN KEY (" + COLUMN_ACC_ID + ") REFERENCES " +
+            AccountContract.TABLE + "(" + AccountContract.COLUMN_ID + ") " +
+            "ON DELETE CASCADE ON UPDATE CASCADE, " +
+            "CONSTRAINT U_K UNIQUE(" + COLUMN_ACC_ID + "))";
+
+    /**
+     * K rows whose account is gone can't be re-keyed, foreign keys were not always enforced
+     */
+    String STATEMENT_DELETE_ORPHANS_V1 =
+            "DELETE FROM K WHERE " + COLUMN_ACC_ID + " NOT IN (SELECT " +
+            AccountContract.COLUMN_ID + " FROM " + AccountContract.TABLE + ")";
+
+    String[] COLUMNS_COPY_V6 = new String[] {COLUMN_ID, COLUMN_ACC_ID, COLUMN_CRYPTO_PWD,
+                                             COLUMN_PARAM_IV, COLUMN_PARAM_TLENGTH,
+                                             COLUMN_DEADLINE};
+
+    /**
+     * Version 1 K rows into K_V6, ACC_V6._ID is the rowid the account had in ACC
+     */
+    String[] EXPRESSIONS_COPY_V6 = new String[] {
+            COLUMN_ID,
+            "(SELECT rowid FROM " + AccountContract.TABLE + " WHERE " +
+                    AccountContract.TABLE + "." + AccountContract.COLUMN_ID + " = K." +
+                    COLUMN_ACC_ID + ")",
+            COLUMN_CRYPTO_PWD, COLUMN_PARAM_IV, COLUMN_PARAM_TLENGTH, COLUMN_DEADLINE};
+
+    String STATEMENT_INSERT =
+            "INSERT INTO K(" +
+            COLUMN_ACC_ID + "," + COLUMN_CRYPTO_PWD + "," + COLUMN_PARAM_IV + "," +
+            COLUMN_PARAM_TLENGTH + "," + COLUMN_DEADLINE + ") " +
+            "VALUES(" + EXPRESSION_ACC_ID_OF_UUID + ",?,?,?,?)";
+
+    String STATEMENT_UPDATE =
+            "UPDATE K SET " +
+            COLUMN_ACC_ID + " = " + EXPRESSION_ACC_ID_OF_UUID + "," +
+            COLUMN_CRYPTO_PWD + " = ?," + COLUMN_PARAM_IV + " = ?," +
+            COLUMN_PARAM_TLENGTH + " = ?," + COLUMN_DEADLINE + " = ? " +
+            "WHERE " + COLUMN_ID + " = ?";
+
+    /**
+     * Same parameters as STATEMENT_INSERT, the K of the account is updated if it has one
+     */
+    String STATEMENT_UPDATE_BY_ACC =
+            "UPDATE K SET " +
+            COLUMN_CRYPTO_PWD + " = ?2," + COLUMN_PARAM_IV + " = ?3," +
+            COLUMN_PARAM_TLENGTH + " = ?4," + COLUMN_DEADLINE + " = ?5 " +
+            "WHERE " + COLUMN_ACC_ID + " = (SELECT " + AccountContract.COLUMN_ID + " FROM " +
+            AccountContract.TABLE + " WHERE " + AccountContract.COLUMN_UUID + " = ?1)";
+
+    String STATEMENT_SELECT_ID_BY_ACC =
+            "SELECT " + COLUMN_ID + " FROM K WHERE " + SELECTION_ACC_UUID;
+
+    String STATEMENT_DELETE = "DELETE FROM K WHERE " + COLUMN_ID + " = ?";
+
+    /**
+     * Deletes many K's at once, the list of ids replaces %1$s
+     */
+    String STATEMENT_DELETE_IN = "DELETE FROM K WHERE " + COLUMN_ID + " IN %1$s";
+
+    String STATEMENT_CREATE_INDEX_DEADLINE =
+            "CREATE INDEX IF NOT EXISTS IDX_K_DEADLINE ON K(" + COLUMN_DEADLINE + ")";
+
+    /**
+     * Schema steps for this table, see Migration
+     */
+    Migration[] MIGRATIONS = new Migration[] {
+            new Migration(4, "K deadline index") {
+                @Override
+                public void migrate(@NonNull Schema schema) {
+                    schema.commit(STATEMENT_CREATE_INDEX_DEADLINE);
+                }
+            }
+    };
 }
@@ -0,0 +1,136 @@
+package revolhope.splanes.com.bitwallet.db.contracts;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import androidx.annotation.NonNull;
+
+/**
+ * Numbered schema step. Steps are declared next to the table they change (MIGRATIONS field of
+ * every contract) and applied in ascending version order when the database is opened.
+ *
+ * A step interrupted halfway (app killed, battery...) is run again on next open, so it must be
+ * safe to re-run: use IF NOT EXISTS / IF EXISTS on DDL, copy big tables through
+ * {@link Schema#copyInBatches} (which resumes from its last checkpoint) and finish the step
+ * through {@link Schema#commit} so the last statements and the version bump are atomic.
+ */
+public abstract class Migration {
+
+    /**
+     * Rows copied per transaction on table rewrites
+     */
+    public static final int COPY_BATCH_SIZE = 2000;
+
+    private final int version;
+    private final String description;
+
+    protected Migration(int version, @NonNull String description) {
+        this.version = version;
+        this.description = description;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Method to apply the step
+     * @param schema Access to the database being migrated
+     */
+    public abstract void migrate(@NonNull Schema schema);
+
+    /**
+     * Method to copy a column of a source row as is, with its own storage type
+     * @param row Source row
+     * @param column Column of the row
+     * @param insert Insert statement
+     * @param index Index of the statement parameter
+     */
+    protected static void bindColumn(@NonNull Cursor row, int column,
+                                     @NonNull SQLiteStatement insert, int index)
+    {
+        switch (row.getType(column))
+        {
+            case Cursor.FIELD_TYPE_NULL:
+                insert.bindNull(index);
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                insert.bindLong(index, row.getLong(column));
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                insert.bindDouble(index, row.getDouble(column));
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                insert.bindBlob(index, row.getBlob(column));
+                break;
+            default:
+                insert.bindString(index, row.getString(column));
+                break;
+        }
+    }
+
+    /**
+     * Operations available to a migration step
+     */
+    public interface Schema {
+
+        @NonNull
+        SQLiteDatabase getDatabase();
+
+        /**
+         * @param table Table name
+         * @return True if the table (or virtual table) exists
+         */
+        boolean tableExists(@NonNull String table);
+
+        /**
+         * Method to run statements in one transaction
+         * @param statements Statements to execute in order
+         */
+        void execSQL(@NonNull String... statements);
+
+        /**
+         * Method to copy every row of 'source' into 'target' by batches of COPY_BATCH_SIZE rows,
+         * one transaction per batch. Progress is checkpointed, so an interrupted copy resumes
+         * where it stopped.
+         * @param source Source table, it must have a rowid
+         * @param target Target table
+         * @param targetColumns Columns of target table to fill
+         * @param sourceExpressions Expressions over source rows, one for each target column
+         */
+        void copyInBatches(@NonNull String source, @NonNull String target,
+                           @NonNull String[] targetColumns, @NonNull String[] sourceExpressions);
+
+        /**
+         * Same as {@link #copyInBatches(String, String, String[], String[])}, but rows go
+         * through Java, for conversions SQL can't do.
+         * @param source Source table, it must have a rowid
+         * @param sourceColumns Columns read from source table
+         * @param insertStatement Statement executed once per source row
+         * @param binder Binds a source row into the insert statement
+         */
+        void copyInBatches(@NonNull String source, @NonNull String[] sourceColumns,
+                           @NonNull String insertStatement, @NonNull RowBinder binder);
+
+        /**
+         * Method to run the last statements of the step and mark the step as applied, all in the
+         * same transaction
+         * @param statements Statements to execute in order
+         */
+        void commit(@NonNull String... statements);
+    }
+
+    public interface RowBinder {
+
+        /**
+         * @param row Source row: rowid at index 0, then the columns given to copyInBatches
+         *            starting at index 1
+         * @param insert Insert statement, bindings are already cleared
+         */
+        void bind(@NonNull Cursor row, @NonNull SQLiteStatement insert);
+    }
+}
@@ -0,0 +1,32 @@
+package revolhope.splanes.com.bitwallet.db.contracts;
+
+public interface MigrationContract {
+
+    String TABLE = "MIGRATION";
+    String TABLE_CHECKPOINT = "MIGRATION_CHECKPOINT";
+
+    String COLUMN_VERSION = "VERSION";
+    String COLUMN_DESCRIPTION = "DESCRIPTION";
+    String COLUMN_APPLIED = "APPLIED";
+    String COLUMN_SOURCE = "SOURCE";
+    String COLUMN_LAST_ROWID = "LAST_ROWID";
+
+    /**
+     * Schema version created by AccountContract, DirectoryContract and KContract STATEMENT_CREATE.
+     * Every Migration declares a version above this one.
+     */
+    int BASE_VERSION = 1;
+
+    String STATEMENT_CREATE =
+            "CREATE TABLE IF NOT EXISTS MIGRATION(" +
+            COLUMN_VERSION + " INTEGER PRIMARY KEY," +
+            COLUMN_DESCRIPTION + " VARCHAR(200) NOT NULL," +
+            COLUMN_APPLIED + " INTEGER NOT NULL)";
+
+    String STATEMENT_CREATE_CHECKPOINT =
+            "CREATE TABLE IF NOT EXISTS MIGRATION_CHECKPOINT(" +
+            COLUMN_VERSION + " INTEGER NOT NULL," +
+            COLUMN_SOURCE + " VARCHAR(50) NOT NULL," +
+            COLUMN_LAST_ROWID + " INTEGER NOT NULL," +
+            "PRIMARY KEY (" + COLUMN_VERSION + "," + COLUMN_SOURCE + "))";
+}
@@ -6,10 +6,13 @@ import android.util.Base64;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.Nullable;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Locale;
+import java.util.UUID;
 
 public final class AppUtils {
 
@@ -91,4 +94,37 @@ public final class AppUtils {
     {
         return Base64.decode(strBase64, Base64.DEFAULT);
     }
+
+// =================================================================================================
+//                                          UUID UTILS
+// =================================================================================================
+
+    /**
+     * Method to pack an account id (UUID string) into the 16 bytes stored in ACC.UUID. Ids that
+     * are not UUIDs get a name-based UUID derived from them, so packing is always stable.
+     * @param uuid Account id
+     * @return 16 bytes, most significant first
+     */
+    @NonNull
+    public static byte[] uuidToBytes(@NonNull String uuid)
+    {
+        UUID value;
+        try {
+            value = UUID.fromString(uuid);
+        }
+        catch (IllegalArgumentException e) {
+            value = UUID.nameUUIDFromBytes(uuid.getBytes(StandardCharsets.UTF_8));
+        }
+        return ByteBuffer.allocate(16)
+                .putLong(value.getMostSignificantBits())
+                .putLong(value.getLeastSignificantBits())
+                .array();
+    }
+
+    @NonNull
+    public static String uuidFromBytes(@NonNull byte[] bytes)
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong()).toString();
+    }
 }
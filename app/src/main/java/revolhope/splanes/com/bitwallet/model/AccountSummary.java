@@ -0,0 +1,39 @@
+package revolhope.splanes.com.bitwallet.model;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Lightweight projection of an Account, just what list screens need. The full Account is loaded
+ * only when the entry is opened.
+ */
+public class AccountSummary {
+
+    private final String _id;
+    private final String account;
+    private final long parent;
+    private final boolean expire;
+
+    public AccountSummary(@NonNull String _id, @NonNull String account, long parent,
+                          boolean expire) {
+        this._id = _id;
+        this.account = account;
+        this.parent = parent;
+        this.expire = expire;
+    }
+
+    public String get_id() {
+        return _id;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public long getParent() {
+        return parent;
+    }
+
+    public boolean isExpire() {
+        return expire;
+    }
+}
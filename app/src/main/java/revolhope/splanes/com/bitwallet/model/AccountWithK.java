@@ -0,0 +1,30 @@
+package revolhope.splanes.com.bitwallet.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * An account together with its K, read by the same statement (DaoAccount.findWithK) or written
+ * in the same transaction (DaoAccount.saveWithK).
+ */
+public class AccountWithK {
+
+    private Account account;
+    private K k;
+
+    public AccountWithK(@NonNull Account account, @Nullable K k) {
+        this.account = account;
+        this.k = k;
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    /**
+     * @return K of the account, null if the account has none
+     */
+    public K getK() {
+        return k;
+    }
+}
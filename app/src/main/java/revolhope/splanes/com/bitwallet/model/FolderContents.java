@@ -0,0 +1,49 @@
+package revolhope.splanes.com.bitwallet.model;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Snapshot of a folder: the folder itself, its sub-directories, the number of accounts it holds
+ * and the first page of its account summaries (sorted by name), all of them read by the same
+ * statement. Following pages are requested through DaoAccount.findSummaryPage.
+ */
+public class FolderContents {
+
+    private Directory folder;
+    private Directory[] directories;
+    private AccountSummary[] accounts;
+    private int accountCount;
+
+    public FolderContents(@NonNull Directory folder, @NonNull Directory[] directories,
+                          @NonNull AccountSummary[] accounts, int accountCount) {
+        this.folder = folder;
+        this.directories = directories;
+        this.accounts = accounts;
+        this.accountCount = accountCount;
+    }
+
+    public Directory getFolder() {
+        return folder;
+    }
+
+    public List<Directory> getDirectories() {
+        return Arrays.asList(directories);
+    }
+
+    /**
+     * @return First page of account summaries
+     */
+    public List<AccountSummary> getAccounts() {
+        return Arrays.asList(accounts);
+    }
+
+    /**
+     * @return Number of accounts in the folder, pages included or not
+     */
+    public int getAccountCount() {
+        return accountCount;
+    }
+}
@@ -6,10 +6,13 @@ import java.io.Serializable;
 
 import javax.crypto.spec.GCMParameterSpec;
 
+import revolhope.splanes.com.bitwallet.helper.AppUtils;
+
 public class K implements Serializable {
 
     private Long _id;
     private String accId;
+    private byte[] pwd;
     private String pwdBase64;
     private GCMParameterSpec spec;
     private Long deadline;
@@ -24,6 +27,16 @@ public class K implements Serializable {
         this.deadline = deadline;
     }
     
+    public K (@NonNull Long _id, @NonNull String accId, @NonNull byte[] pwd,
+              @NonNull GCMParameterSpec spec, @NonNull Long deadline) {
+
+        this._id = _id;
+        this.accId = accId;
+        this.pwd = pwd;
+        this.spec = spec;
+        this.deadline = deadline;
+    }
+
     public K() {}
 
     public Long get_id() {
@@ -42,12 +55,34 @@ public class K implements Serializable {
         this.accId = accId;
     }
 
+    /**
+     * @return Encrypted password, decoded from Base64 the first time if it was set that way
+     */
+    public byte[] getPwd() {
+        if (pwd == null && pwdBase64 != null) {
+            pwd = AppUtils.fromStringBase64(pwdBase64);
+        }
+        return pwd;
+    }
+
+    public void setPwd(byte[] pwd) {
+        this.pwd = pwd;
+        this.pwdBase64 = null;
+    }
+
+    /**
+     * @return Encrypted password as Base64, encoded the first time if it was set as bytes
+     */
     public String getPwdBase64() {
+        if (pwdBase64 == null && pwd != null) {
+            pwdBase64 = AppUtils.toStringBase64(pwd);
+        }
         return pwdBase64;
     }
 
     public void setPwdBase64(String pwdBase64) {
         this.pwdBase64 = pwdBase64;
+        this.pwd = null;
     }
 
     public GCMParameterSpec getSpec() {
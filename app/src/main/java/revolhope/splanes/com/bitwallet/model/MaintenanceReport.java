@@ -0,0 +1,145 @@
+package revolhope.splanes.com.bitwallet.model;
+
+/**
+ * Outcome of a database maintenance run: size of the database before and after, and which
+ * steps were done. Steps left undone because the run was out of time or stopped are done by
+ * the next one.
+ */
+public class MaintenanceReport {
+
+    private FileStats before;
+    private FileStats after;
+    private int vacuumedPages;
+    private boolean fullVacuum;
+    private boolean analyzed;
+    private boolean checkpointed;
+    private boolean completed;
+    private long durationMillis;
+
+    public MaintenanceReport(FileStats before, FileStats after, int vacuumedPages,
+                             boolean fullVacuum, boolean analyzed, boolean checkpointed,
+                             boolean completed, long durationMillis) {
+        this.before = before;
+        this.after = after;
+        this.vacuumedPages = vacuumedPages;
+        this.fullVacuum = fullVacuum;
+        this.analyzed = analyzed;
+        this.checkpointed = checkpointed;
+        this.completed = completed;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return Size of the database before the run, null if it couldn't be read
+     */
+    public FileStats getBefore() {
+        return before;
+    }
+
+    /**
+     * @return Size of the database after the run, null if it couldn't be read
+     */
+    public FileStats getAfter() {
+        return after;
+    }
+
+    /**
+     * @return Free pages given back to the file system
+     */
+    public int getVacuumedPages() {
+        return vacuumedPages;
+    }
+
+    /**
+     * @return True if the whole file was rebuilt, done once to switch it to incremental vacuum
+     */
+    public boolean isFullVacuum() {
+        return fullVacuum;
+    }
+
+    /**
+     * @return True if the query planner statistics were refreshed
+     */
+    public boolean isAnalyzed() {
+        return analyzed;
+    }
+
+    /**
+     * @return True if the whole WAL was copied to the database and truncated
+     */
+    public boolean isCheckpointed() {
+        return checkpointed;
+    }
+
+    /**
+     * @return False if the run was out of time, stopped or failed before every step was done
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "before " + before + ", after " + after + ", vacuumed " + vacuumedPages +
+               " pages" + (fullVacuum ? " (full)" : "") + ", analyzed " + analyzed +
+               ", checkpointed " + checkpointed + ", completed " + completed + " in " +
+               durationMillis + " ms";
+    }
+
+    /**
+     * Size of the database at a given time
+     */
+    public static class FileStats {
+
+        private long pageSize;
+        private long pages;
+        private long freePages;
+        private long fileBytes;
+        private long walBytes;
+
+        public FileStats(long pageSize, long pages, long freePages, long fileBytes,
+                         long walBytes) {
+            this.pageSize = pageSize;
+            this.pages = pages;
+            this.freePages = freePages;
+            this.fileBytes = fileBytes;
+            this.walBytes = walBytes;
+        }
+
+        public long getPageSize() {
+            return pageSize;
+        }
+
+        public long getPages() {
+            return pages;
+        }
+
+        /**
+         * @return Pages not used by any table or index, reclaimed by vacuum
+         */
+        public long getFreePages() {
+            return freePages;
+        }
+
+        /**
+         * @return Size of the database file, pages still in the WAL not included
+         */
+        public long getFileBytes() {
+            return fileBytes;
+        }
+
+        public long getWalBytes() {
+            return walBytes;
+        }
+
+        @Override
+        public String toString() {
+            return pages + " pages (" + freePages + " free), " + fileBytes + " B + " + walBytes +
+                   " B WAL";
+        }
+    }
+}
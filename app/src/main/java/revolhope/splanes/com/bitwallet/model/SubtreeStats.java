@@ -0,0 +1,31 @@
+package revolhope.splanes.com.bitwallet.model;
+
+/**
+ * Number of rows below a folder, at any depth: sub-directories (the folder itself excluded),
+ * accounts and K's. Deletes report what they removed with it too, cascades included (there the
+ * deleted folders are counted).
+ */
+public class SubtreeStats {
+
+    private int directories;
+    private int accounts;
+    private int ks;
+
+    public SubtreeStats(int directories, int accounts, int ks) {
+        this.directories = directories;
+        this.accounts = accounts;
+        this.ks = ks;
+    }
+
+    public int getDirectories() {
+        return directories;
+    }
+
+    public int getAccounts() {
+        return accounts;
+    }
+
+    public int getKs() {
+        return ks;
+    }
+}
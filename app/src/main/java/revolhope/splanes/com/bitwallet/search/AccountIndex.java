@@ -0,0 +1,604 @@
+package revolhope.splanes.com.bitwallet.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import revolhope.splanes.com.bitwallet.model.AccountSummary;
+
+/**
+ * In-memory prefix index over account names, users and URL hosts, used for search as you type.
+ *
+ * Every word of those fields is split in trigrams anchored at the start of the word (for
+ * "google": "__g", "_go", "goo", "oog", "ogl", "gle"), and every trigram keeps the list of the
+ * entries having it. A query word selects the entries sharing enough of its trigrams, then each
+ * candidate is checked with a bounded edit distance against the start of its words, so typos
+ * like "gogle" still find "google".
+ *
+ * Entries live in slots. Removing an entry only frees its slot, posting lists are rebuilt once
+ * half of the slots are free.
+ */
+final class AccountIndex {
+
+    private static final int FIELD_NAME = 0;
+    private static final int FIELD_USER = 1;
+    private static final int FIELD_HOST = 2;
+
+    /**
+     * Score of an exact hit on each field, a name hit ranks above a user or host one
+     */
+    private static final double[] FIELD_WEIGHTS = new double[] { 4.0, 2.0, 1.0 };
+
+    /**
+     * Extra score when the query word is a whole word of the entry, not only its start
+     */
+    private static final double WHOLE_WORD_BONUS = 0.5;
+
+    private static final char PAD = '\u0002';
+    private static final int MAX_TERMS = 8;
+    private static final int MAX_TERM_LENGTH = 32;
+    private static final int MIN_FREE_TO_COMPACT = 1024;
+    private static final int CANCEL_CHECK_INTERVAL = 4096;
+
+    interface Cancellation {
+        boolean isCancelled();
+    }
+
+    private final Map<Long, Postings> postings = new HashMap<>();
+    private final Map<String, Integer> slotsById = new HashMap<>();
+    private Entry[] entries = new Entry[1024];
+    private int slotCount;
+    private int freeCount;
+
+    // Scratch of query, reused since queries are serialized by the index lock
+    private int[] counters = new int[1024];
+    private int[] distanceRow = new int[MAX_TERM_LENGTH * 2 + 2];
+    private int[] distancePrevious = new int[MAX_TERM_LENGTH * 2 + 2];
+
+    /**
+     * Method to add an entry, or replace the one with the same id
+     * @param id Account identifier
+     * @param name Account name
+     * @param user Account user, may be null
+     * @param url Account url, only its host is indexed. May be null
+     * @param parent Folder of the account
+     * @param expire Expire flag of the account
+     */
+    synchronized void put(@NonNull String id, @NonNull String name, @Nullable String user,
+                          @Nullable String url, long parent, boolean expire)
+    {
+        remove(id);
+
+        Map<String, Integer> words = new LinkedHashMap<>();
+        addWords(words, name, FIELD_NAME);
+        addWords(words, user, FIELD_USER);
+        addWords(words, host(url), FIELD_HOST);
+
+        String[] wordArray = new String[words.size()];
+        byte[] fieldArray = new byte[words.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> word : words.entrySet())
+        {
+            wordArray[i] = word.getKey();
+            fieldArray[i++] = word.getValue().byteValue();
+        }
+
+        if (slotCount == entries.length)
+        {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+        }
+        int slot = slotCount++;
+        entries[slot] = new Entry(id, name, parent, expire, wordArray, fieldArray);
+        slotsById.put(id, slot);
+
+        Set<Long> grams = new HashSet<>();
+        for (String word : wordArray)
+        {
+            addGrams(grams, word);
+        }
+        for (Long gram : grams)
+        {
+            Postings list = postings.get(gram);
+            if (list == null)
+            {
+                list = new Postings();
+                postings.put(gram, list);
+            }
+            list.add(slot);
+        }
+    }
+
+    /**
+     * @param id Account identifier, nothing happens if it's not indexed
+     */
+    synchronized void remove(@NonNull String id)
+    {
+        Integer slot = slotsById.remove(id);
+        if (slot == null) return;
+
+        entries[slot] = null;
+        freeCount++;
+        if (freeCount >= MIN_FREE_TO_COMPACT && freeCount * 2 > slotCount)
+        {
+            compact();
+        }
+    }
+
+    /**
+     * Method to change the folder of an entry, its words don't change so nothing is re-indexed
+     * @param id Account identifier, nothing happens if it's not indexed
+     * @param parent New folder of the account
+     */
+    synchronized void move(@NonNull String id, long parent)
+    {
+        Integer slot = slotsById.get(id);
+        if (slot != null) entries[slot].parent = parent;
+    }
+
+    synchronized void clear()
+    {
+        postings.clear();
+        slotsById.clear();
+        entries = new Entry[1024];
+        slotCount = 0;
+        freeCount = 0;
+    }
+
+    /**
+     * @return Number of entries indexed
+     */
+    synchronized int size()
+    {
+        return slotsById.size();
+    }
+
+    /**
+     * Method to find the entries matching every word of a query. A query word matches the start
+     * of any word of the entry with up to 0 (words up to 3 chars), 1 (up to 6 chars) or 2 typos.
+     * @param query Text typed by the user
+     * @param limit Max number of results
+     * @param cancellation Checked while the query runs
+     * @return Best ranked entries first, null if the query was cancelled
+     */
+    @Nullable
+    synchronized List<AccountSummary> query(@NonNull String query, int limit,
+                                            @NonNull Cancellation cancellation)
+    {
+        List<String> terms = new ArrayList<>();
+        for (String word : words(query))
+        {
+            String term = word.length() > MAX_TERM_LENGTH ?
+                    word.substring(0, MAX_TERM_LENGTH) : word;
+            if (!terms.contains(term)) terms.add(term);
+            if (terms.size() == MAX_TERMS) break;
+        }
+        if (terms.isEmpty()) return new ArrayList<>();
+
+        // Longest term first, it has the most trigrams and selects the fewest candidates
+        Collections.sort(terms, new Comparator<String>() {
+            @Override
+            public int compare(String t1, String t2) {
+                return Integer.compare(t2.length(), t1.length());
+            }
+        });
+        String first = terms.get(0);
+        PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1, Hit.WORST_FIRST);
+
+        // Exact pass: entries having every trigram of the first term, which is what typing a
+        // prefix gives most of the time
+        Set<Integer> exact = new HashSet<>();
+        if (!collectExact(first, terms, limit, best, exact, cancellation)) return null;
+
+        // Typo pass, only if exact hits don't fill the page
+        if (best.size() < limit && maxTypos(first.length()) > 0)
+        {
+            if (!collectFuzzy(first, terms, limit, best, exact, cancellation)) return null;
+        }
+
+        List<Hit> hits = new ArrayList<>(best);
+        Collections.sort(hits, Collections.reverseOrder(Hit.WORST_FIRST));
+        List<AccountSummary> result = new ArrayList<>(hits.size());
+        for (Hit hit : hits)
+        {
+            result.add(new AccountSummary(hit.entry.id, hit.entry.name, hit.entry.parent,
+                                          hit.entry.expire));
+        }
+        return result;
+    }
+
+// ===============================================================================================//
+//                                         PRIVATE
+// ===============================================================================================//
+
+    /**
+     * Method to score the entries having every trigram of the first term. Posting lists are
+     * intersected walking the shortest one and binary searching the others.
+     * @return False if the query was cancelled
+     */
+    private boolean collectExact(@NonNull String first, @NonNull List<String> terms, int limit,
+                                 @NonNull PriorityQueue<Hit> best, @NonNull Set<Integer> scored,
+                                 @NonNull Cancellation cancellation)
+    {
+        Set<Long> grams = new HashSet<>();
+        addGrams(grams, first);
+        List<Postings> lists = new ArrayList<>(grams.size());
+        for (Long gram : grams)
+        {
+            Postings list = postings.get(gram);
+            if (list == null) return true;
+            lists.add(list);
+        }
+        Collections.sort(lists, new Comparator<Postings>() {
+            @Override
+            public int compare(Postings p1, Postings p2) {
+                return Integer.compare(p1.size, p2.size);
+            }
+        });
+
+        Postings shortest = lists.get(0);
+        for (int i = 0; i < shortest.size; i++)
+        {
+            if (i % CANCEL_CHECK_INTERVAL == 0 && cancellation.isCancelled()) return false;
+
+            int slot = shortest.slots[i];
+            boolean inAll = entries[slot] != null;
+            for (int l = 1; l < lists.size() && inAll; l++)
+            {
+                Postings list = lists.get(l);
+                inAll = Arrays.binarySearch(list.slots, 0, list.size, slot) >= 0;
+            }
+            if (inAll) offer(slot, terms, limit, best, scored);
+        }
+        return true;
+    }
+
+    /**
+     * Method to score the entries sharing enough trigrams with the first term to be at most
+     * maxTypos edits away from it. Entries already scored are skipped.
+     * @return False if the query was cancelled
+     */
+    private boolean collectFuzzy(@NonNull String first, @NonNull List<String> terms, int limit,
+                                 @NonNull PriorityQueue<Hit> best, @NonNull Set<Integer> scored,
+                                 @NonNull Cancellation cancellation)
+    {
+        Set<Long> grams = new HashSet<>();
+        addGrams(grams, first);
+        // An edit changes up to 3 trigrams
+        int minShared = Math.max(1, grams.size() - 3 * maxTypos(first.length()));
+
+        if (counters.length < slotCount)
+        {
+            counters = new int[entries.length];
+        }
+        Postings touched = new Postings();
+        try
+        {
+            int visited = 0;
+            for (Long gram : grams)
+            {
+                Postings list = postings.get(gram);
+                if (list == null) continue;
+                for (int i = 0; i < list.size; i++)
+                {
+                    int slot = list.slots[i];
+                    if (counters[slot]++ == 0) touched.add(slot);
+                    if (++visited % CANCEL_CHECK_INTERVAL == 0 && cancellation.isCancelled())
+                    {
+                        return false;
+                    }
+                }
+            }
+
+            for (int i = 0; i < touched.size; i++)
+            {
+                if (i % CANCEL_CHECK_INTERVAL == 0 && cancellation.isCancelled()) return false;
+
+                int slot = touched.slots[i];
+                if (counters[slot] >= minShared && entries[slot] != null &&
+                        !scored.contains(slot))
+                {
+                    offer(slot, terms, limit, best, scored);
+                }
+            }
+        }
+        finally
+        {
+            for (int i = 0; i < touched.size; i++)
+            {
+                counters[touched.slots[i]] = 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method to score an entry against every term and keep it if it's among the best 'limit'
+     */
+    private void offer(int slot, @NonNull List<String> terms, int limit,
+                       @NonNull PriorityQueue<Hit> best, @NonNull Set<Integer> scored)
+    {
+        Entry entry = entries[slot];
+        double score = 0;
+        for (String term : terms)
+        {
+            double termScore = score(entry, term);
+            if (termScore < 0) return;
+            score += termScore;
+        }
+        if (best.size() == limit && score < best.peek().score) return;
+
+        Hit hit = new Hit(entry, score);
+        if (best.size() < limit)
+        {
+            best.add(hit);
+            scored.add(slot);
+        }
+        else if (Hit.WORST_FIRST.compare(hit, best.peek()) > 0)
+        {
+            best.poll();
+            best.add(hit);
+            scored.add(slot);
+        }
+    }
+
+    /**
+     * @return Best score of the term among the words of the entry, -1 if no word matches
+     */
+    private double score(@NonNull Entry entry, @NonNull String term)
+    {
+        int maxTypos = maxTypos(term.length());
+        double best = -1;
+        for (int i = 0; i < entry.words.length; i++)
+        {
+            String word = entry.words[i];
+            int typos = word.startsWith(term) ? 0 :
+                    maxTypos == 0 ? 1 : prefixDistance(term, word, maxTypos);
+            if (typos > maxTypos) continue;
+
+            double score = FIELD_WEIGHTS[entry.fields[i]] *
+                    (1.0 - (double) typos / (term.length() + 1));
+            if (typos == 0 && word.length() == term.length()) score += WHOLE_WORD_BONUS;
+            if (score > best) best = score;
+        }
+        return best;
+    }
+
+    /**
+     * Levenshtein distance between the term and the closest start of the word
+     * @return Distance, or max + 1 once it's known to be above max
+     */
+    private int prefixDistance(@NonNull String term, @NonNull String word, int max)
+    {
+        int n = term.length();
+        int m = Math.min(word.length(), n + max);
+        int[] previous = distancePrevious;
+        int[] row = distanceRow;
+        for (int j = 0; j <= m; j++)
+        {
+            previous[j] = j;
+        }
+
+        for (int i = 1; i <= n; i++)
+        {
+            row[0] = i;
+            int rowMin = i;
+            char c = term.charAt(i - 1);
+            for (int j = 1; j <= m; j++)
+            {
+                int cost = c == word.charAt(j - 1) ? 0 : 1;
+                row[j] = Math.min(Math.min(row[j - 1] + 1, previous[j] + 1),
+                                  previous[j - 1] + cost);
+                if (row[j] < rowMin) rowMin = row[j];
+            }
+            if (rowMin > max) return max + 1;
+
+            int[] swap = previous;
+            previous = row;
+            row = swap;
+        }
+
+        int distance = max + 1;
+        for (int j = 0; j <= m; j++)
+        {
+            if (previous[j] < distance) distance = previous[j];
+        }
+        return distance;
+    }
+
+    private static int maxTypos(int termLength)
+    {
+        return termLength <= 3 ? 0 : termLength <= 6 ? 1 : 2;
+    }
+
+    private void compact()
+    {
+        List<Entry> live = new ArrayList<>(slotsById.size());
+        for (int i = 0; i < slotCount; i++)
+        {
+            if (entries[i] != null) live.add(entries[i]);
+        }
+
+        postings.clear();
+        slotsById.clear();
+        entries = new Entry[Math.max(1024, live.size() * 2)];
+        slotCount = 0;
+        freeCount = 0;
+        for (Entry entry : live)
+        {
+            int slot = slotCount++;
+            entries[slot] = entry;
+            slotsById.put(entry.id, slot);
+
+            Set<Long> grams = new HashSet<>();
+            for (String word : entry.words)
+            {
+                addGrams(grams, word);
+            }
+            for (Long gram : grams)
+            {
+                Postings list = postings.get(gram);
+                if (list == null)
+                {
+                    list = new Postings();
+                    postings.put(gram, list);
+                }
+                list.add(slot);
+            }
+        }
+    }
+
+    /**
+     * Method to add the words of a field, a word found in several fields keeps the best one
+     */
+    private static void addWords(@NonNull Map<String, Integer> words, @Nullable String text,
+                                 int field)
+    {
+        if (text == null) return;
+        for (String word : words(text))
+        {
+            Integer previous = words.get(word);
+            if (previous == null || previous > field) words.put(word, field);
+        }
+    }
+
+    /**
+     * @return Lower case words of the text, without diacritics
+     */
+    @NonNull
+    private static List<String> words(@NonNull String text)
+    {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}+", "")
+                .toLowerCase(Locale.ROOT);
+        List<String> words = new ArrayList<>();
+        for (String word : normalized.split("[^\\p{L}\\p{N}]+"))
+        {
+            if (!word.isEmpty()) words.add(word);
+        }
+        return words;
+    }
+
+    /**
+     * Method to add the trigrams of a word, anchored at its start: as many as chars in the word
+     */
+    private static void addGrams(@NonNull Set<Long> grams, @NonNull String word)
+    {
+        char a = PAD;
+        char b = PAD;
+        for (int i = 0; i < word.length(); i++)
+        {
+            char c = word.charAt(i);
+            grams.add(((long) a << 32) | ((long) b << 16) | c);
+            a = b;
+            b = c;
+        }
+    }
+
+    /**
+     * @return Host of the url without 'www' and top level domain ("https://www.google.com/x"
+     *         gives "google"), null if there is no url
+     */
+    @Nullable
+    private static String host(@Nullable String url)
+    {
+        if (url == null) return null;
+
+        String host = url.trim();
+        int scheme = host.indexOf("://");
+        if (scheme >= 0) host = host.substring(scheme + 3);
+        for (char end : new char[] { '/', '?', '#', ':' })
+        {
+            int index = host.indexOf(end);
+            if (index >= 0) host = host.substring(0, index);
+        }
+        host = host.substring(host.lastIndexOf('@') + 1);
+
+        String[] labels = host.split("\\.");
+        int from = labels.length > 1 && labels[0].equalsIgnoreCase("www") ? 1 : 0;
+        int to = labels.length - from > 1 ? labels.length - 1 : labels.length;
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++)
+        {
+            sb.append(labels[i]).append(' ');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Growable list of slots, in ascending order since slots are always appended
+     */
+    private static final class Postings
+    {
+        private int[] slots = new int[4];
+        private int size;
+
+        private void add(int slot)
+        {
+            if (size == slots.length)
+            {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+    }
+
+    private static final class Entry
+    {
+        private final String id;
+        private final String name;
+        // Name in lower case, ties between equal scores are sorted by it
+        private final String sortKey;
+        private long parent;
+        private final boolean expire;
+        private final String[] words;
+        private final byte[] fields;
+
+        private Entry(@NonNull String id, @NonNull String name, long parent, boolean expire,
+                      @NonNull String[] words, @NonNull byte[] fields)
+        {
+            this.id = id;
+            this.name = name;
+            this.sortKey = name.toLowerCase(Locale.ROOT);
+            this.parent = parent;
+            this.expire = expire;
+            this.words = words;
+            this.fields = fields;
+        }
+    }
+
+    private static final class Hit
+    {
+        /**
+         * Lowest score first, ties broken by name so the order is stable
+         */
+        private static final Comparator<Hit> WORST_FIRST = new Comparator<Hit>() {
+            @Override
+            public int compare(Hit h1, Hit h2) {
+                int byScore = Double.compare(h1.score, h2.score);
+                return byScore != 0 ? byScore : h2.entry.sortKey.compareTo(h1.entry.sortKey);
+            }
+        };
+
+        private final Entry entry;
+        private final double score;
+
+        private Hit(@NonNull Entry entry, double score)
+        {
+            this.entry = entry;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package revolhope.splanes.com.bitwallet.search;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import revolhope.splanes.com.bitwallet.db.DaoAccount;
+import revolhope.splanes.com.bitwallet.db.DaoCallbacks;
+import revolhope.splanes.com.bitwallet.model.Account;
+import revolhope.splanes.com.bitwallet.model.AccountSummary;
+
+/**
+ * Search as you type over the accounts, served from an in-memory AccountIndex so keystrokes
+ * never wait for the database. The index is built once from a streaming scan of DaoAccount and
+ * then kept current through its write listener. Until it's built, searches go to the full-text
+ * index of the database (DaoAccount.search).
+ *
+ * Every search supersedes the previous one: a query still waiting or running when a new
+ * keystroke arrives is cancelled and never delivers its results.
+ */
+public final class AccountSearchEngine {
+
+    /**
+     * Accounts read per chunk while building the index
+     */
+    private static final int LOAD_CHUNK_SIZE = 500;
+
+    private static AccountSearchEngine instance;
+
+    private final DaoAccount daoAccount;
+    private final AccountIndex index = new AccountIndex();
+    private final ExecutorService queryExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicLong generation = new AtomicLong();
+
+    private boolean started;
+    private boolean loading;
+    private boolean reloadRequested;
+    private volatile boolean ready;
+    // Accounts written while the index is being built, the scan must not overwrite them
+    private Set<String> writtenWhileLoading;
+    // Accounts moved while the index is being built, with their new parent
+    private Map<String, Long> movedWhileLoading;
+
+    public static synchronized AccountSearchEngine getInstance(Context context)
+    {
+        if (instance == null)
+        {
+            instance = new AccountSearchEngine(context);
+        }
+        return instance;
+    }
+
+    private AccountSearchEngine(@NonNull Context context)
+    {
+        daoAccount = DaoAccount.getInstance(context);
+    }
+
+    /**
+     * Method to start building the index in background, does nothing if it's already started
+     */
+    public synchronized void start()
+    {
+        if (started) return;
+        started = true;
+        daoAccount.addWriteListener(new DaoCallbacks.Writes<String, Account>() {
+            @Override
+            public void onWritten(Account[] entities) {
+                synchronized (AccountSearchEngine.this)
+                {
+                    for (Account account : entities)
+                    {
+                        if (writtenWhileLoading != null) writtenWhileLoading.add(account.get_id());
+                        index.put(account.get_id(), account.getAccount(), account.getUser(),
+                                  account.getUrl(), account.getParent(), account.isExpire());
+                    }
+                }
+            }
+
+            @Override
+            public void onDeleted(String[] ids) {
+                synchronized (AccountSearchEngine.this)
+                {
+                    for (String id : ids)
+                    {
+                        if (writtenWhileLoading != null) writtenWhileLoading.add(id);
+                        index.remove(id);
+                    }
+                }
+            }
+
+            @Override
+            public void onMoved(String[] ids, Long parentId) {
+                synchronized (AccountSearchEngine.this)
+                {
+                    for (String id : ids)
+                    {
+                        // The row may have been streamed before the move, see load
+                        if (movedWhileLoading != null) movedWhileLoading.put(id, parentId);
+                        index.move(id, parentId);
+                    }
+                }
+            }
+
+            @Override
+            public void onReset() {
+                load();
+            }
+        });
+        load();
+    }
+
+    /**
+     * Method to search accounts by name, user or url host. Every word typed must match the start
+     * of a word of the account, with some typos allowed on longer words.
+     * @param query Text typed by the user
+     * @param limit Max number of results
+     * @param selectCallback Callback of the method, best results first. Called on a background
+     *                       thread, and never if the search is superseded
+     */
+    public void search(@NonNull final String query, final int limit,
+                       @NonNull final DaoCallbacks.Select<AccountSummary> selectCallback)
+            throws SQLException {
+        final long searchGeneration = generation.incrementAndGet();
+        if (!ready)
+        {
+            daoAccount.search(query, limit, new DaoCallbacks.Select<AccountSummary>() {
+                @Override
+                public void onSelected(AccountSummary[] selection) {
+                    if (searchGeneration == generation.get()) selectCallback.onSelected(selection);
+                }
+            });
+            return;
+        }
+
+        queryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                AccountIndex.Cancellation cancellation = new AccountIndex.Cancellation() {
+                    @Override
+                    public boolean isCancelled() {
+                        return searchGeneration != generation.get();
+                    }
+                };
+                if (cancellation.isCancelled()) return;
+
+                List<AccountSummary> result = index.query(query, Math.max(1, limit),
+                                                          cancellation);
+                if (result != null && !cancellation.isCancelled())
+                {
+                    selectCallback.onSelected(result.toArray(new AccountSummary[0]));
+                }
+            }
+        });
+    }
+
+    /**
+     * Method to cancel the running search, i.e. when the search box is closed
+     */
+    public void cancel()
+    {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @return True once the in-memory index is built
+     */
+    public boolean isReady()
+    {
+        return ready;
+    }
+
+    /**
+     * @return Number of accounts in the in-memory index
+     */
+    public int getIndexedCount()
+    {
+        return index.size();
+    }
+
+// ===============================================================================================//
+//                                         PRIVATE
+// ===============================================================================================//
+
+    /**
+     * Method to (re)build the index from a streaming scan of the accounts. A reload asked while
+     * one is running starts again once it's done.
+     */
+    private synchronized void load()
+    {
+        if (loading)
+        {
+            reloadRequested = true;
+            return;
+        }
+        loading = true;
+        ready = false;
+        writtenWhileLoading = new HashSet<>();
+        movedWhileLoading = new HashMap<>();
+        index.clear();
+
+        try {
+            daoAccount.streamAll(LOAD_CHUNK_SIZE, new DaoCallbacks.Stream<Account>() {
+                @Override
+                public void onChunk(Account[] chunk, DaoCallbacks.StreamControl control) {
+                    synchronized (AccountSearchEngine.this)
+                    {
+                        for (Account account : chunk)
+                        {
+                            if (writtenWhileLoading.contains(account.get_id())) continue;
+                            Long parent = movedWhileLoading.get(account.get_id());
+                            index.put(account.get_id(), account.getAccount(), account.getUser(),
+                                      account.getUrl(),
+                                      parent != null ? parent : account.getParent(),
+                                      account.isExpire());
+                        }
+                    }
+                    control.request();
+                }
+
+                @Override
+                public void onComplete(boolean cancelled) {
+                    synchronized (AccountSearchEngine.this)
+                    {
+                        loading = false;
+                        writtenWhileLoading = null;
+                        movedWhileLoading = null;
+                        ready = !cancelled;
+                        if (reloadRequested)
+                        {
+                            reloadRequested = false;
+                            load();
+                        }
+                    }
+                }
+            });
+        }
+        catch (SQLException e) {
+            loading = false;
+            writtenWhileLoading = null;
+            movedWhileLoading = null;
+            e.printStackTrace();
+        }
+    }
+}
@@ -28,9 +28,8 @@ import java.util.Calendar;
 
 import revolhope.splanes.com.bitwallet.R;
 import revolhope.splanes.com.bitwallet.crypto.Cryptography;
-import revolhope.splanes.com.bitwallet.db.DaoAccount;
 import revolhope.splanes.com.bitwallet.db.DaoCallbacks;
-import revolhope.splanes.com.bitwallet.db.DaoK;
+import revolhope.splanes.com.bitwallet.db.UnitOfWork;
 import revolhope.splanes.com.bitwallet.helper.AppContract;
 import revolhope.splanes.com.bitwallet.helper.AppUtils;
 import revolhope.splanes.com.bitwallet.helper.DialogHelper;
@@ -42,10 +41,11 @@ import revolhope.splanes.com.bitwallet.view.dialogs.DialogGenerateParams;
 public class AccountActivity extends AppCompatActivity {
 
     private long parentId;
-    private int insertControl;
 
     private boolean isNew = true;
     private static K k;
+    // Alias of the key k is encrypted with, see Cryptography.aliasOf
+    private String keyAlias;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -135,8 +135,9 @@ public class AccountActivity extends AppCompatActivity {
 
             try {
                 Cryptography cryptography = new Cryptography();
-                byte[] bytes = cryptography.decrypt(AppUtils.fromStringBase64(k.getPwdBase64()),
-                                     k, account.get_id());
+                keyAlias = cryptography.aliasOf(k, account.get_id());
+                byte[] bytes = cryptography.decrypt(k.getPwd(),
+                                     k, keyAlias);
 
                 if (bytes != null) {
                     editText_Password.setText(new String(bytes));
@@ -263,105 +264,92 @@ public class AccountActivity extends AppCompatActivity {
 
     private void processAccount(final Account account, String pwd) {
 
-        final DaoAccount daoAccount = DaoAccount.getInstance(getApplicationContext());
-        final DaoK daoK = DaoK.getInstance(getApplicationContext());
         try {
-            Cryptography crypto = new Cryptography();
+            final Cryptography crypto = new Cryptography();
+            UnitOfWork unit = new UnitOfWork(getApplicationContext());
+            Calendar cal = Calendar.getInstance();
+            // Key created for this save, deleted if the unit rolls back
+            final String newAlias;
+            // Key replaced by newAlias, deleted once the unit is committed
+            final String oldAlias;
 
             if (isNew) {
 
-                crypto.newKey(account.get_id());
-                K k = crypto.encrypt(pwd.getBytes(Charset.forName("UTF-8")), account.get_id());
-                if (k != null) {
-
-                    Calendar cal = Calendar.getInstance();
-                    cal.add(Calendar.MONTH, 3);
-                    k.setDeadline(cal.getTimeInMillis());
-
-                    insertControl = 0;
-
-                    daoAccount.insert(new DaoCallbacks.Update<Account>() {
-                        @Override
-                        public void onUpdated(Account[] results) {
-                            if (results != null && results.length != 0) increaseControl();
-                        }
-                    }, new Account[]{account});
-
-                    daoK.insert(new DaoCallbacks.Update<K>() {
-                        @Override
-                        public void onUpdated(K[] results) {
-                            if (results != null && results.length != 0) increaseControl();
-                        }
-                    }, new K[]{k});
-                }
-                else {
+                newAlias = account.get_id();
+                oldAlias = null;
+                crypto.newKey(newAlias);
+                K k = crypto.encrypt(pwd.getBytes(Charset.forName("UTF-8")), newAlias);
+                if (k == null) {
+                    crypto.delete(newAlias);
                     DialogHelper.showInfo(this,"Encryption error",
                                           "Something went wrong when encrypting...",
                                           null);
+                    return;
                 }
+                cal.add(Calendar.MONTH, 3);
+                k.setDeadline(cal.getTimeInMillis());
+
+                unit.insert(account).insert(k);
             }
             else {
-                Calendar cal = Calendar.getInstance();
                 Calendar cal1 = Calendar.getInstance();
                 cal1.setTimeInMillis(k.getDeadline());
+                String alias = keyAlias != null ? keyAlias : account.get_id();
 
+                // Expired: the password is encrypted with a new key under the other alias of
+                // the account, the old key is kept until the new K is committed so the K in the
+                // database can always be decrypted
                 if (cal.after(cal1)) {
-                    daoK.delete(new DaoCallbacks.Delete() {
-                        @Override
-                        public void onDelete(int deleteCode) {}
-                    }, new Long[]{ k.get_id() });
-                    crypto.newKey(account.get_id());
-                    k = crypto.encrypt(pwd.getBytes(Charset.forName("UTF-8")), account.get_id());
-                    if (k != null) {
-                        cal.add(Calendar.MONTH, 3);
-                        k.setDeadline(cal.getTimeInMillis());
-
-                        insertControl = 0;
-
-                        daoAccount.insert(new DaoCallbacks.Update<Account>() {
-                            @Override
-                            public void onUpdated(Account[] results) {
-                                if (results != null && results.length != 0) increaseControl();
-                            }
-                        }, new Account[]{account});
-
-                        daoK.insert(new DaoCallbacks.Update<K>() {
-                            @Override
-                            public void onUpdated(K[] results) {
-                                if (results != null && results.length != 0) increaseControl();
-                            }
-                        }, new K[]{k});
-
-                    }
+                    newAlias = Cryptography.rotationAlias(alias);
+                    oldAlias = alias;
+                    // Left by a rotation that didn't commit, the K in the database isn't its own
+                    if (crypto.existsAlias(newAlias)) crypto.delete(newAlias);
+                    crypto.newKey(newAlias);
+                    alias = newAlias;
                 }
                 else {
+                    newAlias = null;
+                    oldAlias = null;
+                }
 
-                    Long id = k.get_id();
-                    k = crypto.encrypt(pwd.getBytes(Charset.forName("UTF-8")), account.get_id());
-                    if (k != null) {
-                        cal.add(Calendar.MONTH, 3);
-
-                        k.set_id(id);
-                        k.setDeadline(cal.getTimeInMillis());
-
-                        insertControl = 0;
+                k = crypto.encrypt(pwd.getBytes(Charset.forName("UTF-8")), alias);
+                if (k == null) {
+                    if (newAlias != null) crypto.delete(newAlias);
+                    return;
+                }
+                // encrypt names the K after the key alias
+                k.setAccId(account.get_id());
+                cal.add(Calendar.MONTH, 3);
+                k.setDeadline(cal.getTimeInMillis());
 
-                        daoAccount.update(new DaoCallbacks.Update<Account>() {
-                            @Override
-                            public void onUpdated(Account[] results) {
-                                if (results != null && results.length != 0) increaseControl();
-                            }
-                        }, new Account[]{account});
+                unit.update(account).upsert(k);
+            }
 
-                        daoK.update(new DaoCallbacks.Update<K>() {
+            unit.commit(new DaoCallbacks.Commit() {
+                @Override
+                public void onCommitted(boolean committed) {
+                    try {
+                        if (committed && oldAlias != null) crypto.delete(oldAlias);
+                        else if (!committed && newAlias != null) crypto.delete(newAlias);
+                    }
+                    catch (Exception e) {
+                        // A key left behind is found by Cryptography.aliasOf or replaced by the
+                        // next rotation
+                        e.printStackTrace();
+                    }
+                    if (committed) onSaved();
+                    else {
+                        runOnUiThread(new Runnable() {
                             @Override
-                            public void onUpdated(K[] results) {
-                                if (results != null && results.length != 0) increaseControl();
+                            public void run() {
+                                DialogHelper.showInfo(AccountActivity.this, "SQL Error",
+                                        "The account could not be saved, nothing was changed",
+                                        null);
                             }
-                        }, new K[]{k});
+                        });
                     }
                 }
-            }
+            });
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -369,19 +357,16 @@ public class AccountActivity extends AppCompatActivity {
 
     }
 
-    private void increaseControl() {
-        insertControl++;
-        if (insertControl == 2) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    Toast.makeText(getApplicationContext(),
-                             isNew ?  "Account created!" : "Account updated",
-                             Toast.LENGTH_SHORT).show();
-                    finish();
-                }
-            });
-        }
+    private void onSaved() {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(getApplicationContext(),
+                         isNew ?  "Account created!" : "Account updated",
+                         Toast.LENGTH_SHORT).show();
+                finish();
+            }
+        });
     }
 
     static void setK(K k) {
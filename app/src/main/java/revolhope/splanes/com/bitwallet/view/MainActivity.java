@@ -14,12 +14,14 @@ import androidx.appcompat.widget.Toolbar;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.SearchView;
 import android.widget.Toast;
 
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 
 import revolhope.splanes.com.bitwallet.R;
@@ -29,13 +31,21 @@ import revolhope.splanes.com.bitwallet.db.DaoAccount;
 import revolhope.splanes.com.bitwallet.db.DaoCallbacks;
 import revolhope.splanes.com.bitwallet.db.DaoDirectory;
 import revolhope.splanes.com.bitwallet.db.DaoK;
+import revolhope.splanes.com.bitwallet.db.DirectoryTree;
+import revolhope.splanes.com.bitwallet.db.InvalidationTracker;
+import revolhope.splanes.com.bitwallet.db.MaintenanceJobService;
 import revolhope.splanes.com.bitwallet.helper.AppContract;
 import revolhope.splanes.com.bitwallet.helper.DialogHelper;
 import revolhope.splanes.com.bitwallet.helper.HttpConn;
 import revolhope.splanes.com.bitwallet.helper.RandomGenerator;
 import revolhope.splanes.com.bitwallet.model.Account;
+import revolhope.splanes.com.bitwallet.model.AccountSummary;
+import revolhope.splanes.com.bitwallet.model.AccountWithK;
 import revolhope.splanes.com.bitwallet.model.Directory;
+import revolhope.splanes.com.bitwallet.model.FolderContents;
 import revolhope.splanes.com.bitwallet.model.K;
+import revolhope.splanes.com.bitwallet.model.SubtreeStats;
+import revolhope.splanes.com.bitwallet.search.AccountSearchEngine;
 import revolhope.splanes.com.bitwallet.view.dialogs.DialogConfirmation;
 import revolhope.splanes.com.bitwallet.view.dialogs.DialogFolder;
 import revolhope.splanes.com.bitwallet.view.dialogs.DialogHolderOptions;
@@ -51,6 +61,10 @@ public class MainActivity extends AppCompatActivity {
     private RecyclerPathAdapter pathAdapter;
     private DaoDirectory daoDirectory;
     private DaoAccount daoAccount;
+    private AccountSearchEngine searchEngine;
+    private InvalidationTracker.Subscription folderSubscription;
+    private Long observedFolder;
+    private String searchQuery;
 
 //@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@@
 //                                      Override methods
@@ -73,6 +87,9 @@ public class MainActivity extends AppCompatActivity {
         }
         daoDirectory = DaoDirectory.getInstance(this);
         daoAccount = DaoAccount.getInstance(this);
+        searchEngine = AccountSearchEngine.getInstance(this);
+        searchEngine.start();
+        MaintenanceJobService.schedule(this);
 
         final RecyclerView recyclerViewContent = findViewById(R.id.recyclerViewContent);
         GridLayoutManager gridLayoutManager = new GridLayoutManager(this, 3,
@@ -104,21 +121,17 @@ public class MainActivity extends AppCompatActivity {
 
         contentAdapter.setOnClickAcc(new RecyclerContentAdapter.OnAccClick() {
             @Override
-            public void onClick(final Account account) {
+            public void onClick(final AccountSummary summary) {
 
                 try {
-                    DaoK daoK = DaoK.getInstance(context);
-                    daoK.find(account.get_id(), new DaoCallbacks.Select<K>() {
+                    daoAccount.findWithK(summary.get_id(),
+                            new DaoCallbacks.Select<AccountWithK>() {
                         @Override
-                        public void onSelected(K[] selection) {
+                        public void onSelected(AccountWithK[] entries) {
 
-                            if (selection != null && selection.length == 1) {
-
-                                Intent i = new Intent(context, AccountActivity.class);
-                                i.putExtra(AppContract.EXTRA_CURRENT_DIR, currentDir.get_id());
-                                i.putExtra(AppContract.EXTRA_EDIT_ACC, account);
-                                AccountActivity.setK(selection[0]);
-                                startActivity(i);
+                            if (entries != null && entries.length == 1 &&
+                                    entries[0].getK() != null) {
+                                openAccount(entries[0]);
                             }
                         }
                     });
@@ -135,7 +148,7 @@ public class MainActivity extends AppCompatActivity {
             }
 
             @Override
-            public void onLongClick(final Account account) {
+            public void onLongClick(final AccountSummary account) {
 
                 vibrate();
                 FragmentManager fragmentManager = getSupportFragmentManager();
@@ -170,18 +183,7 @@ public class MainActivity extends AppCompatActivity {
                                     dialogMove.setListener(new DialogMove.OnMoveListener() {
                                         @Override
                                         public void onMove(long newParent) {
-                                            account.setParent(newParent);
-                                            try {
-                                                daoAccount.update(new DaoCallbacks.Update<Account>() {
-                                                    @Override
-                                                    public void onUpdated(Account[] results) {
-                                                        refreshContentRecyclerView();
-                                                    }
-                                                }, new Account[] {account});
-                                            }
-                                            catch (SQLException e) {
-                                                e.printStackTrace();
-                                            }
+                                            moveAccount(account.get_id(), newParent);
                                         }
                                     });
                                     dialogMove.show(getSupportFragmentManager(), "DialogMove");
@@ -316,11 +318,22 @@ public class MainActivity extends AppCompatActivity {
                 }
             }
         });
+        contentAdapter.setOnPageRequest(new RecyclerContentAdapter.OnPageRequest() {
+            @Override
+            public void requestAfter(final AccountSummary last, int pageSize) {
+                requestPage(last, true, pageSize);
+            }
+
+            @Override
+            public void requestBefore(final AccountSummary first, int pageSize) {
+                requestPage(first, false, pageSize);
+            }
+        });
         contentAdapter.setOnClickDir(new RecyclerContentAdapter.OnDirClick() {
             @Override
             public void onClick(final Directory directory) {
                 currentDir = directory;
-                pathAdapter.addDirectory(currentDir);
+                showPath(directory.get_id());
                 refreshContentRecyclerView();
             }
 
@@ -344,13 +357,15 @@ public class MainActivity extends AppCompatActivity {
                                         @Override
                                         public void onMove(long newParent) {
                                             try {
-                                                directory.setParentId(newParent);
-                                                daoDirectory.update(new DaoCallbacks.Update<Directory>() {
+                                                daoDirectory.move(new DaoCallbacks.Move() {
                                                     @Override
-                                                    public void onUpdated(Directory[] results) {
-                                                        refreshContentRecyclerView();
+                                                    public void onMoved(int moveCode) {
+                                                        // The folder observer refreshes the content
+                                                        if (moveCode == DaoCallbacks.MOVE_REJECTED) {
+                                                            showMoveRejected();
+                                                        }
                                                     }
-                                                }, directory);
+                                                }, newParent, directory.get_id());
                                             }
                                             catch (SQLException e) {
                                                 e.printStackTrace();
@@ -367,38 +382,18 @@ public class MainActivity extends AppCompatActivity {
                                         @Override
                                         public void onUpdate(String newName) {
                                             try {
-                                                directory.setName(newName);
+                                                // The adapter keeps showing its own instance until
+                                                // the new snapshot is diffed against it, so it
+                                                // must not be renamed in place
+                                                Directory renamed = new Directory(
+                                                        directory.get_id(), newName,
+                                                        directory.getParentId());
                                                 daoDirectory.update(new DaoCallbacks.Update<Directory>() {
                                                     @Override
                                                     public void onUpdated(Directory[] results) {
-
-                                                        if (results != null && results.length == 1){
-                                                            try {
-                                                                daoDirectory.findChildrenAt(currentDir.get_id(), new DaoCallbacks.Select<Directory>() {
-                                                                    @Override
-                                                                    public void onSelected(final Directory[] selection) {
-                                                                        runOnUiThread(new Runnable() {
-                                                                            @Override
-                                                                            public void run() {
-                                                                                contentAdapter.setDirectories(Arrays.asList(selection));
-                                                                            }
-                                                                        });
-                                                                    }
-                                                                });
-                                                            }
-                                                            catch (final SQLException e){
-                                                                runOnUiThread(new Runnable() {
-                                                                    @Override
-                                                                    public void run() {
-                                                                        DialogHelper.
-                                                                                showInfo(context,"SQL Error",e.getMessage(), null);
-                                                                    }
-                                                                });
-                                                                e.printStackTrace();
-                                                            }
-                                                        }
+                                                        // The folder observer refreshes the content
                                                     }
-                                                }, directory);
+                                                }, renamed);
                                             }
                                             catch (final SQLException e) {
                                                 runOnUiThread(new Runnable() {
@@ -444,46 +439,6 @@ public class MainActivity extends AppCompatActivity {
         });
         recyclerViewContent.setAdapter(contentAdapter);
 
-        try
-        {
-            daoDirectory.findRoot(new DaoCallbacks.Select<Directory>() {
-                @Override
-                public void onSelected(Directory[] selection) {
-                    if (selection != null && selection.length == 1) {
-                        currentDir = selection[0];
-                    }
-                }
-            });
-
-            daoDirectory.findInRoot(new DaoCallbacks.Select<Directory>() {
-                @Override
-                public void onSelected(final Directory[] selection) {
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            contentAdapter.setDirectories(Arrays.asList(selection));
-                        }
-                    });
-                }
-            });
-
-            daoAccount.findInRoot(new DaoCallbacks.Select<Account>() {
-                @Override
-                public void onSelected(final Account[] selection) {
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            contentAdapter.setAccounts(Arrays.asList(selection));
-                        }
-                    });
-                }
-            });
-        }
-        catch(SQLException exc) {
-            exc.printStackTrace();
-        }
-
-
         findViewById(R.id.fabNew).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
@@ -508,19 +463,13 @@ public class MainActivity extends AppCompatActivity {
         try
         {
             if (currentDir == null) {
-                daoDirectory.findRoot(new DaoCallbacks.Select<Directory>() {
+                daoDirectory.findRootContents(new DaoCallbacks.Folder() {
                     @Override
-                    public void onSelected(Directory[] selection) {
-                        if (selection != null && selection.length == 1) {
-                            currentDir = selection[0];
-                            refreshContentRecyclerView();
-                        }
+                    public void onSelected(FolderContents contents) {
+                        showContents(contents);
                     }
                 });
             }
-            else {
-                refreshContentRecyclerView();
-            }
         }
         catch(SQLException exc) {
             exc.printStackTrace();
@@ -528,47 +477,29 @@ public class MainActivity extends AppCompatActivity {
         super.onResume();
     }
 
+    @Override
+    protected void onDestroy() {
+        if (folderSubscription != null) {
+            folderSubscription.cancel();
+            folderSubscription = null;
+        }
+        super.onDestroy();
+    }
+
     @Override
     public void onBackPressed() {
         if (currentDir != null && !currentDir.getName().equals("Root")) {
             try {
-                pathAdapter.removeDirectory(currentDir);
+                DirectoryTree tree = daoDirectory.getTree();
+                Directory parent = tree != null ? tree.getParent(currentDir.get_id()) : null;
+                Long parentId = parent != null ? parent.get_id() : currentDir.getParentId();
+                showPath(parentId);
 
-                daoDirectory.findChildrenAt(currentDir.getParentId(),
-                        new DaoCallbacks.Select<Directory>() {
-                            @Override
-                            public void onSelected(final Directory[] selection) {
-                                if (selection != null) {
-                                    runOnUiThread(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            contentAdapter.setDirectories(Arrays.asList(selection));
-                                        }
-                                    });
-                                }
-                            }
-                        });
-                daoAccount.findAllAt(currentDir.getParentId(),
-                        new DaoCallbacks.Select<Account>() {
+                daoDirectory.findFolderContents(parentId,
+                        new DaoCallbacks.Folder() {
                             @Override
-                            public void onSelected(final Account[] selection) {
-                                if (selection != null) {
-                                    runOnUiThread(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            contentAdapter.setAccounts(Arrays.asList(selection));
-                                        }
-                                    });
-                                }
-                            }
-                        });
-                daoDirectory.findById(currentDir.getParentId(),
-                        new DaoCallbacks.Select<Directory>() {
-                            @Override
-                            public void onSelected(Directory[] selection) {
-                                if (selection != null && selection.length == 1) {
-                                    currentDir = selection[0];
-                                }
+                            public void onSelected(FolderContents contents) {
+                                showContents(contents);
                             }
                         });
             }
@@ -593,6 +524,23 @@ public class MainActivity extends AppCompatActivity {
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
+
+        SearchView searchView = (SearchView) menu.findItem(R.id.app_bar_search).getActionView();
+        if (searchView != null) {
+            searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+                @Override
+                public boolean onQueryTextSubmit(String query) {
+                    search(query);
+                    return true;
+                }
+
+                @Override
+                public boolean onQueryTextChange(String newText) {
+                    search(newText);
+                    return true;
+                }
+            });
+        }
         return true;
     }
 
@@ -654,43 +602,161 @@ public class MainActivity extends AppCompatActivity {
 
     private void refreshContentRecyclerView() {
         try {
-            daoDirectory.findChildrenAt(currentDir.get_id(), new DaoCallbacks.Select<Directory>() {
+            daoDirectory.findFolderContents(currentDir.get_id(), new DaoCallbacks.Folder() {
+                @Override
+                public void onSelected(FolderContents contents) {
+                    showContents(contents);
+                }
+            });
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Moves to the folder of the snapshot and shows its content with a single adapter update
+     * @param contents Folder snapshot, ignored if it's null
+     */
+    private void showContents(final FolderContents contents) {
+        if (contents == null) return;
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                currentDir = contents.getFolder();
+                contentAdapter.setContents(contents.getDirectories(), contents.getAccounts(),
+                                           contents.getAccountCount());
+                observeFolder(currentDir.get_id());
+            }
+        });
+    }
+
+    /**
+     * Subscribes to the writes affecting the shown folder, so its content is queried again only
+     * when it has changed. The previous folder subscription is cancelled.
+     * @param id Folder identifier
+     */
+    private void observeFolder(Long id) {
+        if (id == null || id.equals(observedFolder)) return;
+        if (folderSubscription != null) {
+            folderSubscription.cancel();
+        }
+        observedFolder = id;
+        folderSubscription = daoDirectory.observeFolder(id, new InvalidationTracker.Observer() {
+            @Override
+            public void onInvalidated() {
+                // Search results stay on screen until the search is closed
+                if (searchQuery == null) {
+                    refreshContentRecyclerView();
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows the accounts matching the query, or the current folder back if the query is empty.
+     * Results of a query that's no longer the typed one are dropped.
+     * @param query Text typed in the search box
+     */
+    private void search(String query) {
+        searchQuery = query == null || query.trim().isEmpty() ? null : query;
+        if (searchQuery == null) {
+            searchEngine.cancel();
+            if (currentDir != null) {
+                refreshContentRecyclerView();
+            }
+            return;
+        }
+
+        final String searched = searchQuery;
+        try {
+            searchEngine.search(searched, DaoCallbacks.PAGE_SIZE_DEFAULT,
+                    new DaoCallbacks.Select<AccountSummary>() {
                         @Override
-                        public void onSelected(final Directory[] selection) {
+                        public void onSelected(final AccountSummary[] selection) {
                             runOnUiThread(new Runnable() {
                                 @Override
                                 public void run() {
-                                    contentAdapter.setDirectories(Arrays.asList(selection));
+                                    if (!searched.equals(searchQuery)) return;
+                                    contentAdapter.setContents(new ArrayList<Directory>(),
+                                            Arrays.asList(selection), selection.length);
                                 }
                             });
                         }
                     });
-            daoAccount.findAllAt(currentDir.get_id(), new DaoCallbacks.Select<Account>() {
-                @Override
-                public void onSelected(final Account[] selection) {
-                    runOnUiThread(new Runnable() {
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void requestPage(final AccountSummary anchor, final boolean forward, int pageSize) {
+        try {
+            daoAccount.findSummaryPage(anchor.getParent(), anchor, forward, pageSize,
+                    new DaoCallbacks.Page<AccountSummary>() {
                         @Override
-                        public void run() {
-                            contentAdapter.setAccounts(Arrays.asList(selection));
+                        public void onPage(final AccountSummary[] page, final boolean hasMore) {
+                            runOnUiThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (forward) {
+                                        contentAdapter.addPageAfter(anchor,
+                                                Arrays.asList(page), hasMore);
+                                    }
+                                    else {
+                                        contentAdapter.addPageBefore(anchor,
+                                                Arrays.asList(page), hasMore);
+                                    }
+                                }
+                            });
                         }
                     });
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void openAccount(final AccountWithK entry) {
+        Intent i = new Intent(context, AccountActivity.class);
+        i.putExtra(AppContract.EXTRA_CURRENT_DIR, currentDir.get_id());
+        i.putExtra(AppContract.EXTRA_EDIT_ACC, entry.getAccount());
+        AccountActivity.setK(entry.getK());
+        startActivity(i);
+    }
+
+    private void moveAccount(String id, final long newParent) {
+        try {
+            daoAccount.move(new DaoCallbacks.Move() {
+                @Override
+                public void onMoved(int moveCode) {
+                    // The folder observer refreshes the content
                 }
-            });
+            }, newParent, id);
         }
         catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
+    private void showMoveRejected() {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                DialogHelper.showInfo(context, "Move",
+                        "A folder can't be moved into itself or into one of its sub-folders",
+                        null);
+            }
+        });
+    }
+
     private void dropData(boolean isDirectory, Object id) {
         try {
 
             DaoCallbacks.Delete delete = new DaoCallbacks.Delete() {
                 @Override
-                public void onDelete(int deleteCode) {
-                    if (deleteCode == DaoCallbacks.DELETE_OK) {
-                        refreshContentRecyclerView();
-                    }
+                public void onDelete(int deleteCode, SubtreeStats removed) {
+                    // The folder observer refreshes the content
                 }
             };
 
@@ -717,18 +783,17 @@ public class MainActivity extends AppCompatActivity {
 
         if (directory == null) {
             try {
-                daoDirectory.findRoot(new DaoCallbacks.Select<Directory>() {
+                daoDirectory.findRootContents(new DaoCallbacks.Folder() {
                     @Override
-                    public void onSelected(Directory[] selection) {
-                        if (selection != null && selection.length == 1) {
-                            currentDir = selection[0];
+                    public void onSelected(FolderContents contents) {
+                        if (contents != null) {
                             runOnUiThread(new Runnable() {
                                 @Override
                                 public void run() {
                                     pathAdapter.setDirectories(new ArrayList<Directory>());
                                 }
                             });
-                            refreshContentRecyclerView();
+                            showContents(contents);
                         }
                     }
                 });
@@ -749,6 +814,32 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Shows the path from root to the directory, taken from the in-memory directory tree
+     * @param id Directory identifier
+     */
+    private void showPath(final Long id) {
+        try {
+            daoDirectory.findTree(new DaoCallbacks.Tree() {
+                @Override
+                public void onLoaded(final DirectoryTree tree) {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            List<Directory> path = tree.getPath(id);
+                            // Root is the "Home" item the path adapter always shows first
+                            pathAdapter.setDirectories(path.isEmpty() ?
+                                    path : path.subList(1, path.size()));
+                        }
+                    });
+                }
+            });
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
     private void goAuth() {
 
         Intent i = new Intent(this, AuthActivity.class);
@@ -777,9 +868,6 @@ public class MainActivity extends AppCompatActivity {
                                 Toast.makeText(getApplicationContext(),
                                          "Directory created!", Toast.LENGTH_SHORT)
                                         .show();
-
-                                Objects.requireNonNull(contentAdapter)
-                                        .addDirectories(Arrays.asList(results));
                             }
                         });
                     }
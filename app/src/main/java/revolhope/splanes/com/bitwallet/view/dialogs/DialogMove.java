@@ -19,12 +19,12 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import java.sql.SQLException;
-import java.util.Arrays;
 import java.util.List;
 
 import revolhope.splanes.com.bitwallet.R;
 import revolhope.splanes.com.bitwallet.db.DaoCallbacks;
 import revolhope.splanes.com.bitwallet.db.DaoDirectory;
+import revolhope.splanes.com.bitwallet.db.DirectoryTree;
 import revolhope.splanes.com.bitwallet.model.Directory;
 
 public class DialogMove extends DialogFragment {
@@ -55,25 +55,23 @@ public class DialogMove extends DialogFragment {
 
         daoDirectory = DaoDirectory.getInstance(getContext());
         try {
-            daoDirectory.findInRoot(new DaoCallbacks.Select<Directory>() {
+            daoDirectory.findTree(new DaoCallbacks.Tree() {
                 @Override
-                public void onSelected(final Directory[] selection) {
+                public void onLoaded(final DirectoryTree tree) {
                     activity.runOnUiThread(new Runnable() {
                         @Override
                         public void run() {
-                            adapter.directories = Arrays.asList(selection);
-                            adapter.notifyDataSetChanged();
+                            Directory root = tree.getRoot();
+                            if (root != null) {
+                                currentDir = root.get_id();
+                                adapter.tree = tree;
+                                adapter.directories = tree.getChildren(currentDir);
+                                adapter.notifyDataSetChanged();
+                            }
                         }
                     });
                 }
             });
-            daoDirectory.findRoot(new DaoCallbacks.Select<Directory>() {
-                @Override
-                public void onSelected(Directory[] selection) {
-                    if (selection != null && selection.length == 1)
-                        currentDir = selection[0].get_id();
-                }
-            });
         }
         catch (SQLException e) {
             e.printStackTrace();
@@ -109,6 +107,7 @@ public class DialogMove extends DialogFragment {
     private class Adapter extends RecyclerView.Adapter<Adapter.Holder> {
 
         private Context context;
+        private DirectoryTree tree;
         private List<Directory> directories;
 
         @NonNull
@@ -143,30 +142,12 @@ public class DialogMove extends DialogFragment {
                     public void onClick(View view) {
 
                         int position = getAdapterPosition();
-                        if (directories != null && position < directories.size()) {
-
-                            try {
-                                currentDir = directories.get(position).get_id();
-                                daoDirectory.findChildrenAt(currentDir,
-                                        new DaoCallbacks.Select<Directory>() {
-                                            @Override
-                                            public void onSelected(final Directory[] selection) {
-                                                if (activity != null) {
-                                                    activity.runOnUiThread(new Runnable() {
-                                                        @Override
-                                                        public void run() {
-                                                            adapter.directories =
-                                                                    Arrays.asList(selection);
-                                                            adapter.notifyDataSetChanged();
-                                                        }
-                                                    });
-                                                }
-                                            }
-                                        });
-                            }
-                            catch (SQLException e) {
-                                e.printStackTrace();
-                            }
+                        if (tree != null && directories != null &&
+                                position >= 0 && position < directories.size()) {
+
+                            currentDir = directories.get(position).get_id();
+                            directories = tree.getChildren(currentDir);
+                            notifyDataSetChanged();
                         }
                     }
                 });
@@ -0,0 +1,305 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.Arrays;
+
+/**
+ * Cursor over rows kept in memory, the framework cursors can't be used by JVM tests. Values are
+ * null, Long, Double, String or byte[], as SQLite returns them
+ */
+class ArrayCursor implements Cursor {
+
+    private final String[] columns;
+    private final Object[][] rows;
+    private int position = -1;
+    private boolean closed;
+
+    ArrayCursor(String[] columns, Object[][] rows)
+    {
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    @Override
+    public int getCount()
+    {
+        return rows.length;
+    }
+
+    @Override
+    public int getPosition()
+    {
+        return position;
+    }
+
+    @Override
+    public boolean move(int offset)
+    {
+        return moveToPosition(position + offset);
+    }
+
+    @Override
+    public boolean moveToPosition(int position)
+    {
+        this.position = Math.max(-1, Math.min(rows.length, position));
+        return this.position >= 0 && this.position < rows.length;
+    }
+
+    @Override
+    public boolean moveToFirst()
+    {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast()
+    {
+        return moveToPosition(rows.length - 1);
+    }
+
+    @Override
+    public boolean moveToNext()
+    {
+        return moveToPosition(position + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious()
+    {
+        return moveToPosition(position - 1);
+    }
+
+    @Override
+    public boolean isFirst()
+    {
+        return rows.length != 0 && position == 0;
+    }
+
+    @Override
+    public boolean isLast()
+    {
+        return rows.length != 0 && position == rows.length - 1;
+    }
+
+    @Override
+    public boolean isBeforeFirst()
+    {
+        return rows.length == 0 || position == -1;
+    }
+
+    @Override
+    public boolean isAfterLast()
+    {
+        return rows.length == 0 || position == rows.length;
+    }
+
+    @Override
+    public int getColumnIndex(String columnName)
+    {
+        for (int i = 0; i < columns.length; i++)
+        {
+            if (columns[i].equalsIgnoreCase(columnName)) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName)
+    {
+        int index = getColumnIndex(columnName);
+        if (index == -1)
+        {
+            throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        }
+        return index;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex)
+    {
+        return columns[columnIndex];
+    }
+
+    @Override
+    public String[] getColumnNames()
+    {
+        return columns.clone();
+    }
+
+    @Override
+    public int getColumnCount()
+    {
+        return columns.length;
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex)
+    {
+        return (byte[]) value(columnIndex);
+    }
+
+    @Override
+    public String getString(int columnIndex)
+    {
+        Object value = value(columnIndex);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer)
+    {
+        String value = getString(columnIndex);
+        buffer.data = value == null ? new char[0] : value.toCharArray();
+        buffer.sizeCopied = buffer.data.length;
+    }
+
+    @Override
+    public short getShort(int columnIndex)
+    {
+        return (short) getLong(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex)
+    {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex)
+    {
+        Object value = value(columnIndex);
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+
+    @Override
+    public float getFloat(int columnIndex)
+    {
+        return (float) getDouble(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex)
+    {
+        Object value = value(columnIndex);
+        return value == null ? 0 : ((Number) value).doubleValue();
+    }
+
+    @Override
+    public int getType(int columnIndex)
+    {
+        Object value = value(columnIndex);
+        if (value == null) return FIELD_TYPE_NULL;
+        if (value instanceof Long || value instanceof Integer) return FIELD_TYPE_INTEGER;
+        if (value instanceof Number) return FIELD_TYPE_FLOAT;
+        if (value instanceof byte[]) return FIELD_TYPE_BLOB;
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex)
+    {
+        return value(columnIndex) == null;
+    }
+
+    @Override
+    @Deprecated
+    public void deactivate()
+    {
+    }
+
+    @Override
+    @Deprecated
+    public boolean requery()
+    {
+        return !closed;
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    @Override
+    public void registerContentObserver(ContentObserver observer)
+    {
+    }
+
+    @Override
+    public void unregisterContentObserver(ContentObserver observer)
+    {
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer)
+    {
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer)
+    {
+    }
+
+    @Override
+    public void setNotificationUri(ContentResolver cr, Uri uri)
+    {
+    }
+
+    @Override
+    public Uri getNotificationUri()
+    {
+        return null;
+    }
+
+    @Override
+    public boolean getWantsAllOnMoveCalls()
+    {
+        return false;
+    }
+
+    @Override
+    public void setExtras(Bundle extras)
+    {
+    }
+
+    @Override
+    public Bundle getExtras()
+    {
+        return null;
+    }
+
+    @Override
+    public Bundle respond(Bundle extras)
+    {
+        return null;
+    }
+
+    private Object value(int columnIndex)
+    {
+        if (position < 0 || position >= rows.length)
+        {
+            throw new IllegalStateException("Cursor at " + position + " of " + rows.length);
+        }
+        return rows[position][columnIndex];
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(columns) + " x " + rows.length;
+    }
+}
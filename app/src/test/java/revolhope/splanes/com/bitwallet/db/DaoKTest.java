@@ -0,0 +1,28 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import javax.crypto.spec.GCMParameterSpec;
+
+import revolhope.splanes.com.bitwallet.model.K;
+
+import static org.junit.Assert.*;
+
+public class DaoKTest {
+
+    @Test
+    public void copy_doesNotShareTheCiphertext()
+    {
+        K cached = new K(1L, "acc", new byte[] {1, 2, 3},
+                         new GCMParameterSpec(128, new byte[12]), 42L);
+
+        K copy = DaoK.copy(cached);
+        Arrays.fill(copy.getPwd(), (byte) 0);
+
+        assertArrayEquals(new byte[] {1, 2, 3}, cached.getPwd());
+        assertEquals("acc", copy.getAccId());
+        assertEquals(Long.valueOf(42L), copy.getDeadline());
+    }
+}
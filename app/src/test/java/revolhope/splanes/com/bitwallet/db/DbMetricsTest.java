@@ -0,0 +1,211 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import revolhope.splanes.com.bitwallet.model.MaintenanceReport;
+
+import static org.junit.Assert.*;
+
+public class DbMetricsTest {
+
+    private static final long MICROS = 1000L;
+    private static final long MILLIS = 1000000L;
+
+    private DbMetrics metrics;
+
+    @Before
+    public void setUp()
+    {
+        metrics = DbMetrics.getInstance();
+        metrics.reset();
+        metrics.setSlowThresholdMillis(100);
+        metrics.setSlowLogSize(50);
+    }
+
+    @After
+    public void tearDown()
+    {
+        metrics.reset();
+    }
+
+    @Test
+    public void record_aggregatesPerOperation()
+    {
+        metrics.record("SelectDirTask", DbExecutor.LANE_READ, 2 * MILLIS, 4 * MILLIS, 10, null);
+        metrics.record("SelectDirTask", DbExecutor.LANE_READ, 0, 8 * MILLIS, -1, null);
+        metrics.record("SelectDirTask", DbExecutor.LANE_READ, 4 * MILLIS, 0, 5,
+                       new IllegalStateException("closed"));
+
+        DbMetrics.OperationStats stats = metrics.getOperation("SelectDirTask");
+        assertEquals("SelectDirTask", stats.getName());
+        assertEquals(3, stats.getCount());
+        assertEquals(1, stats.getFailureCount());
+        // -1 means the operation didn't tell
+        assertEquals(15, stats.getRowCount());
+        assertEquals(4, stats.getMeanLatencyMillis(), 1e-9);
+        assertEquals(8, stats.getMaxLatencyMillis(), 1e-9);
+        assertEquals(2, stats.getMeanQueueWaitMillis(), 1e-9);
+        assertEquals(4, stats.getMaxQueueWaitMillis(), 1e-9);
+    }
+
+    @Test
+    public void getOperations_keepsOrderOfFirstUse()
+    {
+        metrics.record("B", DbExecutor.LANE_READ, 0, MILLIS, 1, null);
+        metrics.record("A", DbExecutor.LANE_WRITE, 0, MILLIS, 1, null);
+        metrics.record("B", DbExecutor.LANE_READ, 0, MILLIS, 1, null);
+
+        List<DbMetrics.OperationStats> operations = metrics.getOperations();
+        assertEquals(2, operations.size());
+        assertEquals("B", operations.get(0).getName());
+        assertEquals("A", operations.get(1).getName());
+        assertNull(metrics.getOperation("C"));
+    }
+
+    @Test
+    public void histogram_bucketsByUpperBound()
+    {
+        metrics.record("Op", DbExecutor.LANE_READ, 0, 100 * MICROS, 0, null);
+        // Bounds are inclusive
+        metrics.record("Op", DbExecutor.LANE_READ, 0, 250 * MICROS, 0, null);
+        metrics.record("Op", DbExecutor.LANE_READ, 0, 251 * MICROS, 0, null);
+        metrics.record("Op", DbExecutor.LANE_READ, 0, 5000 * MILLIS, 0, null);
+
+        long[] histogram = metrics.getOperation("Op").getHistogram();
+        assertEquals(DbMetrics.BUCKET_BOUNDS_MICROS.length + 1, histogram.length);
+        assertEquals(2, histogram[0]);
+        assertEquals(1, histogram[1]);
+        assertEquals(1, histogram[histogram.length - 1]);
+    }
+
+    @Test
+    public void percentiles_comeFromTheHistogram()
+    {
+        for (int i = 0; i < 9; i++)
+        {
+            metrics.record("Op", DbExecutor.LANE_READ, 0, 100 * MICROS, 0, null);
+        }
+        metrics.record("Op", DbExecutor.LANE_READ, 0, 50 * MILLIS, 0, null);
+
+        DbMetrics.OperationStats stats = metrics.getOperation("Op");
+        // Upper bound of the bucket
+        assertEquals(0.25, stats.getLatencyPercentileMillis(50), 1e-9);
+        assertEquals(0.25, stats.getLatencyPercentileMillis(90), 1e-9);
+        // Bucket bound 64 ms is above the max, the max is returned
+        assertEquals(50, stats.getLatencyPercentileMillis(95), 1e-9);
+        assertEquals(50, stats.getLatencyPercentileMillis(100), 1e-9);
+        assertEquals(0.25, stats.getLatencyPercentileMillis(0), 1e-9);
+    }
+
+    @Test
+    public void percentiles_ofLastBucketAreTheMax()
+    {
+        metrics.record("Op", DbExecutor.LANE_READ, 0, 3000 * MILLIS, 0, null);
+        assertEquals(3000, metrics.getOperation("Op").getLatencyPercentileMillis(50), 1e-9);
+    }
+
+    @Test
+    public void snapshots_doNotChangeAfterwards()
+    {
+        metrics.record("Op", DbExecutor.LANE_READ, 0, MILLIS, 1, null);
+        DbMetrics.OperationStats stats = metrics.getOperation("Op");
+        stats.getHistogram()[0] = 42;
+        metrics.record("Op", DbExecutor.LANE_READ, 0, MILLIS, 1, null);
+
+        assertEquals(1, stats.getCount());
+        assertEquals(0, stats.getHistogram()[0]);
+        assertEquals(2, metrics.getOperation("Op").getCount());
+    }
+
+    @Test
+    public void slowLog_keepsSlowAndFailedOperations()
+    {
+        metrics.record("Fast", DbExecutor.LANE_READ, 0, 99 * MILLIS, 1, null);
+        metrics.record("Slow", DbExecutor.LANE_WRITE, 3 * MILLIS, 100 * MILLIS, 2, null);
+        metrics.record("Failed", DbExecutor.LANE_READ, 0, MILLIS, -1,
+                       new IllegalStateException("closed"));
+
+        List<DbMetrics.SlowQuery> slow = metrics.getSlowQueries();
+        assertEquals(2, slow.size());
+
+        assertEquals("Slow", slow.get(0).getName());
+        assertEquals(DbExecutor.LANE_WRITE, slow.get(0).getLane());
+        assertEquals(100, slow.get(0).getLatencyMillis(), 1e-9);
+        assertEquals(3, slow.get(0).getQueueWaitMillis(), 1e-9);
+        assertEquals(2, slow.get(0).getRowCount());
+        assertNull(slow.get(0).getError());
+
+        assertEquals("Failed", slow.get(1).getName());
+        assertTrue(slow.get(1).getError().contains("closed"));
+    }
+
+    @Test
+    public void setSlowThresholdMillis_changesWhatIsLogged()
+    {
+        metrics.setSlowThresholdMillis(5);
+        assertEquals(5, metrics.getSlowThresholdMillis());
+
+        metrics.record("Op", DbExecutor.LANE_READ, 0, 4 * MILLIS, 0, null);
+        metrics.record("Op", DbExecutor.LANE_READ, 0, 5 * MILLIS, 0, null);
+
+        assertEquals(1, metrics.getSlowQueries().size());
+    }
+
+    @Test
+    public void slowLog_dropsOldestWhenFull()
+    {
+        metrics.setSlowLogSize(3);
+        for (int i = 0; i < 5; i++)
+        {
+            metrics.record("Op" + i, DbExecutor.LANE_READ, 0, 200 * MILLIS, 0, null);
+        }
+
+        List<DbMetrics.SlowQuery> slow = metrics.getSlowQueries();
+        assertEquals(3, slow.size());
+        assertEquals("Op2", slow.get(0).getName());
+        assertEquals("Op4", slow.get(2).getName());
+    }
+
+    @Test
+    public void setSlowLogSize_keepsNewestEntries()
+    {
+        for (int i = 0; i < 5; i++)
+        {
+            metrics.record("Op" + i, DbExecutor.LANE_READ, 0, 200 * MILLIS, 0, null);
+        }
+        metrics.setSlowLogSize(2);
+
+        List<DbMetrics.SlowQuery> slow = metrics.getSlowQueries();
+        assertEquals(2, slow.size());
+        assertEquals("Op3", slow.get(0).getName());
+        assertEquals("Op4", slow.get(1).getName());
+
+        // Still a ring buffer afterwards
+        metrics.record("Op5", DbExecutor.LANE_READ, 0, 200 * MILLIS, 0, null);
+        slow = metrics.getSlowQueries();
+        assertEquals("Op4", slow.get(0).getName());
+        assertEquals("Op5", slow.get(1).getName());
+
+        metrics.setSlowLogSize(10);
+        assertEquals(2, metrics.getSlowQueries().size());
+    }
+
+    @Test
+    public void reset_forgetsEverything()
+    {
+        metrics.record("Op", DbExecutor.LANE_READ, 0, 200 * MILLIS, 0, null);
+        metrics.recordMaintenance(new MaintenanceReport(null, null, 0, false, true, true, true,
+                                                        10));
+        assertNotNull(metrics.getLastMaintenance());
+
+        metrics.reset();
+
+        assertTrue(metrics.getOperations().isEmpty());
+        assertTrue(metrics.getSlowQueries().isEmpty());
+        assertNull(metrics.getLastMaintenance());
+    }
+}
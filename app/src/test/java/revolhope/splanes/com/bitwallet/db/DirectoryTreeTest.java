@@ -0,0 +1,162 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import revolhope.splanes.com.bitwallet.model.Directory;
+
+import static org.junit.Assert.*;
+
+public class DirectoryTreeTest {
+
+    private DirectoryTree tree;
+
+    /**
+     * Root(1) - Work(2) - Projects(4)
+     *         \ Home(3)
+     */
+    @Before
+    public void setUp()
+    {
+        tree = new DirectoryTree(Arrays.asList(
+                new Directory(1L, "Root", null),
+                new Directory(2L, "Work", 1L),
+                new Directory(3L, "Home", 1L),
+                new Directory(4L, "Projects", 2L)));
+    }
+
+    @Test
+    public void getRoot_isTheDirectoryWithoutParent()
+    {
+        assertEquals(Long.valueOf(1), tree.getRoot().get_id());
+        assertNull(tree.getParent(1L));
+        assertEquals(Long.valueOf(1), tree.getParent(2L).get_id());
+    }
+
+    @Test
+    public void getRoot_acceptsZeroParent()
+    {
+        DirectoryTree zero = new DirectoryTree(Arrays.asList(new Directory(9L, "Root", 0L)));
+        assertEquals(Long.valueOf(9), zero.getRoot().get_id());
+    }
+
+    @Test
+    public void getChildren_listsDirectSubDirectories()
+    {
+        assertEquals(Arrays.asList(2L, 3L), ids(tree.getChildren(1L)));
+        assertEquals(Arrays.asList(4L), ids(tree.getChildren(2L)));
+        assertTrue(tree.getChildren(4L).isEmpty());
+        assertTrue(tree.getChildren(42L).isEmpty());
+        assertTrue(tree.getChildren(null).isEmpty());
+    }
+
+    @Test
+    public void getPath_goesFromRootDown()
+    {
+        assertEquals(Arrays.asList(1L, 2L, 4L), pathIds(4L));
+        assertEquals(Arrays.asList(1L), pathIds(1L));
+        assertTrue(tree.getPath(42L).isEmpty());
+    }
+
+    @Test
+    public void getters_returnCopies()
+    {
+        tree.get(2L).setName("Changed");
+        tree.getChildren(1L).get(0).setParentId(3L);
+
+        assertEquals("Work", tree.get(2L).getName());
+        assertEquals(Long.valueOf(1), tree.get(2L).getParentId());
+    }
+
+    @Test
+    public void put_keepsItsOwnCopy()
+    {
+        Directory directory = new Directory(5L, "Music", 3L);
+        tree.put(directory);
+        directory.setName("Changed");
+
+        assertEquals("Music", tree.get(5L).getName());
+        assertEquals(Arrays.asList(5L), ids(tree.getChildren(3L)));
+    }
+
+    @Test
+    public void put_movesDirectoryToItsNewParent()
+    {
+        tree.put(new Directory(4L, "Projects", 3L));
+
+        assertTrue(tree.getChildren(2L).isEmpty());
+        assertEquals(Arrays.asList(4L), ids(tree.getChildren(3L)));
+        assertEquals(Arrays.asList(1L, 3L, 4L), pathIds(4L));
+    }
+
+    @Test
+    public void put_renamesWithoutMoving()
+    {
+        tree.put(new Directory(2L, "Office", 1L));
+
+        assertEquals("Office", tree.get(2L).getName());
+        assertEquals(Arrays.asList(2L, 3L), ids(tree.getChildren(1L)));
+        assertEquals(Arrays.asList(1L, 2L, 4L), pathIds(4L));
+    }
+
+    @Test
+    public void put_ignoresDirectoryWithoutId()
+    {
+        tree.put(new Directory("New", 1L));
+        assertEquals(2, tree.getChildren(1L).size());
+    }
+
+    @Test
+    public void remove_cascadesToDescendants()
+    {
+        tree.remove(2L);
+
+        assertNull(tree.get(2L));
+        assertNull(tree.get(4L));
+        assertTrue(tree.getPath(4L).isEmpty());
+        assertEquals(Arrays.asList(3L), ids(tree.getChildren(1L)));
+    }
+
+    @Test
+    public void remove_ofUnknownIdDoesNothing()
+    {
+        tree.remove(42L);
+        assertEquals(Arrays.asList(2L, 3L), ids(tree.getChildren(1L)));
+    }
+
+    @Test
+    public void getPath_stopsOnCycles()
+    {
+        // Never written by the DAO, the tree must not loop if the table is inconsistent
+        tree.put(new Directory(2L, "Work", 4L));
+
+        assertTrue(tree.getPath(4L).size() <= 5);
+    }
+
+    private List<Long> pathIds(Long id)
+    {
+        List<Long> ids = new ArrayList<>();
+        for (Directory directory : tree.getPath(id))
+        {
+            ids.add(directory.get_id());
+        }
+        return ids;
+    }
+
+    private static List<Long> ids(List<Directory> directories)
+    {
+        List<Long> ids = new ArrayList<>(directories.size());
+        for (Directory directory : directories)
+        {
+            ids.add(directory.get_id());
+        }
+        // Children come in no particular order
+        Collections.sort(ids);
+        return ids;
+    }
+}
@@ -0,0 +1,208 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EntityCacheTest {
+
+    @Test
+    public void get_countsHitsAndMisses()
+    {
+        EntityCache<String, String> cache = new EntityCache<>(4, 0);
+        cache.put("a", "A", cache.generation());
+
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0);
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed()
+    {
+        EntityCache<String, String> cache = new EntityCache<>(2, 0);
+        cache.put("a", "A", cache.generation());
+        cache.put("b", "B", cache.generation());
+        // Reading a makes b the least recently used
+        cache.get("a");
+        cache.put("c", "C", cache.generation());
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("C", cache.get("c"));
+    }
+
+    @Test
+    public void setMaxSize_trimsOldestEntries()
+    {
+        EntityCache<Integer, String> cache = new EntityCache<>(10, 0);
+        for (int i = 0; i < 10; i++)
+        {
+            cache.put(i, "v" + i, cache.generation());
+        }
+        cache.setMaxSize(3);
+
+        assertEquals(3, cache.getSize());
+        assertEquals(7, cache.getEvictionCount());
+        assertNull(cache.get(6));
+        assertEquals("v7", cache.get(7));
+        assertEquals("v9", cache.get(9));
+    }
+
+    @Test
+    public void maxSize_isAtLeastOne()
+    {
+        EntityCache<String, String> cache = new EntityCache<>(0, 0);
+        cache.put("a", "A", cache.generation());
+
+        assertEquals(1, cache.getMaxSize());
+        assertEquals("A", cache.get("a"));
+    }
+
+    @Test
+    public void get_dropsExpiredEntries() throws InterruptedException
+    {
+        EntityCache<String, String> cache = new EntityCache<>(4, 20);
+        cache.put("a", "A", cache.generation());
+        assertEquals("A", cache.get("a"));
+
+        Thread.sleep(40);
+
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void put_dropsExpiredEntriesWithoutReadingThem() throws InterruptedException
+    {
+        EntityCache<String, String> cache = new EntityCache<>(4, 20);
+        cache.put("a", "A", cache.generation());
+
+        Thread.sleep(40);
+        cache.put("b", "B", cache.generation());
+
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void sweep_dropsExpiredEntriesWithoutReadingThem() throws InterruptedException
+    {
+        EntityCache<String, String> cache = new EntityCache<>(4, 20);
+        final List<Runnable> sweeps = new ArrayList<>();
+        final List<Long> delays = new ArrayList<>();
+        cache.setSweeper(new EntityCache.Sweeper() {
+            @Override
+            public void schedule(@NonNull Runnable sweep, long delayMillis) {
+                sweeps.add(sweep);
+                delays.add(delayMillis);
+            }
+        });
+
+        cache.put("a", "A", cache.generation());
+        cache.put("b", "B", cache.generation());
+        // One sweep pending at a time, due when the oldest entry expires
+        assertEquals(1, sweeps.size());
+        assertTrue(delays.get(0) > 0 && delays.get(0) <= 20);
+
+        Thread.sleep(40);
+        sweeps.get(0).run();
+
+        assertEquals(0, cache.getSize());
+        assertEquals(2, cache.getExpirationCount());
+        assertEquals(0, cache.getMissCount());
+        // Nothing left to sweep
+        assertEquals(1, sweeps.size());
+
+        cache.put("c", "C", cache.generation());
+        assertEquals(2, sweeps.size());
+    }
+
+    @Test
+    public void noTtl_neverExpires() throws InterruptedException
+    {
+        EntityCache<String, String> cache = new EntityCache<>(4, 0);
+        cache.put("a", "A", cache.generation());
+        Thread.sleep(20);
+
+        assertEquals("A", cache.get("a"));
+        assertEquals(0, cache.getExpirationCount());
+    }
+
+    @Test
+    public void put_ignoresReadsOlderThanAnInvalidation()
+    {
+        EntityCache<String, String> cache = new EntityCache<>(4, 0);
+
+        // A read starts, a write invalidates the entity, then the read finishes
+        long generation = cache.generation();
+        cache.invalidate("a");
+        cache.put("a", "stale", generation);
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getSize());
+
+        cache.put("a", "fresh", cache.generation());
+        assertEquals("fresh", cache.get("a"));
+    }
+
+    @Test
+    public void invalidations_allMoveTheGeneration()
+    {
+        EntityCache<String, String> cache = new EntityCache<>(4, 0);
+        long generation = cache.generation();
+        cache.invalidateIf(new EntityCache.Matcher<String>() {
+            @Override
+            public boolean matches(@NonNull String value) {
+                return false;
+            }
+        });
+        assertNotEquals(generation, cache.generation());
+
+        generation = cache.generation();
+        cache.invalidateAll();
+        assertNotEquals(generation, cache.generation());
+    }
+
+    @Test
+    public void invalidateIf_dropsMatchingValues()
+    {
+        EntityCache<String, String> cache = new EntityCache<>(4, 0);
+        cache.put("a", "keep", cache.generation());
+        cache.put("b", "drop", cache.generation());
+        cache.put("c", "drop", cache.generation());
+
+        cache.invalidateIf(new EntityCache.Matcher<String>() {
+            @Override
+            public boolean matches(@NonNull String value) {
+                return value.equals("drop");
+            }
+        });
+
+        assertEquals(1, cache.getSize());
+        assertEquals("keep", cache.get("a"));
+    }
+
+    @Test
+    public void invalidateAll_clearsEverything()
+    {
+        EntityCache<String, String> cache = new EntityCache<>(4, 0);
+        cache.put("a", "A", cache.generation());
+        cache.put("b", "B", cache.generation());
+        cache.invalidateAll();
+
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get("a"));
+    }
+}
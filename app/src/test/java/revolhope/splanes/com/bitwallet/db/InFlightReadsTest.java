@@ -0,0 +1,235 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import revolhope.splanes.com.bitwallet.db.contracts.DirectoryContract;
+import revolhope.splanes.com.bitwallet.model.AccountSummary;
+import revolhope.splanes.com.bitwallet.model.Directory;
+import revolhope.splanes.com.bitwallet.model.FolderContents;
+
+import static org.junit.Assert.*;
+
+public class InFlightReadsTest {
+
+    private static final InFlightReads.Copier<Directory> COPIER =
+            new InFlightReads.Copier<Directory>() {
+                @Override
+                public Directory copy(@NonNull Directory entity) {
+                    return DaoDirectory.copy(entity);
+                }
+            };
+
+    private InvalidationTracker tracker;
+    private InFlightReads reads;
+
+    @Before
+    public void setUp()
+    {
+        tracker = new InvalidationTracker();
+        reads = new InFlightReads(tracker);
+    }
+
+    @Test
+    public void select_mergesIdenticalReadsRunningTogether() throws SQLException
+    {
+        PendingQuery query = new PendingQuery();
+        Collector first = new Collector();
+        Collector second = new Collector();
+
+        reads.select("DIR.at:1", query, COPIER, first);
+        reads.select("DIR.at:1", query, COPIER, second);
+        assertEquals(1, query.runs);
+
+        Directory[] result = new Directory[] { new Directory(2L, "Work", 1L) };
+        query.complete(result);
+
+        assertSame(result, first.selection);
+        assertEquals(1, second.selection.length);
+        assertEquals("Work", second.selection[0].getName());
+        // Callers may modify what they get, so the others get copies
+        assertNotSame(result[0], second.selection[0]);
+        assertEquals(1, reads.getExecutionCount());
+        assertEquals(1, reads.getMergedCount());
+    }
+
+    @Test
+    public void select_runsDifferentKeysApart() throws SQLException
+    {
+        PendingQuery query = new PendingQuery();
+
+        reads.select("DIR.at:1", query, COPIER, new Collector());
+        reads.select("DIR.at:2", query, COPIER, new Collector());
+
+        assertEquals(2, query.runs);
+        assertEquals(0, reads.getMergedCount());
+    }
+
+    @Test
+    public void select_doesNotJoinReadsOlderThanAWrite() throws SQLException
+    {
+        PendingQuery query = new PendingQuery();
+        Collector first = new Collector();
+        Collector second = new Collector();
+
+        reads.select("DIR.at:1", query, COPIER, first);
+        // Published while the first read runs, it may not see the write
+        tracker.notifyChanged(DirectoryContract.TABLE, null);
+        reads.select("DIR.at:1", query, COPIER, second);
+
+        assertEquals(2, query.runs);
+        assertEquals(2, reads.getExecutionCount());
+        assertEquals(0, reads.getMergedCount());
+
+        query.complete(new Directory[0]);
+        assertNotNull(first.selection);
+        assertNull(second.selection);
+    }
+
+    @Test
+    public void select_runsAgainOnceCompleted() throws SQLException
+    {
+        PendingQuery query = new PendingQuery();
+
+        reads.select("DIR.at:1", query, COPIER, new Collector());
+        query.complete(new Directory[0]);
+        reads.select("DIR.at:1", query, COPIER, new Collector());
+
+        assertEquals(2, query.runs);
+        assertEquals(0, reads.getMergedCount());
+    }
+
+    @Test
+    public void select_passesNullToEveryCaller() throws SQLException
+    {
+        PendingQuery query = new PendingQuery();
+        Collector first = new Collector();
+        Collector second = new Collector();
+
+        reads.select("DIR.at:1", query, COPIER, first);
+        reads.select("DIR.at:1", query, COPIER, second);
+        query.complete(null);
+
+        assertTrue(first.called);
+        assertTrue(second.called);
+        assertNull(second.selection);
+    }
+
+    @Test
+    public void select_forgetsFailedReads()
+    {
+        for (final Exception error : new Exception[] {
+                new SQLException("closed"), new IllegalStateException("unchecked") })
+        {
+            try
+            {
+                reads.select("DIR.at:1",
+                        new InFlightReads.Query<DaoCallbacks.Select<Directory>>() {
+                            @Override
+                            public void run(@NonNull DaoCallbacks.Select<Directory> callback)
+                                    throws SQLException {
+                                if (error instanceof SQLException) throw (SQLException) error;
+                                throw (RuntimeException) error;
+                            }
+                        }, COPIER, new Collector());
+                fail("No exception");
+            }
+            catch (Exception e)
+            {
+                assertSame(error, e);
+            }
+        }
+
+        // Not joined to the failed ones
+        PendingQuery query = new PendingQuery();
+        try
+        {
+            reads.select("DIR.at:1", query, COPIER, new Collector());
+        }
+        catch (SQLException e)
+        {
+            fail(e.toString());
+        }
+        assertEquals(1, query.runs);
+        assertEquals(0, reads.getMergedCount());
+    }
+
+    @Test
+    public void folder_copiesDirectoriesForJoinedCallers() throws SQLException
+    {
+        final List<DaoCallbacks.Folder> running = new ArrayList<>();
+        InFlightReads.Query<DaoCallbacks.Folder> query =
+                new InFlightReads.Query<DaoCallbacks.Folder>() {
+                    @Override
+                    public void run(@NonNull DaoCallbacks.Folder callback) {
+                        running.add(callback);
+                    }
+                };
+        final List<FolderContents> results = new ArrayList<>();
+        DaoCallbacks.Folder collector = new DaoCallbacks.Folder() {
+            @Override
+            public void onSelected(FolderContents contents) {
+                results.add(contents);
+            }
+        };
+
+        reads.folder("DIR.contents:1", query, collector);
+        reads.folder("DIR.contents:1", query, collector);
+        assertEquals(1, running.size());
+
+        FolderContents contents = new FolderContents(new Directory(1L, "Root", null),
+                new Directory[] { new Directory(2L, "Work", 1L) },
+                new AccountSummary[] { new AccountSummary("a", "Mail", 1L, false) }, 7);
+        running.get(0).onSelected(contents);
+
+        assertEquals(2, results.size());
+        assertSame(contents, results.get(0));
+        FolderContents copy = results.get(1);
+        assertNotSame(contents.getFolder(), copy.getFolder());
+        assertNotSame(contents.getDirectories().get(0), copy.getDirectories().get(0));
+        assertEquals("Work", copy.getDirectories().get(0).getName());
+        assertEquals("Mail", copy.getAccounts().get(0).getAccount());
+        assertEquals(7, copy.getAccountCount());
+    }
+
+    /**
+     * Select that completes when the test says so, like a read still running
+     */
+    private static final class PendingQuery
+            implements InFlightReads.Query<DaoCallbacks.Select<Directory>>
+    {
+        private final List<DaoCallbacks.Select<Directory>> callbacks = new ArrayList<>();
+        private int runs;
+
+        @Override
+        public void run(@NonNull DaoCallbacks.Select<Directory> callback)
+        {
+            runs++;
+            callbacks.add(callback);
+        }
+
+        private void complete(Directory[] selection)
+        {
+            callbacks.remove(0).onSelected(selection);
+        }
+    }
+
+    private static final class Collector implements DaoCallbacks.Select<Directory>
+    {
+        private Directory[] selection;
+        private boolean called;
+
+        @Override
+        public void onSelected(Directory[] selection)
+        {
+            this.selection = selection;
+            this.called = true;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package revolhope.splanes.com.bitwallet.db;
+
+import android.database.Cursor;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import javax.crypto.spec.GCMParameterSpec;
+
+import revolhope.splanes.com.bitwallet.db.contracts.AccountContract;
+import revolhope.splanes.com.bitwallet.db.contracts.DirectoryContract;
+import revolhope.splanes.com.bitwallet.db.contracts.KContract;
+import revolhope.splanes.com.bitwallet.helper.AppUtils;
+import revolhope.splanes.com.bitwallet.model.Account;
+import revolhope.splanes.com.bitwallet.model.Directory;
+import revolhope.splanes.com.bitwallet.model.K;
+
+import static org.junit.Assert.*;
+
+/**
+ * Mapping of ACC, DIR and K rows, and its cost per row against resolving every column by name
+ * on every row as the select tasks used to do. Costs are printed, not asserted, timings of a
+ * shared build machine are too noisy for that.
+ */
+public class RowMapperTest {
+
+    private static final int BENCHMARK_ROWS = 20000;
+    private static final int BENCHMARK_ROUNDS = 10;
+
+    private static final String[] ACCOUNT_COLUMNS = new String[] {
+            AccountContract.COLUMN_UUID, AccountContract.COLUMN_ACCOUNT,
+            AccountContract.COLUMN_USER, AccountContract.COLUMN_URL,
+            AccountContract.COLUMN_BRIEF, AccountContract.COLUMN_DATE_CREATE,
+            AccountContract.COLUMN_DATE_UPDATE, AccountContract.COLUMN_EXPIRE,
+            AccountContract.COLUMN_DATE_EXPIRE, AccountContract.COLUMN_PARENT };
+
+    private static final String[] DIRECTORY_COLUMNS = new String[] {
+            DirectoryContract.COLUMN_ID, DirectoryContract.COLUMN_NAME,
+            DirectoryContract.COLUMN_PARENT };
+
+    private static final String[] K_COLUMNS = new String[] {
+            KContract.COLUMN_ID, KContract.COLUMN_ACC_UUID, KContract.COLUMN_CRYPTO_PWD,
+            KContract.COLUMN_PARAM_IV, KContract.COLUMN_PARAM_TLENGTH,
+            KContract.COLUMN_DEADLINE };
+
+    @Test
+    public void forAccount_mapsEveryColumn()
+    {
+        String id = UUID.randomUUID().toString();
+        Cursor c = new ArrayCursor(ACCOUNT_COLUMNS, new Object[][] {
+                accountRow(id, "Mail", 1L) });
+
+        List<Account> accounts = new RowMapper.ForAccount(c).mapAll(c);
+
+        assertEquals(1, accounts.size());
+        Account account = accounts.get(0);
+        assertEquals(id, account.get_id());
+        assertEquals("Mail", account.getAccount());
+        assertEquals("user", account.getUser());
+        assertEquals("https://mail.example.com", account.getUrl());
+        assertEquals("brief", account.getBrief());
+        assertTrue(account.isExpire());
+        assertEquals(Long.valueOf(100), account.getDateCreate());
+        assertEquals(Long.valueOf(200), account.getDateUpdate());
+        assertEquals(Long.valueOf(300), account.getDateExpire());
+        assertEquals(Long.valueOf(1), account.getParent());
+    }
+
+    @Test
+    public void forAccount_resolvesColumnsByName()
+    {
+        // Same columns in another order, as in a joined select
+        String[] columns = ACCOUNT_COLUMNS.clone();
+        Object[] row = accountRow(UUID.randomUUID().toString(), "Bank", 7L);
+        reverse(columns);
+        reverse(row);
+        Cursor c = new ArrayCursor(columns, new Object[][] { row });
+
+        Account account = new RowMapper.ForAccount(c).mapAll(c).get(0);
+
+        assertEquals("Bank", account.getAccount());
+        assertEquals(Long.valueOf(7), account.getParent());
+    }
+
+    @Test
+    public void forDirectory_keepsNullParent()
+    {
+        Cursor c = new ArrayCursor(DIRECTORY_COLUMNS, new Object[][] {
+                { 1L, "Root", null },
+                { 2L, "Work", 1L } });
+
+        List<Directory> directories = new RowMapper.ForDirectory(c).mapAll(c);
+
+        assertEquals(2, directories.size());
+        assertNull(directories.get(0).getParentId());
+        assertEquals("Root", directories.get(0).getName());
+        assertEquals(Long.valueOf(1), directories.get(1).getParentId());
+        assertEquals(Long.valueOf(2), directories.get(1).get_id());
+    }
+
+    @Test
+    public void forK_keepsRawPassword()
+    {
+        String accId = UUID.randomUUID().toString();
+        byte[] pwd = new byte[] { 1, 2, 3, 4 };
+        byte[] iv = new byte[12];
+        Cursor c = new ArrayCursor(K_COLUMNS, new Object[][] {
+                { 5L, AppUtils.uuidToBytes(accId), pwd, iv, 128L, 999L } });
+
+        K k = new RowMapper.ForK(c).mapAll(c).get(0);
+
+        assertEquals(Long.valueOf(5), k.get_id());
+        assertEquals(accId, k.getAccId());
+        assertArrayEquals(pwd, k.getPwd());
+        assertEquals(128, k.getSpec().getTLen());
+        assertArrayEquals(iv, k.getSpec().getIV());
+        assertEquals(Long.valueOf(999), k.getDeadline());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_failsOnMissingColumn()
+    {
+        new RowMapper.ForDirectory(new ArrayCursor(new String[] {
+                DirectoryContract.COLUMN_ID, DirectoryContract.COLUMN_NAME }, new Object[0][]));
+    }
+
+    @Test
+    public void benchmark_costPerRow()
+    {
+        Object[][] accounts = new Object[BENCHMARK_ROWS][];
+        Object[][] directories = new Object[BENCHMARK_ROWS][];
+        Object[][] ks = new Object[BENCHMARK_ROWS][];
+        for (int i = 0; i < BENCHMARK_ROWS; i++)
+        {
+            String id = UUID.randomUUID().toString();
+            accounts[i] = accountRow(id, "Account " + i, (long) i % 100);
+            directories[i] = new Object[] { (long) i, "Folder " + i, (long) i / 10 };
+            ks[i] = new Object[] { (long) i, AppUtils.uuidToBytes(id), new byte[48],
+                                   new byte[12], 128L, (long) i };
+        }
+
+        report("Account", new ArrayCursor(ACCOUNT_COLUMNS, accounts), new ByName<Account>() {
+            @Override
+            public Account map(Cursor c) {
+                return new Account(
+                        AppUtils.uuidFromBytes(
+                                c.getBlob(c.getColumnIndex(AccountContract.COLUMN_UUID))),
+                        c.getString(c.getColumnIndex(AccountContract.COLUMN_ACCOUNT)),
+                        c.getString(c.getColumnIndex(AccountContract.COLUMN_USER)),
+                        c.getString(c.getColumnIndex(AccountContract.COLUMN_URL)),
+                        c.getString(c.getColumnIndex(AccountContract.COLUMN_BRIEF)),
+                        c.getInt(c.getColumnIndex(AccountContract.COLUMN_EXPIRE)) == 1,
+                        c.getLong(c.getColumnIndex(AccountContract.COLUMN_DATE_CREATE)),
+                        c.getLong(c.getColumnIndex(AccountContract.COLUMN_DATE_UPDATE)),
+                        c.getLong(c.getColumnIndex(AccountContract.COLUMN_DATE_EXPIRE)),
+                        c.getLong(c.getColumnIndex(AccountContract.COLUMN_PARENT)));
+            }
+        }, RowMapper.ACCOUNT_FACTORY);
+
+        report("Directory", new ArrayCursor(DIRECTORY_COLUMNS, directories),
+                new ByName<Directory>() {
+            @Override
+            public Directory map(Cursor c) {
+                return new Directory(c.getLong(c.getColumnIndex(DirectoryContract.COLUMN_ID)),
+                        c.getString(c.getColumnIndex(DirectoryContract.COLUMN_NAME)),
+                        c.getLong(c.getColumnIndex(DirectoryContract.COLUMN_PARENT)));
+            }
+        }, RowMapper.DIRECTORY_FACTORY);
+
+        report("K", new ArrayCursor(K_COLUMNS, ks), new ByName<K>() {
+            @Override
+            public K map(Cursor c) {
+                byte[] pwd = c.getBlob(c.getColumnIndex(KContract.COLUMN_CRYPTO_PWD));
+                return new K(c.getLong(c.getColumnIndex(KContract.COLUMN_ID)),
+                        AppUtils.uuidFromBytes(
+                                c.getBlob(c.getColumnIndex(KContract.COLUMN_ACC_UUID))),
+                        pwd,
+                        new GCMParameterSpec(
+                                c.getInt(c.getColumnIndex(KContract.COLUMN_PARAM_TLENGTH)),
+                                c.getBlob(c.getColumnIndex(KContract.COLUMN_PARAM_IV))),
+                        c.getLong(c.getColumnIndex(KContract.COLUMN_DEADLINE)));
+            }
+        }, RowMapper.K_FACTORY);
+    }
+
+    /**
+     * Mapping that looks every column up by name on every row
+     * @param <T> Model class
+     */
+    private interface ByName<T>
+    {
+        T map(Cursor c);
+    }
+
+    private static <T> void report(String entity, Cursor c, ByName<T> byName,
+                                   RowMapper.Factory<T> factory)
+    {
+        long byNameNanos = Long.MAX_VALUE;
+        long mapperNanos = Long.MAX_VALUE;
+        // Best of several rounds, the first ones are the JIT warming up
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++)
+        {
+            long start = System.nanoTime();
+            int mapped = 0;
+            if (c.moveToFirst())
+            {
+                do {
+                    if (byName.map(c) != null) mapped++;
+                } while (c.moveToNext());
+            }
+            byNameNanos = Math.min(byNameNanos, System.nanoTime() - start);
+            assertEquals(BENCHMARK_ROWS, mapped);
+
+            start = System.nanoTime();
+            List<T> list = factory.create(c).mapAll(c);
+            mapperNanos = Math.min(mapperNanos, System.nanoTime() - start);
+            assertEquals(BENCHMARK_ROWS, list.size());
+        }
+        System.out.println(String.format("%s: %.0f ns/row by name, %.0f ns/row with RowMapper",
+                entity, (double) byNameNanos / BENCHMARK_ROWS,
+                (double) mapperNanos / BENCHMARK_ROWS));
+    }
+
+    private static Object[] accountRow(String id, String name, Long parent)
+    {
+        return new Object[] { AppUtils.uuidToBytes(id), name, "user",
+                              "https://mail.example.com", "brief", 100L, 200L, 1L, 300L,
+                              parent };
+    }
+
+    private static void reverse(Object[] values)
+    {
+        for (int i = 0, j = values.length - 1; i < j; i++, j--)
+        {
+            Object value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package revolhope.splanes.com.bitwallet.search;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Query latency of AccountIndex at 10k, 100k and 1M entries. Entries are made of words built
+ * from random syllables, so trigrams spread like in real names. Each query is timed after a
+ * warm up and its median, p95 and max are printed.
+ *
+ * Only a loose bound on the median is asserted, timings of a shared build machine are noisy,
+ * and only up to BUDGET_MAX_SIZE entries: a vault is far below that, 1M entries is measured to
+ * see how queries scale (two chars prefixes are the slowest, every entry having a word that
+ * starts with them is ranked).
+ *
+ * Skipped by the default unit test run, it takes tens of seconds and a 2 GB heap: run it with
+ * ./gradlew testDebugUnitTest -Pbenchmarks
+ */
+public class AccountIndexBenchmarkTest {
+
+    private static final String[] SYLLABLES = new String[] {
+            "ba", "be", "bo", "ca", "co", "da", "de", "fa", "fi", "go", "gu", "ha", "ka", "ki",
+            "la", "le", "lo", "ma", "me", "mi", "na", "ne", "no", "pa", "pe", "ra", "re", "ri",
+            "sa", "se", "so", "ta", "te", "to", "va", "ve", "za", "zo", "mail", "net", "bank",
+            "shop", "play", "book", "cloud", "pay" };
+
+    private static final int WORDS = 5000;
+    private static final int RUNS = 200;
+    /**
+     * Runs of each query above BUDGET_MAX_SIZE entries, so the 1M benchmark takes seconds
+     */
+    private static final int RUNS_LARGE = 20;
+    private static final int LIMIT = 50;
+    private static final double MEDIAN_BUDGET_MILLIS = 50;
+    private static final int BUDGET_MAX_SIZE = 100000;
+
+    private static final AccountIndex.Cancellation NEVER = new AccountIndex.Cancellation() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    @Before
+    public void setUp()
+    {
+        assumeTrue("Run with -Pbenchmarks", Boolean.getBoolean("bitwallet.benchmarks"));
+    }
+
+    @Test
+    public void query_10k()
+    {
+        run(10000);
+    }
+
+    @Test
+    public void query_100k()
+    {
+        run(100000);
+    }
+
+    @Test
+    public void query_1M()
+    {
+        run(1000000);
+    }
+
+    private static void run(int size)
+    {
+        Random random = new Random(size);
+        String[] words = new String[WORDS];
+        for (int i = 0; i < WORDS; i++)
+        {
+            StringBuilder word = new StringBuilder();
+            int syllables = 2 + random.nextInt(3);
+            for (int s = 0; s < syllables; s++)
+            {
+                word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            words[i] = word.toString();
+        }
+
+        AccountIndex index = new AccountIndex();
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++)
+        {
+            String name = capitalize(words[random.nextInt(WORDS)]) +
+                    (random.nextBoolean() ? " " + words[random.nextInt(WORDS)] : "");
+            String user = words[random.nextInt(WORDS)] + "." + words[random.nextInt(WORDS)];
+            String url = "https://www." + words[random.nextInt(WORDS)] + ".com/login";
+            index.put(Integer.toString(i), name, user, url, i % 100, false);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        System.out.println(String.format("%d entries indexed in %d ms, %d MB of heap used", size,
+                (System.nanoTime() - start) / 1000000,
+                (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024)));
+
+        String word = words[0];
+        for (int i = 1; word.length() < 7; i++)
+        {
+            word = words[i];
+        }
+        // One char dropped, one typo
+        String typo = word.substring(0, 2) + word.substring(3);
+        List<String> queries = Arrays.asList(
+                word.substring(0, 2),
+                word.substring(0, 3),
+                word,
+                typo,
+                word.substring(0, 3) + " " + words[1].substring(0, 3),
+                "zzzq");
+
+        int runs = size <= BUDGET_MAX_SIZE ? RUNS : RUNS_LARGE;
+        for (String query : queries)
+        {
+            for (int i = 0; i < runs / 10; i++)
+            {
+                assertNotNull(index.query(query, LIMIT, NEVER));
+            }
+
+            long[] nanos = new long[runs];
+            int results = 0;
+            for (int i = 0; i < runs; i++)
+            {
+                start = System.nanoTime();
+                results = index.query(query, LIMIT, NEVER).size();
+                nanos[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(nanos);
+            double median = nanos[runs / 2] / 1e6;
+            System.out.println(String.format("%d entries, '%s' (%d results): p50 %.3f ms, " +
+                                             "p95 %.3f ms, max %.3f ms", size, query, results,
+                    median, nanos[runs * 95 / 100] / 1e6, nanos[runs - 1] / 1e6));
+            if (size <= BUDGET_MAX_SIZE) assertTrue(query, median < MEDIAN_BUDGET_MILLIS);
+        }
+    }
+
+    private static String capitalize(String word)
+    {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
@@ -0,0 +1,251 @@
+package revolhope.splanes.com.bitwallet.search;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import revolhope.splanes.com.bitwallet.model.AccountSummary;
+
+import static org.junit.Assert.*;
+
+public class AccountIndexTest {
+
+    private static final AccountIndex.Cancellation NEVER = new AccountIndex.Cancellation() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    private AccountIndex index;
+
+    @Before
+    public void setUp()
+    {
+        index = new AccountIndex();
+        index.put("1", "Google", "john.smith", "https://accounts.google.com/login", 1, false);
+        index.put("2", "Gmail", "john.smith", "https://mail.google.com", 1, false);
+        index.put("3", "Bank of Gotham", "jsmith", "https://www.gothambank.com", 2, true);
+        index.put("4", "Netflix", "family", "netflix.com", 2, false);
+        index.put("5", "Café Rouge", "gourmet", null, 1, false);
+    }
+
+    @Test
+    public void query_matchesStartOfWords()
+    {
+        // Gmail has "google" in its host, a weaker field
+        assertEquals(Arrays.asList("Google", "Gmail"), names(query("goog")));
+        assertEquals(Arrays.asList("Netflix"), names(query("net")));
+        // Start of the second word of the name
+        assertEquals(Arrays.asList("Bank of Gotham"), names(query("gotha")));
+    }
+
+    @Test
+    public void query_doesNotMatchInsideWords()
+    {
+        assertTrue(query("flix").isEmpty());
+        assertTrue(query("ogle").isEmpty());
+    }
+
+    @Test
+    public void query_searchesUsersAndHosts()
+    {
+        // Before "smith", one typo away
+        assertEquals("Bank of Gotham", query("jsmi").get(0).getAccount());
+        // Host without www and top level domain
+        assertEquals(Arrays.asList("Bank of Gotham"), names(query("gothamba")));
+        assertTrue(query("www").isEmpty());
+        assertTrue(query("login").isEmpty());
+    }
+
+    @Test
+    public void query_needsEveryWord()
+    {
+        assertEquals(Arrays.asList("Gmail"), names(query("john mail")));
+        assertTrue(query("john netflix").isEmpty());
+    }
+
+    @Test
+    public void query_ignoresCaseAndDiacritics()
+    {
+        assertEquals(Arrays.asList("Café Rouge"), names(query("CAFE")));
+        assertEquals(Arrays.asList("Café Rouge"), names(query("rougé")));
+    }
+
+    @Test
+    public void query_toleratesTypos()
+    {
+        // One typo allowed from 4 chars, two from 7
+        assertEquals("Google", query("gogle").get(0).getAccount());
+        assertEquals("Netflix", query("netflxi").get(0).getAccount());
+        assertEquals(Arrays.asList("Netflix"), names(query("nteflix")));
+        // No typo allowed up to 3 chars
+        assertTrue(query("nte").isEmpty());
+    }
+
+    @Test
+    public void query_ranksExactHitsAboveTypos()
+    {
+        index.put("6", "Goggles shop", null, null, 1, false);
+
+        List<String> names = names(query("goggle"));
+
+        assertEquals("Goggles shop", names.get(0));
+        assertTrue(names.contains("Google"));
+    }
+
+    @Test
+    public void query_ranksNameAboveUserAboveHost()
+    {
+        index.put("10", "Stream", null, "https://www.zeta.com", 3, false);
+        index.put("11", "Music", "zeta", null, 3, false);
+        index.put("12", "Zeta", null, null, 3, false);
+
+        assertEquals(Arrays.asList("Zeta", "Music", "Stream"), names(query("zeta")));
+    }
+
+    @Test
+    public void query_ranksWholeWordAbovePrefix()
+    {
+        index.put("10", "Mailbox", null, null, 3, false);
+        index.put("11", "Mail", null, null, 3, false);
+
+        assertEquals(Arrays.asList("Mail", "Mailbox"), names(query("mail")).subList(0, 2));
+    }
+
+    @Test
+    public void query_breaksTiesByName()
+    {
+        index.put("10", "Zulu tools", null, null, 3, false);
+        index.put("11", "Alpha tools", null, null, 3, false);
+        index.put("12", "mike tools", null, null, 3, false);
+
+        assertEquals(Arrays.asList("Alpha tools", "mike tools", "Zulu tools"),
+                     names(query("tools")));
+    }
+
+    @Test
+    public void query_keepsBestWithinLimit()
+    {
+        for (int i = 0; i < 100; i++)
+        {
+            index.put("p" + i, "Project " + i, null, null, 3, false);
+        }
+        index.put("exact", "Project", null, null, 3, false);
+
+        List<AccountSummary> results = index.query("project", 10, NEVER);
+
+        assertEquals(10, results.size());
+        assertEquals("Project", results.get(0).getAccount());
+    }
+
+    @Test
+    public void query_returnsSummaryFields()
+    {
+        AccountSummary summary = query("gotham").get(0);
+
+        assertEquals("3", summary.get_id());
+        assertEquals(2, summary.getParent());
+        assertTrue(summary.isExpire());
+    }
+
+    @Test
+    public void query_withoutWordsIsEmpty()
+    {
+        assertTrue(query("").isEmpty());
+        assertTrue(query(" - ").isEmpty());
+    }
+
+    @Test
+    public void query_returnsNullWhenCancelled()
+    {
+        assertNull(index.query("google", 10, new AccountIndex.Cancellation() {
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        }));
+    }
+
+    @Test
+    public void put_replacesEntryWithSameId()
+    {
+        index.put("4", "Hulu", "family", "hulu.com", 2, false);
+
+        assertTrue(query("netflix").isEmpty());
+        assertEquals(Arrays.asList("Hulu"), names(query("hulu")));
+        assertEquals(5, index.size());
+    }
+
+    @Test
+    public void remove_dropsEntry()
+    {
+        index.remove("1");
+        index.remove("unknown");
+
+        assertEquals(4, index.size());
+        assertFalse(names(query("google")).contains("Google"));
+    }
+
+    @Test
+    public void move_changesParentOnly()
+    {
+        index.move("4", 9);
+
+        AccountSummary summary = query("netflix").get(0);
+        assertEquals(9, summary.getParent());
+        assertEquals("Netflix", summary.getAccount());
+    }
+
+    @Test
+    public void remove_compactsWithoutLosingEntries()
+    {
+        for (int i = 0; i < 5000; i++)
+        {
+            index.put("c" + i, "Entry " + i, null, null, 3, false);
+        }
+        // Frees more than half of the slots
+        for (int i = 0; i < 4000; i++)
+        {
+            index.remove("c" + i);
+        }
+
+        assertEquals(1005, index.size());
+        List<AccountSummary> results = query("entry 3999");
+        assertEquals("Entry 4999", query("entry 4999").get(0).getAccount());
+        // Only typo hits on the entries left
+        assertFalse(results.isEmpty());
+        for (AccountSummary summary : results)
+        {
+            assertTrue(summary.get_id(), Integer.parseInt(summary.get_id().substring(1)) >= 4000);
+        }
+        assertEquals("Google", query("goog").get(0).getAccount());
+    }
+
+    @Test
+    public void clear_dropsEverything()
+    {
+        index.clear();
+
+        assertEquals(0, index.size());
+        assertTrue(query("google").isEmpty());
+    }
+
+    private List<AccountSummary> query(String query)
+    {
+        return index.query(query, 20, NEVER);
+    }
+
+    private static List<String> names(List<AccountSummary> summaries)
+    {
+        List<String> names = new ArrayList<>(summaries.size());
+        for (AccountSummary summary : summaries)
+        {
+            names.add(summary.getAccount());
+        }
+        return names;
+    }
+}